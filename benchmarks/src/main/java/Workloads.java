@@ -0,0 +1,326 @@
+/*
+ * Description: What each benchmark measures, set up here in the default package where the detector's classes are.
+ *              JMH won't generate code for benchmarks in the default package, and a class in a named package can't
+ *              use one in the default package, so the benchmarks in letterdetector.benchmarks get their work from
+ *              here (through Workload.of) as a Supplier. Each get() does one operation and returns what it made,
+ *              which the benchmark returns so JMH keeps it alive.
+ *
+ *              The perceptron is the letter network of BackPropPerceptron.main (64 inputs, 35 hidden nodes, 26
+ *              outputs) with the 26 letter*.bmp files as its training set. The decoders go round the 26 files one
+ *              per operation. The image steps work on a synthetic square picture of the given size with a ring of
+ *              ink a little off its center.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+public class Workloads
+{
+    public static final int NUM_LETTERS = 26;
+    public static final int INPUT_SIDE = 8;                  // the letter bitmaps are 8x8
+    public static final int HIDDEN_NODES = 35;
+    public static final int INK = BackPropPerceptron.MAX_PEL_VAL;
+
+    private Workloads()
+    {
+    }
+
+    /*
+     * Function: Returns the directory the letter*.bmp files are in: -Dletters.dir if it is set, or else the
+     *           current directory or its parent, whichever has letterA.bmp
+     */
+    public static String lettersDir()
+    {
+        String dir = System.getProperty("letters.dir");
+        if (dir != null) return dir;
+
+        for (String candidate : new String[] {".", ".."})
+        {
+            if (new File(candidate, "letterA.bmp").isFile()) return candidate;
+        }
+        throw new RuntimeException("Can't find letterA.bmp; run from the top of the repository or set -Dletters.dir.");
+    }
+
+    /*
+     * Function: Returns the names of the 26 letter bitmaps
+     */
+    public static String[] letterFiles()
+    {
+        String dir = lettersDir();
+        String[] files = new String[NUM_LETTERS];
+        for (int i = 0; i < NUM_LETTERS; i++)
+        {
+            files[i] = new File(dir, "letter" + (char)('A' + i) + ".bmp").getPath();
+        }
+        return files;
+    }
+
+    /*
+     * Function: Returns a letter network with random weights and the letters as its training set
+     */
+    private static BackPropPerceptron letterNetwork() throws IOException
+    {
+        int numInputs = INPUT_SIDE * INPUT_SIDE;
+        double[][] inputs = new double[NUM_LETTERS][numInputs];
+        double[][] targets = new double[NUM_LETTERS][NUM_LETTERS];
+        FeatureDecoder decoder = new FeatureDecoder();
+        String[] files = letterFiles();
+
+        for (int i = 0; i < NUM_LETTERS; i++)
+        {
+            if (decoder.decode(files[i], inputs[i], 0) != numInputs)
+            {
+                throw new IOException(files[i] + " is not " + INPUT_SIDE + "x" + INPUT_SIDE + ".");
+            }
+            targets[i][i] = 1.0;
+        }
+
+        double[][][] weights = new double[2][][];
+        weights[0] = new double[numInputs][HIDDEN_NODES];
+        weights[1] = new double[HIDDEN_NODES][NUM_LETTERS];
+        return new BackPropPerceptron(inputs, targets, weights);
+    }
+
+    /*
+     * Function: One forward pass of one letter
+     */
+    public static Supplier<Object> evaluate() throws IOException
+    {
+        final BackPropPerceptron network = letterNetwork();
+        final double[] input = new double[INPUT_SIDE * INPUT_SIDE];
+        new FeatureDecoder().decode(letterFiles()[0], input, 0);
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                return network.evaluate(input);
+            }
+        };
+    }
+
+    /*
+     * Function: One training epoch (backpropagation over all 26 letters)
+     */
+    public static Supplier<Object> updateWeights() throws IOException
+    {
+        final BackPropPerceptron network = letterNetwork();
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                network.updateWeights();
+                return network;
+            }
+        };
+    }
+
+    /*
+     * Function: The error of the network over all 26 letters
+     */
+    public static Supplier<Object> error() throws IOException
+    {
+        final BackPropPerceptron network = letterNetwork();
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                return network.error();
+            }
+        };
+    }
+
+    /*
+     * Function: Reading a letter file into a BitmapProcessor
+     */
+    public static Supplier<Object> bitmapProcessor()
+    {
+        final String[] files = letterFiles();
+
+        return new Supplier<Object>()
+        {
+            private int next;
+
+            public Object get()
+            {
+                BitmapProcessor bitmap = new BitmapProcessor(files[next]);
+                next = (next + 1) % files.length;
+                return bitmap;
+            }
+        };
+    }
+
+    /*
+     * Function: Reading a letter file into a feature vector with a FeatureDecoder
+     */
+    public static Supplier<Object> featureDecoder()
+    {
+        final String[] files = letterFiles();
+        final FeatureDecoder decoder = new FeatureDecoder();
+        final double[] features = new double[INPUT_SIDE * INPUT_SIDE];
+
+        return new Supplier<Object>()
+        {
+            private int next;
+
+            public Object get()
+            {
+                try
+                {
+                    decoder.decode(files[next], features, 0);
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException("File input error " + files[next], e);
+                }
+                next = (next + 1) % files.length;
+                return features;
+            }
+        };
+    }
+
+    /*
+     * Function: Decoding a letter that is already in memory into a feature vector, without the file read
+     */
+    public static Supplier<Object> featureDecoderBytes() throws IOException
+    {
+        String[] files = letterFiles();
+        final byte[][] bitmaps = new byte[files.length][];
+        for (int i = 0; i < files.length; i++)
+        {
+            bitmaps[i] = Files.readAllBytes(new File(files[i]).toPath());
+        }
+        final FeatureDecoder decoder = new FeatureDecoder();
+        final double[] features = new double[INPUT_SIDE * INPUT_SIDE];
+
+        return new Supplier<Object>()
+        {
+            private int next;
+
+            public Object get()
+            {
+                try
+                {
+                    decoder.decode(bitmaps[next], bitmaps[next].length, features, 0);
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException("Could not decode letter " + (char)('A' + next), e);
+                }
+                next = (next + 1) % bitmaps.length;
+                return features;
+            }
+        };
+    }
+
+    /*
+     * Parameters: "sequential" for ImageProcessor or "parallel" for ParallelImageProcessor
+     */
+    private static ImageProcessor processor(String kind)
+    {
+        if (kind.equals("sequential")) return new ImageProcessor();
+        if (kind.equals("parallel")) return new ParallelImageProcessor();
+        throw new IllegalArgumentException("Unknown image processor " + kind);
+    }
+
+    /*
+     * Parameters: the width and height of the picture
+     * Function: Returns a blank picture with a ring of ink whose center is a little above and left of the middle
+     */
+    public static FlatImage ring(int size)
+    {
+        FlatImage pic = new FlatImage(size, size);
+        double centerRow = size * .4;
+        double centerCol = size * .45;
+        double outer = size * .3;
+        double inner = size * .2;
+
+        for (int i = 0; i < size; i++)
+        {
+            for (int j = 0; j < size; j++)
+            {
+                double r = Math.hypot(i - centerRow, j - centerCol);
+                if (r <= outer && r >= inner)
+                {
+                    pic.set(i, j, INK);
+                }
+            }
+        }
+        return pic;
+    }
+
+    /*
+     * Function: ImageProcessor.centerOfMass of the ring
+     */
+    public static Supplier<Object> centerOfMass(String kind, int size)
+    {
+        final ImageProcessor processor = processor(kind);
+        final FlatImage pic = ring(size);
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                return processor.centerOfMass(pic);
+            }
+        };
+    }
+
+    /*
+     * Function: ImageProcessor.cornerArray of the ring
+     */
+    public static Supplier<Object> cornerArray(String kind, int size)
+    {
+        final ImageProcessor processor = processor(kind);
+        final FlatImage pic = ring(size);
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                return processor.cornerArray(pic, 1, 1);
+            }
+        };
+    }
+
+    /*
+     * Function: ImageProcessor.scaleImage of the ring's bounding box down to the network's 8x8 input
+     */
+    public static Supplier<Object> scaleImage(String kind, int size)
+    {
+        final ImageProcessor processor = processor(kind);
+        final FlatImage pic = ring(size);
+        final ImageProcessor.Location[][] corners = processor.cornerArray(pic, 1, 1);
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                return processor.scaleImage(pic, corners, INPUT_SIDE, INPUT_SIDE);
+            }
+        };
+    }
+
+    /*
+     * Function: ImageProcessor.shiftImage of the ring to the center of the picture, into a reused output image
+     */
+    public static Supplier<Object> shiftImage(String kind, int size)
+    {
+        final ImageProcessor processor = processor(kind);
+        final FlatImage pic = ring(size);
+        final FlatImage output = new FlatImage(size, size);
+        final ImageProcessor.Location shift = processor.centerShiftVector(pic);
+
+        return new Supplier<Object>()
+        {
+            public Object get()
+            {
+                processor.shiftImage(pic, shift, output);
+                return output;
+            }
+        };
+    }
+} // public class Workloads
@@ -0,0 +1,53 @@
+/*
+ * Description: Runs the benchmarks like org.openjdk.jmh.Main and takes the same options, but always adds the GC
+ *              profiler (so every result has its allocation per operation, gc.alloc.rate.norm) and writes the
+ *              results to jmh-result.json as well as the console unless -rf/-rff say otherwise. That file is the
+ *              baseline to compare later runs with.
+ *
+ *              Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+ */
+package letterdetector.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain
+{
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, IOException
+    {
+        CommandLineOptions command;
+        try
+        {
+            command = new CommandLineOptions(args);
+        }
+        catch (CommandLineOptionException e)
+        {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (command.shouldHelp() || command.shouldList() || command.shouldListWithParams()
+                || command.shouldListProfilers() || command.shouldListResultFormats())
+        {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(command).addProfiler(GCProfiler.class);
+        if (!command.getResultFormat().hasValue() && !command.getResult().hasValue())
+        {
+            options.resultFormat(ResultFormatType.JSON).result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+} // public class BenchmarkMain
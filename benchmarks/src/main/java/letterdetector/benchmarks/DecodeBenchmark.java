@@ -0,0 +1,64 @@
+/*
+ * Description: Decoding the bundled letter*.bmp files, one file per operation: into a BitmapProcessor, into a
+ *              feature vector with FeatureDecoder, and into a feature vector from bytes already in memory (the
+ *              decoding alone, without opening and reading the file).
+ */
+package letterdetector.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark
+{
+    @Param({"false"})
+    public boolean metrics;                                  // see Workload
+
+    private Supplier<Object> bitmapProcessor;
+    private Supplier<Object> featureDecoder;
+    private Supplier<Object> featureDecoderBytes;
+
+    @Setup
+    public void setUp()
+    {
+        Workload.setMetrics(metrics);
+        bitmapProcessor = Workload.of("bitmapProcessor");
+        featureDecoder = Workload.of("featureDecoder");
+        featureDecoderBytes = Workload.of("featureDecoderBytes");
+    }
+
+    @Benchmark
+    public Object bitmapProcessor()
+    {
+        return bitmapProcessor.get();
+    }
+
+    @Benchmark
+    public Object featureDecoder()
+    {
+        return featureDecoder.get();
+    }
+
+    @Benchmark
+    public Object featureDecoderFromMemory()
+    {
+        return featureDecoderBytes.get();
+    }
+} // public class DecodeBenchmark
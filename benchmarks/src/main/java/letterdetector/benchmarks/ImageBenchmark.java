@@ -0,0 +1,77 @@
+/*
+ * Description: The steps of the image pipeline on a square picture of each size, with ImageProcessor and with
+ *              ParallelImageProcessor (which only goes parallel once a picture is bigger than its threshold).
+ */
+package letterdetector.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageBenchmark
+{
+    @Param({"8", "80", "512", "2048"})
+    public int size;
+
+    @Param({"sequential", "parallel"})
+    public String processor;
+
+    @Param({"false"})
+    public boolean metrics;                                  // see Workload
+
+    private Supplier<Object> centerOfMass;
+    private Supplier<Object> cornerArray;
+    private Supplier<Object> scaleImage;
+    private Supplier<Object> shiftImage;
+
+    @Setup
+    public void setUp()
+    {
+        Workload.setMetrics(metrics);
+        centerOfMass = Workload.of("centerOfMass", processor, size);
+        cornerArray = Workload.of("cornerArray", processor, size);
+        scaleImage = Workload.of("scaleImage", processor, size);
+        shiftImage = Workload.of("shiftImage", processor, size);
+    }
+
+    @Benchmark
+    public Object centerOfMass()
+    {
+        return centerOfMass.get();
+    }
+
+    @Benchmark
+    public Object cornerArray()
+    {
+        return cornerArray.get();
+    }
+
+    @Benchmark
+    public Object scaleImage()
+    {
+        return scaleImage.get();
+    }
+
+    @Benchmark
+    public Object shiftImage()
+    {
+        return shiftImage.get();
+    }
+} // public class ImageBenchmark
@@ -0,0 +1,63 @@
+/*
+ * Description: The letter network of BackPropPerceptron.main: one forward pass, one training epoch over the 26
+ *              letters (updateWeights) and the error over the 26 letters (error).
+ */
+package letterdetector.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PerceptronBenchmark
+{
+    @Param({"false"})
+    public boolean metrics;                                  // see Workload
+
+    private Supplier<Object> evaluate;
+    private Supplier<Object> updateWeights;
+    private Supplier<Object> error;
+
+    @Setup
+    public void setUp()
+    {
+        Workload.setMetrics(metrics);
+        evaluate = Workload.of("evaluate");
+        updateWeights = Workload.of("updateWeights");
+        error = Workload.of("error");
+    }
+
+    @Benchmark
+    public Object evaluate()
+    {
+        return evaluate.get();
+    }
+
+    @Benchmark
+    public Object updateWeightsEpoch()
+    {
+        return updateWeights.get();
+    }
+
+    @Benchmark
+    public Object error()
+    {
+        return error.get();
+    }
+} // public class PerceptronBenchmark
@@ -0,0 +1,66 @@
+/*
+ * Description: Gets a benchmark's work from Workloads, which is in the default package with the detector's classes
+ *              and so can only be reached by reflection from here. That is done once, in the benchmark's setup; the
+ *              measured calls go straight to the Supplier it returns.
+ *
+ *              Every benchmark also has a metrics parameter, off by default, that setMetrics passes on to
+ *              Metrics.setEnabled. With it off the measured code doesn't read the clock or update the latency
+ *              histograms, so the results are a clean baseline; -p metrics=true measures what the timing costs.
+ */
+package letterdetector.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+final class Workload
+{
+    private Workload()
+    {
+    }
+
+    /*
+     * Parameters: the name of a Workloads method and its arguments
+     * Function: Calls the method and returns the Supplier it made
+     */
+    @SuppressWarnings("unchecked")
+    static Supplier<Object> of(String name, Object... args)
+    {
+        try
+        {
+            Class<?> workloads = Class.forName("Workloads");
+            for (Method method : workloads.getMethods())
+            {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length)
+                {
+                    return (Supplier<Object>)method.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException("Workloads has no " + name + " taking " + args.length + " arguments");
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException("Could not set up " + name + ": " + e.getCause(), e.getCause());
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new RuntimeException("Could not set up " + name + ": " + e, e);
+        }
+    }
+
+    /*
+     * Parameters: whether the detector's latency histograms should record
+     * Function: Calls Metrics.setEnabled
+     */
+    static void setMetrics(boolean on)
+    {
+        try
+        {
+            Class.forName("Metrics").getMethod("setEnabled", boolean.class).invoke(null, on);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new RuntimeException("Could not switch Metrics: " + e, e);
+        }
+    }
+} // final class Workload
@@ -1,8 +1,13 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Random;
 
 /**
  * @author Andy Fang
@@ -53,6 +58,14 @@ public class BackPropPerceptron
         // saves psi function values for each node in the perceptron
     private double[][] nodes;                     
         // saves the values of the perceptron's nodes
+    private TrainingMonitor monitor;
+        // follows training; made on first use
+    private Checkpointer checkpointer;
+        // saves the training now and then; null for none
+    private int epochsDone;
+        // epochs trained, counting those before a restored checkpoint
+    private double trainingRate = TRAINING_OFFSET;
+        // the factor in deltaW_ji = trainingRate * node_j * psi_i
     
     public static final double TRAINING_OFFSET = .7;
     public static final double MAX_ALLOWED_ERROR = .01;
@@ -65,43 +78,26 @@ public class BackPropPerceptron
      * There are two ways to run the main program:
      * 1) If you do not have weights initialized and want to train a weight set
      * and then run the perceptron on a test. The weights will be outputted to 
-     * file (weights).
-     * To do this, comment out sections that are labeled TRAIN-AND-RUN.
+     * file (weights) once training is done. Training is checkpointed to
+     * weights.checkpoint every 1000 epochs or minute, and a run that is
+     * killed picks up from there when it is started again.
+     * To do this, comment out sections that are labeled JUST-RUN.
      * 2) You already have weights and simply want to run the perceptron. To do
-     * this, comment out sections that are labeled JUST-RUN.
+     * this, comment out sections that are labeled TRAIN-AND-RUN. The weights
+     * file is only read. (To recognize many files at once, use Recognizer; to
+     * score the weights on a labeled set, use CrossValidator -weights.)
      */
     public static void main(String[] args) throws IOException
     {
-        FileInputStream fstream = new FileInputStream("weights");
-        FileOutputStream fstream1 = new FileOutputStream("weights");
-        
-        /* begin JUST-RUN */
-        DataInputStream in = new DataInputStream(fstream);
-        /* end JUST-RUN */
-        
-        /* begin TRAIN-AND-RUN */
-        DataOutputStream out = new DataOutputStream(fstream1);
-        /* end TRAIN-AND-RUN */
-        
-        
         //initializing a letter-recognizing perceptron
         double[][] trainingInputs   = new double[26][64];
         double[][] trainingOutputs  = new double[26][26];
-        ImageProcessor imgProcessor = new ImageProcessor();
+        FeatureDecoder decoder = new FeatureDecoder();
         
         for(int i = (int)'A'; i <= (int)'Z'; i++)
         {
-            BitmapProcessor bmpProcessor = new BitmapProcessor(
-                    "letter" + (char)i + ".bmp");
-
-            int[] flatImg = imgProcessor.flattenImage(bmpProcessor.getImage());
-            trainingInputs[i - (int)'A'] = new double[flatImg.length];
-            
-            for(int j = 0; j < flatImg.length; j++)
-            {
-                trainingInputs[i - (int)'A'][j] = (double)((double)flatImg[j] / 
-                        (double)MAX_PEL_VAL);
-            }        
+            decoder.decode("letter" + (char)i + ".bmp",
+                    trainingInputs[i - (int)'A'], 0);
             
             trainingOutputs[i - (int)'A'][i - (int)'A'] = 1.0;
         }
@@ -111,64 +107,35 @@ public class BackPropPerceptron
         double[][][] weights = new double[2][][];
         weights[0] = new double[64][35];
         weights[1] = new double[35][26];
-        /* end TRAIN-AND-RUN */
-
-        /* begin JUST-RUN */
-//        weights = new double[in.readInt()][][];
-//        
-//        for(int i = 0; i < weights.length; i++)
-//        {
-//            weights[i] = new double[in.readInt()][in.readInt()];
-//        }
-//        
-//        for(int i = 0; i < weights.length; i++)
-//        {
-//            for(int j = 0; j < weights[i].length; j++)
-//            {
-//                for(int k = 0; k < weights[i][j].length; k++)
-//                {
-//                    weights[i][j][k] = in.readDouble();
-//                }
-//            }
-//        }
-        /* end JUST-RUN */
         
         BackPropPerceptron p = new BackPropPerceptron(
                 trainingInputs, trainingOutputs, weights);
-        
-        /* begin TRAIN-AND-RUN */
-        p.train();
-        /* end TRAIN-AND-RUN */
-        
-        /* Writing out the weights into an output file */
-        weights = p.getWeights();
-        out.writeInt(weights.length);
-        for(int i = 0; i < weights.length; i++)
-        {
-            out.writeInt(weights[i].length);
-            out.writeInt(weights[i][0].length);
-        }
-        for(int i = 0; i < weights.length; i++)
-        {
-            for(int j = 0; j < weights[i].length; j++)
-            {
-                for(int k = 0; k < weights[i][j].length; k++)
-                {
-                    out.writeDouble(weights[i][j][k]);
-                }
-            }
+            // to go on training the saved model instead of starting over:
+            // new BackPropPerceptron(trainingInputs, trainingOutputs,
+            //         readWeights("weights"), false)
+        p.getMonitor().register("letters");    // watch it with jconsole
+        p.setCheckpointer(new Checkpointer("weights.checkpoint", 1000, 60));
+        if(new File("weights.checkpoint").exists())
+        { // carry on from where an interrupted run stopped
+            p.restore(Checkpoint.read("weights.checkpoint"));
         }
-        /* end of writing weights to file */
+        p.train();
+        p.getCheckpointer().close();
+        p.getMonitor().unregister();
         
+        writeWeights(p.getWeights(), "weights");
+        new File("weights.checkpoint").delete();
+            // the run is done, so the next one starts fresh instead of
+            // resuming the finished model
+        /* end TRAIN-AND-RUN */
+
+        /* begin JUST-RUN */
+//        BackPropPerceptron p = new BackPropPerceptron(readWeights("weights"));
+        /* end JUST-RUN */
         
-        BitmapProcessor bmpProcessor = new BitmapProcessor("letterA.bmp");
-        int[] flatImg = imgProcessor.flattenImage(bmpProcessor.getImage());
-        double[] input = new double[flatImg.length];
         
-        for(int j = 0; j < flatImg.length; j++)
-        {
-            input[j] = (double)((double)flatImg[j]/(double)MAX_PEL_VAL);
-        } 
+        double[] input = new double[64];
+        decoder.decode("letterA.bmp", input, 0);
         double[] output = p.evaluate(input);
         
         for(int i = 0; i < output.length; i++)
@@ -176,9 +143,6 @@ public class BackPropPerceptron
             System.out.println(output[i]);
         }
         
-        in.close();
-        out.close();
-        
         
         
         
@@ -214,12 +178,130 @@ public class BackPropPerceptron
         */
     }
     
+    /*
+     * Parameters: the name of a weights file written by writeWeights
+     * Function: Reads a weight set. The file is the number of weight layers,
+     *           the rows and columns of each layer, and then every weight,
+     *           layer by layer and row by row.
+     */
+    public static double[][][] readWeights(String fileName) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileName)));
+        try
+        {
+            return readWeights(in, fileName);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /*
+     * Parameters: a stream positioned at a weight set and the name of the file
+     *             it comes from (for the error message)
+     * Function: Reads a weight set in the form readWeights(String) reads,
+     *           leaving the stream just after it
+     */
+    static double[][][] readWeights(DataInputStream in, String fileName)
+            throws IOException
+    {
+        int numWeightLayers = in.readInt();
+        if(numWeightLayers <= 0)
+        {
+            throw new IOException(fileName + " is not a weights file.");
+        }
+        
+        double[][][] weights = new double[numWeightLayers][][];
+        for(int i = 0; i < weights.length; i++)
+        {
+            int rows = in.readInt();
+            int cols = in.readInt();
+            if(rows <= 0 || cols <= 0 ||
+                    (i > 0 && rows != weights[i-1][0].length))
+            {
+                throw new IOException(fileName + " is not a weights file.");
+            }
+            weights[i] = new double[rows][cols];
+        }
+        
+        for(int i = 0; i < weights.length; i++)
+        {
+            for(int j = 0; j < weights[i].length; j++)
+            {
+                for(int k = 0; k < weights[i][j].length; k++)
+                {
+                    weights[i][j][k] = in.readDouble();
+                }
+            }
+        }
+        return weights;
+    }
+    
+    /*
+     * Parameters: a weight set and the name of the file to write
+     * Function: Writes the weights in the form readWeights reads
+     */
+    public static void writeWeights(double[][][] weights, String fileName)
+            throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try
+        {
+            writeWeights(weights, out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    /*
+     * Parameters: a weight set and a stream
+     * Function: Writes the weights to the stream in the form readWeights reads
+     */
+    static void writeWeights(double[][][] weights, DataOutputStream out)
+            throws IOException
+    {
+        out.writeInt(weights.length);
+        for(int i = 0; i < weights.length; i++)
+        {
+            out.writeInt(weights[i].length);
+            out.writeInt(weights[i][0].length);
+        }
+        for(int i = 0; i < weights.length; i++)
+        {
+            for(int j = 0; j < weights[i].length; j++)
+            {
+                for(int k = 0; k < weights[i][j].length; k++)
+                {
+                    out.writeDouble(weights[i][j][k]);
+                }
+            }
+        }
+    }
+    
     /*
      * Parameters: training inputs, training outputs, and a weight set
      * Function:   The constructor takes in the training sets and the perceptron
      *             while initializing the weights via initializeWeights.
      */
     public BackPropPerceptron(double[][] trainingIn, double[][] trainingOut, double[][][] w)
+    {
+        this(trainingIn, trainingOut, w, true);
+    }
+    
+    /*
+     * Parameters: training inputs, training outputs, a weight set, and
+     *             whether to start from random weights
+     * Function:   Same as the constructor above, but with initialize false the
+     *             weights are kept as they are, so training carries on from a
+     *             model that was already trained (a warm start), e.g.
+     *             new BackPropPerceptron(in, out, readWeights("weights"), false)
+     */
+    public BackPropPerceptron(double[][] trainingIn, double[][] trainingOut, double[][][] w, boolean initialize)
     {
         trainingInputs = trainingIn;
         targetOutputs  = trainingOut;
@@ -241,7 +323,14 @@ public class BackPropPerceptron
             // # of nodes in last layer equals the # of output nodes in last 
             // weight layer
     
-        initializeWeights();
+        if(initialize)
+        {
+            initializeWeights();
+        }
+        else
+        {
+            allocateWeightChanges();
+        }
     }
 
     /*
@@ -279,23 +368,68 @@ public class BackPropPerceptron
      */
     private void initializeWeights()
     {
-        weightChanges = new double[weights.length][][];
+        allocateWeightChanges();
         
         for(int i = 0; i < weights.length; i++)
         {
-            weightChanges[i] = new double[weights[i].length][];
             for(int j = 0; j < weights[i].length; j++)
             {
-                weightChanges[i][j] = new double[weights[i][j].length];
                 for(int k = 0; k < weights[i][j].length; k++)
                 {
-                    weightChanges[i][j][k] = 0;
                     weights[i][j][k] = Math.random();
                 }
             }
         }
     }
     
+    /*
+     * Parameters: a random number generator
+     * Function: Sets the weights to random values between 0 and 1, like
+     *           initializeWeights, but from the given generator so a run can
+     *           be repeated with the same seed
+     */
+    public void randomizeWeights(Random random)
+    {
+        randomizeWeights(random, 0.0, 1.0);
+    }
+    
+    /*
+     * Parameters: a random number generator and the range of the weights
+     * Function: Sets the weights to random values between low and high
+     */
+    public void randomizeWeights(Random random, double low, double high)
+    {
+        for(int i = 0; i < weights.length; i++)
+        {
+            for(int j = 0; j < weights[i].length; j++)
+            {
+                for(int k = 0; k < weights[i][j].length; k++)
+                {
+                    weights[i][j][k] = low + (high - low) * random.nextDouble();
+                }
+            }
+        }
+    }
+    
+    /*
+     * Parameters: n/a
+     * Function: Creates the weightChanges array (all zeros) with the same
+     *           dimensions as the weights
+     */
+    private void allocateWeightChanges()
+    {
+        weightChanges = new double[weights.length][][];
+        
+        for(int i = 0; i < weights.length; i++)
+        {
+            weightChanges[i] = new double[weights[i].length][];
+            for(int j = 0; j < weights[i].length; j++)
+            {
+                weightChanges[i][j] = new double[weights[i][j].length];
+            }
+        }
+    }
+    
     /*
      * Parameters: none
      * Function: returns the set of weights the perceptron currently uses
@@ -304,6 +438,140 @@ public class BackPropPerceptron
     {
         return weights;
     }
+    
+    /*
+     * Parameters: none
+     * Function: returns the TrainingMonitor that train reports to, making one
+     *           (logging to standard output) if none has been set
+     */
+    public TrainingMonitor getMonitor()
+    {
+        if(monitor == null)
+        {
+            monitor = new TrainingMonitor();
+        }
+        return monitor;
+    }
+    
+    /*
+     * Parameters: a training monitor
+     * Function: sets the TrainingMonitor that train reports to
+     */
+    public void setMonitor(TrainingMonitor m)
+    {
+        monitor = m;
+    }
+    
+    /*
+     * Parameters: none
+     * Function: returns the training rate (TRAINING_OFFSET unless set)
+     */
+    public double getTrainingRate()
+    {
+        return trainingRate;
+    }
+    
+    /*
+     * Parameters: a training rate > 0
+     * Function: sets the factor the weight changes of backpropagation are
+     *           multiplied by
+     */
+    public void setTrainingRate(double rate)
+    {
+        if(!(rate > 0))
+        {
+            throw new IllegalArgumentException("training rate must be > 0");
+        }
+        trainingRate = rate;
+    }
+    
+    /*
+     * Parameters: none
+     * Function: returns the Checkpointer that train saves to, or null
+     */
+    public Checkpointer getCheckpointer()
+    {
+        return checkpointer;
+    }
+    
+    /*
+     * Parameters: a checkpointer, or null to stop taking checkpoints
+     * Function: sets the Checkpointer that train saves to whenever it says
+     *           a checkpoint is due, and once more when training ends
+     */
+    public void setCheckpointer(Checkpointer c)
+    {
+        checkpointer = c;
+    }
+    
+    /*
+     * Parameters: none
+     * Function: returns the number of epochs trained, counting those before
+     *           a restored checkpoint
+     */
+    public int getEpochsDone()
+    {
+        return epochsDone;
+    }
+    
+    /*
+     * Parameters: a checkpoint of a perceptron of the same dimensions
+     * Function: Copies the weights of the checkpoint into the perceptron and
+     *           carries on counting epochs from it, so train picks up where
+     *           the checkpointed run left off
+     */
+    public void restore(Checkpoint c)
+    {
+        double[][][] saved = c.getWeights();
+        boolean same = saved.length == weights.length;
+        for(int i = 0; same && i < weights.length; i++)
+        {
+            same = saved[i].length == weights[i].length &&
+                    saved[i][0].length == weights[i][0].length;
+        }
+        if(!same)
+        {
+            throw new IllegalArgumentException(
+                    "The checkpoint is of a perceptron of other dimensions.");
+        }
+        if(c.getTrainingRate() != trainingRate)
+        {
+            throw new IllegalArgumentException("The checkpoint was trained at "
+                    + c.getTrainingRate() + ", not " + trainingRate + ".");
+        }
+        
+        for(int i = 0; i < weights.length; i++)
+        {
+            for(int j = 0; j < weights[i].length; j++)
+            {
+                System.arraycopy(saved[i][j], 0, weights[i][j], 0,
+                        weights[i][j].length);
+            }
+        }
+        epochsDone = c.getEpoch();
+    }
+    
+    /*
+     * Parameters: the error after the epoch just trained, and whether
+     *             training has ended
+     * Function: Saves a checkpoint if one is due, or always when training has
+     *           ended (waiting for that one to be written)
+     */
+    private void checkpoint(double err, boolean ended)
+    {
+        if(checkpointer == null)
+        {
+            return;
+        }
+        if(ended || checkpointer.isDue(epochsDone))
+        {
+            checkpointer.save(epochsDone, err, 0L, trainingRate, weights);
+        }
+        if(ended)
+        {
+            checkpointer.flush();
+        }
+    }
      
     /*
      * Parameters: the training inputs, the training outputs, and weight set
@@ -313,17 +581,60 @@ public class BackPropPerceptron
      *             of converging is determined by the constant
      *             MAX_ALLOWED_ERROR; if the error falls below this constant,
      *             then the perceptron is considered to have converged.
+     *             Every epoch is reported to the TrainingMonitor (see
+     *             getMonitor), which logs it and can pause or stop training.
+     *             With a Checkpointer set, a checkpoint is saved whenever one
+     *             is due and when training ends; after restore, training
+     *             carries on from the checkpoint.
      */
     public void train()
     {
+        TrainingMonitor m = getMonitor();
         double err = error();
+        m.trainingStarted(err, epochsDone);
         while(err > MAX_ALLOWED_ERROR)
         {
-            System.out.println("error = " + err);
-            
+            m.epochStarted();
             updateWeights();
             err = error();
+            epochsDone++;
+            boolean go = m.epochFinished(err, trainingInputs.length);
+            checkpoint(err, false);
+            if(!go)
+            {
+                break;
+            }
+        }
+        checkpoint(err, true);
+        m.trainingFinished();
+    }
+    
+    /*
+     * Parameters: a packed dataset
+     * Function:   Same as train(), but the training vectors and their one-hot
+     *             targets come from the dataset instead of the arrays given to
+     *             the constructor.
+     */
+    public void train(PackedDataset data)
+    {
+        TrainingMonitor m = getMonitor();
+        double err = error(data);
+        m.trainingStarted(err, epochsDone);
+        while(err > MAX_ALLOWED_ERROR)
+        {
+            m.epochStarted();
+            updateWeights(data);
+            err = error(data);
+            epochsDone++;
+            boolean go = m.epochFinished(err, data.size());
+            checkpoint(err, false);
+            if(!go)
+            {
+                break;
+            }
         }
+        checkpoint(err, true);
+        m.trainingFinished();
     }
     
     /*
@@ -370,81 +681,140 @@ public class BackPropPerceptron
      */
     public void updateWeights()
     {
-        double[][] tempNodes;
-        
         for(int i = 0; i < trainingInputs.length; i++)
         {
-            tempNodes = evaluateNodes(trainingInputs[i]);
-            
-          // calculating psi function for last layer
-          for(int out = 0; out < tempNodes[tempNodes.length-1].length; out++)
-          { // iterating through last layer
-              double weightedSum = 0;
-              for(int in = 0; in < tempNodes[tempNodes.length-2].length; in++)
-              { // iterating through layer before last layer
-                  weightedSum += tempNodes[tempNodes.length-2][in] * 
-                          weights[weights.length-1][in][out];
-                  // calculating weighted sum from layer k going into node j
-                  // in output layer
-              }
-              psiFunc[numLayers-1][out] = (targetOutputs[i][out] - 
-                      tempNodes[tempNodes.length-1][out]) * 
-                      derivativeOfThreshold(weightedSum);
-          }
-          
-          // calculating psi function for rest of perceptron
-          for(int layer = numLayers-2; layer > 0; layer--)
-          {
-              for(int curr = 0; curr < tempNodes[layer].length; curr++)
-              {
-                  double weightedSum = 0;
-                  double psiSum = 0;
-                  
-                  for(int next = 0; next < tempNodes[layer+1].length; next++)
-                  {
-                      psiSum += psiFunc[layer+1][next] *
-                              weights[layer][curr][next];
-                  }
-                  
-                  for(int prev = 0; prev < tempNodes[layer-1].length; prev++)
-                  {
-                      weightedSum += tempNodes[layer-1][prev] *
-                              weights[layer-1][prev][curr];
-                  }
-                  psiFunc[layer][curr] = derivativeOfThreshold(weightedSum) * 
-                          psiSum;
-              }
-          }
-
-          
-          // calculating weightChanges for the entire perceptron
-          for(int layer = 0; layer < weights.length; layer++)
-          {
-              for(int inp = 0; inp < weights[layer].length; inp++)
-              {
-                  for(int out = 0; out < weights[layer][inp].length; out++)
-                  {
-                      weightChanges[layer][inp][out] = TRAINING_OFFSET * 
-                              tempNodes[layer][inp] * psiFunc[layer+1][out];
-                  }
-              }
-          }
-          
-          // applying weightChanges to the perceptron
-          for(int layer = 0; layer < weights.length; layer++)
-          {
-              for(int inp = 0; inp < weights[layer].length; inp++)
-              {
-                  for(int out = 0; out < weights[layer][inp].length; out++)
-                  {
-                      int l = layer;
-                      weights[l][inp][out] += weightChanges[l][inp][out];
-                  }
-              }
-          }
-       } // end of looping through i - the index for each training vector
+            backPropagate(trainingInputs[i], targetOutputs[i]);
+        } // end of looping through i - the index for each training vector
         
     } // end of updateWeights
+    
+    /*
+     * Parameters: a packed dataset
+     * Function:   Runs one pass of backpropagation over every sample of the
+     *             dataset. Each row is copied from the mapping into one reused
+     *             input array (PackedDataset.copyRow), so nothing is decoded
+     *             or allocated per sample.
+     */
+    public void updateWeights(PackedDataset data)
+    {
+        if(weightChanges == null)
+        { // perceptron was built from precalculated weights
+            allocateWeightChanges();
+        }
+        double[] input = new double[data.getFeatureDimension()];
+        double[] target = new double[data.getNumClasses()];
+        
+        for(int i = 0; i < data.size(); i++)
+        {
+            data.copyRow(i, input);
+            data.copyTarget(i, target);
+            backPropagate(input, target);
+        }
+    }
+    
+    /*
+     * Parameters: one input vector and its target output vector
+     * Function:   Applies one step of backpropagation for a single training
+     *             vector, for callers that feed samples one at a time (e.g.
+     *             StreamingTrainer). Returns the error of the sample, as in
+     *             error(), measured before the weights were changed.
+     */
+    public double updateWeights(double[] input, double[] target)
+    {
+        if(weightChanges == null)
+        { // perceptron was built from precalculated weights
+            allocateWeightChanges();
+        }
+        return backPropagate(input, target);
+    }
+    
+    /*
+     * Parameters: one input vector and its target output vector
+     * Function:   Runs one step of the backpropagation algorithm described
+     *             above updateWeights for a single training vector: the psi
+     *             functions and weightChanges are calculated and applied.
+     *             Returns the error of the vector before the update.
+     */
+    private double backPropagate(double[] input, double[] target)
+    {
+        double[][] tempNodes = evaluateNodes(input);
+        double[] calculated = tempNodes[tempNodes.length-1];
+        double error = 0.0;
+        
+        for(int out = 0; out < calculated.length; out++)
+        {
+            error += Math.pow(target[out] - calculated[out], 2.0);
+        }
+
+        // calculating psi function for last layer
+        for(int out = 0; out < tempNodes[tempNodes.length-1].length; out++)
+        { // iterating through last layer
+            double weightedSum = 0;
+            for(int in = 0; in < tempNodes[tempNodes.length-2].length; in++)
+            { // iterating through layer before last layer
+                weightedSum += tempNodes[tempNodes.length-2][in] * 
+                        weights[weights.length-1][in][out];
+                // calculating weighted sum from layer k going into node j
+                // in output layer
+            }
+            psiFunc[numLayers-1][out] = (target[out] - 
+                    tempNodes[tempNodes.length-1][out]) * 
+                    derivativeOfThreshold(weightedSum);
+        }
+
+        // calculating psi function for rest of perceptron
+        for(int layer = numLayers-2; layer > 0; layer--)
+        {
+            for(int curr = 0; curr < tempNodes[layer].length; curr++)
+            {
+                double weightedSum = 0;
+                double psiSum = 0;
+
+                for(int next = 0; next < tempNodes[layer+1].length; next++)
+                {
+                    psiSum += psiFunc[layer+1][next] *
+                            weights[layer][curr][next];
+                }
+
+                for(int prev = 0; prev < tempNodes[layer-1].length; prev++)
+                {
+                    weightedSum += tempNodes[layer-1][prev] *
+                            weights[layer-1][prev][curr];
+                }
+                psiFunc[layer][curr] = derivativeOfThreshold(weightedSum) * 
+                        psiSum;
+            }
+        }
+
+
+        // calculating weightChanges for the entire perceptron
+        for(int layer = 0; layer < weights.length; layer++)
+        {
+            for(int inp = 0; inp < weights[layer].length; inp++)
+            {
+                for(int out = 0; out < weights[layer][inp].length; out++)
+                {
+                    weightChanges[layer][inp][out] = trainingRate * 
+                            tempNodes[layer][inp] * psiFunc[layer+1][out];
+                }
+            }
+        }
+
+        // applying weightChanges to the perceptron
+        for(int layer = 0; layer < weights.length; layer++)
+        {
+            for(int inp = 0; inp < weights[layer].length; inp++)
+            {
+                for(int out = 0; out < weights[layer][inp].length; out++)
+                {
+                    int l = layer;
+                    weights[l][inp][out] += weightChanges[l][inp][out];
+                }
+            }
+        }
+        
+        return .5*error;
+    } // end of backPropagate
 
     
     /*
@@ -456,6 +826,7 @@ public class BackPropPerceptron
      public double[] evaluate(double[] inputVector)
      {
          // initialization
+         long start = Metrics.start();
          double[] inLayer = inputVector;
          double[] outLayer = null;
          
@@ -465,9 +836,81 @@ public class BackPropPerceptron
              inLayer = outLayer;
          }
         
+         Metrics.stop(Metrics.EVALUATE, start);
          return outLayer;
      }
     
+    /*
+     * Parameters: one input vector, usually a row view of a PackedDataset
+     * Function: Same as evaluate(double[]), but the input layer is read
+     * straight out of the buffer so mapped samples are never copied.
+     */
+     public double[] evaluate(DoubleBuffer inputVector)
+     {
+         long start = Metrics.start();
+         double[] outLayer = outputActivation(inputVector, weights[0]);
+         
+         for(int i = 1; i < weights.length; i++)
+         {
+             outLayer = outputActivation(outLayer, weights[i]);
+         }
+        
+         Metrics.stop(Metrics.EVALUATE, start);
+         return outLayer;
+     }
+
+    /*
+     * Parameters: a batch of input vectors, all the same length
+     * Function: Returns evaluate(inputs[k]) for every k. The whole batch goes
+     * through one layer before the next. Each layer keeps a tile of sums, one
+     * row per input, and walks its weight rows in order; every weight row is
+     * loaded once and added into the sums of all the inputs in the batch, so
+     * the weights are read once per batch instead of once per input. The sums
+     * of each output are still added up in the same order as outputActivation,
+     * so the results are exactly the same.
+     */
+     public double[][] evaluate(double[][] inputs)
+     {
+         long start = Metrics.start();
+         int batch = inputs.length;
+         double[][] inLayers = inputs;
+
+         for(int i = 0; i < weights.length; i++)
+         {
+             double[][] layer = weights[i];
+             int outCount = layer[0].length;
+             double[][] sums = new double[batch][outCount];
+                 // the tile; becomes the layer's outputs in place
+
+             for(int j = 0; j < layer.length; j++)
+             {
+                 double[] row = layer[j];
+                 for(int k = 0; k < batch; k++)
+                 {
+                     double a = inLayers[k][j];
+                     double[] sum = sums[k];
+                     for(int n = 0; n < outCount; n++)
+                     {
+                         sum[n] += a * row[n];
+                     }
+                 }
+             }
+
+             for(int k = 0; k < batch; k++)
+             {
+                 double[] sum = sums[k];
+                 for(int n = 0; n < outCount; n++)
+                 {
+                     sum[n] = thresholdFunction(sum[n]);
+                 }
+             }
+             inLayers = sums;
+         }
+
+         Metrics.stop(Metrics.EVALUATE_BATCH, start);
+         return inLayers;
+     }
+
     /*
      * Parameters: one input vector
      * Function: Given an input layer, this method uses the outputActivation
@@ -533,6 +976,34 @@ public class BackPropPerceptron
         return outVals;
     }
     
+    /*
+     * Parameters: a buffer of input values and a 2d array of weights
+     * Function: Same as outputActivation(double[], double[][]) for an input
+     *           layer that is held in a buffer. The buffer's position is not
+     *           changed.
+     */
+    public double[] outputActivation(DoubleBuffer inVals, double[][] weights)
+    {
+        int inCount = inVals.remaining();
+        int start = inVals.position();
+        int outCount = weights[0].length;
+        double functionInput;
+        double[] outVals = new double[outCount];
+        
+        for(int i = 0; i < outCount; i++)
+        {
+            functionInput = 0.0;
+            for(int j = 0; j < inCount; j++)
+            {
+                functionInput += inVals.get(start + j) * weights[j][i];
+            }
+            
+            outVals[i] = thresholdFunction(functionInput);
+        }
+        
+        return outVals;
+    }
+    
     /*
      * Parameters: 1 double
      * Function:   Performs the perceptron's particular sigmoid function on the
@@ -588,6 +1059,42 @@ public class BackPropPerceptron
             // adjust by 1/2 factor after squaring according to formula
      }
 
+    /*
+     * Parameters: a packed dataset
+     * Function: Same as error(), over the samples of the dataset. Double rows
+     *           are evaluated in place on the mapping; float rows are widened
+     *           into one reused input array.
+     */
+    public double error(PackedDataset data)
+    {
+        double error = 0.0;
+        double[] target = new double[data.getNumClasses()];
+        double[] input = (data.getDtype() == PackedDataset.DTYPE_FLOAT64)
+                ? null : new double[data.getFeatureDimension()];
+        
+        for(int i = 0; i < data.size(); i++)
+        {
+            double[] calculated;
+            if(input == null)
+            {
+                calculated = evaluate(data.row(i));
+            }
+            else
+            {
+                data.copyRow(i, input);
+                calculated = evaluate(input);
+            }
+            data.copyTarget(i, target);
+            
+            for(int j = 0; j < calculated.length; j++)
+            {
+                error += Math.pow(target[j] - calculated[j], 2.0);
+            }
+        }
+        
+        return .5*error;
+    }
+    
     /*
      * Parameters: a 2D double array
      * Function: Creates a new 2D double array object that has the same elements
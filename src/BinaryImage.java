@@ -0,0 +1,421 @@
+/*
+ * Description: A black and white image with one bit per pel, each row packed into longs. Letter images are really
+ *              black and white, so this holds the same glyph as a FlatImage of packed RGB ints in a 32nd of the
+ *              space, and the scans ImageProcessor does pel by pel are done a word (64 pels) at a time:
+ *                  - ink counts of rows are Long.bitCount of the row's words,
+ *                  - column counts and the column moment visit only the set bits (numberOfTrailingZeros),
+ *                  - shifting moves whole words and carries the bits between neighbouring words.
+ *
+ *              Column j of a row is bit (j & 63) of word (j >>> 6) of that row, so the leftmost pel is the least
+ *              significant bit. Bits past the width of the image are always 0. A set bit is ink.
+ *
+ *              Binarizing can use a fixed threshold or pick the level with Otsu's method.
+ */
+public class BinaryImage
+{
+    private final long[] words;
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+
+    /*
+     * Parameters: the width and height
+     * Function: Creates a blank (all white) image
+     */
+    public BinaryImage(int w, int h)
+    {
+        width = w;
+        height = h;
+        wordsPerRow = (w + 63) >>> 6;
+        words = new long[wordsPerRow * h];
+    }
+
+    /*
+     * Parameters: a picture in the getImage form (white = 0) and a threshold
+     * Function: Makes every pel >= threshold ink, the same rule cornerArray uses to count pixels
+     */
+    public static BinaryImage threshold(FlatImage pic, int threshold)
+    {
+        BinaryImage output = new BinaryImage(pic.getWidth(), pic.getHeight());
+        int[] data = pic.getData();
+
+        for (int i = 0; i < output.height; i++)
+        {
+            int start = pic.rowStart(i);
+            int row = i * output.wordsPerRow;
+            for (int j = 0; j < output.width; j++)
+            {
+                if (data[start + j] >= threshold)
+                {
+                    output.words[row + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: 8-bit luminance pels (top row first, as BitmapProcessor.getGrayImage returns them), the image
+     *             size and a level
+     * Function: Makes every pel darker than the level ink
+     */
+    public static BinaryImage threshold(byte[] gray, int w, int h, int level)
+    {
+        BinaryImage output = new BinaryImage(w, h);
+
+        for (int i = 0; i < h; i++)
+        {
+            int start = i * w;
+            int row = i * output.wordsPerRow;
+            for (int j = 0; j < w; j++)
+            {
+                if ((gray[start + j] & 0xFF) < level)
+                {
+                    output.words[row + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: 8-bit luminance pels and the image size
+     * Function: Binarizes at the level picked by otsuLevel
+     */
+    public static BinaryImage otsu(byte[] gray, int w, int h)
+    {
+        return threshold(gray, w, h, otsuLevel(gray, w * h));
+    }
+
+    /*
+     * Parameters: 8-bit luminance pels and how many of them to look at
+     * Function: Returns the level that best splits the histogram of the pels into two classes (Otsu's method:
+     *           the level with the largest between-class variance). Pels below the level are ink.
+     */
+    public static int otsuLevel(byte[] gray, int numPels)
+    {
+        long[] histogram = new long[256];
+        for (int i = 0; i < numPels; i++)
+        {
+            histogram[gray[i] & 0xFF]++;
+        }
+
+        double totalSum = 0;
+        for (int k = 0; k < 256; k++)
+        {
+            totalSum += (double)k * histogram[k];
+        }
+
+        long below = 0;                     // number of pels below the level
+        double belowSum = 0;
+        double bestVariance = -1;
+        int bestLevel = 128;
+
+        for (int level = 1; level < 256; level++)
+        {
+            below += histogram[level - 1];
+            belowSum += (double)(level - 1) * histogram[level - 1];
+            long above = numPels - below;
+            if (below == 0 || above == 0) continue;
+
+            double meanBelow = belowSum / below;
+            double meanAbove = (totalSum - belowSum) / above;
+            double variance = (double)below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance)
+            {
+                bestVariance = variance;
+                bestLevel = level;
+            }
+        }
+        return bestLevel;
+    }
+
+    /*
+     * Parameters: the raw bits of a 1-bit BMP (BitmapProcessor.getPackedImage), its bytes per row, the image size
+     *             and whether a set bit is ink (true when the second color table entry is the darker one)
+     * Function: Repacks the MSB-first bytes of the bitmap into words without going through pels
+     */
+    public static BinaryImage fromPacked(byte[] packed, int bytesPerRow, int w, int h, boolean setIsInk)
+    {
+        BinaryImage output = new BinaryImage(w, h);
+
+        for (int i = 0; i < h; i++)
+        {
+            int row = i * output.wordsPerRow;
+            for (int b = 0; b < (w + 7) >>> 3; b++)
+            {
+                int bits = Integer.reverse(packed[i * bytesPerRow + b] & 0xFF) >>> 24;    // leftmost pel to bit 0
+                if (!setIsInk) bits = ~bits & 0xFF;
+                int col = b << 3;
+                output.words[row + (col >>> 6)] |= ((long)bits) << (col & 63);
+            }
+            output.clearPadding(i);
+        }
+        return output;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public boolean get(int row, int col)
+    {
+        return (words[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    public void set(int row, int col, boolean ink)
+    {
+        int index = row * wordsPerRow + (col >>> 6);
+        if (ink)
+        {
+            words[index] |= 1L << col;
+        }
+        else
+        {
+            words[index] &= ~(1L << col);
+        }
+    }
+
+    /*
+     * Parameters: a row and a column to start from
+     * Function: Returns the column of the first ink pel at or after col in the row, or getWidth() if there is none
+     */
+    public int nextInk(int row, int col)
+    {
+        if (col >= width) return width;
+        int base = row * wordsPerRow;
+        int w = col >>> 6;
+        long bits = words[base + w] & (-1L << col);
+
+        while (bits == 0)
+        {
+            if (++w == wordsPerRow) return width;
+            bits = words[base + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /*
+     * Parameters: a row and a column to start from
+     * Function: Returns the column of the first white pel at or after col in the row, or getWidth() if there is none
+     */
+    public int nextWhite(int row, int col)
+    {
+        if (col >= width) return width;
+        int base = row * wordsPerRow;
+        int w = col >>> 6;
+        long bits = ~words[base + w] & (-1L << col);
+
+        while (bits == 0)
+        {
+            if (++w == wordsPerRow) return width;
+            bits = ~words[base + w];
+        }
+        return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    /*
+     * Function: Returns the number of ink pels in the row
+     */
+    public int rowCount(int row)
+    {
+        int count = 0;
+        for (int w = row * wordsPerRow, end = w + wordsPerRow; w < end; w++)
+        {
+            count += Long.bitCount(words[w]);
+        }
+        return count;
+    }
+
+    /*
+     * Parameters: an array at least getHeight() long
+     * Function: Fills it with the ink count of every row
+     */
+    public void rowCounts(int[] counts)
+    {
+        for (int i = 0; i < height; i++)
+        {
+            counts[i] = rowCount(i);
+        }
+    }
+
+    /*
+     * Parameters: an array at least getWidth() long
+     * Function: Fills it with the ink count of every column, visiting only the set bits
+     */
+    public void colCounts(int[] counts)
+    {
+        java.util.Arrays.fill(counts, 0, width, 0);
+        for (int i = 0; i < height; i++)
+        {
+            int row = i * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long bits = words[row + w];
+                while (bits != 0)
+                {
+                    counts[(w << 6) + Long.numberOfTrailingZeros(bits)]++;
+                    bits &= bits - 1;                                   // clear the lowest set bit
+                }
+            }
+        }
+    }
+
+    /*
+     * Function: Returns the number of ink pels in the image
+     */
+    public int inkCount()
+    {
+        int count = 0;
+        for (int w = 0; w < words.length; w++)
+        {
+            count += Long.bitCount(words[w]);
+        }
+        return count;
+    }
+
+    /*
+     * Special condition: Picture must contain ink
+     * Function: Returns the center of mass of the ink, the same as ImageProcessor.centerOfMass of the 0/1 picture
+     */
+    public ImageProcessor.Location centerOfMass()
+    {
+        long xCOM = 0;
+        long yCOM = 0;
+        int numPts = 0;
+
+        for (int i = 0; i < height; i++)
+        {
+            int row = i * wordsPerRow;
+            int rowInk = 0;
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long bits = words[row + w];
+                rowInk += Long.bitCount(bits);
+                while (bits != 0)
+                {
+                    yCOM += (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            xCOM += (long)i * rowInk;
+            numPts += rowInk;
+        }
+
+        return new ImageProcessor.Location((int)(xCOM/numPts), (int)(yCOM/numPts));
+    }
+
+    /*
+     * Parameters: the minimum number of ink pels for a row or column to count as part of the glyph
+     * Function: Returns the corners of the glyph the same way ImageProcessor.cornerArray does for the 0/1 picture
+     *           with threshold 1
+     */
+    public ImageProcessor.Location[][] cornerArray(int numPix)
+    {
+        int[] rowCount = new int[height];
+        int[] colCount = new int[width];
+        int[] hor = new int[ImageProcessor.NUM_EDGES/2];
+        int[] ver = new int[ImageProcessor.NUM_EDGES/2];
+
+        rowCounts(rowCount);
+        if (inkCount() > 0)
+        {
+            colCounts(colCount);
+            ImageProcessor.findEdges(rowCount, height, numPix, hor);
+            ImageProcessor.findEdges(colCount, width, numPix, ver);
+        }
+
+        ImageProcessor.Location[][] output = new ImageProcessor.Location[ImageProcessor.NUM_EDGES/2][ImageProcessor.NUM_EDGES/2];
+        for (int i = 0; i < ImageProcessor.NUM_EDGES/2; i++)
+        {
+            for (int j = 0; j < ImageProcessor.NUM_EDGES/2; j++)
+            {
+                output[i][j] = new ImageProcessor.Location(hor[i], ver[j]);
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: a Location vector
+     * Function: Returns the image shifted by the vector (x moves rows, y moves columns). Pels shifted out are
+     *           dropped. Rows are moved whole and columns are moved with word shifts.
+     */
+    public BinaryImage shift(ImageProcessor.Location shift)
+    {
+        BinaryImage output = new BinaryImage(width, height);
+        int dx = shift.getX();
+        int dy = shift.getY();
+        int wordShift = Math.abs(dy) >>> 6;
+        int bitShift = Math.abs(dy) & 63;
+
+        for (int i = Math.max(0, -dx); i < Math.min(height, height - dx); i++)
+        {
+            int src = i * wordsPerRow;
+            int dst = (i + dx) * wordsPerRow;
+
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long value;
+                if (dy >= 0)                           // moving right: toward more significant bits
+                {
+                    int from = w - wordShift;
+                    value = (from >= 0) ? words[src + from] << bitShift : 0;
+                    if (bitShift != 0 && from - 1 >= 0) value |= words[src + from - 1] >>> (64 - bitShift);
+                }
+                else                                   // moving left: toward less significant bits
+                {
+                    int from = w + wordShift;
+                    value = (from < wordsPerRow) ? words[src + from] >>> bitShift : 0;
+                    if (bitShift != 0 && from + 1 < wordsPerRow) value |= words[src + from + 1] << (64 - bitShift);
+                }
+                output.words[dst + w] = value;
+            }
+            output.clearPadding(i + dx);
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: the value to give ink pels
+     * Function: Returns the image as a FlatImage with ink set to inkValue and everything else BLANK
+     */
+    public FlatImage toFlatImage(int inkValue)
+    {
+        FlatImage output = new FlatImage(width, height);
+        int[] data = output.getData();
+
+        for (int i = 0; i < height; i++)
+        {
+            int row = i * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long bits = words[row + w];
+                while (bits != 0)
+                {
+                    data[i * width + (w << 6) + Long.numberOfTrailingZeros(bits)] = inkValue;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Function: Clears the bits past the width in the last word of the row
+     */
+    private void clearPadding(int row)
+    {
+        int used = width & 63;
+        if (used != 0)
+        {
+            words[row * wordsPerRow + wordsPerRow - 1] &= (1L << used) - 1;
+        }
+    }
+} // public class BinaryImage
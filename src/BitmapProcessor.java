@@ -14,6 +14,9 @@
  *  RgbQuad pelToRGB(int pel)
  *  int     rgbToPel(int red, int green, int blue)
  *  int     colorToGrayscale(int pel)
+ *  int     luminance(int red, int green, int blue)
+ *  void    decodeRle(DataInputStream in, int bitCount, int width, int height, byte[] indices)
+ *  byte[]  grayTable(int[] colors, int numberOfColors)
  *  void    main(String[] args)
  *  
  * There is a lot of cutting and pasting from various
@@ -97,8 +100,19 @@ public class BitmapProcessor
     static int bmpInfoHeader_biYPelsPerMeter; // LONG
     static int bmpInfoHeader_biClrUsed;       // DWORD
     static int bmpInfoHeader_biClrImportant;  // DWORD
-// The true color pels
+    static boolean topDown;                   // true if biHeight was negative (rows stored top row first)
+// The true color pels (only filled in directly for 24-bit images, see getImageRaw)
     static int[][] imageArray;
+// Compact pels for palettized images (1, 4 and 8-bit, plain or RLE compressed)
+    static byte[] indexArray;                  // one color table index per pel, top row first
+    static byte[] packedArray;                 // 1-bit images only: the raw bits, MSB is the left pel, top row first
+    static int packedBytesPerRow;              // bytes per row of packedArray (no 4-byte padding)
+    static int[] colorTable;                   // the color table actually used by the image
+    static byte[] grayArray;                   // lazily built 8-bit luminance of every pel, top row first
+// Compression types
+    static final int BI_RGB  = 0;
+    static final int BI_RLE8 = 1;
+    static final int BI_RLE4 = 2;
 //output file for processed bitmap
     //static final String outFile = "out.bmp";
 
@@ -174,11 +188,21 @@ public class BitmapProcessor
     {
         RgbQuad rgb = pelToRGB(pel);
     
-        int lum = (int)Math.round(0.3 * (double)rgb.red + 0.589 * (double)rgb.green + 0.11 * (double)rgb.blue);
+        int lum = luminance(rgb.red, rgb.green, rgb.blue);
 
         return rgbToPel(lum, lum, lum);
     }
 
+    /*
+     * Parameters: the three color bytes of a pel
+     * Function: Returns its 8-bit luminance, Y = 0.3RED+0.59GREEN+0.11Blue rounded to the nearest integer. Every
+     *           class that turns color into gray calls this, so they all agree pel for pel.
+     */
+    static int luminance(int red, int green, int blue)
+    {
+        return (int)Math.round(0.3 * (double)red + 0.589 * (double)green + 0.11 * (double)blue);
+    }
+
     public BitmapProcessor(String inFileName)
     {
         //String outFileName;
@@ -195,11 +219,13 @@ public class BitmapProcessor
         
         
         //outFileName = outFile;                                  // saves processed bitmap into pre-configured output file
+        long start = Metrics.start();
         
         try
         {
             FileInputStream fstream = new FileInputStream(inFileName);
-            DataInputStream in = new DataInputStream(fstream);  //allows for access into bytes of the bitmap file
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fstream));
+                // allows for access into bytes of the bitmap file; buffered so single byte reads don't each hit the disk
             
 /*
 *  Read in BITMAPFILEHEADER
@@ -337,6 +363,11 @@ public class BitmapProcessor
             bmpInfoHeader_biClrUsed       = swapInt(in.readInt());              // DWORD
             bmpInfoHeader_biClrImportant  = swapInt(in.readInt());              // DWORD
             
+            if (bmpInfoHeader_biSize > 40) in.skipBytes(bmpInfoHeader_biSize - 40); // V4/V5 headers carry fields we don't use
+            
+            topDown = bmpInfoHeader_biHeight < 0;                               // a negative height means the rows are stored top row first
+            if (topDown) bmpInfoHeader_biHeight = -bmpInfoHeader_biHeight;
+            
 /*
 *Now for the color table. For true color images, there isn't one.
 *
@@ -376,7 +407,14 @@ public class BitmapProcessor
 *     If biBitCount equals 16 or 32, the optimal color palette starts immediately following the three DWORD masks.
 *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array immediately follows the BITMAPINFO header and is referenced by a single pointer), the biClrUsed member must be either zero or the actual size of the color table.
 */
-           if (bmpInfoHeader_biClrUsed > 0) numberOfColors = bmpInfoHeader_biClrUsed;
+           // biClrUsed can't give a palettized image more colors than its bit count allows (FeatureDecoder clamps it
+           // the same way), and for true color the table is only a hint, of which no more is kept than colorPallet
+           // has room for. Entries that aren't read are skipped with the dead bytes below.
+           if (bmpInfoHeader_biClrUsed > 0)
+           {
+               numberOfColors = Math.min(bmpInfoHeader_biClrUsed,
+                       (numberOfColors > 0) ? numberOfColors : colorPallet.length);
+           }
            
            for (i = 0; i < numberOfColors; ++i) // Read in the color table (or not if numberOfColors is zero)
            {
@@ -390,6 +428,10 @@ public class BitmapProcessor
 
                colorPallet[i] = (rgbQuad_rgbRed << 16) | (rgbQuad_rgbGreen << 8) | rgbQuad_rgbBlue;
            }
+           
+           // some writers leave a gap between the color table and the bits, so go to where the header says the bits are
+           iDeadBytes = bmpFileHeader_bfOffBits - (14 + bmpInfoHeader_biSize + 4 * numberOfColors);
+           if (iDeadBytes > 0) in.skipBytes(iDeadBytes);
 /*
 * Now, we need to read in the rest of the bit map, but how we interpret the values depends on the color depth.
 *
@@ -407,23 +449,84 @@ public class BitmapProcessor
 * For ALL image types each scan line is padded to an even 4-byte boundary.
 *
 */
-           imageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth]; // Create the array for the pels
+           imageArray = null;
+           indexArray = null;
+           packedArray = null;
+           grayArray = null;
+           colorTable = null;
 /*
 * I use the same loop structure for each case for clarity so you can see the similarities and differences.
 * The outer loop is over the rows (in reverse), the inner loop over the columns. 
+*
+* Palettized images are not expanded to true color here. They are kept as one index byte per pel (or as the
+* raw bits for 1-bit images) and only expanded if somebody asks for getImage or getImageRaw.
 */
            switch (bmpInfoHeader_biBitCount)
            {
-              
+               case 1:
+/*
+* Each bit is a pel. The rows are copied as they are, minus the padding, so the image stays 1 bit per pel.
+*/
+                   colorTable = java.util.Arrays.copyOf(colorPallet, numberOfColors);
+                   iBytesPerRow = ((bmpInfoHeader_biWidth + 31) / 32) * 4;
+                   packedBytesPerRow = (bmpInfoHeader_biWidth + 7) / 8;
+                   packedArray = new byte[packedBytesPerRow * bmpInfoHeader_biHeight];
+                   iDeadBytes = iBytesPerRow - packedBytesPerRow;
+
+                   for (k = 0; k < bmpInfoHeader_biHeight; ++k)   // k counts the rows in file order
+                   {
+                       i = topDown ? k : bmpInfoHeader_biHeight - 1 - k;
+                       in.readFully(packedArray, i * packedBytesPerRow, packedBytesPerRow);
+                       in.skipBytes(iDeadBytes);
+                   }
+                   break;
+               case 4:
+               case 8:
+/*
+* Each nibble or byte is a pel. Either way the index goes into its own byte of indexArray.
+*/
+                   colorTable = java.util.Arrays.copyOf(colorPallet, numberOfColors);
+                   indexArray = new byte[bmpInfoHeader_biWidth * bmpInfoHeader_biHeight];
+
+                   if (bmpInfoHeader_biCompression == BI_RLE8 || bmpInfoHeader_biCompression == BI_RLE4)
+                   {
+                       decodeRle(in, bmpInfoHeader_biBitCount, bmpInfoHeader_biWidth, bmpInfoHeader_biHeight, indexArray);
+                       break;
+                   }
+
+                   iBytesPerRow = ((bmpInfoHeader_biWidth * bmpInfoHeader_biBitCount + 31) / 32) * 4;
+                   byte[] row = new byte[iBytesPerRow];
+
+                   for (k = 0; k < bmpInfoHeader_biHeight; ++k)   // k counts the rows in file order
+                   {
+                       i = topDown ? k : bmpInfoHeader_biHeight - 1 - k;
+                       in.readFully(row);
+                       iColumn = i * bmpInfoHeader_biWidth;
+                       if (bmpInfoHeader_biBitCount == 8)
+                       {
+                           System.arraycopy(row, 0, indexArray, iColumn, bmpInfoHeader_biWidth);
+                       }
+                       else
+                       {
+                           for (j = 0; j < bmpInfoHeader_biWidth; ++j)
+                           {
+                               iByteVal = row[j >> 1];
+                               indexArray[iColumn + j] = (byte)(((j & 1) == 0) ? (iByteVal >> 4) & 0x0F : iByteVal & 0x0F);
+                           }
+                       }
+                   }
+                   break;
                case 24: // Works
 /*
 * Each three bytes read in is 1 column. Each scan line is padded to by a multiple of 4 bytes.
 */
+                   imageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth]; // Create the array for the pels
                    iPelsPerRow = bmpInfoHeader_biWidth;
                    iDeadBytes = (4 - (iPelsPerRow * 3) % 4) % 4;
     
-                   for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i) // read over the rows
+                   for (k = 0; k < bmpInfoHeader_biHeight; ++k) // read over the rows
                    {
+                       i = topDown ? k : bmpInfoHeader_biHeight - 1 - k;
                        for (j = 0; j < iPelsPerRow; ++j)         // j is now just the column counter
                        {
                            rgbQuad_rgbBlue      = in.readUnsignedByte();
@@ -436,7 +539,7 @@ public class BitmapProcessor
                    }
                    break;
                default: // Oops
-                   throw new RuntimeException("This can only read in 24-bit BMPs. Please reformat the image and try again.\n");
+                   throw new RuntimeException("This can only read in 1, 4, 8 and 24-bit BMPs. Please reformat the image and try again.\n");
 
            } // switch (bmpInfoHeader_biBitCount)
 
@@ -448,6 +551,7 @@ public class BitmapProcessor
         {
             System.err.println("File input error" + e);
         }
+        Metrics.stop(Metrics.READ_BITMAP, start);
         
 
 /*
@@ -544,6 +648,7 @@ public class BitmapProcessor
     public int[][] getImage()
     {
         int[][] output = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth];
+        int[][] imageArray = getImageRaw();              // expands palettized images if needed
         
         for (int i = 0; i < bmpInfoHeader_biHeight; i++) // read over the rows
         {
@@ -565,101 +670,247 @@ public class BitmapProcessor
     }
     
     /*
-     * Function: Gets the byte array for the image
+     * Function: Gets the image in the same form as getImage (white = 0) as a flat image, without building the
+     *           int[][] for palettized images
+     */
+    public FlatImage getFlatImage()
+    {
+        int width = bmpInfoHeader_biWidth;
+        int height = bmpInfoHeader_biHeight;
+        FlatImage output = new FlatImage(width, height);
+        int[] data = output.getData();
+        
+        for (int i = 0; i < height; i++)
+        {
+            for (int j = 0; j < width; j++)
+            {
+                int pel = (imageArray != null) ? imageArray[i][j] : colorTable[getIndex(i, j)];
+                data[i * width + j] = 16777215 - pel;       //subtracts from the value of white so that white = 0
+            }
+        }
+        
+        return output;
+    }
+    
+    /*
+     * Function: Gets the byte array for the image. Palettized images are expanded to true color the first time
+     *           this is called.
      */
     public int[][] getImageRaw()
     {
+        if (imageArray == null && colorTable != null)
+        {
+            imageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth];
+            for (int i = 0; i < bmpInfoHeader_biHeight; i++)
+            {
+                for (int j = 0; j < bmpInfoHeader_biWidth; j++)
+                {
+                    imageArray[i][j] = colorTable[getIndex(i, j)];
+                }
+            }
+        }
         return imageArray;
     }
     
     /*
-     * Function: Returns the image type of the saved bitmap
+     * Function: Returns the 8-bit luminance of every pel (0 = black, 255 = white), one byte per pel with the top row
+     *           first. For palettized images this is a single table lookup per pel and no true color array is made.
      */
-    public int getImageType()
+    public byte[] getGrayImage()
     {
-        return bmpInfoHeader_biBitCount;
+        if (grayArray != null) return grayArray;
+        
+        int width = bmpInfoHeader_biWidth;
+        int height = bmpInfoHeader_biHeight;
+        byte[] output = new byte[width * height];
+        
+        if (colorTable != null)
+        {
+            byte[] table = grayTable(colorTable, colorTable.length);
+            for (int i = 0; i < height; i++)
+            {
+                for (int j = 0; j < width; j++)
+                {
+                    output[i * width + j] = table[getIndex(i, j)];
+                }
+            }
+        }
+        else
+        {
+            for (int i = 0; i < height; i++)
+            {
+                for (int j = 0; j < width; j++)
+                {
+                    output[i * width + j] = (byte)colorToGrayscale(imageArray[i][j]);  // lowest byte of the gray pel is the luminance
+                }
+            }
+        }
+        
+        grayArray = output;
+        return output;
     }
-
+    
     /*
-     * Function: Saves input image from outFile source as the true color image of the same type of bitmap as the inputed image
+     * Function: Returns the raw bits of a 1-bit image with the top row first, getPackedBytesPerRow() bytes per row and
+     *           the most significant bit as the left pel. A set bit means the pel uses the second color table entry.
+     *           Returns null for every other image type.
      */
-    public void saveAsBMP(int[][] image, String outFile)
+    public byte[] getPackedImage()
     {
-        int iDeadBytes;
-        int pel;
-        int rgbQuad_rgbBlue, rgbQuad_rgbGreen, rgbQuad_rgbRed;
-        int width, height, imageSize, colorsUsed, colorsImportant, compression, fileSize;
+        return packedArray;
+    }
+    
+    /*
+     * Function: Returns the number of bytes in each row of getPackedImage()
+     */
+    public int getPackedBytesPerRow()
+    {
+        return packedBytesPerRow;
+    }
+    
+    /*
+     * Function: Returns the color table of a palettized image (null for true color images)
+     */
+    public int[] getColorTable()
+    {
+        return colorTable;
+    }
+    
+    /*
+     * Function: Returns the width of the image in pels
+     */
+    public int getWidth()
+    {
+        return bmpInfoHeader_biWidth;
+    }
+    
+    /*
+     * Function: Returns the height of the image in pels
+     */
+    public int getHeight()
+    {
+        return bmpInfoHeader_biHeight;
+    }
+    
+    /*
+     * Parameters: a row and a column
+     * Function: Returns the color table index of the pel of a palettized image
+     */
+    private int getIndex(int row, int col)
+    {
+        if (packedArray != null)
+        {
+            return (packedArray[row * packedBytesPerRow + (col >> 3)] >> (7 - (col & 7))) & 1;
+        }
+        return indexArray[row * bmpInfoHeader_biWidth + col] & 0xFF;
+    }
+    
+    /*
+     * Parameters: a color table and the number of colors in it
+     * Function: Returns the 8-bit luminance of each color in the table
+     */
+    static byte[] grayTable(int[] colors, int numberOfColors)
+    {
+        byte[] output = new byte[numberOfColors];
         
-        width = image[0].length;
-        height = image.length;
+        for (int i = 0; i < numberOfColors; i++)
+        {
+            int red   = (colors[i] >> 16) & 0x00FF;
+            int green = (colors[i] >> 8)  & 0x00FF;
+            int blue  =  colors[i]        & 0x00FF;
+            output[i] = (byte)luminance(red, green, blue);
+        }
         
-        try
+        return output;
+    }
+    
+/*
+ * Parameters: the stream positioned at the bitmap bits, the bit count (4 or 8), the image size and the output array
+ * Function: Expands BI_RLE4 / BI_RLE8 compressed bits into one color table index per pel, top row first.
+ *
+ * The compressed bits are a series of two byte records. If the first byte is not zero it is a run: that many pels
+ * of the color in the second byte (for RLE4 the two nibbles of the second byte alternate). If the first byte is zero
+ * the second byte is an escape:
+ *      0       end of line
+ *      1       end of bitmap
+ *      2       delta, the next two bytes are how far right and how far up to move
+ *      n >= 3  absolute mode, the next n pels are stored literally, padded to a 2 byte boundary
+ * Compressed bitmaps are always stored bottom up. Pels skipped by a delta or an early end of line are left as index 0.
+ */
+    static void decodeRle(DataInputStream in, int bitCount, int width, int height, byte[] indices) throws IOException
+    {
+        int x = 0;
+        int y = height - 1;                      // the first line in the file is the bottom row
+        
+        while (y >= 0)
         {
-            iDeadBytes = (4 - (width * 3) % 4) % 4;
-
-            imageSize =  (width * 3 + iDeadBytes) * height;
-            fileSize = imageSize + bmpFileHeader_bfOffBits;      // off bits determined in constructor method
-            compression = 0;                                     // BI_RGB (which is a value of zero)
-            colorsUsed = 0;                                      // Zero for true color
-            colorsImportant = 0;                                 // Zero for true color
-
-            FileOutputStream fstream = new FileOutputStream(outFile);
-            DataOutputStream out = new DataOutputStream(fstream);
-
-// BITMAPFILEHEADER
-            out.writeShort(swapShort(bmpFileHeader_bfType));      // WORD; predetermined in constructor
-            out.writeInt(swapInt(fileSize));                      // DWORD
-            out.writeShort(swapShort(bmpFileHeader_bfReserved1)); // WORD; predetermined in constructor
-            out.writeShort(swapShort(bmpFileHeader_bfReserved2)); // WORD; predetermined in constructor
-            out.writeInt(swapInt(bmpFileHeader_bfOffBits));       // DWORD; predetermined in constructor
-
-// BITMAPINFOHEADER
-            out.writeInt(swapInt(bmpInfoHeader_biSize));          // DWORD; predetermined in constructor
-            out.writeInt(swapInt(width));                         // LONG
-            out.writeInt(swapInt(height));                        // LONG
-            out.writeShort(swapShort(bmpInfoHeader_biPlanes));    // WORD; predetermined in constructor
-            out.writeShort(swapShort(bmpInfoHeader_biBitCount));  // WORD; predetermined in constructor
-            out.writeInt(swapInt(compression));                   // DWORD
-            out.writeInt(swapInt(imageSize));                     // DWORD
-            out.writeInt(swapInt(bmpInfoHeader_biXPelsPerMeter)); // LONG; predetermined in constructor
-            out.writeInt(swapInt(bmpInfoHeader_biYPelsPerMeter)); // LONG; predetermined in constructor
-            out.writeInt(swapInt(colorsUsed));       // DWORD
-            out.writeInt(swapInt(colorsImportant));  // DWORD
-
-// there is no color table for this true color image, so write out the pels
-
-            for (int i = height - 1; i >= 0; i--)    // write over the rows
+            int count = in.readUnsignedByte();
+            int value = in.readUnsignedByte();
+            
+            if (count > 0)                                               // encoded run
+            {
+                for (int k = 0; k < count; k++, x++)
+                {
+                    int index = (bitCount == 8) ? value : (((k & 1) == 0) ? value >> 4 : value & 0x0F);
+                    if (x < width) indices[y * width + x] = (byte)index;
+                }
+            }
+            else if (value == 0)                                         // end of line
+            {
+                x = 0;
+                y--;
+            }
+            else if (value == 1)                                         // end of bitmap
+            {
+                break;
+            }
+            else if (value == 2)                                         // delta
+            {
+                x += in.readUnsignedByte();
+                y -= in.readUnsignedByte();
+            }
+            else                                                         // absolute mode
             {
-                for (int j = 0; j < width; j++)      // and the columns
+                int numBytes = (bitCount == 8) ? value : (value + 1) / 2;
+                int iByteVal = 0;
+                
+                for (int k = 0; k < value; k++, x++)
                 {
-                    pel = image[i][j];
-                    pel = 16777215 - pel;
-                    pel = colorToGrayscale(pel);
-                    /*if(pel > 0)
+                    int index;
+                    if (bitCount == 8)
                     {
-                        pel = 0;                // sets the pel to black 
+                        index = in.readUnsignedByte();
                     }
                     else
                     {
-                        pel = 0xFFFFFF;                // sets the pel to white
-                    }*/
-                    rgbQuad_rgbBlue  = pel & 0x00FF;
-                    rgbQuad_rgbGreen = (pel >> 8)  & 0x00FF;
-                    rgbQuad_rgbRed   = (pel >> 16) & 0x00FF;
-                    out.writeByte(rgbQuad_rgbBlue); // lowest byte in the color
-                    out.writeByte(rgbQuad_rgbGreen);
-                    out.writeByte(rgbQuad_rgbRed);  // highest byte in the color
-                    //out.writeInt(swapInt(16777215-pel));
-                }
-                for (int j = 0; j < iDeadBytes; j++)
-                {
-                    out.writeByte(0); // Now write out the "dead bytes" to pad to a 4 byte boundary
+                        if ((k & 1) == 0) iByteVal = in.readUnsignedByte();
+                        index = ((k & 1) == 0) ? iByteVal >> 4 : iByteVal & 0x0F;
+                    }
+                    if (x < width && y >= 0) indices[y * width + x] = (byte)index;
                 }
+                if ((numBytes & 1) == 1) in.readUnsignedByte();         // pad to a 2 byte boundary
             }
+        }
+    }
+    
+    /*
+     * Function: Returns the image type of the saved bitmap
+     */
+    public int getImageType()
+    {
+        return bmpInfoHeader_biBitCount;
+    }
 
-            out.close();
-            fstream.close();
-        } //try
+    /*
+     * Function: Saves the image (in the form returned by getImage) as a 24-bit grayscale bitmap. The headers are
+     *           built from the image itself by BitmapWriter, so nothing has to have been read in first.
+     */
+    public void saveAsBMP(int[][] image, String outFile)
+    {
+        try
+        {
+            new BitmapWriter().write(image, outFile);
+        }
         catch (Exception e)
         {
             System.err.println("File output error" + e);
@@ -0,0 +1,242 @@
+/*
+ * Description: Writes images out as BMP files without needing a bitmap to have been read in first. The headers are
+ *              built from the image alone, the pels are encoded a row at a time into a reusable byte array and the
+ *              array is handed to a FileChannel in bulk, so there is no per-byte stream call.
+ *
+ *              Three kinds of images can be written:
+ *                  write(int[][], String)              an image in the getImage() form (0 = white), saved as a 24-bit
+ *                                                      grayscale BMP. This is what BitmapProcessor.saveAsBMP does.
+ *                  writeGray(byte[], int, int, String) 8-bit luminance pels (0 = black), saved as an 8-bit BMP with a
+ *                                                      gray color table (a third of the size of the 24-bit file)
+ *                  writeFeatures(double[], ...)        a network input vector as made by FeatureDecoder, saved as an
+ *                                                      8-bit gray BMP
+ *
+ *              A writer keeps its buffers between calls and has no static state, so any number of writers can be
+ *              used at once; just don't share one writer between threads.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class BitmapWriter
+{
+    public static final int FILE_HEADER_SIZE = 14;
+    public static final int INFO_HEADER_SIZE = 40;
+    public static final int GRAY_COLORS = 256;
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;       // rows are flushed once this much has been encoded
+
+    private final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE + INFO_HEADER_SIZE + 4 * GRAY_COLORS)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] rowBuffer = new byte[MIN_BUFFER_SIZE];
+
+    /*
+     * Parameters: an image in the form returned by BitmapProcessor.getImage() and the output file name
+     * Function: Writes the image as a 24-bit grayscale BMP. Each pel is inverted back (white = 0xFFFFFF) and turned
+     *           into gray the same way colorToGrayscale does it.
+     */
+    public void write(int[][] image, String outFile) throws IOException
+    {
+        int width = image[0].length;
+        int height = image.length;
+        int bytesPerRow = ((width * 24 + 31) / 32) * 4;
+
+        FileChannel out = open(outFile);
+        try
+        {
+            writeHeader(out, width, height, 24, bytesPerRow);
+            byte[] buf = rowBuffer(bytesPerRow);
+            int used = 0;
+
+            for (int i = height - 1; i >= 0; i--)          // bottom row first
+            {
+                if (used + bytesPerRow > buf.length)
+                {
+                    flush(out, buf, used);
+                    used = 0;
+                }
+
+                int[] row = image[i];
+                int pos = used;
+                for (int j = 0; j < width; j++)
+                {
+                    int pel = 16777215 - row[j];
+                    byte lum = (byte)BitmapProcessor.luminance((pel >> 16) & 0x00FF, (pel >> 8) & 0x00FF, pel & 0x00FF);
+                    buf[pos++] = lum;                          // blue
+                    buf[pos++] = lum;                          // green
+                    buf[pos++] = lum;                          // red
+                }
+                while (pos < used + bytesPerRow)
+                {
+                    buf[pos++] = 0;                            // "dead bytes" to pad to a 4 byte boundary
+                }
+                used = pos;
+            }
+            flush(out, buf, used);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*
+     * Parameters: luminance pels (top row first, 0 = black, 255 = white), the image size and the output file name
+     * Function: Writes the pels as an 8-bit BMP with a 256 entry gray color table.
+     */
+    public void writeGray(byte[] gray, int width, int height, String outFile) throws IOException
+    {
+        int bytesPerRow = ((width * 8 + 31) / 32) * 4;
+
+        FileChannel out = open(outFile);
+        try
+        {
+            writeHeader(out, width, height, 8, bytesPerRow);
+            byte[] buf = rowBuffer(bytesPerRow);
+            int used = 0;
+
+            for (int i = height - 1; i >= 0; i--)
+            {
+                if (used + bytesPerRow > buf.length)
+                {
+                    flush(out, buf, used);
+                    used = 0;
+                }
+
+                System.arraycopy(gray, i * width, buf, used, width);
+                for (int j = width; j < bytesPerRow; j++)
+                {
+                    buf[used + j] = 0;
+                }
+                used += bytesPerRow;
+            }
+            flush(out, buf, used);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*
+     * Parameters: a feature vector (top row first, 0 = white, 1 = black), the index of its first pel, the image size
+     *             and the output file name
+     * Function: Writes the features as an 8-bit gray BMP. Values outside [0, 1] are clamped.
+     */
+    public void writeFeatures(double[] features, int offset, int width, int height, String outFile)
+            throws IOException
+    {
+        int bytesPerRow = ((width * 8 + 31) / 32) * 4;
+
+        FileChannel out = open(outFile);
+        try
+        {
+            writeHeader(out, width, height, 8, bytesPerRow);
+            byte[] buf = rowBuffer(bytesPerRow);
+            int used = 0;
+
+            for (int i = height - 1; i >= 0; i--)
+            {
+                if (used + bytesPerRow > buf.length)
+                {
+                    flush(out, buf, used);
+                    used = 0;
+                }
+
+                int in = offset + i * width;
+                for (int j = 0; j < width; j++)
+                {
+                    double ink = Math.min(1.0, Math.max(0.0, features[in + j]));
+                    buf[used + j] = (byte)(255 - (int)Math.round(ink * 255.0));
+                }
+                for (int j = width; j < bytesPerRow; j++)
+                {
+                    buf[used + j] = 0;
+                }
+                used += bytesPerRow;
+            }
+            flush(out, buf, used);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*
+     * Parameters: the channel, the image size, bits per pel and padded bytes per row
+     * Function: Writes BITMAPFILEHEADER, BITMAPINFOHEADER and, for 8-bit images, a gray color table
+     */
+    private void writeHeader(FileChannel out, int width, int height, int bitCount, int bytesPerRow)
+            throws IOException
+    {
+        int numberOfColors = (bitCount == 8) ? GRAY_COLORS : 0;
+        int offBits = FILE_HEADER_SIZE + INFO_HEADER_SIZE + 4 * numberOfColors;
+        int imageSize = bytesPerRow * height;
+
+        header.clear();
+// BITMAPFILEHEADER
+        header.putShort((short)0x4D42);                  // WORD  bfType ("BM")
+        header.putInt(offBits + imageSize);              // DWORD bfSize
+        header.putShort((short)0);                       // WORD  bfReserved1
+        header.putShort((short)0);                       // WORD  bfReserved2
+        header.putInt(offBits);                          // DWORD bfOffBits
+// BITMAPINFOHEADER
+        header.putInt(INFO_HEADER_SIZE);                 // DWORD biSize
+        header.putInt(width);                            // LONG  biWidth
+        header.putInt(height);                           // LONG  biHeight (positive, so bottom row first)
+        header.putShort((short)1);                       // WORD  biPlanes
+        header.putShort((short)bitCount);                // WORD  biBitCount
+        header.putInt(BitmapProcessor.BI_RGB);           // DWORD biCompression
+        header.putInt(imageSize);                        // DWORD biSizeImage
+        header.putInt(0);                                // LONG  biXPelsPerMeter
+        header.putInt(0);                                // LONG  biYPelsPerMeter
+        header.putInt(numberOfColors);                   // DWORD biClrUsed
+        header.putInt(0);                                // DWORD biClrImportant
+// RGBQUADs
+        for (int i = 0; i < numberOfColors; i++)
+        {
+            header.putInt((i << 16) | (i << 8) | i);     // blue, green, red, reserved in file order
+        }
+        header.flip();
+
+        while (header.hasRemaining())
+        {
+            out.write(header);
+        }
+    }
+
+    /*
+     * Parameters: the padded size of one row
+     * Function: Returns the row buffer, grown if a single row would not fit in it
+     */
+    private byte[] rowBuffer(int bytesPerRow)
+    {
+        if (rowBuffer.length < bytesPerRow)
+        {
+            rowBuffer = new byte[bytesPerRow];
+        }
+        return rowBuffer;
+    }
+
+    /*
+     * Parameters: the channel, the buffer and how many bytes of it are filled
+     * Function: Writes the encoded rows out in one go
+     */
+    private static void flush(FileChannel out, byte[] buf, int used) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.wrap(buf, 0, used);
+        while (bytes.hasRemaining())
+        {
+            out.write(bytes);
+        }
+    }
+
+    private static FileChannel open(String outFile) throws IOException
+    {
+        return FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+} // public class BitmapWriter
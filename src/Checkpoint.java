@@ -0,0 +1,249 @@
+/*
+ * Description: A snapshot of a training run that it can be resumed from: the weights, the number of epochs trained,
+ *              the error after the last of them, the seed of the run's random numbers and the training rate.
+ *
+ *              That is all of the trainer's state. The training is plain backpropagation with a fixed rate
+ *              (BackPropPerceptron.getTrainingRate), which keeps nothing from one step to the next but the weights.
+ *              The only random numbers used during training are StreamingTrainer's shuffles, which it makes
+ *              from the seed and the epoch. The training rate is only saved to catch a resume with a different one.
+ *
+ *              The file is
+ *
+ *                  int     MAGIC
+ *                  int     VERSION
+ *                  int     epoch
+ *                  double  error
+ *                  long    seed
+ *                  double  training rate
+ *                  ...     the weights, in the form of a weights file (BackPropPerceptron.writeWeights)
+ *                  long    CRC-32 of everything before it
+ *
+ *              write puts it in a temporary file next to the real one, forces it to disk, renames it over the
+ *              real one and forces the directory to disk, so that the rename is too. The real file is always either
+ *              the old checkpoint or the new one, never a torn mix, even if the machine goes down in the middle. (On
+ *              systems where a directory can't be opened to force it, such as Windows, the rename is only as durable
+ *              as the file system makes it.) A write that fails deletes its temporary file.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+public class Checkpoint
+{
+    public static final int MAGIC = 0x4C444350;          // "LDCP"
+    public static final int VERSION = 1;
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private final int epoch;
+    private final double error;
+    private final long seed;
+    private final double trainingRate;
+    private final double[][][] weights;
+
+    /*
+     * Parameters: the epochs trained, the error after the last one, the seed of the run and the weights of a run
+     *             at the default training rate. The weights are kept, not copied.
+     */
+    public Checkpoint(int epochs, double err, long randomSeed, double[][][] w)
+    {
+        this(epochs, err, randomSeed, BackPropPerceptron.TRAINING_OFFSET, w);
+    }
+
+    /*
+     * Parameters: the same, with the training rate of the run
+     */
+    public Checkpoint(int epochs, double err, long randomSeed, double rate, double[][][] w)
+    {
+        epoch = epochs;
+        error = err;
+        seed = randomSeed;
+        trainingRate = rate;
+        weights = w;
+    }
+
+    /*
+     * Function: Returns a copy of a weight set that shares no arrays with it
+     */
+    public static double[][][] copyOf(double[][][] w)
+    {
+        double[][][] output = new double[w.length][][];
+        for (int i = 0; i < w.length; i++)
+        {
+            output[i] = new double[w[i].length][];
+            for (int j = 0; j < w[i].length; j++)
+            {
+                output[i][j] = w[i][j].clone();
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: the checkpoint file
+     * Function: Writes the checkpoint atomically (see above)
+     */
+    public void write(String fileName) throws IOException
+    {
+        File target = new File(fileName);
+        File temp = new File(fileName + TEMP_SUFFIX);
+        boolean moved = false;
+        try
+        {
+            writeTo(temp);
+            try
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        }
+        finally
+        {
+            if (!moved)
+            {
+                temp.delete();
+            }
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /*
+     * Parameters: the temporary file
+     * Function: Writes the checkpoint into it and forces it to disk
+     */
+    private void writeTo(File temp) throws IOException
+    {
+        FileOutputStream file = new FileOutputStream(temp);
+        try
+        {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16),
+                    new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(epoch);
+            out.writeDouble(error);
+            out.writeLong(seed);
+            out.writeDouble(trainingRate);
+            BackPropPerceptron.writeWeights(weights, out);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /*
+     * Parameters: the directory a checkpoint was renamed in
+     * Function: Forces the directory entry to disk, so the rename survives a crash. Does nothing where a directory
+     *           can't be opened.
+     */
+    private static void syncDirectory(File dir) throws IOException
+    {
+        FileChannel channel;
+        try
+        {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        }
+        catch (IOException e)
+        {
+            return;
+        }
+        try
+        {
+            channel.force(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /*
+     * Parameters: a checkpoint file
+     * Function: Reads a checkpoint, checking its CRC
+     */
+    public static Checkpoint read(String fileName) throws IOException
+    {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(
+                new FileInputStream(fileName), 1 << 16), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException(fileName + " is not a checkpoint.");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException(fileName + " is a version " + version + " checkpoint; only version " + VERSION
+                        + " can be read.");
+            }
+            int epochs = in.readInt();
+            double err = in.readDouble();
+            long randomSeed = in.readLong();
+            double rate = in.readDouble();
+            double[][][] w = BackPropPerceptron.readWeights(in, fileName);
+
+            long crc = checked.getChecksum().getValue();
+            if (in.readLong() != crc)
+            {
+                throw new IOException(fileName + " is damaged (bad CRC).");
+            }
+            return new Checkpoint(epochs, err, randomSeed, rate, w);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /*
+     * Function: Returns the number of epochs trained when the checkpoint was taken
+     */
+    public int getEpoch()
+    {
+        return epoch;
+    }
+
+    public double getError()
+    {
+        return error;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public double getTrainingRate()
+    {
+        return trainingRate;
+    }
+
+    public double[][][] getWeights()
+    {
+        return weights;
+    }
+} // public class Checkpoint
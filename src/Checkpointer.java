@@ -0,0 +1,167 @@
+/*
+ * Description: Takes checkpoints of a training run every N epochs and/or every T seconds, whichever comes first,
+ *              without making the trainer wait for the disk. The trainer calls
+ *
+ *                  if (checkpointer.isDue(epoch)) checkpointer.save(epoch, error, seed, rate, weights);
+ *
+ *              after each epoch. save copies the weights on the trainer's thread, which takes microseconds next to
+ *              an epoch, and hands the copy to a background thread that writes it (Checkpoint.write: temporary file,
+ *              fsync, rename). If the writer is still busy with an older checkpoint when a new one is saved, the
+ *              newest one waiting is the only one written next; a slow disk makes checkpoints rarer instead of
+ *              holding training up or piling up copies.
+ *
+ *              A failed write is reported on standard error and counted, and training goes on. The next checkpoint
+ *              tries again. flush() waits until everything saved has been written, and close() also stops the
+ *              writer thread.
+ */
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Checkpointer
+{
+    private final String fileName;
+    private final int everyEpochs;                      // 0 for no epoch schedule
+    private final long everyNanos;                      // 0 for no time schedule
+    private final ExecutorService writer;
+    private final AtomicReference<Checkpoint> waiting = new AtomicReference<Checkpoint>();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile Future<?> lastWrite;
+    private int lastEpoch;
+    private long lastNanos = System.nanoTime();
+
+    /*
+     * Parameters: the checkpoint file, the epochs between checkpoints and the seconds between checkpoints (0 to
+     *             leave either schedule out)
+     */
+    public Checkpointer(String checkpointFile, int epochs, double seconds)
+    {
+        if (epochs < 0 || seconds < 0 || (epochs == 0 && seconds == 0))
+        {
+            throw new IllegalArgumentException("A checkpoint needs an epoch interval or a time interval > 0");
+        }
+        fileName = checkpointFile;
+        everyEpochs = epochs;
+        everyNanos = (long)(seconds * 1e9);
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "Checkpointer-" + checkpointFile);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    /*
+     * Parameters: the number of epochs trained so far
+     * Function: Returns true if a checkpoint is due: everyEpochs epochs or everySeconds seconds since the last one
+     */
+    public boolean isDue(int epoch)
+    {
+        return (everyEpochs > 0 && epoch - lastEpoch >= everyEpochs)
+                || (everyNanos > 0 && System.nanoTime() - lastNanos >= everyNanos);
+    }
+
+    /*
+     * Parameters: the number of epochs trained, the error after the last one, the seed of the run, its training
+     *             rate and the weights
+     * Function: Copies the weights and queues the checkpoint to be written. Doesn't wait for the write.
+     */
+    public void save(int epoch, double error, long seed, double rate, double[][][] weights)
+    {
+        lastEpoch = epoch;
+        lastNanos = System.nanoTime();
+
+        Checkpoint checkpoint = new Checkpoint(epoch, error, seed, rate, Checkpoint.copyOf(weights));
+        if (waiting.getAndSet(checkpoint) == null)
+        { // nothing was waiting, so no write has been queued for this one
+            lastWrite = writer.submit(new Runnable()
+            {
+                public void run()
+                {
+                    writeWaiting();
+                }
+            });
+        }
+    }
+
+    /*
+     * Function: Runs on the writer thread. Writes the newest checkpoint waiting.
+     */
+    private void writeWaiting()
+    {
+        Checkpoint checkpoint = waiting.getAndSet(null);
+        if (checkpoint == null) return;
+
+        try
+        {
+            checkpoint.write(fileName);
+            written.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            failures.incrementAndGet();
+            System.err.println("Checkpoint write error " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Function: Waits until every checkpoint saved so far has been written (or has failed)
+     */
+    public void flush()
+    {
+        Future<?> last = lastWrite;
+        if (last == null) return;
+        try
+        {
+            last.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            // writeWaiting reports its own errors
+        }
+    }
+
+    /*
+     * Function: Writes what is waiting and stops the writer thread
+     */
+    public void close()
+    {
+        flush();
+        writer.shutdown();
+    }
+
+    /*
+     * Function: Returns the number of checkpoints written
+     */
+    public int getWritten()
+    {
+        return written.get();
+    }
+
+    /*
+     * Function: Returns the number of checkpoint writes that failed
+     */
+    public int getFailures()
+    {
+        return failures.get();
+    }
+} // public class Checkpointer
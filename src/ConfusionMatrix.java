@@ -0,0 +1,207 @@
+/*
+ * Description: Counts how a model's answers on a labeled set compare with the labels: counts[actual][predicted] is
+ *              the number of samples of class actual that the model called predicted. From it come the accuracy and
+ *              each letter's precision (of the samples called that letter, the fraction that were) and recall (of
+ *              the samples of that letter, the fraction called it).
+ *
+ *              A matrix is not thread safe. Parallel scoring gives each piece of work a matrix of its own and adds
+ *              them up with merge at the end, so no counter is ever shared between threads.
+ */
+import java.io.PrintWriter;
+import java.util.Locale;
+
+public class ConfusionMatrix
+{
+    private final long[][] counts;
+
+    /*
+     * Parameters: the number of classes (26 for the letters)
+     */
+    public ConfusionMatrix(int numClasses)
+    {
+        if (numClasses <= 0)
+        {
+            throw new IllegalArgumentException("A confusion matrix needs at least one class.");
+        }
+        counts = new long[numClasses][numClasses];
+    }
+
+    public int getNumClasses()
+    {
+        return counts.length;
+    }
+
+    /*
+     * Parameters: the label of a sample and the class the model gave it
+     */
+    public void add(int actual, int predicted)
+    {
+        counts[actual][predicted]++;
+    }
+
+    /*
+     * Parameters: another matrix of the same number of classes
+     * Function: Adds its counts to this one's
+     */
+    public void merge(ConfusionMatrix other)
+    {
+        if (other.counts.length != counts.length)
+        {
+            throw new IllegalArgumentException("Can't merge a matrix of " + other.counts.length
+                    + " classes into one of " + counts.length + ".");
+        }
+        for (int i = 0; i < counts.length; i++)
+        {
+            for (int j = 0; j < counts.length; j++)
+            {
+                counts[i][j] += other.counts[i][j];
+            }
+        }
+    }
+
+    public long getCount(int actual, int predicted)
+    {
+        return counts[actual][predicted];
+    }
+
+    /*
+     * Function: Returns the number of samples counted
+     */
+    public long total()
+    {
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            sum += support(i);
+        }
+        return sum;
+    }
+
+    /*
+     * Function: Returns the number of samples the model got right
+     */
+    public long correct()
+    {
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            sum += counts[i][i];
+        }
+        return sum;
+    }
+
+    /*
+     * Function: Returns the fraction of the samples the model got right (NaN if there are none)
+     */
+    public double accuracy()
+    {
+        return (double)correct() / total();
+    }
+
+    /*
+     * Parameters: a class
+     * Function: Returns the number of samples of the class
+     */
+    public long support(int c)
+    {
+        long sum = 0;
+        for (int j = 0; j < counts.length; j++)
+        {
+            sum += counts[c][j];
+        }
+        return sum;
+    }
+
+    /*
+     * Parameters: a class
+     * Function: Returns the number of samples the model called the class
+     */
+    public long predicted(int c)
+    {
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            sum += counts[i][c];
+        }
+        return sum;
+    }
+
+    /*
+     * Parameters: a class
+     * Function: Returns the fraction of the samples called the class that were of it (NaN if none were called it)
+     */
+    public double precision(int c)
+    {
+        return (double)counts[c][c] / predicted(c);
+    }
+
+    /*
+     * Parameters: a class
+     * Function: Returns the fraction of the samples of the class that were called it (NaN if there are none)
+     */
+    public double recall(int c)
+    {
+        return (double)counts[c][c] / support(c);
+    }
+
+    /*
+     * Parameters: where to print
+     * Function: Prints the matrix (a row for each actual letter, a column for each predicted one), then each
+     *           letter's precision, recall and support, then the accuracy. An undefined precision or recall is
+     *           printed as -.
+     */
+    public void print(PrintWriter out)
+    {
+        long largest = 0;
+        for (long[] row : counts)
+        {
+            for (long count : row)
+            {
+                largest = Math.max(largest, count);
+            }
+        }
+        String cell = "%" + (Long.toString(largest).length() + 1) + "s";
+        String label = "%-" + name(counts.length - 1).length() + "s";
+
+        out.println("rows: actual, columns: predicted");
+        out.printf(label, "");
+        for (int j = 0; j < counts.length; j++)
+        {
+            out.printf(cell, name(j));
+        }
+        out.println();
+        for (int i = 0; i < counts.length; i++)
+        {
+            out.printf(label, name(i));
+            for (int j = 0; j < counts.length; j++)
+            {
+                out.printf(cell, counts[i][j]);
+            }
+            out.println();
+        }
+
+        out.println();
+        out.println("letter  precision  recall   support");
+        for (int i = 0; i < counts.length; i++)
+        {
+            out.printf(Locale.ROOT, "%-6s  %9s  %6s  %8d%n", name(i), fraction(precision(i)), fraction(recall(i)),
+                    support(i));
+        }
+        out.println();
+        out.printf(Locale.ROOT, "accuracy %s (%d of %d)%n", fraction(accuracy()), correct(), total());
+        out.flush();
+    }
+
+    /*
+     * Function: Returns the letter of a class, or its number if there are more classes than letters
+     */
+    private String name(int c)
+    {
+        return (counts.length <= 26) ? String.valueOf((char)('A' + c)) : Integer.toString(c);
+    }
+
+    private static String fraction(double value)
+    {
+        return Double.isNaN(value) ? "-" : String.format(Locale.ROOT, "%.4f", value);
+    }
+} // public class ConfusionMatrix
@@ -0,0 +1,522 @@
+/*
+ * Description: Measures how well a network shape and its training settings do on glyphs they weren't trained on,
+ *              and scores trained models on large held-out sets.
+ *
+ *              k-fold cross-validation splits the labeled set into k folds with each letter spread evenly over them.
+ *              Each fold is held out once: a network is trained on the other k - 1 folds and scored on it. The folds
+ *              are trained and scored at the same time on a pool of threads, and they all share the one copy of
+ *              the dataset, which nothing writes to. Their confusion matrices are added up into one for the whole
+ *              set.
+ *
+ *              score runs a model over a held-out set on a fork/join pool. The set is split into ranges of samples.
+ *              Each range goes through the model BATCH_SIZE samples at a time (BackPropPerceptron.evaluate(double[][]))
+ *              and is counted into a confusion matrix of its own. The matrices are merged as the ranges are joined,
+ *              so the counting needs no locks or atomics. A PackedDataset is read straight off its mapping, one
+ *              batch at a time, so a million-glyph set is never all in memory at once.
+ *
+ *              Usage: java CrossValidator [-k 5] [-hidden 35] [-depth 1] [-rate .7] [-activation sigmoid] [-seed n]
+ *                         [-init low,high] [-maxEpochs n] [-threads n] [-data file]
+ *                     java CrossValidator -weights file [-test file] [-threads n]
+ *              The first form cross-validates; the second scores a trained model. -data and -test are
+ *              PackedDataset files; without them the 26 letter*.bmp files in the current directory are used. The
+ *              confusion matrix and each letter's precision and recall go to standard output, everything else to
+ *              standard error.
+ */
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+public class CrossValidator
+{
+    public static final int DEFAULT_FOLDS = 5;
+    public static final int BATCH_SIZE = 256;             // samples per evaluate(double[][])
+    public static final int RANGE_SIZE = 8192;            // samples one task scores without splitting
+
+    private final double[][] inputs;
+    private final double[][] targets;
+    private final int[] labels;
+    private final int numFolds;
+    private final int maxEpochs;
+    private final int numThreads;
+    private double initLow = -HyperparameterSweep.DEFAULT_INIT;
+    private double initHigh = HyperparameterSweep.DEFAULT_INIT;
+
+    /*
+     * How one fold did
+     */
+    public static final class Fold
+    {
+        final int index;
+        final int trainSize;
+        final int testSize;
+        final int epochs;
+        final double error;
+        final double seconds;
+        final ConfusionMatrix matrix;
+
+        Fold(int fold, int trained, int tested, int epochsTrained, double err, double time, ConfusionMatrix m)
+        {
+            index = fold;
+            trainSize = trained;
+            testSize = tested;
+            epochs = epochsTrained;
+            error = err;
+            seconds = time;
+            matrix = m;
+        }
+
+        public ConfusionMatrix getMatrix()
+        {
+            return matrix;
+        }
+    }
+
+    /*
+     * The samples of a held-out set, wherever they are kept
+     */
+    private interface Samples
+    {
+        int size();
+
+        int label(int i);
+
+        /*
+         * Function: Returns the inputs of sample i, in row if they have to be copied out (row is allocated if it is
+         *           null, so a caller can keep what it gets back and pass it in again)
+         */
+        double[] row(int i, double[] row);
+    }
+
+    /*
+     * Parameters: the labeled set (shared by every fold and never written to), the number of folds, the most
+     *             epochs a fold is trained and the number of folds to train at once
+     */
+    public CrossValidator(double[][] in, double[][] out, int folds, int epochLimit, int threads)
+    {
+        if (folds < 2 || folds > in.length)
+        {
+            throw new IllegalArgumentException("The number of folds must be from 2 to the number of samples ("
+                    + in.length + ").");
+        }
+        if (epochLimit <= 0 || threads <= 0)
+        {
+            throw new IllegalArgumentException("maxEpochs and threads must be > 0");
+        }
+        inputs = in;
+        targets = out;
+        numFolds = folds;
+        maxEpochs = epochLimit;
+        numThreads = threads;
+        labels = new int[in.length];
+        for (int i = 0; i < in.length; i++)
+        {
+            labels[i] = Recognizer.argmax(out[i]);
+        }
+    }
+
+    /*
+     * Parameters: the range the starting weights are drawn from (see HyperparameterSweep)
+     */
+    public void setInitialRange(double low, double high)
+    {
+        if (!(low < high))
+        {
+            throw new IllegalArgumentException("The starting weights need low < high.");
+        }
+        initLow = low;
+        initHigh = high;
+    }
+
+    /*
+     * Parameters: the network shape and training settings, whose seed also deals out the folds, and the pool to
+     *             score the held-out folds on
+     * Function: Trains and scores every fold in parallel. Returns the folds in order.
+     */
+    public List<Fold> validate(final HyperparameterSweep.Config config, final ForkJoinPool scoring)
+            throws InterruptedException
+    {
+        final int[] folds = assignFolds(labels, numFolds, config.seed);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numFolds));
+        try
+        {
+            List<Future<Fold>> running = new ArrayList<Future<Fold>>();
+            for (int f = 0; f < numFolds; f++)
+            {
+                final int fold = f;
+                running.add(pool.submit(new Callable<Fold>()
+                {
+                    public Fold call()
+                    {
+                        return train(fold, folds, config, scoring);
+                    }
+                }));
+            }
+
+            List<Fold> output = new ArrayList<Fold>();
+            for (Future<Fold> fold : running)
+            {
+                output.add(fold.get());
+            }
+            return output;
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("A fold failed: " + e.getCause(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * Function: Trains a network on every fold but one and scores it on that one
+     */
+    private Fold train(int fold, int[] folds, HyperparameterSweep.Config config, ForkJoinPool scoring)
+    {
+        int held = 0;
+        for (int f : folds)
+        {
+            if (f == fold) held++;
+        }
+        double[][] trainIn = new double[inputs.length - held][];
+        double[][] trainOut = new double[inputs.length - held][];
+        double[][] testIn = new double[held][];
+        double[][] testOut = new double[held][];
+        for (int i = 0, train = 0, test = 0; i < inputs.length; i++)
+        {
+            if (folds[i] == fold)
+            {
+                testIn[test] = inputs[i];
+                testOut[test++] = targets[i];
+            }
+            else
+            {
+                trainIn[train] = inputs[i];
+                trainOut[train++] = targets[i];
+            }
+        }
+
+        BackPropPerceptron network = HyperparameterSweep.newNetwork(trainIn, trainOut, config, initLow, initHigh,
+                maxEpochs);
+        long start = System.nanoTime();
+        network.train();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return new Fold(fold, trainIn.length, testIn.length, network.getMonitor().getEpoch(),
+                network.getMonitor().getLastError(), seconds, score(network, testIn, testOut, scoring));
+    }
+
+    /*
+     * Parameters: the label of every sample, the number of folds and a seed
+     * Function: Returns the fold of every sample. The samples are shuffled, grouped by label and dealt out to the
+     *           folds in turn, so every letter is spread as evenly as it can be and the folds differ in size by at
+     *           most one.
+     */
+    static int[] assignFolds(int[] labels, int numFolds, long seed)
+    {
+        int[] order = new int[labels.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = order.length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        int classes = 0;
+        for (int label : labels)
+        {
+            classes = Math.max(classes, label + 1);
+        }
+        int[] starts = new int[classes + 1];
+        for (int label : labels)
+        {
+            starts[label + 1]++;
+        }
+        for (int c = 0; c < classes; c++)
+        {
+            starts[c + 1] += starts[c];
+        }
+        int[] grouped = new int[order.length];
+        for (int i : order)
+        { // counting sort, which keeps the shuffled order within each label
+            grouped[starts[labels[i]]++] = i;
+        }
+
+        int[] folds = new int[labels.length];
+        for (int p = 0; p < grouped.length; p++)
+        {
+            folds[grouped[p]] = p % numFolds;
+        }
+        return folds;
+    }
+
+    /*
+     * Parameters: the folds of a cross-validation
+     * Function: Returns the confusion matrix of the whole set: the folds' matrices added up
+     */
+    public static ConfusionMatrix merge(List<Fold> folds)
+    {
+        ConfusionMatrix total = new ConfusionMatrix(folds.get(0).matrix.getNumClasses());
+        for (Fold fold : folds)
+        {
+            total.merge(fold.matrix);
+        }
+        return total;
+    }
+
+    /*
+     * Parameters: a model, a held-out set and the pool to score it on
+     * Function: Returns the confusion matrix of the model on the set (see above)
+     */
+    public static ConfusionMatrix score(BackPropPerceptron network, final PackedDataset data, ForkJoinPool pool)
+    {
+        check(network, data.getFeatureDimension(), data.getNumClasses());
+        final int width = data.getFeatureDimension();
+        return pool.invoke(new Scorer(network, new Samples()
+        {
+            public int size()
+            {
+                return data.size();
+            }
+
+            public int label(int i)
+            {
+                return data.getLabel(i);
+            }
+
+            public double[] row(int i, double[] row)
+            {
+                double[] output = (row != null) ? row : new double[width];
+                data.copyRow(i, output);
+                return output;
+            }
+        }, data.getNumClasses(), 0, data.size()));
+    }
+
+    /*
+     * Parameters: a model, the inputs of a held-out set, their one-hot targets and the pool to score them on
+     * Function: Returns the confusion matrix of the model on the set (see above)
+     */
+    public static ConfusionMatrix score(BackPropPerceptron network, final double[][] in, double[][] out,
+            ForkJoinPool pool)
+    {
+        check(network, in[0].length, out[0].length);
+        final int[] truth = new int[out.length];
+        for (int i = 0; i < out.length; i++)
+        {
+            truth[i] = Recognizer.argmax(out[i]);
+        }
+        return pool.invoke(new Scorer(network, new Samples()
+        {
+            public int size()
+            {
+                return in.length;
+            }
+
+            public int label(int i)
+            {
+                return truth[i];
+            }
+
+            public double[] row(int i, double[] row)
+            {
+                return in[i];
+            }
+        }, out[0].length, 0, in.length));
+    }
+
+    private static void check(BackPropPerceptron network, int numInputs, int numClasses)
+    {
+        double[][][] weights = network.getWeights();
+        if (weights[0].length != numInputs || weights[weights.length - 1][0].length != numClasses)
+        {
+            throw new IllegalArgumentException("The set has " + numInputs + " inputs and " + numClasses
+                    + " classes but the model has " + weights[0].length + " inputs and "
+                    + weights[weights.length - 1][0].length + " outputs.");
+        }
+    }
+
+    /*
+     * Scores a range of samples, splitting it in half until it is no more than RANGE_SIZE
+     */
+    private static final class Scorer extends RecursiveTask<ConfusionMatrix>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final BackPropPerceptron network;
+        private final Samples samples;
+        private final int numClasses;
+        private final int from;
+        private final int to;
+
+        Scorer(BackPropPerceptron net, Samples set, int classes, int start, int end)
+        {
+            network = net;
+            samples = set;
+            numClasses = classes;
+            from = start;
+            to = end;
+        }
+
+        protected ConfusionMatrix compute()
+        {
+            if (to - from > RANGE_SIZE)
+            {
+                int middle = (from + to) >>> 1;
+                Scorer left = new Scorer(network, samples, numClasses, from, middle);
+                left.fork();
+                ConfusionMatrix matrix = new Scorer(network, samples, numClasses, middle, to).compute();
+                matrix.merge(left.join());
+                return matrix;
+            }
+
+            ConfusionMatrix matrix = new ConfusionMatrix(numClasses);
+            double[][] rows = new double[BATCH_SIZE][];          // copied rows, kept from batch to batch
+            double[][] batch = new double[BATCH_SIZE][];
+            for (int start = from; start < to; start += BATCH_SIZE)
+            {
+                int count = Math.min(BATCH_SIZE, to - start);
+                for (int k = 0; k < count; k++)
+                {
+                    rows[k] = samples.row(start + k, rows[k]);
+                    batch[k] = rows[k];
+                }
+                double[][] outputs = network.evaluate((count == BATCH_SIZE) ? batch : Arrays.copyOf(batch, count));
+                for (int k = 0; k < count; k++)
+                {
+                    matrix.add(samples.label(start + k), Recognizer.argmax(outputs[k]));
+                }
+            }
+            return matrix;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int folds = DEFAULT_FOLDS;
+        int hidden = 35;
+        int depth = 1;
+        double rate = BackPropPerceptron.TRAINING_OFFSET;
+        HyperparameterSweep.Activation activation = HyperparameterSweep.Activation.SIGMOID;
+        long seed = 1;
+        double[] init = {-HyperparameterSweep.DEFAULT_INIT, HyperparameterSweep.DEFAULT_INIT};
+        int maxEpochs = HyperparameterSweep.DEFAULT_MAX_EPOCHS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String dataFile = null;
+        String testFile = null;
+        String weightsFile = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-k")) folds = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-hidden")) hidden = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-depth")) depth = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-rate")) rate = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-activation")) activation = HyperparameterSweep.Activation.parse(args[++i]);
+                else if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+                else if (args[i].equals("-init")) init = HyperparameterSweep.doubles(args[++i]);
+                else if (args[i].equals("-maxEpochs")) maxEpochs = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-data")) dataFile = args[++i];
+                else if (args[i].equals("-test")) testFile = args[++i];
+                else if (args[i].equals("-weights")) weightsFile = args[++i];
+                else throw new IllegalArgumentException(args[i]);
+            }
+            if ((weightsFile == null) ? testFile != null : dataFile != null)
+            { // -test is what a trained model is scored on, never a training set
+                throw new IllegalArgumentException("-test goes with -weights, -data without it");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("Usage: java CrossValidator [-k 5] [-hidden 35] [-depth 1] [-rate .7] "
+                    + "[-activation sigmoid] [-seed n] [-init low,high] [-maxEpochs n] [-threads n] [-data file]");
+            System.err.println("       java CrossValidator -weights file [-test file] [-threads n]");
+            return;
+        }
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out));
+        ForkJoinPool scoring = new ForkJoinPool(threads);
+        try
+        {
+            if (weightsFile != null)
+            {
+                BackPropPerceptron network = new BackPropPerceptron(BackPropPerceptron.readWeights(weightsFile));
+                long start = System.nanoTime();
+                ConfusionMatrix matrix;
+                if (testFile != null)
+                {
+                    matrix = score(network, new PackedDataset(testFile), scoring);
+                }
+                else
+                {
+                    double[][][] letters = HyperparameterSweep.loadLetters();
+                    matrix = score(network, letters[0], letters[1], scoring);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                matrix.print(out);
+                System.err.printf(Locale.ROOT, "Scored %d glyphs in %.2f s (%.0f glyphs/s) with %d threads%n",
+                        matrix.total(), seconds, matrix.total() / seconds, threads);
+                return;
+            }
+
+            double[][][] data = (dataFile != null) ? HyperparameterSweep.load(dataFile)
+                    : HyperparameterSweep.loadLetters();
+            CrossValidator validator = new CrossValidator(data[0], data[1], folds, maxEpochs, threads);
+            validator.setInitialRange(init[0], init[init.length - 1]);
+            HyperparameterSweep.Config config = new HyperparameterSweep.Config(hidden, depth, rate, activation, seed);
+
+            long start = System.nanoTime();
+            List<Fold> results = validator.validate(config, scoring);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            double sum = 0;
+            double squares = 0;
+            for (Fold fold : results)
+            {
+                double accuracy = fold.matrix.accuracy();
+                sum += accuracy;
+                squares += accuracy * accuracy;
+                System.err.printf(Locale.ROOT, "fold %d: trained on %d, held out %d, %d epochs, error %.4f, "
+                        + "accuracy %.4f (%.1f s)%n", fold.index + 1, fold.trainSize, fold.testSize, fold.epochs,
+                        fold.error, accuracy, fold.seconds);
+            }
+            double mean = sum / results.size();
+            double deviation = Math.sqrt(Math.max(0, squares / results.size() - mean * mean));
+
+            merge(results).print(out);
+            System.err.printf(Locale.ROOT, "%d-fold accuracy of %s: %.4f +- %.4f (%.1f s with %d threads)%n",
+                    folds, config.combination(), mean, deviation, seconds, threads);
+        }
+        catch (IOException e)
+        {
+            System.err.println("File input error " + e.getMessage());
+        }
+        finally
+        {
+            scoring.shutdown();
+            out.flush();
+        }
+    }
+} // public class CrossValidator
@@ -0,0 +1,162 @@
+/*
+ * Description: Decodes a corpus of letter bitmaps once and writes it as a single PackedDataset file, so training and
+ *              evaluation jobs can map the features instead of decoding every BMP on every run.
+ *
+ *              Usage: java DatasetPacker <output file> [float32|float64] [bitmap files...]
+ *              With no bitmap files it packs letterA.bmp ... letterZ.bmp from the working directory.
+ *              The label of each file is the capital letter right before ".bmp" (letterQ.bmp is 'Q').
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class DatasetPacker
+{
+    public static final int NUM_LETTERS = 26;
+    public static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /*
+     * Packs the files named on the command line (or the 26 training letters)
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: java DatasetPacker <output file> [float32|float64] [bitmap files...]");
+            return;
+        }
+
+        int dtype = PackedDataset.DTYPE_FLOAT64;
+        int first = 1;
+        if (args.length > 1 && (args[1].equals("float32") || args[1].equals("float64")))
+        {
+            dtype = args[1].equals("float32") ? PackedDataset.DTYPE_FLOAT32 : PackedDataset.DTYPE_FLOAT64;
+            first = 2;
+        }
+
+        String[] files;
+        if (args.length > first)
+        {
+            files = new String[args.length - first];
+            System.arraycopy(args, first, files, 0, files.length);
+        }
+        else
+        {
+            files = new String[NUM_LETTERS];
+            for (int i = 0; i < NUM_LETTERS; i++)
+            {
+                files[i] = "letter" + (char)('A' + i) + ".bmp";
+            }
+        }
+
+        int[] labels = new int[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            labels[i] = labelOf(files[i]);
+        }
+
+        pack(files, labels, args[0], dtype);
+        System.out.println("Packed " + files.length + " samples into " + args[0]);
+    }
+
+    /*
+     * Parameters: a bitmap file name
+     * Function: Returns the class index (0 for 'A') of the capital letter right before ".bmp"
+     */
+    public static int labelOf(String fileName)
+    {
+        int dot = fileName.toLowerCase().lastIndexOf(".bmp");
+        char letter = (dot > 0) ? fileName.charAt(dot - 1) : '?';
+
+        if (letter < 'A' || letter > 'Z')
+        {
+            throw new IllegalArgumentException("Can't tell which letter " + fileName + " is.");
+        }
+        return letter - 'A';
+    }
+
+    /*
+     * Parameters: the bitmap files, their labels, the output file name and the dtype to store the features as
+     * Function: Decodes every bitmap with a FeatureDecoder and writes the packed dataset. All bitmaps must have the
+     *           same size as the first one.
+     */
+    public static void pack(String[] files, int[] labels, String outFile, int dtype) throws IOException
+    {
+        FeatureDecoder decoder = new FeatureDecoder();
+        double[] features = decoder.decode(files[0]);       // the first file sets the size
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int featureDim = features.length;
+
+        FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            ByteBuffer buf = ByteBuffer.allocate(Math.max(WRITE_BUFFER_SIZE, featureDim * dtype))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            buf.putInt(PackedDataset.MAGIC);
+            buf.putInt(PackedDataset.VERSION);
+            buf.putInt(files.length);
+            buf.putInt(featureDim);
+            buf.putInt(dtype);
+            buf.putInt(NUM_LETTERS);
+            buf.putInt(width);
+            buf.putInt(height);
+            for (int i = 0; i < labels.length; i++)
+            {
+                if (!buf.hasRemaining()) flush(out, buf);
+                buf.putInt(labels[i]);
+            }
+            long labelsEnd = PackedDataset.HEADER_SIZE + 4L * files.length;
+            int padding = (int)(PackedDataset.rowsOffset(files.length) - labelsEnd);
+            if (buf.remaining() < padding) flush(out, buf);
+            for (int i = 0; i < padding; i++)
+            {
+                buf.put((byte)0);
+            }
+
+            for (int i = 0; i < files.length; i++)
+            {
+                if (i > 0 && (decoder.decode(files[i], features, 0) != featureDim || decoder.getWidth() != width))
+                {
+                    throw new IOException(files[i] + " is not " + width + "x" + height + " like " + files[0] + ".");
+                }
+                if (buf.remaining() < featureDim * dtype) flush(out, buf);
+
+                for (int j = 0; j < featureDim; j++)
+                {
+                    if (dtype == PackedDataset.DTYPE_FLOAT64)
+                    {
+                        buf.putDouble(features[j]);
+                    }
+                    else
+                    {
+                        buf.putFloat((float)features[j]);
+                    }
+                }
+            }
+            flush(out, buf);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*
+     * Function: Writes out everything put in the buffer so far and empties it
+     */
+    private static void flush(FileChannel out, ByteBuffer buf) throws IOException
+    {
+        buf.flip();
+        while (buf.hasRemaining())
+        {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+} // public class DatasetPacker
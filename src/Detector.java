@@ -0,0 +1,334 @@
+/*
+ * Description: Finds letters anywhere in a large picture, at any of several sizes, without segmenting it first. A
+ *              square window is slid over an image pyramid: each level is the whole picture scaled down (or up) with
+ *              the same grid averaging as ImageProcessor.scaleImage, so a fixed window covers bigger letters on the
+ *              smaller levels.
+ *
+ *              Most windows are empty paper and never reach the network. The ink under each window is counted with
+ *              an IntegralImage of the ink pels of the original picture (four lookups per window, at any level),
+ *              and windows with too little ink are dropped. The windows that are left are turned into network
+ *              inputs by a Preprocessor and evaluated in batches with BackPropPerceptron.evaluate(double[][]).
+ *
+ *              A window whose best output is confident enough is a hit. Hits on the same letter overlap heavily
+ *              (neighbouring positions and scales all see it), so non-maximum suppression keeps only the most
+ *              confident hit among any that overlap by more than a set fraction.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class Detector
+{
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final double DEFAULT_MIN_INK = .05;
+    public static final double DEFAULT_MIN_CONFIDENCE = .8;
+    public static final double DEFAULT_MAX_OVERLAP = .3;
+
+    private final BackPropPerceptron network;
+    private final Preprocessor preprocessor;
+    private final int window;
+    private final int step;
+    private final double[] scales;
+    private final double minInk;
+    private final double minConfidence;
+    private final double maxOverlap;
+    private final int batchSize;
+
+    private long windows;
+    private long rejected;
+
+    /*
+     * A letter found by the detector. The box is in the coordinates of the original picture and its pixel count
+     * is the ink under the window.
+     */
+    public static final class Detection
+    {
+        private final Segmenter.Box box;
+        private final int label;
+        private final double confidence;
+
+        public Detection(Segmenter.Box bounds, int outputNode, double conf)
+        {
+            box = bounds;
+            label = outputNode;
+            confidence = conf;
+        }
+
+        public Segmenter.Box getBox()
+        {
+            return box;
+        }
+
+        /*
+         * Function: Returns the index of the output node that won
+         */
+        public int getLabel()
+        {
+            return label;
+        }
+
+        /*
+         * Function: Returns the letter of the winning output node (node 0 is 'A')
+         */
+        public char getLetter()
+        {
+            return (char)('A' + label);
+        }
+
+        public double getConfidence()
+        {
+            return confidence;
+        }
+
+        public String toString()
+        {
+            return getLetter() + " " + box + " " + confidence;
+        }
+    }
+
+    /*
+     * A window that passed the ink test and is waiting for the network
+     */
+    private static final class Candidate
+    {
+        final int top;
+        final int left;
+        final int bottom;
+        final int right;
+        final int ink;
+
+        Candidate(int north, int west, int south, int east, int numInk)
+        {
+            top = north;
+            left = west;
+            bottom = south;
+            right = east;
+            ink = numInk;
+        }
+    }
+
+    /*
+     * Parameters: the network, the Preprocessor that makes its inputs, the window size and the step between
+     *             windows (in pels of a pyramid level), and the scale of each pyramid level
+     */
+    public Detector(BackPropPerceptron net, Preprocessor prep, int windowSize, int windowStep, double[] levelScales)
+    {
+        this(net, prep, windowSize, windowStep, levelScales, DEFAULT_MIN_INK, DEFAULT_MIN_CONFIDENCE,
+                DEFAULT_MAX_OVERLAP, DEFAULT_BATCH_SIZE);
+    }
+
+    /*
+     * Parameters: as above, plus the smallest fraction of ink pels a window needs to be evaluated, the smallest
+     *             output that counts as a hit, the largest overlap (intersection over union) two kept hits may have
+     *             and the number of windows evaluated at once
+     */
+    public Detector(BackPropPerceptron net, Preprocessor prep, int windowSize, int windowStep, double[] levelScales,
+            double inkFraction, double confidence, double overlap, int batch)
+    {
+        if (windowSize <= 0 || windowStep <= 0 || batch <= 0)
+        {
+            throw new IllegalArgumentException("window, step and batch size must be > 0");
+        }
+        for (double s : levelScales)
+        {
+            if (s <= 0)
+            {
+                throw new IllegalArgumentException("scales must be > 0");
+            }
+        }
+        network = net;
+        preprocessor = prep;
+        window = windowSize;
+        step = windowStep;
+        scales = levelScales.clone();
+        minInk = inkFraction;
+        minConfidence = confidence;
+        maxOverlap = overlap;
+        batchSize = batch;
+    }
+
+    /*
+     * Parameters: a picture in the getImage form (white = 0) and the threshold for ink
+     * Function: Returns the letters found in the picture, most confident first
+     */
+    public List<Detection> detect(FlatImage pic, int threshold)
+    {
+        int height = pic.getHeight();
+        int width = pic.getWidth();
+        IntegralImage pels = new IntegralImage(pic);
+        IntegralImage ink = new IntegralImage(inkMask(pic, threshold));
+        ImageProcessor processor = new ImageProcessor();
+        ImageProcessor.Location[][] whole = {
+            { new ImageProcessor.Location(0, 0), new ImageProcessor.Location(0, width - 1) },
+            { new ImageProcessor.Location(height - 1, 0), new ImageProcessor.Location(height - 1, width - 1) }
+        };
+
+        List<Detection> hits = new ArrayList<Detection>();
+        List<Candidate> batch = new ArrayList<Candidate>(batchSize);
+        double[][] inputs = new double[batchSize][preprocessor.getInputSize()];
+
+        for (double scale : scales)
+        {
+            int levelHeight = (int)Math.round(height * scale);
+            int levelWidth = (int)Math.round(width * scale);
+            if (levelHeight < window || levelWidth < window) continue;
+
+            FlatImage level = new FlatImage(levelWidth, levelHeight);
+            processor.scaleImage(pels, whole, level);
+
+            // the rows and columns of the original picture that each level row and column came from
+            int[] rowDividers = new int[levelHeight + 1];
+            int[] colDividers = new int[levelWidth + 1];
+            ImageProcessor.computeDividers(0, height - 1, levelHeight, rowDividers);
+            ImageProcessor.computeDividers(0, width - 1, levelWidth, colDividers);
+
+            for (int r = 0; r + window <= levelHeight; r += step)
+            {
+                int x0 = rowDividers[r];
+                int x1 = rowDividers[r + window];
+
+                for (int c = 0; c + window <= levelWidth; c += step)
+                {
+                    int y0 = colDividers[c];
+                    int y1 = colDividers[c + window];
+                    long area = (long)(x1 - x0 + 1) * (y1 - y0 + 1);
+                    int numInk = (int)ink.getSum(x0, x1, y0, y1);
+
+                    windows++;
+                    if (numInk == 0 || numInk < minInk * area)
+                    {
+                        rejected++;
+                        continue;
+                    }
+
+                    preprocessor.process(level.subImage(r, c, window, window), inputs[batch.size()], 0);
+                    batch.add(new Candidate(x0, y0, x1, y1, numInk));
+                    if (batch.size() == batchSize)
+                    {
+                        evaluateBatch(batch, inputs, hits);
+                    }
+                }
+            }
+        }
+        evaluateBatch(batch, inputs, hits);
+
+        return suppress(hits, maxOverlap);
+    }
+
+    /*
+     * Function: Runs the network on the waiting windows, keeps the hits and empties the batch
+     */
+    private void evaluateBatch(List<Candidate> batch, double[][] inputs, List<Detection> hits)
+    {
+        if (batch.isEmpty()) return;
+
+        double[][] full = inputs;
+        if (batch.size() < inputs.length)
+        {
+            full = new double[batch.size()][];
+            System.arraycopy(inputs, 0, full, 0, full.length);
+        }
+        double[][] outputs = network.evaluate(full);
+
+        for (int k = 0; k < outputs.length; k++)
+        {
+            double[] out = outputs[k];
+            int best = 0;
+            for (int i = 1; i < out.length; i++)
+            {
+                if (out[i] > out[best]) best = i;
+            }
+
+            if (out[best] >= minConfidence)
+            {
+                Candidate c = batch.get(k);
+                hits.add(new Detection(new Segmenter.Box(c.top, c.left, c.bottom, c.right, c.ink), best, out[best]));
+            }
+        }
+        batch.clear();
+    }
+
+    /*
+     * Parameters: hits in any order and the largest overlap (intersection over union) two kept hits may have
+     * Function: Non-maximum suppression. Goes through the hits from the most confident down and keeps a hit only
+     *           if it doesn't overlap one already kept by more than maxOverlap. Returns the kept hits, most
+     *           confident first.
+     */
+    public static List<Detection> suppress(List<Detection> hits, double maxOverlap)
+    {
+        List<Detection> sorted = new ArrayList<Detection>(hits);
+        Collections.sort(sorted, new Comparator<Detection>()
+        {
+            public int compare(Detection a, Detection b)
+            {
+                return Double.compare(b.confidence, a.confidence);
+            }
+        });
+
+        List<Detection> kept = new ArrayList<Detection>();
+        for (Detection d : sorted)
+        {
+            boolean keep = true;
+            for (int i = 0; i < kept.size() && keep; i++)
+            {
+                keep = overlap(d.box, kept.get(i).box) <= maxOverlap;
+            }
+            if (keep) kept.add(d);
+        }
+        return kept;
+    }
+
+    /*
+     * Function: Returns the area two boxes share divided by the area they cover together
+     */
+    public static double overlap(Segmenter.Box a, Segmenter.Box b)
+    {
+        int rows = Math.min(a.getBottom(), b.getBottom()) - Math.max(a.getTop(), b.getTop()) + 1;
+        int cols = Math.min(a.getRight(), b.getRight()) - Math.max(a.getLeft(), b.getLeft()) + 1;
+        if (rows <= 0 || cols <= 0) return 0.0;
+
+        double shared = (double)rows * cols;
+        double union = (double)a.getHeight() * a.getWidth() + (double)b.getHeight() * b.getWidth() - shared;
+        return shared / union;
+    }
+
+    /*
+     * Function: Returns an image that is 1 where the picture has ink and 0 elsewhere
+     */
+    private static FlatImage inkMask(FlatImage pic, int threshold)
+    {
+        int width = pic.getWidth();
+        int height = pic.getHeight();
+        FlatImage mask = new FlatImage(width, height);
+        int[] src = pic.getData();
+        int[] dst = mask.getData();
+
+        for (int i = 0; i < height; i++)
+        {
+            int from = pic.rowStart(i);
+            int to = mask.rowStart(i);
+            for (int j = 0; j < width; j++)
+            {
+                dst[to + j] = (src[from + j] >= threshold) ? 1 : 0;
+            }
+        }
+        return mask;
+    }
+
+    /*
+     * Function: Returns how many windows have been looked at
+     */
+    public long getWindows()
+    {
+        return windows;
+    }
+
+    /*
+     * Function: Returns how many windows were dropped by the ink test without running the network
+     */
+    public long getRejected()
+    {
+        return rejected;
+    }
+} // public class Detector
@@ -0,0 +1,394 @@
+/*
+ * Description: Decodes a BMP file straight into a network input vector. BitmapProcessor fills an int[][] of true color
+ *              pels, getImage() copies and inverts it, ImageProcessor.flattenImage copies it into an int[] and the
+ *              caller then divides every element by MAX_PEL_VAL. This class does all of that in one pass over the
+ *              bitmap bits and writes into a buffer the caller owns:
+ *
+ *                  feature = (255 - luminance) / 255.0
+ *
+ *              where luminance is BitmapProcessor.luminance, the weighted sum colorToGrayscale uses. White comes out
+ *              as 0 and black as 1.
+ *              For black, white and gray images this is exactly the value the old four pass path produced, since
+ *              (0xFFFFFF - gray) / 0xFFFFFF == (255 - luminance) / 255 when all three color bytes are equal.
+ *
+ *              The features are laid out top row first, one row after another (index = row * width + column).
+ *
+ *              One decoder keeps a reusable file buffer, so give each thread its own decoder.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+public class FeatureDecoder
+{
+    private byte[] fileBuffer = new byte[4096];     // grows to the largest file decoded so far
+    private byte[] indexBuffer = new byte[0];       // scratch for RLE compressed images
+    private final double[] inkTable = new double[256];
+
+    private double[] imageBuffer = new double[0];   // features of the last decodeImage, grown as needed
+    private int lastWidth;
+    private int lastHeight;
+
+    // where decode is currently writing to; exactly one of these is non-null during a decode
+    private double[] doubleOut;
+    private float[] floatOut;
+    private boolean growOut;                        // true if doubleOut is imageBuffer and may be grown
+
+    /*
+     * Parameters: the file name, the output vector and the index to start writing at
+     * Function: Decodes the bitmap into normalized features. Returns the number of features written (width * height).
+     */
+    public int decode(String fileName, double[] features, int offset) throws IOException
+    {
+        int length = readFile(fileName);
+        return decode(fileBuffer, length, features, offset);
+    }
+
+    /*
+     * Parameters: the file name, the output vector and the index to start writing at
+     * Function: Same as decode(String, double[], int) but for single precision vectors.
+     */
+    public int decode(String fileName, float[] features, int offset) throws IOException
+    {
+        int length = readFile(fileName);
+        return decode(fileBuffer, length, features, offset);
+    }
+
+    /*
+     * Parameters: the bytes of a bitmap file, how many of them are valid, the output vector and the start index
+     * Function: Decodes a bitmap that is already in memory into normalized features.
+     */
+    public int decode(byte[] bmp, int length, double[] features, int offset) throws IOException
+    {
+        doubleOut = features;
+        floatOut = null;
+        try
+        {
+            return decodeInto(bmp, length, offset);
+        }
+        finally
+        {
+            doubleOut = null;
+        }
+    }
+
+    /*
+     * Parameters: the bytes of a bitmap file, how many of them are valid, the output vector and the start index
+     * Function: Same as decode(byte[], int, double[], int) but for single precision vectors.
+     */
+    public int decode(byte[] bmp, int length, float[] features, int offset) throws IOException
+    {
+        floatOut = features;
+        doubleOut = null;
+        try
+        {
+            return decodeInto(bmp, length, offset);
+        }
+        finally
+        {
+            floatOut = null;
+        }
+    }
+
+    /*
+     * Parameters: the file name
+     * Function: Decodes a bitmap of any size into an image in the getImage form (white = 0). For black, white and
+     *           gray bitmaps every pel is exactly what BitmapProcessor.getFlatImage gives; colors are turned into
+     *           their gray first. Use getWidth and getHeight for the size.
+     */
+    public FlatImage decodeImage(String fileName) throws IOException
+    {
+        int length = readFile(fileName);
+        return decodeImage(fileBuffer, length);
+    }
+
+    /*
+     * Parameters: the bytes of a bitmap file and how many of them are valid
+     * Function: Same as decodeImage(String) for a bitmap that is already in memory
+     */
+    public FlatImage decodeImage(byte[] bmp, int length) throws IOException
+    {
+        int numPels = decodeGrowing(bmp, length);
+
+        FlatImage output = new FlatImage(lastWidth, lastHeight);
+        int[] data = output.getData();
+        for (int i = 0; i < numPels; i++)
+        {
+            data[i] = (int)Math.round(imageBuffer[i] * BackPropPerceptron.MAX_PEL_VAL);
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: the file name
+     * Function: Decodes a bitmap of any size into a new feature vector of exactly width * height features, for when
+     *           the size isn't known beforehand. Use getWidth and getHeight for the size.
+     */
+    public double[] decode(String fileName) throws IOException
+    {
+        int length = readFile(fileName);
+        int numPels = decodeGrowing(fileBuffer, length);
+        return java.util.Arrays.copyOf(imageBuffer, numPels);
+    }
+
+    /*
+     * Parameters: the bytes of a bitmap file and how many of them are valid
+     * Function: Decodes the bitmap into imageBuffer, growing it if needed. Returns the number of features.
+     */
+    private int decodeGrowing(byte[] bmp, int length) throws IOException
+    {
+        doubleOut = imageBuffer;
+        floatOut = null;
+        growOut = true;
+        try
+        {
+            int numPels = decodeInto(bmp, length, 0);
+            imageBuffer = doubleOut;
+            return numPels;
+        }
+        finally
+        {
+            doubleOut = null;
+            growOut = false;
+        }
+    }
+
+    /*
+     * Function: Returns the width of the last bitmap decoded
+     */
+    public int getWidth()
+    {
+        return lastWidth;
+    }
+
+    /*
+     * Function: Returns the height of the last bitmap decoded
+     */
+    public int getHeight()
+    {
+        return lastHeight;
+    }
+
+    /*
+     * Parameters: the file name
+     * Function: Reads the whole file into fileBuffer and returns its length
+     */
+    private int readFile(String fileName) throws IOException
+    {
+        FileInputStream in = new FileInputStream(fileName);
+        try
+        {
+            long size = in.getChannel().size();
+            if (size > fileBuffer.length)
+            {
+                fileBuffer = new byte[(int)size];
+            }
+
+            int length = 0;
+            int n;
+            while (length < fileBuffer.length && (n = in.read(fileBuffer, length, fileBuffer.length - length)) > 0)
+            {
+                length += n;
+            }
+            return length;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /*
+     * Parameters: the bitmap bytes, the number of valid bytes and the first output index
+     * Function: Parses the headers and writes one feature per pel. The time it takes is recorded in
+     *           Metrics.DECODE.
+     */
+    private int decodeInto(byte[] bmp, int length, int offset) throws IOException
+    {
+        long start = Metrics.start();
+        try
+        {
+            return decodePels(bmp, length, offset);
+        }
+        finally
+        {
+            Metrics.stop(Metrics.DECODE, start);
+        }
+    }
+
+    /*
+     * Parameters: the bitmap bytes, the number of valid bytes and the first output index
+     * Function: Does the work of decodeInto
+     */
+    private int decodePels(byte[] bmp, int length, int offset) throws IOException
+    {
+        if (length < 54 || readShort(bmp, 0) != 0x4D42)
+        {
+            throw new RuntimeException("File is not a bitmap. Please check the file and run the program again.");
+        }
+
+        int offBits     = readInt(bmp, 10);
+        int infoSize    = readInt(bmp, 14);
+        int width       = readInt(bmp, 18);
+        int height      = readInt(bmp, 22);
+        int bitCount    = readShort(bmp, 28);
+        int compression = readInt(bmp, 30);
+        int clrUsed     = readInt(bmp, 46);
+        boolean topDown = height < 0;
+
+        if (topDown) height = -height;
+        if (width <= 0 || height <= 0 || (long)width * height > Integer.MAX_VALUE - offset)
+        {
+            throw new IOException("Bitmap has a bad size, " + width + "x" + height + ".");
+        }
+        if (offBits < 54 || offBits > length)
+        {
+            throw new IOException("Bitmap is truncated: its bits start at " + offBits + " but it is " + length
+                    + " bytes long.");
+        }
+
+        lastWidth = width;
+        lastHeight = height;
+        int needed = offset + width * height;
+        if (needed > ((doubleOut != null) ? doubleOut.length : floatOut.length))
+        {
+            if (!growOut)
+            {
+                throw new RuntimeException("Bitmap is " + width + "x" + height + ", too big for the feature vector.");
+            }
+            doubleOut = new double[needed];
+        }
+
+        if (bitCount <= 8)
+        {
+            int maxColors = 1 << bitCount;
+            int numberOfColors = (clrUsed > 0 && clrUsed < maxColors) ? clrUsed : maxColors;
+            int pos = 14 + infoSize;
+            if (infoSize < 40 || (long)pos + 4L * numberOfColors > length)
+            {
+                throw new IOException("Bitmap is truncated: its palette of " + numberOfColors
+                        + " colors runs past the end of the file.");
+            }
+            java.util.Arrays.fill(inkTable, numberOfColors, maxColors, 0.0);      // no stale colors from the last file
+
+            for (int i = 0; i < numberOfColors; i++, pos += 4)
+            {
+                int lum = BitmapProcessor.luminance(bmp[pos + 2] & 0xFF, bmp[pos + 1] & 0xFF, bmp[pos] & 0xFF);
+                inkTable[i] = (255 - lum) / 255.0;
+            }
+        }
+
+        if (compression == BitmapProcessor.BI_RLE8 || compression == BitmapProcessor.BI_RLE4)
+        {
+            return decodeRle(bmp, length, offBits, bitCount, width, height, offset);
+        }
+
+        int bytesPerRow = ((width * bitCount + 31) / 32) * 4;
+        long lastByte = offBits + (long)(height - 1) * bytesPerRow + ((long)width * bitCount + 7) / 8;
+        if (lastByte > length)
+        {
+            throw new IOException("Bitmap is truncated: " + width + "x" + height + " at " + bitCount
+                    + " bits needs " + lastByte + " bytes but the file has " + length + ".");
+        }
+
+        for (int k = 0; k < height; k++)                                // k counts the rows in file order
+        {
+            int row = topDown ? k : height - 1 - k;
+            int pos = offBits + k * bytesPerRow;
+            int out = offset + row * width;
+
+            switch (bitCount)
+            {
+                case 1:
+                    for (int j = 0; j < width; j++)
+                    {
+                        put(out + j, inkTable[(bmp[pos + (j >> 3)] >> (7 - (j & 7))) & 1]);
+                    }
+                    break;
+                case 4:
+                    for (int j = 0; j < width; j++)
+                    {
+                        int b = bmp[pos + (j >> 1)];
+                        put(out + j, inkTable[((j & 1) == 0) ? (b >> 4) & 0x0F : b & 0x0F]);
+                    }
+                    break;
+                case 8:
+                    for (int j = 0; j < width; j++)
+                    {
+                        put(out + j, inkTable[bmp[pos + j] & 0xFF]);
+                    }
+                    break;
+                case 24:
+                case 32:
+                    int step = bitCount / 8;
+                    for (int j = 0; j < width; j++, pos += step)
+                    {
+                        int lum = BitmapProcessor.luminance(bmp[pos + 2] & 0xFF, bmp[pos + 1] & 0xFF, bmp[pos] & 0xFF);
+                        put(out + j, (255 - lum) / 255.0);
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("This can only read in 1, 4, 8, 24 and 32-bit BMPs. Please reformat the image and try again.\n");
+            }
+        }
+
+        return width * height;
+    }
+
+    /*
+     * Parameters: the bitmap bytes, their length, where the bits start, the bit count, the image size and the first
+     *             output index
+     * Function: Compressed images are expanded to indices with BitmapProcessor.decodeRle and then mapped through the
+     *           ink table. This costs one extra pass over a byte per pel, but RLE images are rare.
+     */
+    private int decodeRle(byte[] bmp, int length, int offBits, int bitCount, int width, int height, int offset)
+            throws IOException
+    {
+        int numPels = width * height;
+        if (indexBuffer.length < numPels)
+        {
+            indexBuffer = new byte[numPels];
+        }
+        java.util.Arrays.fill(indexBuffer, 0, numPels, (byte)0);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bmp, offBits, length - offBits));
+        BitmapProcessor.decodeRle(in, bitCount, width, height, indexBuffer);
+
+        for (int i = 0; i < numPels; i++)
+        {
+            put(offset + i, inkTable[indexBuffer[i] & 0xFF]);
+        }
+
+        return numPels;
+    }
+
+    /*
+     * Parameters: an output index and a feature value
+     * Function: Stores the value into whichever vector is being decoded into
+     */
+    private void put(int index, double value)
+    {
+        if (doubleOut != null)
+        {
+            doubleOut[index] = value;
+        }
+        else
+        {
+            floatOut[index] = (float)value;
+        }
+    }
+
+    /*
+     * Methods to read little endian WORDs and DWORDs out of the byte array
+     */
+    private static int readShort(byte[] b, int pos)
+    {
+        return (b[pos] & 0xFF) | ((b[pos + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] b, int pos)
+    {
+        return (b[pos] & 0xFF) | ((b[pos + 1] & 0xFF) << 8) | ((b[pos + 2] & 0xFF) << 16) | ((b[pos + 3] & 0xFF) << 24);
+    }
+} // public class FeatureDecoder
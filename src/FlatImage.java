@@ -0,0 +1,169 @@
+/*
+ * Description: An image stored as one flat int array instead of an int[][] with an object per row. Pel (row, col)
+ *              lives at data[offset + row * stride + col]. The stride is the distance between the starts of two
+ *              rows in the array, which is what lets a sub-image share the array of the image it was cut from:
+ *              subImage only makes a new FlatImage with a different offset, width and height, so crops are free.
+ *
+ *              Rows and columns are indexed the same way ImageProcessor indexes an int[][] picture, so row is the
+ *              x-component of an ImageProcessor.Location and col is the y-component.
+ */
+public class FlatImage
+{
+    private final int[] data;
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int offset;
+
+    /*
+     * Parameters: the width and height
+     * Function: Creates a blank image with its own array
+     */
+    public FlatImage(int w, int h)
+    {
+        this(new int[w * h], w, h, w, 0);
+    }
+
+    /*
+     * Parameters: the pel array, the width and height, the stride and the index of pel (0, 0)
+     * Function: Creates an image over an existing array. The array is not copied.
+     */
+    public FlatImage(int[] pels, int w, int h, int rowStride, int firstPel)
+    {
+        if (w < 0 || h < 0 || rowStride < w || firstPel < 0 ||
+                (h > 0 && (long)firstPel + (long)(h - 1) * rowStride + w > pels.length))
+        {
+            throw new IllegalArgumentException("A " + w + "x" + h + " image with stride " + rowStride +
+                    " at offset " + firstPel + " doesn't fit in " + pels.length + " pels.");
+        }
+        data = pels;
+        width = w;
+        height = h;
+        stride = rowStride;
+        offset = firstPel;
+    }
+
+    /*
+     * Parameters: a 2D int array
+     * Function: Copies an int[][] picture into a new flat image
+     */
+    public static FlatImage fromArray(int[][] pic)
+    {
+        int h = pic.length;
+        int w = (h > 0) ? pic[0].length : 0;
+        FlatImage output = new FlatImage(w, h);
+
+        for (int i = 0; i < h; i++)
+        {
+            System.arraycopy(pic[i], 0, output.data, i * w, w);
+        }
+        return output;
+    }
+
+    /*
+     * Function: Copies the image into a new int[][] picture
+     */
+    public int[][] toArray()
+    {
+        int[][] output = new int[height][width];
+
+        for (int i = 0; i < height; i++)
+        {
+            System.arraycopy(data, offset + i * stride, output[i], 0, width);
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: the first row and column and the height and width of the crop
+     * Function: Returns a view of part of this image. Changes to either image show up in the other.
+     */
+    public FlatImage subImage(int row, int col, int h, int w)
+    {
+        if (row < 0 || col < 0 || row + h > height || col + w > width)
+        {
+            throw new IllegalArgumentException("The crop doesn't fit in a " + width + "x" + height + " image.");
+        }
+        return new FlatImage(data, w, h, stride, offset + row * stride + col);
+    }
+
+    /*
+     * Function: Returns a copy of this image with its own array (and stride == width)
+     */
+    public FlatImage copy()
+    {
+        FlatImage output = new FlatImage(width, height);
+        copyTo(output);
+        return output;
+    }
+
+    /*
+     * Parameters: an image of the same size
+     * Function: Copies every pel of this image into the other one
+     */
+    public void copyTo(FlatImage dst)
+    {
+        if (dst.width != width || dst.height != height)
+        {
+            throw new IllegalArgumentException("Images must be the same size to copy.");
+        }
+        for (int i = 0; i < height; i++)
+        {
+            System.arraycopy(data, offset + i * stride, dst.data, dst.offset + i * dst.stride, width);
+        }
+    }
+
+    public int get(int row, int col)
+    {
+        return data[offset + row * stride + col];
+    }
+
+    public void set(int row, int col, int pel)
+    {
+        data[offset + row * stride + col] = pel;
+    }
+
+    /*
+     * Function: Returns the index of pel (row, 0) in getData(); the row's pels follow it
+     */
+    public int rowStart(int row)
+    {
+        return offset + row * stride;
+    }
+
+    /*
+     * Function: Returns true if the point is inside the image
+     */
+    public boolean isInbounds(int row, int col)
+    {
+        return row >= 0 && row < height && col >= 0 && col < width;
+    }
+
+    /*
+     * Function: Returns the underlying array. Use rowStart to find the rows in it.
+     */
+    public int[] getData()
+    {
+        return data;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getStride()
+    {
+        return stride;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+} // public class FlatImage
@@ -0,0 +1,343 @@
+/*
+ * Description: A training set stored as one sprite sheet: a single BMP holding a grid of equally sized glyph tiles,
+ *              plus a small layout file saying how big the tiles are and which letter each one is. Reading one large
+ *              file in one sequential pass replaces opening and parsing a tiny BMP per glyph.
+ *
+ *              The sheet is decoded once by a FeatureDecoder (decodeImage), which keeps no static state, so atlases
+ *              can be loaded on many threads at once. Each tile is then a FlatImage view into the decoded sheet
+ *              (nothing is copied), so it can go straight to a Preprocessor or ImageProcessor, and the tiles'
+ *              features and one-hot targets can be handed to BackPropPerceptron like the letterX.bmp files' were.
+ *
+ *              The layout file is a properties file named after the sheet with ".layout" added (letters.bmp.layout):
+ *                  tileWidth=8
+ *                  tileHeight=8
+ *                  labels=ABCDEFGHIJKLMNOPQRSTUVWXYZ
+ *              The labels give the letter of each tile, reading the grid row by row from the top left; there are
+ *              as many glyphs as labels, and every label must be a capital letter. The grid has as many columns as
+ *              fit across the sheet.
+ *
+ *              Usage: java GlyphAtlas <atlas file> [columns] [bitmap files...]
+ *              Builds a sheet and its layout file out of separate glyph files (letterA.bmp ... letterZ.bmp if none
+ *              are given). The label of each file is the capital letter right before ".bmp", as for DatasetPacker.
+ */
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+public class GlyphAtlas
+{
+    public static final String LAYOUT_SUFFIX = ".layout";
+    public static final int DEFAULT_COLUMNS = 16;
+
+    private final FlatImage sheet;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int columns;
+    private final String labels;
+
+    /*
+     * Parameters: the sheet BMP; its layout is read from the file of the same name with ".layout" added
+     */
+    public static GlyphAtlas load(String atlasFile) throws IOException
+    {
+        Properties layout = new Properties();
+        InputStream in = new FileInputStream(atlasFile + LAYOUT_SUFFIX);
+        try
+        {
+            layout.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        String width = layout.getProperty("tileWidth");
+        String height = layout.getProperty("tileHeight");
+        String labels = layout.getProperty("labels");
+        if (width == null || height == null || labels == null)
+        {
+            throw new IOException(atlasFile + LAYOUT_SUFFIX + " needs tileWidth, tileHeight and labels.");
+        }
+
+        try
+        {
+            return new GlyphAtlas(atlasFile, Integer.parseInt(width.trim()), Integer.parseInt(height.trim()),
+                    labels.replaceAll("\\s", ""));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException(atlasFile + LAYOUT_SUFFIX + ": bad tile size (" + e.getMessage() + ")");
+        }
+    }
+
+    /*
+     * Parameters: the sheet BMP, the size of a tile and the letter of each tile in reading order
+     */
+    public GlyphAtlas(String atlasFile, int w, int h, String tileLabels) throws IOException
+    {
+        if (w <= 0 || h <= 0)
+        {
+            throw new IllegalArgumentException("tile size must be > 0");
+        }
+        if (!new File(atlasFile).isFile())
+        {
+            throw new IOException(atlasFile + " not found.");
+        }
+
+        for (int i = 0; i < tileLabels.length(); i++)
+        {
+            char label = tileLabels.charAt(i);
+            if (label < 'A' || label > 'Z')
+            {
+                throw new IOException(atlasFile + ": the label of tile " + i + ", '" + label
+                        + "', is not a capital letter.");
+            }
+        }
+
+        sheet = new FeatureDecoder().decodeImage(atlasFile);
+        tileWidth = w;
+        tileHeight = h;
+        columns = sheet.getWidth() / w;
+        labels = tileLabels;
+
+        int rows = sheet.getHeight() / h;
+        if ((long)columns * rows < labels.length())
+        {
+            throw new IOException(atlasFile + " holds " + (columns * rows) + " " + w + "x" + h + " tiles, not "
+                    + labels.length() + ".");
+        }
+    }
+
+    /*
+     * Function: Returns the number of glyphs
+     */
+    public int size()
+    {
+        return labels.length();
+    }
+
+    public int getTileWidth()
+    {
+        return tileWidth;
+    }
+
+    public int getTileHeight()
+    {
+        return tileHeight;
+    }
+
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /*
+     * Function: Returns the whole decoded sheet in the getImage form (white = 0)
+     */
+    public FlatImage getSheet()
+    {
+        return sheet;
+    }
+
+    /*
+     * Parameters: the index of a glyph
+     * Function: Returns a view of the glyph's tile of the sheet (nothing is copied)
+     */
+    public FlatImage tile(int i)
+    {
+        return sheet.subImage((i / columns) * tileHeight, (i % columns) * tileWidth, tileHeight, tileWidth);
+    }
+
+    /*
+     * Function: Returns the letter of glyph i
+     */
+    public char getLabel(int i)
+    {
+        return labels.charAt(i);
+    }
+
+    /*
+     * Function: Returns the output node of glyph i's letter (0 for 'A')
+     */
+    public int getLabelIndex(int i)
+    {
+        return labels.charAt(i) - 'A';
+    }
+
+    /*
+     * Parameters: the index of a glyph, the output vector and the index to start writing at
+     * Function: Writes the tile's pels divided by MAX_PEL_VAL, top row first (0 = white, 1 = black), the same
+     *           features FeatureDecoder gives for a gray glyph file. Returns the number of features written.
+     */
+    public int features(int i, double[] output, int offset)
+    {
+        FlatImage glyph = tile(i);
+        int[] data = glyph.getData();
+
+        for (int r = 0; r < tileHeight; r++)
+        {
+            int start = glyph.rowStart(r);
+            int out = offset + r * tileWidth;
+            for (int c = 0; c < tileWidth; c++)
+            {
+                output[out + c] = (double)data[start + c] / (double)BackPropPerceptron.MAX_PEL_VAL;
+            }
+        }
+        return tileWidth * tileHeight;
+    }
+
+    /*
+     * Function: Returns the features of every glyph, for BackPropPerceptron's training inputs
+     */
+    public double[][] toInputs()
+    {
+        double[][] inputs = new double[size()][tileWidth * tileHeight];
+        for (int i = 0; i < inputs.length; i++)
+        {
+            features(i, inputs[i], 0);
+        }
+        return inputs;
+    }
+
+    /*
+     * Parameters: the Preprocessor for the network
+     * Function: Returns the preprocessed input of every glyph
+     */
+    public double[][] toInputs(Preprocessor preprocessor)
+    {
+        double[][] inputs = new double[size()][preprocessor.getInputSize()];
+        for (int i = 0; i < inputs.length; i++)
+        {
+            preprocessor.process(tile(i), inputs[i], 0);
+        }
+        return inputs;
+    }
+
+    /*
+     * Parameters: the number of output nodes
+     * Function: Returns the one-hot target output of every glyph, for BackPropPerceptron's training outputs
+     */
+    public double[][] toTargets(int numClasses)
+    {
+        double[][] targets = new double[size()][numClasses];
+        for (int i = 0; i < targets.length; i++)
+        {
+            targets[i][getLabelIndex(i)] = 1.0;
+        }
+        return targets;
+    }
+
+    /*
+     * Parameters: glyph files that are all the same size, the number of tiles per row and the sheet to write
+     * Function: Lays the glyphs out in a grid, writes the sheet with BitmapWriter and writes its layout file.
+     *           Colored glyphs are turned to gray, as FeatureDecoder sees them anyway.
+     * Special condition: throws IllegalArgumentException if there are no files or numColumns is not > 0
+     */
+    public static void build(String[] files, int numColumns, String atlasFile) throws IOException
+    {
+        if (files.length == 0)
+        {
+            throw new IllegalArgumentException("no glyph files to build " + atlasFile + " from");
+        }
+        if (numColumns <= 0)
+        {
+            throw new IllegalArgumentException("columns must be > 0, not " + numColumns);
+        }
+
+        FeatureDecoder decoder = new FeatureDecoder();
+        FlatImage[] glyphs = new FlatImage[files.length];
+        StringBuilder labels = new StringBuilder(files.length);
+        for (int i = 0; i < files.length; i++)
+        {
+            glyphs[i] = decoder.decodeImage(files[i]);
+            labels.append((char)('A' + DatasetPacker.labelOf(files[i])));
+        }
+
+        int w = glyphs[0].getWidth();
+        int h = glyphs[0].getHeight();
+        int cols = Math.min(numColumns, files.length);
+        int rows = (files.length + cols - 1) / cols;
+        FlatImage sheet = new FlatImage(cols * w, rows * h);
+
+        for (int i = 0; i < files.length; i++)
+        {
+            if (glyphs[i].getWidth() != w || glyphs[i].getHeight() != h)
+            {
+                throw new IOException(files[i] + " is not " + w + "x" + h + " like " + files[0] + ".");
+            }
+            glyphs[i].copyTo(sheet.subImage((i / cols) * h, (i % cols) * w, h, w));
+        }
+        new BitmapWriter().write(sheet.toArray(), atlasFile);
+
+        Properties layout = new Properties();
+        layout.setProperty("tileWidth", Integer.toString(w));
+        layout.setProperty("tileHeight", Integer.toString(h));
+        layout.setProperty("labels", labels.toString());
+        OutputStream out = new FileOutputStream(atlasFile + LAYOUT_SUFFIX);
+        try
+        {
+            layout.store(out, "GlyphAtlas layout");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*
+     * Builds a sheet out of the files named on the command line (or the 26 training letters)
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: java GlyphAtlas <atlas file> [columns] [bitmap files...]");
+            return;
+        }
+
+        int numColumns = DEFAULT_COLUMNS;
+        int first = 1;
+        if (args.length > 1 && args[1].matches("-?\\d+"))
+        {
+            try
+            {
+                numColumns = Integer.parseInt(args[1]);
+            }
+            catch (NumberFormatException e)
+            {
+                numColumns = 0;                                 // too many digits for an int
+            }
+            first = 2;
+            if (numColumns <= 0)
+            {
+                System.err.println("columns must be a number > 0, not " + args[1]);
+                System.err.println("Usage: java GlyphAtlas <atlas file> [columns] [bitmap files...]");
+                return;
+            }
+        }
+
+        String[] files;
+        if (args.length > first)
+        {
+            files = new String[args.length - first];
+            System.arraycopy(args, first, files, 0, files.length);
+        }
+        else
+        {
+            files = new String[DatasetPacker.NUM_LETTERS];
+            for (int i = 0; i < files.length; i++)
+            {
+                files[i] = "letter" + (char)('A' + i) + ".bmp";
+            }
+        }
+
+        build(files, numColumns, args[0]);
+        GlyphAtlas atlas = load(args[0]);
+        System.out.println(args[0] + ": " + atlas.size() + " " + atlas.getTileWidth() + "x" + atlas.getTileHeight()
+                + " glyphs, " + atlas.getColumns() + " per row");
+    }
+} // public class GlyphAtlas
@@ -0,0 +1,621 @@
+/*
+ * Description: Trains every combination of a set of network shapes and training settings and reports how each one
+ *              did, to find the smallest, fastest network that is accurate enough without editing main and running
+ *              it again and again. The settings swept are:
+ *
+ *                  hidden      the number of nodes in each hidden layer
+ *                  depth       the number of hidden layers
+ *                  rate        the training rate (BackPropPerceptron.setTrainingRate)
+ *                  activation  the threshold function: sigmoid (BackPropPerceptron's own), tanh or softsign, the last
+ *                              two scaled to (0, 1) like the sigmoid
+ *                  seeds       how many random starting weights to try for each combination
+ *
+ *              Every run starts from weights drawn evenly from -init (default -.5 to .5). BackPropPerceptron's own
+ *              starting weights, 0 to 1, are all positive, so with 64 inputs and no bias every node starts out
+ *              saturated and a run of a few thousand epochs rarely gets anywhere from them.
+ *
+ *              The runs are trained at the same time on a pool of threads, one run per thread. They all read the same
+ *              copy of the dataset, which nothing writes to. A run stops when the error falls below
+ *              BackPropPerceptron.MAX_ALLOWED_ERROR or after maxEpochs epochs.
+ *
+ *              Once every run is trained, the inference latency of each one is measured on its own, one run at a
+ *              time, so the runs still training don't slow each other's timings down.
+ *
+ *              Each run gets a CSV row:
+ *
+ *                  hidden,depth,rate,activation,seed,parameters,epochs,converged,error,accuracy,latencyNanos,trainSeconds
+ *
+ *              accuracy is the fraction of the test set (the training set if there is none) whose largest output is
+ *              the right letter, and latencyNanos is the time of one evaluate. At the end the smallest combination
+ *              (fewest weights, then lowest latency) whose every seed reached the target accuracy is reported on
+ *              standard error.
+ *
+ *              Usage: java HyperparameterSweep [-hidden 8,16,35] [-depth 1,2] [-rate .3,.7] [-activation sigmoid,tanh]
+ *                         [-seeds n] [-init low,high] [-maxEpochs n] [-threads n] [-target accuracy]
+ *                         [-data file] [-test file] [-out file]
+ *              -data and -test are PackedDataset files. Without -data the 26 letter*.bmp files in the current
+ *              directory are the training set, as in BackPropPerceptron.main.
+ */
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HyperparameterSweep
+{
+    public static final int DEFAULT_MAX_EPOCHS = 2000;
+    public static final int DEFAULT_SEEDS = 3;
+    public static final double DEFAULT_INIT = .5;                 // starting weights are within +-DEFAULT_INIT
+    public static final int LATENCY_ROUNDS = 5;
+    public static final int LATENCY_EVALUATIONS = 20000;          // per round
+    public static final String CSV_HEADER = "hidden,depth,rate,activation,seed,parameters,epochs,converged,error,"
+            + "accuracy,latencyNanos,trainSeconds";
+
+    /*
+     * The threshold functions a run can use, with their derivatives. All of them go from 0 to 1, as the targets do.
+     */
+    public enum Activation
+    {
+        SIGMOID
+        {
+            public double apply(double x)
+            {
+                return 1.0 / (1.0 + Math.exp(-x));
+            }
+
+            public double derivative(double x)
+            {
+                double f = apply(x);
+                return (1 - f) * f;
+            }
+        },
+        TANH
+        {
+            public double apply(double x)
+            {
+                return .5 * (Math.tanh(x) + 1.0);
+            }
+
+            public double derivative(double x)
+            {
+                double t = Math.tanh(x);
+                return .5 * (1 - t * t);
+            }
+        },
+        SOFTSIGN
+        {
+            public double apply(double x)
+            {
+                return .5 * (x / (1.0 + Math.abs(x)) + 1.0);
+            }
+
+            public double derivative(double x)
+            {
+                double d = 1.0 + Math.abs(x);
+                return .5 / (d * d);
+            }
+        };
+
+        public abstract double apply(double x);
+
+        public abstract double derivative(double x);
+
+        public static Activation parse(String name)
+        {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /*
+     * One combination of settings and one seed
+     */
+    public static final class Config
+    {
+        final int hidden;
+        final int depth;
+        final double rate;
+        final Activation activation;
+        final long seed;
+
+        public Config(int hiddenNodes, int hiddenLayers, double trainingRate, Activation threshold, long randomSeed)
+        {
+            hidden = hiddenNodes;
+            depth = hiddenLayers;
+            rate = trainingRate;
+            activation = threshold;
+            seed = randomSeed;
+        }
+
+        /*
+         * Function: Returns the sizes of all the layers, from the inputs to the outputs
+         */
+        int[] layerSizes(int numInputs, int numOutputs)
+        {
+            int[] sizes = new int[depth + 2];
+            sizes[0] = numInputs;
+            for (int i = 1; i <= depth; i++)
+            {
+                sizes[i] = hidden;
+            }
+            sizes[depth + 1] = numOutputs;
+            return sizes;
+        }
+
+        /*
+         * Function: Returns the settings without the seed, which the seeds of one combination share
+         */
+        String combination()
+        {
+            return hidden + "," + depth + "," + rate + "," + activation.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /*
+     * How one run did
+     */
+    public static final class Result
+    {
+        final Config config;
+        final BackPropPerceptron network;
+        final int parameters;
+        final int epochs;
+        final boolean converged;
+        final double error;
+        final double accuracy;
+        final double trainSeconds;
+        double latencyNanos;
+
+        Result(Config c, BackPropPerceptron net, int weights, int epochsTrained, double err, double correct,
+                double seconds)
+        {
+            config = c;
+            network = net;
+            parameters = weights;
+            epochs = epochsTrained;
+            error = err;
+            converged = err <= BackPropPerceptron.MAX_ALLOWED_ERROR;
+            accuracy = correct;
+            trainSeconds = seconds;
+        }
+
+        String toCsv()
+        {
+            return config.combination() + "," + config.seed + "," + parameters + "," + epochs + "," + converged
+                    + "," + error + "," + accuracy + "," + String.format(Locale.ROOT, "%.1f", latencyNanos) + ","
+                    + String.format(Locale.ROOT, "%.3f", trainSeconds);
+        }
+    }
+
+    private final double[][] trainInputs;
+    private final double[][] trainTargets;
+    private final double[][] testInputs;
+    private final double[][] testTargets;
+    private final int maxEpochs;
+    private final int numThreads;
+    private double initLow = -DEFAULT_INIT;
+    private double initHigh = DEFAULT_INIT;
+    private volatile double sink;           // latency() stores its outputs here, so evaluate can't be optimized away
+
+    /*
+     * Parameters: the training set, the test set (null to test on the training set), the most epochs per run and
+     *             the number of runs to train at once. The arrays are shared by every run and never written to.
+     */
+    public HyperparameterSweep(double[][] inputs, double[][] targets, double[][] testIn, double[][] testOut,
+            int epochLimit, int threads)
+    {
+        if (epochLimit <= 0 || threads <= 0)
+        {
+            throw new IllegalArgumentException("maxEpochs and threads must be > 0");
+        }
+        trainInputs = inputs;
+        trainTargets = targets;
+        testInputs = (testIn != null) ? testIn : inputs;
+        testTargets = (testIn != null) ? testOut : targets;
+        maxEpochs = epochLimit;
+        numThreads = threads;
+
+        if (testInputs[0].length != inputs[0].length || testTargets[0].length != targets[0].length)
+        {
+            throw new IllegalArgumentException("The test set doesn't have the shape of the training set.");
+        }
+    }
+
+    /*
+     * Parameters: the range the starting weights are drawn from
+     */
+    public void setInitialRange(double low, double high)
+    {
+        if (!(low < high))
+        {
+            throw new IllegalArgumentException("The starting weights need low < high.");
+        }
+        initLow = low;
+        initHigh = high;
+    }
+
+    /*
+     * Parameters: the runs to do and what to tell as each one finishes (null for nothing)
+     * Function: Trains the runs in parallel, then measures their latency one at a time. Returns the results in
+     *           the order of configs.
+     */
+    public List<Result> run(List<Config> configs, PrintWriter progress) throws InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        CompletionService<Result> done = new ExecutorCompletionService<Result>(pool);
+        Map<Config, Result> results = new LinkedHashMap<Config, Result>();
+        try
+        {
+            for (final Config config : configs)
+            {
+                results.put(config, null);
+                done.submit(() -> train(config));
+            }
+            for (int i = 0; i < configs.size(); i++)
+            {
+                Result result = done.take().get();
+                results.put(result.config, result);
+                if (progress != null)
+                {
+                    progress.println("[" + (i + 1) + "/" + configs.size() + "] " + result.config.combination()
+                            + " seed " + result.config.seed + ": " + result.epochs + " epochs, accuracy "
+                            + result.accuracy);
+                    progress.flush();
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("A run failed: " + e.getCause(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        List<Result> output = new ArrayList<Result>(results.values());
+        for (Result result : output)
+        {
+            result.latencyNanos = latency(result.network);
+        }
+        return output;
+    }
+
+    /*
+     * Function: Trains one run and measures its accuracy
+     */
+    private Result train(Config config)
+    {
+        BackPropPerceptron network = newNetwork(trainInputs, trainTargets, config, initLow, initHigh, maxEpochs);
+        TrainingMonitor monitor = network.getMonitor();
+        int parameters = 0;
+        for (double[][] layer : network.getWeights())
+        {
+            parameters += layer.length * layer[0].length;
+        }
+
+        long start = System.nanoTime();
+        network.train();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return new Result(config, network, parameters, monitor.getEpoch(), monitor.getLastError(),
+                accuracy(network), seconds);
+    }
+
+    /*
+     * Parameters: the training set, the settings and seed of the run, the range of the starting weights and the
+     *             most epochs to train
+     * Function: Returns an untrained perceptron set up for the run, with a quiet monitor that stops it after
+     *           maxEpochs epochs
+     */
+    static BackPropPerceptron newNetwork(double[][] inputs, double[][] targets, Config config, double low,
+            double high, int maxEpochs)
+    {
+        int[] sizes = config.layerSizes(inputs[0].length, targets[0].length);
+        double[][][] weights = new double[sizes.length - 1][][];
+        for (int i = 0; i < weights.length; i++)
+        {
+            weights[i] = new double[sizes[i]][sizes[i + 1]];
+        }
+
+        BackPropPerceptron network = newNetwork(inputs, targets, weights, config.activation);
+        network.randomizeWeights(new Random(config.seed), low, high);
+        network.setTrainingRate(config.rate);
+        TrainingMonitor monitor = new TrainingMonitor(BackPropPerceptron.MAX_ALLOWED_ERROR, null);
+        monitor.setEpochLimit(maxEpochs);
+        network.setMonitor(monitor);
+        return network;
+    }
+
+    /*
+     * Parameters: the training set, the weights (kept as they are) and the threshold function
+     * Function: Returns a perceptron that uses the threshold function
+     */
+    static BackPropPerceptron newNetwork(double[][] inputs, double[][] targets, double[][][] weights,
+            final Activation activation)
+    {
+        if (activation == Activation.SIGMOID)
+        {
+            return new BackPropPerceptron(inputs, targets, weights, false);
+        }
+        return new BackPropPerceptron(inputs, targets, weights, false)
+        {
+            public double thresholdFunction(double x)
+            {
+                return activation.apply(x);
+            }
+
+            public double derivativeOfThreshold(double x)
+            {
+                return activation.derivative(x);
+            }
+        };
+    }
+
+    /*
+     * Function: Returns the fraction of the test set the network gets right
+     */
+    private double accuracy(BackPropPerceptron network)
+    {
+        int correct = 0;
+        for (int i = 0; i < testInputs.length; i++)
+        {
+            if (Recognizer.argmax(network.evaluate(testInputs[i])) == Recognizer.argmax(testTargets[i]))
+            {
+                correct++;
+            }
+        }
+        return (double)correct / testInputs.length;
+    }
+
+    /*
+     * Function: Returns the nanoseconds of one evaluate, the best of LATENCY_ROUNDS rounds through the test set.
+     *           Metrics is off while it measures, so the EVALUATE histogram's own timing isn't counted; for the
+     *           small networks being ranked it would be a large part of the time.
+     */
+    private double latency(BackPropPerceptron network)
+    {
+        double best = Double.MAX_VALUE;
+        double outputs = 0;
+        boolean metrics = Metrics.isEnabled();
+        Metrics.setEnabled(false);
+        try
+        {
+            for (int round = 0; round < LATENCY_ROUNDS; round++)
+            {
+                long start = System.nanoTime();
+                for (int i = 0; i < LATENCY_EVALUATIONS; i++)
+                {
+                    outputs += network.evaluate(testInputs[i % testInputs.length])[0];
+                }
+                best = Math.min(best, (double)(System.nanoTime() - start) / LATENCY_EVALUATIONS);
+                sink = outputs;
+            }
+        }
+        finally
+        {
+            Metrics.setEnabled(metrics);
+        }
+        return best;
+    }
+
+    /*
+     * Parameters: the results of a sweep and the accuracy every seed of a combination must reach
+     * Function: Returns the results of the smallest combination (fewest weights, then lowest mean latency) all of
+     *           whose seeds reached the target, or null if none did
+     */
+    public static List<Result> smallest(List<Result> results, double target)
+    {
+        Map<String, List<Result>> combinations = new LinkedHashMap<String, List<Result>>();
+        for (Result result : results)
+        {
+            combinations.computeIfAbsent(result.config.combination(), k -> new ArrayList<Result>()).add(result);
+        }
+
+        List<Result> best = null;
+        for (List<Result> runs : combinations.values())
+        {
+            boolean good = true;
+            for (Result result : runs)
+            {
+                good &= result.accuracy >= target;
+            }
+            if (good && (best == null || runs.get(0).parameters < best.get(0).parameters
+                    || (runs.get(0).parameters == best.get(0).parameters && meanLatency(runs) < meanLatency(best))))
+            {
+                best = runs;
+            }
+        }
+        return best;
+    }
+
+    private static double meanLatency(List<Result> runs)
+    {
+        double sum = 0;
+        for (Result result : runs)
+        {
+            sum += result.latencyNanos;
+        }
+        return sum / runs.size();
+    }
+
+    /*
+     * Function: Reads a packed dataset into arrays: [0] the inputs and [1] the one-hot targets
+     */
+    static double[][][] load(String fileName) throws IOException
+    {
+        PackedDataset data = new PackedDataset(fileName);
+        double[][] inputs = new double[data.size()][data.getFeatureDimension()];
+        double[][] targets = new double[data.size()][data.getNumClasses()];
+        for (int i = 0; i < data.size(); i++)
+        {
+            data.copyRow(i, inputs[i]);
+            data.copyTarget(i, targets[i]);
+        }
+        return new double[][][] {inputs, targets};
+    }
+
+    /*
+     * Function: Reads the 26 letter bitmaps as in BackPropPerceptron.main
+     */
+    static double[][][] loadLetters() throws IOException
+    {
+        double[][] inputs = new double[26][];
+        double[][] targets = new double[26][26];
+        FeatureDecoder decoder = new FeatureDecoder();
+        for (int i = 0; i < 26; i++)
+        {
+            String file = "letter" + (char)('A' + i) + ".bmp";
+            double[] features = new double[64];
+            int size = decoder.decode(file, features, 0);
+            if (size != features.length)
+            {
+                throw new IOException(file + " has " + size + " pels, not 64.");
+            }
+            inputs[i] = features;
+            targets[i][i] = 1.0;
+        }
+        return new double[][][] {inputs, targets};
+    }
+
+    static int[] ints(String list)
+    {
+        String[] parts = list.split(",");
+        int[] output = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            output[i] = Integer.parseInt(parts[i].trim());
+        }
+        return output;
+    }
+
+    static double[] doubles(String list)
+    {
+        String[] parts = list.split(",");
+        double[] output = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            output[i] = Double.parseDouble(parts[i].trim());
+        }
+        return output;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int[] hidden = {8, 16, 35};
+        int[] depths = {1};
+        double[] rates = {.3, .7};
+        List<Activation> activations = new ArrayList<Activation>();
+        int seeds = DEFAULT_SEEDS;
+        double[] init = {-DEFAULT_INIT, DEFAULT_INIT};
+        int maxEpochs = DEFAULT_MAX_EPOCHS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double target = 1.0;
+        String dataFile = null;
+        String testFile = null;
+        String outFile = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-hidden")) hidden = ints(args[++i]);
+                else if (args[i].equals("-depth")) depths = ints(args[++i]);
+                else if (args[i].equals("-rate")) rates = doubles(args[++i]);
+                else if (args[i].equals("-activation"))
+                {
+                    for (String name : args[++i].split(",")) activations.add(Activation.parse(name));
+                }
+                else if (args[i].equals("-seeds")) seeds = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-init")) init = doubles(args[++i]);
+                else if (args[i].equals("-maxEpochs")) maxEpochs = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-target")) target = Double.parseDouble(args[++i]);
+                else if (args[i].equals("-data")) dataFile = args[++i];
+                else if (args[i].equals("-test")) testFile = args[++i];
+                else if (args[i].equals("-out")) outFile = args[++i];
+                else throw new IllegalArgumentException(args[i]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("Usage: java HyperparameterSweep [-hidden 8,16,35] [-depth 1,2] [-rate .3,.7] "
+                    + "[-activation sigmoid,tanh,softsign] [-seeds n] [-init low,high] [-maxEpochs n] [-threads n] "
+                    + "[-target accuracy] [-data file] [-test file] [-out file]");
+            return;
+        }
+        if (activations.isEmpty())
+        {
+            activations.add(Activation.SIGMOID);
+        }
+
+        double[][][] train = (dataFile != null) ? load(dataFile) : loadLetters();
+        double[][][] test = (testFile != null) ? load(testFile) : null;
+
+        List<Config> configs = new ArrayList<Config>();
+        for (int depth : depths)
+        {
+            for (int h : hidden)
+            {
+                for (double rate : rates)
+                {
+                    for (Activation activation : activations)
+                    {
+                        for (int s = 0; s < seeds; s++)
+                        {
+                            configs.add(new Config(h, depth, rate, activation, s + 1));
+                        }
+                    }
+                }
+            }
+        }
+
+        HyperparameterSweep sweep = new HyperparameterSweep(train[0], train[1], (test != null) ? test[0] : null,
+                (test != null) ? test[1] : null, maxEpochs, threads);
+        sweep.setInitialRange(init[0], init[init.length - 1]);
+        PrintWriter progress = new PrintWriter(new OutputStreamWriter(System.err));
+        long start = System.nanoTime();
+        List<Result> results = sweep.run(configs, progress);
+
+        PrintWriter out = new PrintWriter((outFile != null) ? new FileWriter(outFile)
+                : new OutputStreamWriter(System.out));
+        try
+        {
+            out.println(CSV_HEADER);
+            for (Result result : results)
+            {
+                out.println(result.toCsv());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        System.err.println("Trained " + configs.size() + " runs in "
+                + String.format("%.1f", (System.nanoTime() - start) / 1e9) + " s with " + threads + " threads");
+        List<Result> best = smallest(results, target);
+        if (best == null)
+        {
+            System.err.println("No combination reached an accuracy of " + target + " with every seed.");
+        }
+        else
+        {
+            System.err.println("Smallest combination with every seed at accuracy >= " + target + ": hidden "
+                    + best.get(0).config.hidden + ", depth " + best.get(0).config.depth + ", rate "
+                    + best.get(0).config.rate + ", " + best.get(0).config.activation.name().toLowerCase(Locale.ROOT)
+                    + " (" + best.get(0).parameters + " weights, "
+                    + String.format("%.0f", meanLatency(best)) + " ns per evaluate)");
+        }
+    }
+} // public class HyperparameterSweep
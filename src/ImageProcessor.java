@@ -17,6 +17,9 @@ public class ImageProcessor
     public static final int DEFAULT_WIDTH = 80;
     public static final int DEFAULT_HEIGHT = 80;
     
+    static final Resampler RESAMPLER = new Resampler(Resampler.DEFAULT_CAPACITY);
+        // shared by every ImageProcessor so the divider tables are made once per crop size
+    
     /*
     * Special condition: Picture must contain an image
     * Parameters: A 2D int array
@@ -24,26 +27,46 @@ public class ImageProcessor
     */
     public Location centerOfMass(int[][] pic)
     {
-        int xCOM = 0;
-        int yCOM = 0;
+        return centerOfMass(FlatImage.fromArray(pic));
+    } //public Location centerOfMass(int[][] pic)
+    
+    /*
+    * Special condition: Picture must contain an image
+    * Parameters: A flat image
+    * Function: Returns the center of mass of the circle found. The sums are kept in longs since true color pels
+    *           times their row or column overflow an int on anything bigger than a few pixels.
+    */
+    public Location centerOfMass(FlatImage pic)
+    {
+        long began = Metrics.start();
+        long xCOM = 0;
+        long yCOM = 0;
         int numPts = 0;
+        int[] data = pic.getData();
         
-        for(int i = 0; i < pic.length; i++)
+        for(int i = 0; i < pic.getHeight(); i++)
         {
-            for(int j = 0; j < pic[0].length; j++)
+            int start = pic.rowStart(i);
+            long rowSum = 0;
+            
+            for(int j = 0; j < pic.getWidth(); j++)
             {
-                xCOM += i * pic[i][j];
-                yCOM += j * pic[i][j];
+                int pel = data[start + j];
+                rowSum += pel;
+                yCOM += (long)j * pel;
                 
-                if(pic[i][j] != BLANK)
+                if(pel != BLANK)
                 {
                     numPts++;
                 }
             }
+            xCOM += i * rowSum;
         }
         
-        return new Location(xCOM/numPts, yCOM/numPts);
-    } //private Location centerOfMass()
+        Location output = new Location((int)(xCOM/numPts), (int)(yCOM/numPts));
+        Metrics.stop(Metrics.CENTER_OF_MASS, began);
+        return output;
+    } //public Location centerOfMass(FlatImage pic)
     
     /*
     * Special condition: Picture must not be empty
@@ -52,24 +75,64 @@ public class ImageProcessor
     */
     public int[][] shiftImage(int[][] pic, Location shift)
     {
-        int[][] output = new int[pic.length][pic[0].length];
-        
-        for(int i = 0; i < pic.length; i++)
+        return shiftImage(FlatImage.fromArray(pic), shift).toArray();
+    } //public int[][] shiftImage(int[][] pic, Location shift)
+    
+    /*
+    * Parameters: A flat image and a Location vector
+    * Function: Returns a new image with the circle shifted by the given vector
+    */
+    public FlatImage shiftImage(FlatImage pic, Location shift)
+    {
+        FlatImage output = new FlatImage(pic.getWidth(), pic.getHeight());
+        shiftImage(pic, shift, output);
+        return output;
+    } //public FlatImage shiftImage(FlatImage pic, Location shift)
+    
+    /*
+    * Parameters: A flat image, a Location vector and an output image of the same size
+    * Function: Writes the picture shifted by the given vector into output. Pels shifted out of the picture are
+    *           dropped and the uncovered pels are set to BLANK. Since every pel that stays in bounds moves by the
+    *           same amount, the part that survives is one rectangle and is copied a row at a time.
+    */
+    public void shiftImage(FlatImage pic, Location shift, FlatImage output)
+    {
+        shiftRows(pic, shift, output, 0, pic.getHeight());
+    } //public void shiftImage(FlatImage pic, Location shift, FlatImage output)
+    
+    /*
+    * Parameters: A flat image, a Location vector, an output image of the same size and a range of output rows
+    * Function: Does the work of shiftImage(FlatImage, Location, FlatImage) for output rows [from, to) only, so the
+    *           rows can be split between threads
+    */
+    static void shiftRows(FlatImage pic, Location shift, FlatImage output, int from, int to)
+    {
+        int numRows = pic.getHeight();
+        int numCols = pic.getWidth();
+        int dx = shift.getX();
+        int dy = shift.getY();
+        int firstRow = Math.max(from - dx, Math.max(0, -dx));         //first source row that lands in the range
+        int lastRow = Math.min(to - dx, Math.min(numRows, numRows - dx));   //one past the last one
+        int firstCol = Math.max(0, -dy);
+        int lastCol = Math.min(numCols, numCols - dy);
+        int[] src = pic.getData();
+        int[] dst = output.getData();
+        
+        for(int i = from; i < to; i++)
         {
-            for(int j = 0; j < pic[0].length; j++)
-            {
-                if(pic[i][j] != BLANK)
-                {
-                    if(isInbounds(pic, new Location(i + shift.getX(), j + shift.getY())))
-                    {
-                        output[i + shift.getX()][j + shift.getY()] = pic[i][j];
-                    }
-                }
-            }
+            java.util.Arrays.fill(dst, output.rowStart(i), output.rowStart(i) + numCols, BLANK);
         }
         
-        return output;
-    } //public int[][] shiftImage(int[][] pic, Location shift)
+        if(firstCol >= lastCol)
+        {
+            return;
+        }
+        for(int i = firstRow; i < lastRow; i++)
+        {
+            System.arraycopy(src, pic.rowStart(i) + firstCol, dst, output.rowStart(i + dx) + firstCol + dy,
+                    lastCol - firstCol);
+        }
+    } //static void shiftRows(FlatImage pic, Location shift, FlatImage output, int from, int to)
     
     /*
      * Special condition: Picture must contain an image
@@ -78,127 +141,88 @@ public class ImageProcessor
      */
      public int[][] shiftImage(int[][] pic)
      {
-         Location centerOfPic = new Location((pic.length - 1)/2, (pic[0].length - 1)/2);
-         Location centerShiftVector = new Location(centerOfPic.getX() - centerOfMass(pic).getX(),
-                 centerOfPic.getY() - centerOfMass(pic).getY());
-         
-         return shiftImage(pic, centerShiftVector);
+         return shiftImage(FlatImage.fromArray(pic)).toArray();
      }
     
     /*
-    * Parameters: A 2D int array and a Location object
-    * Function: Checks to see if the location is within the boundaries of the picture
-    */
-    private boolean isInbounds(int[][] pic, Location loc)
-    {
-        if((loc.getX() < pic.length) &&
-                (loc.getX() >= 0) &&
-                (loc.getY() < pic[0].length) &&
-                (loc.getY() >= 0))
-        {
-            return true;
-        }
-        else
-        {
-            return false;
-        }
-    } //private boolean isInbounds(int[][] pic, Location loc)
+     * Special condition: Picture must contain an image
+     * Parameters: A flat image
+     * Function: Returns an image with the circle shifted to the center
+     */
+     public FlatImage shiftImage(FlatImage pic)
+     {
+         return shiftImage(pic, centerShiftVector(pic));
+     }
+    
+    /*
+     * Special condition: Picture must contain an image
+     * Parameters: A flat image
+     * Function: Returns the vector that moves the center of mass to the center of the picture
+     */
+     public Location centerShiftVector(FlatImage pic)
+     {
+         Location center = centerOfMass(pic);
+         
+         return new Location((pic.getHeight() - 1)/2 - center.getX(), (pic.getWidth() - 1)/2 - center.getY());
+     }
     
     /*
-    * Special condition: Assumes image is not empty, numPix and threshold must be > 0
-    * Parameters: n/a
+    * Special condition: numPix and threshold must be > 0
+    * Parameters: A 2D int array and two ints
     * Function: Returns a 2x2 2D Location array of the corner edges of the image in the given picture,
     *               counting an edge as the first row/column with numPix pixels with
-    *               a value >= threshold
+    *               a value >= threshold. All four corners are (0, 0) for a blank picture.
+    * Details: The picture is read once, row by row, counting the pixels >= threshold of every row and of every
+    *               column at the same time (the row and column projections). The edges are then found by scanning
+    *               the two projections the same way the rows and columns used to be scanned, so the columns are never
+    *               walked down one element per row.
     */
     public Location[][] cornerArray(int[][] pic, int numPix, int threshold)
     {
-        Location[][] output = new Location[NUM_EDGES/2][NUM_EDGES/2];
-        
-        int[] hor = new int[NUM_EDGES/2];                   //saves horizontal bounds of image
-        int[] ver = new int[NUM_EDGES/2];                   //saves vertical bounds of image
-        boolean inImage = false;                           //true if scanned edge is within the image
-        boolean isDone = false;                             //true if both horizontal/vertical edges have been found
-        int pixCount;                                       //number of pixels in scanned edge >= threshold
-        int numRows = pic.length;
-        int numCols = pic[0].length;
-        
-        for(int i = 0; i < numRows; i++)                 //scans image for horizontal edges
+        return cornerArray(FlatImage.fromArray(pic), numPix, threshold);
+    } //public Location[][] cornerArray(int[][] pic, int numPix, int threshold)
+    
+    /*
+    * Special condition: numPix and threshold must be > 0
+    * Parameters: A flat image and two ints
+    * Function: Same as cornerArray(int[][], int, int)
+    */
+    public Location[][] cornerArray(FlatImage pic, int numPix, int threshold)
+    {
+        long began = Metrics.start();
+        int numRows = pic.getHeight();
+        int numCols = pic.getWidth();
+        int[] data = pic.getData();
+        int[] rowCount = new int[numRows];                  //number of pixels >= threshold in each row
+        int[] colCount = new int[numCols];                  //number of pixels >= threshold in each column
+        int total = 0;
+        
+        for(int i = 0; i < numRows; i++)
         {
-            pixCount = 0;                                   //resets the counter for each edge
+            int start = pic.rowStart(i);
+            int pixCount = 0;
             for(int j = 0; j < numCols; j++)
             {
-                if(pic[i][j] >= threshold)
+                if(data[start + j] >= threshold)
                 {
                     pixCount++;
+                    colCount[j]++;
                 }
             }
-            
-            if((pixCount >= numPix) && (inImage == false))
-            {
-                inImage = true;
-                hor[NORTH] = i;
-            }
-            
-            if((pixCount < numPix) && (inImage == true))
-            {
-                inImage = false;
-                hor[SOUTH] = i-1;
-                isDone = true;                              //no longer needs to search for horizontal edges 
-            }
-            
-            if(isDone)
-            {
-                break;
-            }
-        } //for(int i = 0; i < pic.length; i++)
-        
-        if(inImage)                                        //if the 2nd horizontal edge hasn't been found at the the end of the array
-        {
-            inImage = false;
-            hor[SOUTH] = numRows - 1;
+            rowCount[i] = pixCount;
+            total += pixCount;
         }
         
+        int[] hor = new int[NUM_EDGES/2];                   //saves horizontal bounds of image
+        int[] ver = new int[NUM_EDGES/2];                   //saves vertical bounds of image
         
-        
-        isDone = false;
-        for(int i = 0; i < numCols; i++)              //scans image for vertical edges
-        {
-            pixCount = 0;                                   //resets the counter for each edge
-            for(int j = 0; j < numRows; j++)
-            {
-                if(pic[j][i] >= threshold)
-                {
-                    pixCount++;
-                }
-            }
-            
-            if((pixCount >= numPix) && (inImage == false))
-            {
-                inImage = true;
-                ver[WEST] = i;
-            }
-            
-            if((pixCount < numPix) && (inImage == true))
-            {
-                inImage = false;
-                ver[EAST] = i-1;
-                isDone = true;                              //no longer needs to search for vertical edges
-            }
-            
-            if(isDone)
-            {
-                break;
-            }
-        } //for(int i = 0; i < pic[0].length; i++)
-        
-        if(inImage)                                        //if the 2nd vertical edge hasn't been found at the the end of the array
+        if(total > 0)                                       //a blank picture keeps all of its edges at 0
         {
-            ver[SOUTH] = numCols - 1;
+            findEdges(rowCount, numRows, numPix, hor);
+            findEdges(colCount, numCols, numPix, ver);
         }
         
-        
-        
+        Location[][] output = new Location[NUM_EDGES/2][NUM_EDGES/2];
         for(int i = 0; i < NUM_EDGES/2; i++)
         {
             for(int j = 0; j < NUM_EDGES/2; j++)
@@ -207,8 +231,37 @@ public class ImageProcessor
             }
         }
         
+        Metrics.stop(Metrics.CORNER_ARRAY, began);
         return output;
-    } //private Location[][] cornerArray(int[][] pic, int numPix, int threshold)
+    } //public Location[][] cornerArray(FlatImage pic, int numPix, int threshold)
+    
+    /*
+    * Parameters: a row or column projection, how many of its entries to use, the minimum count and a 2 int array
+    *               for the edges
+    * Function: Sets edges[0] to the first entry with a count >= numPix and edges[1] to the entry before the next
+    *               one with a count < numPix (or to the last entry if there is none). Leaves edges alone if no entry
+    *               reaches numPix.
+    */
+    static void findEdges(int[] counts, int length, int numPix, int[] edges)
+    {
+        int i = 0;
+        
+        while(i < length && counts[i] < numPix)      //scans for the first edge
+        {
+            i++;
+        }
+        if(i == length)
+        {
+            return;
+        }
+        edges[0] = i;
+        
+        while(i < length && counts[i] >= numPix)     //scans for the second edge
+        {
+            i++;
+        }
+        edges[1] = i - 1;
+    } //static void findEdges(int[] counts, int length, int numPix, int[] edges)
     
     /*
     * Parameters: A 2D int array and two ints
@@ -225,50 +278,61 @@ public class ImageProcessor
     */
     public int[][] scaleImage(int[][] pic, Location[][] corners, int width, int height)
     {
-        int[][] output = new int[height][width];
-        int[] horDividers = new int[width+1];
-        int[] verDividers = new int[height+1];
-        int horOffset = corners[0][0].getY();
-        int verOffset = corners[0][0].getX();
-        int originalWidth = Math.abs(corners[0][1].getY() - corners[0][0].getY());
-        int originalHeight = Math.abs(corners[1][0].getX() - corners[0][0].getX());
-        double horScalingFactor = ((originalWidth + 0.0)/(double)(width));
-        double verScalingFactor = ((originalHeight + 0.0)/(double)(height));
-        
-        for(int i = 0; i < width; i++)                     //calculates the horizontal dividers of original picture
-        {
-            double div = Math.round((double)i * horScalingFactor);             //prevents truncation from occurring too early
-            horDividers[i] = horOffset + (int)div;
-            //System.out.println("horDividers[" + i + "] = " + horDividers[i]);
-        }
-        horDividers[width] = corners[0][1].getY();         //prevents array out of bounds exception in array element calculating for loop          
-        //System.out.println("horDividers[" + width + "] = " + horDividers[width]);
-        
-        for(int i = 0; i < height; i++)                    //calculates the vertical dividers of original picture
-        {
-            double div = Math.round((double)i * verScalingFactor);             //prevents truncation from occurring too early
-            verDividers[i] = verOffset + (int)div;
-            //System.out.println("verDividers[" + i + "] = " + verDividers[i]);
-        }
-        verDividers[height] = corners[1][0].getX();          //prevents array out of bounds exception in array element calculating for loop
-        //System.out.println("verDividers[" + height + "] = " + verDividers[height]);
+        return scaleImage(new IntegralImage(pic), corners, width, height);
+    }
+    
+    /*
+    * Parameters: the integral image of a picture, its corners and two ints
+    * Function: Same as scaleImage(int[][], Location[][], int, int), for callers that keep the integral image of a
+    *           picture around to scale it (or query it) more than once. Each grid element costs four table lookups
+    *           instead of a sum over all of its pels.
+    */
+    public int[][] scaleImage(IntegralImage pic, Location[][] corners, int width, int height)
+    {
+        FlatImage output = new FlatImage(width, height);
+        scaleImage(pic, corners, output);
+        return output.toArray();
+    }
+    
+    /*
+    * Parameters: A flat image, its corners and two ints
+    * Function: Same as scaleImage(int[][], Location[][], int, int) for a flat image
+    */
+    public FlatImage scaleImage(FlatImage pic, Location[][] corners, int width, int height)
+    {
+        FlatImage output = new FlatImage(width, height);
+        scaleImage(new IntegralImage(pic), corners, output);
+        return output;
+    }
+    
+    /*
+    * Parameters: the integral image of a picture, its corners and the output image
+    * Function: Scales the part of the picture inside the corners to the size of output and writes it there
+    */
+    public void scaleImage(IntegralImage pic, Location[][] corners, FlatImage output)
+    {
+        long start = Metrics.start();
+        RESAMPLER.scale(pic, corners, output);
+        Metrics.stop(Metrics.SCALE_IMAGE, start);
+    }//public void scaleImage(IntegralImage pic, Location[][] corners, FlatImage output)
+    
+    /*
+    * Parameters: the first and last row (or column) of the object, the number of grid elements and an array of at
+    *               least count + 1 ints
+    * Function: Calculates the dividers that split the rows (or columns) between first and last into count grid
+    *               elements, as described above scaleImage
+    */
+    static void computeDividers(int first, int last, int count, int[] dividers)
+    {
+        double scalingFactor = ((Math.abs(last - first) + 0.0)/(double)(count));
         
-        for(int i = 0; i < width; i++)                     //calculates the array element in new picture from grid element from old picture
+        for(int i = 0; i < count; i++)
         {
-            int horBound1 = horDividers[i];
-            int horBound2 = horDividers[i+1];
-            
-            for(int j = 0; j < height; j++)
-            {
-                int verBound1 = verDividers[j];
-                int verBound2 = verDividers[j+1];
-                
-                output[j][i] = avgVal(pic, verBound1, verBound2, horBound1, horBound2);   
-            }
+            double div = Math.round((double)i * scalingFactor);            //prevents truncation from occurring too early
+            dividers[i] = first + (int)div;
         }
-        
-        return output;
-    }//public int[][] scaleImage(int[][] pic, int width, int height)
+        dividers[count] = last;                                             //prevents array out of bounds exception in array element calculating for loop
+    } //static void computeDividers(int first, int last, int count, int[] dividers)
     
     /*
      * Parameters: a 2d int array
@@ -277,6 +341,7 @@ public class ImageProcessor
      */
      public int[] flattenImage(int[][] img)
      {
+         long start = Metrics.start();
          int[] output = new int[img.length*img[0].length];
          
          for(int i = 0; i < img.length; i++)
@@ -287,41 +352,28 @@ public class ImageProcessor
              }
          }
         
+         Metrics.stop(Metrics.FLATTEN, start);
          return output;
      }
     
     /*
-    * Special condition: x0 and y0 have to be >= 0; x1 and y1 have to be less than the bounds of the array
-    * Parameters: A 2D int array and 4 ints
-    * Function: Calculates the average value (rounded to the nearest integer) of the elements
-    *           in the array that are within the bounds.
-    */
-    private int avgVal(int[][] pic, int x0, int x1, int y0, int y1)
-    {
-        double output = 0;
-        int truncatedOutput = 0;
-        int numVals = 0;
-        
-        for(int i = x0; i <= x1; i++)
-        {
-            for(int j = y0; j <= y1; j++)
-            {
-                output += pic[i][j];
-                numVals++;
-            }
-        }
-        output /= (numVals + 0.0);
-        
-        truncatedOutput = (int)output;
-        
-        
-        if(output - truncatedOutput >= .5)
-        {
-            truncatedOutput++;
-        }
+     * Parameters: a flat image
+     * Function: Copies the image into a 1D int array, one row after another
+     */
+     public int[] flattenImage(FlatImage img)
+     {
+         long start = Metrics.start();
+         int width = img.getWidth();
+         int[] output = new int[width*img.getHeight()];
+         
+         for(int i = 0; i < img.getHeight(); i++)
+         {
+             System.arraycopy(img.getData(), img.rowStart(i), output, i*width, width);
+         }
         
-        return truncatedOutput;
-    } //private int avgVal(int[][] pic, int x0, int x1, int y0, int y1)
+         Metrics.stop(Metrics.FLATTEN, start);
+         return output;
+     }
     
     /*
     * Tests the circle processor
@@ -438,7 +490,7 @@ public class ImageProcessor
     * For example, the coordinates of a 2D array would be in located in array[x][y].
     * The coordinates are saved as integers.
     */
-    private class Location
+    public static class Location
     {
         private int x;
         private int y;
@@ -481,5 +533,5 @@ public class ImageProcessor
         {
             return "(" + x + ", " + y + ")";
         }
-    } //private class Location
+    } //public static class Location
 } //public class CircleProcessor
\ No newline at end of file
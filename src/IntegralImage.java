@@ -0,0 +1,103 @@
+/*
+ * Description: A summed-area table of an image. Entry (i, j) of the table is the sum of every pel above and to the
+ *              left of row i, column j of the image, so the sum over any rectangle is four table lookups no matter
+ *              how big the rectangle is. Building the table is one pass over the image.
+ *
+ *              Build one per image and keep it around for as long as the image isn't changed; every box sum or
+ *              average after that is O(1). The bounds given to getSum and getAverage are inclusive, the same as the
+ *              grid cells ImageProcessor.scaleImage averages.
+ */
+public class IntegralImage
+{
+    private final long[] table;          // (height + 1) x (width + 1), first row and column are 0
+    private final int width;
+    private final int height;
+
+    /*
+     * Parameters: a 2D int array
+     * Function: Builds the table for the image
+     */
+    public IntegralImage(int[][] pic)
+    {
+        this(FlatImage.fromArray(pic));
+    }
+
+    /*
+     * Parameters: a flat image (or a view of part of one)
+     * Function: Builds the table for the image
+     */
+    public IntegralImage(FlatImage pic)
+    {
+        height = pic.getHeight();
+        width = pic.getWidth();
+        table = new long[(height + 1) * (width + 1)];
+
+        int[] data = pic.getData();
+        int stride = width + 1;
+        for (int i = 0; i < height; i++)
+        {
+            long rowSum = 0;
+            int above = i * stride;
+            int here = above + stride;
+            int start = pic.rowStart(i);
+            for (int j = 0; j < width; j++)
+            {
+                rowSum += data[start + j];
+                table[here + j + 1] = table[above + j + 1] + rowSum;
+            }
+        }
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /*
+     * Special condition: 0 <= x0 <= x1 < height and 0 <= y0 <= y1 < width
+     * Parameters: the first and last row and the first and last column
+     * Function: Returns the sum of the pels in the rectangle
+     */
+    public long getSum(int x0, int x1, int y0, int y1)
+    {
+        int stride = width + 1;
+        int top = x0 * stride;
+        int bottom = (x1 + 1) * stride;
+
+        return table[bottom + y1 + 1] - table[top + y1 + 1] - table[bottom + y0] + table[top + y0];
+    }
+
+    /*
+     * Special condition: 0 <= x0 <= x1 < height and 0 <= y0 <= y1 < width
+     * Parameters: the first and last row and the first and last column
+     * Function: Returns the average of the pels in the rectangle rounded to the nearest integer (halves round up)
+     */
+    public int getAverage(int x0, int x1, int y0, int y1)
+    {
+        long numVals = (long)(x1 - x0 + 1) * (y1 - y0 + 1);
+        return roundedAverage(getSum(x0, x1, y0, y1), numVals);
+    }
+
+    /*
+     * Parameters: a sum and the number of values in it
+     * Function: Returns the average rounded to the nearest integer (halves round up), the way ImageProcessor has
+     *           always rounded its grid averages
+     */
+    static int roundedAverage(long sum, long numVals)
+    {
+        double output = (double)sum / (double)numVals;
+        int truncatedOutput = (int)output;
+
+        if (output - truncatedOutput >= .5)
+        {
+            truncatedOutput++;
+        }
+
+        return truncatedOutput;
+    }
+} // public class IntegralImage
@@ -0,0 +1,161 @@
+/*
+ * Description: A histogram of latencies in nanoseconds, in the style of an HDR histogram. Values below 2^SUB_BITS
+ *              get a bucket each; above that every power of two is split into 2^SUB_BITS equal buckets, so a bucket
+ *              is never wider than 1/2^SUB_BITS (about 3%) of the values in it, from a nanosecond up to MAX_VALUE.
+ *              Larger values are counted in the last bucket.
+ *
+ *              Recording never locks, so any number of threads can record at once. The count and the sum are
+ *              LongAdders, which spread contended adds over per-thread cells (allocating those cells the first time
+ *              threads collide) instead of making every thread fight for one counter. The largest value is only
+ *              read on the way through; it is compare-and-set only when a value beats it, which soon becomes rare.
+ *              What remains shared is the one atomic add on the value's bucket: threads recording similar latencies
+ *              hit the same bucket, so under heavy load from many cores that add still bounces a cache line between
+ *              them and costs tens of nanoseconds. Give each hot thread its own histogram if that matters.
+ *
+ *              Reading while others record gives counts that may be a few records apart from each other (the count,
+ *              the sum and the buckets are not read at one instant), which is fine for monitoring.
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram
+{
+    public static final int SUB_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    public static final int MAX_EXPONENT = 40;                         // 2^40 ns is about 18 minutes
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    public static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String histogramName)
+    {
+        name = histogramName;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /*
+     * Parameters: a latency in nanoseconds
+     * Function: Counts it. Negative values count as 0.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.min(Math.max(nanos, 0L), MAX_VALUE);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+
+        long current = max.get();
+        if (value <= current) return;                                   // the usual case: no write at all
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /*
+     * Parameters: a System.nanoTime() taken before the work
+     * Function: Records the time since then
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /*
+     * Function: Returns the bucket a value (0 <= value <= MAX_VALUE) is counted in
+     */
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS) return (int)value;
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    /*
+     * Function: Returns the largest value counted in a bucket
+     */
+    static long highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket - (long)shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /*
+     * Function: Returns the sum of every value recorded, in nanoseconds
+     */
+    public long getTotal()
+    {
+        return sum.sum();
+    }
+
+    public double getMean()
+    {
+        long n = count.sum();
+        return (n == 0) ? 0.0 : (double)sum.sum() / n;
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /*
+     * Parameters: a percentile between 0 and 100
+     * Function: Returns a value that at least that percent of the recorded values are no bigger than (the top of
+     *           the bucket the percentile falls in, but never more than the largest value recorded)
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /*
+     * Function: Forgets everything recorded
+     */
+    public void reset()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+} // public class LatencyHistogram
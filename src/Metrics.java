@@ -0,0 +1,137 @@
+/*
+ * Description: The latency histograms of each step of the recognition path, shared by the whole process:
+ *
+ *                  readBitmap      BitmapProcessor reading a BMP: the file read and the parse
+ *                  decode          FeatureDecoder turning the bytes of a BMP into features (the parse only)
+ *                  centerOfMass    ImageProcessor.centerOfMass
+ *                  cornerArray     ImageProcessor.cornerArray
+ *                  scaleImage      ImageProcessor.scaleImage (the grid averaging)
+ *                  flatten         ImageProcessor.flattenImage
+ *                  preprocess      Preprocessor.process (all of the above after decoding, in one pass)
+ *                  evaluate        one forward pass of BackPropPerceptron
+ *                  evaluateBatch   one BackPropPerceptron.evaluate(double[][]) call
+ *
+ *              The count of each histogram is also its throughput counter: dump shows the calls per second since
+ *              the last reset. Timing a step is
+ *
+ *                  long start = Metrics.start();
+ *                  ...
+ *                  Metrics.stop(Metrics.DECODE, start);
+ *
+ *              which reads the clock twice and adds to a few atomic counters, with no locks and no allocation. With
+ *              Metrics.setEnabled(false) start returns 0, stop does nothing and the clock is not read at all.
+ */
+import java.io.IOException;
+
+public class Metrics
+{
+    public static final LatencyHistogram READ_BITMAP = new LatencyHistogram("readBitmap");
+    public static final LatencyHistogram DECODE = new LatencyHistogram("decode");
+    public static final LatencyHistogram CENTER_OF_MASS = new LatencyHistogram("centerOfMass");
+    public static final LatencyHistogram CORNER_ARRAY = new LatencyHistogram("cornerArray");
+    public static final LatencyHistogram SCALE_IMAGE = new LatencyHistogram("scaleImage");
+    public static final LatencyHistogram FLATTEN = new LatencyHistogram("flatten");
+    public static final LatencyHistogram PREPROCESS = new LatencyHistogram("preprocess");
+    public static final LatencyHistogram EVALUATE = new LatencyHistogram("evaluate");
+    public static final LatencyHistogram EVALUATE_BATCH = new LatencyHistogram("evaluateBatch");
+
+    private static final LatencyHistogram[] ALL = {
+        READ_BITMAP, DECODE, CENTER_OF_MASS, CORNER_ARRAY, SCALE_IMAGE, FLATTEN, PREPROCESS, EVALUATE, EVALUATE_BATCH
+    };
+
+    private static volatile boolean enabled = true;
+    private static volatile long resetNanos = System.nanoTime();
+
+    private Metrics()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    /*
+     * Function: Returns the time to pass to stop, or 0 if metrics are off
+     */
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /*
+     * Parameters: the histogram of the step and what start returned before it
+     * Function: Records how long the step took
+     */
+    public static void stop(LatencyHistogram histogram, long startNanos)
+    {
+        if (startNanos != 0L)
+        {
+            histogram.recordSince(startNanos);
+        }
+    }
+
+    /*
+     * Function: Returns every histogram, in the order dump lists them
+     */
+    public static LatencyHistogram[] getHistograms()
+    {
+        return ALL.clone();
+    }
+
+    /*
+     * Function: Clears every histogram and restarts the throughput clock
+     */
+    public static void reset()
+    {
+        for (LatencyHistogram h : ALL)
+        {
+            h.reset();
+        }
+        resetNanos = System.nanoTime();
+    }
+
+    /*
+     * Parameters: where to write
+     * Function: Writes a table with a line per step that has been timed: calls, calls per second since the reset,
+     *           and the mean, percentiles and max in microseconds
+     */
+    public static void dump(Appendable out) throws IOException
+    {
+        double seconds = Math.max(1e-9, (System.nanoTime() - resetNanos) / 1e9);
+
+        out.append(String.format("%-14s %10s %10s %9s %9s %9s %9s %9s %9s%n", "step", "count", "per sec",
+                "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+        for (LatencyHistogram h : ALL)
+        {
+            long n = h.getCount();
+            if (n == 0) continue;
+
+            out.append(String.format("%-14s %10d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", h.getName(), n,
+                    n / seconds, h.getMean() / 1e3, h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3,
+                    h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+        }
+    }
+
+    /*
+     * Function: Returns what dump writes
+     */
+    public static String dump()
+    {
+        StringBuilder text = new StringBuilder();
+        try
+        {
+            dump(text);
+        }
+        catch (IOException e)
+        {
+            // a StringBuilder doesn't throw
+        }
+        return text.toString();
+    }
+} // public class Metrics
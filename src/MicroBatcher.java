@@ -0,0 +1,203 @@
+/*
+ * Description: Collects input vectors from many threads into batches for BackPropPerceptron.evaluate(double[][]).
+ *              A caller submits one vector and gets a future for its outputs. One flusher thread takes the oldest
+ *              waiting vector and keeps adding the ones behind it until either the batch is full or the oldest one
+ *              has waited the longest delay allowed, then runs the batch and completes every future in it.
+ *
+ *              Under light load a vector waits no longer than the delay (plus one forward pass); under heavy load
+ *              batches fill before the deadline and each forward pass is shared by up to maxBatch callers. The
+ *              queue is bounded: submit fails straight away when it is full, so a caller can turn the request away
+ *              instead of letting the wait grow without limit.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MicroBatcher
+{
+    public static final int DEFAULT_MAX_BATCH = 64;
+    public static final long DEFAULT_MAX_DELAY_NANOS = 2000000L;      // 2 ms
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final BackPropPerceptron network;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private volatile long batches;              // only written by the flusher thread
+    private volatile long vectors;
+
+    /*
+     * A vector waiting to be evaluated
+     */
+    private static final class Request
+    {
+        final double[] input;
+        final long arrival = System.nanoTime();
+        final CompletableFuture<double[]> result = new CompletableFuture<double[]>();
+
+        Request(double[] in)
+        {
+            input = in;
+        }
+    }
+
+    /*
+     * Parameters: the network, the most vectors per batch, the longest a vector may wait for its batch to fill
+     *             (in nanoseconds) and the most vectors that may be waiting
+     */
+    public MicroBatcher(BackPropPerceptron net, int batch, long delayNanos, int capacity)
+    {
+        if (batch <= 0 || delayNanos < 0 || capacity <= 0)
+        {
+            throw new IllegalArgumentException("batch and capacity must be > 0 and the delay >= 0");
+        }
+        network = net;
+        maxBatch = batch;
+        maxDelayNanos = delayNanos;
+        queue = new ArrayBlockingQueue<Request>(capacity);
+
+        flusher = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                flushLoop();
+            }
+        }, "MicroBatcher-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public MicroBatcher(BackPropPerceptron net)
+    {
+        this(net, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_NANOS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /*
+     * Parameters: an input vector (it must not be changed until the future is done)
+     * Function: Queues the vector and returns a future for the network's outputs. Throws
+     *           RejectedExecutionException if the queue is full or the batcher is closed.
+     */
+    public CompletableFuture<double[]> submit(double[] input)
+    {
+        if (closed)
+        {
+            throw new RejectedExecutionException("MicroBatcher is closed");
+        }
+        Request request = new Request(input);
+        if (!queue.offer(request))
+        {
+            throw new RejectedExecutionException("MicroBatcher queue is full");
+        }
+        if (closed && queue.remove(request))                    // closed while queueing; the flusher may be gone
+        {
+            throw new RejectedExecutionException("MicroBatcher is closed");
+        }
+        return request.result;
+    }
+
+    /*
+     * Function: Runs on the flusher thread until close is called
+     */
+    private void flushLoop()
+    {
+        List<Request> batch = new ArrayList<Request>(maxBatch);
+
+        try
+        {
+            while (!closed)
+            {
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = first.arrival + maxDelayNanos;
+
+                while (batch.size() < maxBatch)
+                {
+                    // take whatever is already waiting without blocking, then wait out the rest of the delay
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) continue;
+
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                evaluate(batch);
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // close was called
+        }
+        finally
+        {
+            RejectedExecutionException e = new RejectedExecutionException("MicroBatcher is closed");
+            for (Request r : batch)
+            {
+                r.result.completeExceptionally(e);
+            }
+            Request r;
+            while ((r = queue.poll()) != null)
+            {
+                r.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /*
+     * Function: Runs one batch through the network and completes its futures
+     */
+    private void evaluate(List<Request> batch)
+    {
+        double[][] inputs = new double[batch.size()][];
+        for (int k = 0; k < inputs.length; k++)
+        {
+            inputs[k] = batch.get(k).input;
+        }
+
+        try
+        {
+            double[][] outputs = network.evaluate(inputs);
+            for (int k = 0; k < outputs.length; k++)
+            {
+                batch.get(k).result.complete(outputs[k]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            for (Request r : batch)
+            {
+                r.result.completeExceptionally(e);
+            }
+        }
+        batches++;
+        vectors += inputs.length;
+    }
+
+    /*
+     * Function: Stops the flusher. Vectors still waiting fail with RejectedExecutionException.
+     */
+    public void close() throws InterruptedException
+    {
+        closed = true;
+        flusher.interrupt();
+        flusher.join();
+    }
+
+    /*
+     * Function: Returns the average number of vectors per forward pass so far
+     */
+    public double getAverageBatchSize()
+    {
+        long numBatches = batches;
+        return (numBatches == 0) ? 0.0 : (double)vectors / numBatches;
+    }
+} // public class MicroBatcher
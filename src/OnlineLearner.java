@@ -0,0 +1,463 @@
+/*
+ * Description: Keeps training a model that is already trained, one newly labeled glyph at a time, so a new font
+ *              can be learned in seconds instead of by retraining from scratch. Samples are offered to a bounded
+ *              queue, from any thread. A background thread takes them off the queue and gives each one a
+ *              backpropagation step (BackPropPerceptron.updateWeights(input, target)).
+ *
+ *              Learning only from the new samples would make the model forget what it knew, so each new sample is
+ *              followed by replayRatio steps on samples drawn at random from a replay buffer. The buffer is a
+ *              fixed-size uniform sample (reservoir sampling) of everything it has been shown. That is the old
+ *              training set given to addReplay plus every new sample, so old and new are replayed in proportion
+ *              to how many of each there have been. To make a small new set stick faster, offer it more than once.
+ *
+ *              The learner changes the weights of the perceptron it is given in place, so that perceptron should
+ *              not be used for anything else meanwhile. snapshot() gives a separate copy of the model between two
+ *              steps, to serve or save.
+ *
+ *              Once the learner is closed, or its worker has died from an exception, offer returns false and put
+ *              throws. Samples still queued when the worker stops are dropped and counted by getDropped, and a
+ *              worker failure is kept (getFailure), printed on standard error and thrown again by awaitLearned.
+ */
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class OnlineLearner
+{
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_REPLAY_CAPACITY = 10000;
+    public static final int DEFAULT_REPLAY_RATIO = 4;
+    public static final double ERROR_SMOOTHING = .01;
+
+    private final BackPropPerceptron network;
+    private final int numInputs;
+    private final int numOutputs;
+    private final int replayRatio;
+    private final BlockingQueue<Sample> queue;
+    private final Random random;
+    private final Object lock = new Object();           // held for each step; snapshot takes it too
+
+    // replay buffer, only touched with lock held
+    private final double[][] replayInputs;
+    private final int[] replayLabels;
+    private int replaySize;
+    private long replaySeen;
+
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private volatile long learned;                       // new samples stepped on
+    private volatile long replayed;                      // replay steps
+    private volatile double recentError = Double.NaN;    // smoothed error of the new samples, before their step
+    private long offered;                                // guarded by this
+    private long done;                                   // guarded by this
+    private boolean exited;                              // guarded by this; the worker has stopped
+    private volatile Throwable failure;                  // what the worker died of, if it did
+
+    /*
+     * A labeled glyph waiting to be learned
+     */
+    private static final class Sample
+    {
+        final double[] input;
+        final int label;
+
+        Sample(double[] in, int letter)
+        {
+            input = in;
+            label = letter;
+        }
+    }
+
+    /*
+     * Parameters: the model to go on training (see BackPropPerceptron(double[][][]) and readWeights)
+     */
+    public OnlineLearner(BackPropPerceptron net)
+    {
+        this(net, DEFAULT_QUEUE_CAPACITY, DEFAULT_REPLAY_CAPACITY, DEFAULT_REPLAY_RATIO, System.nanoTime());
+    }
+
+    /*
+     * Parameters: the model, the most samples that may wait to be learned, the size of the replay buffer, the
+     *             replay steps after each new sample and a seed for the replay draws
+     */
+    public OnlineLearner(BackPropPerceptron net, int queueCapacity, int replayCapacity, int ratio, long seed)
+    {
+        if (queueCapacity <= 0 || replayCapacity <= 0 || ratio < 0)
+        {
+            throw new IllegalArgumentException("queue and replay capacities must be > 0 and the ratio >= 0");
+        }
+        network = net;
+        numInputs = net.getWeights()[0].length;
+        numOutputs = net.getWeights()[net.getWeights().length - 1][0].length;
+        replayRatio = ratio;
+        queue = new ArrayBlockingQueue<Sample>(queueCapacity);
+        random = new Random(seed);
+        replayInputs = new double[replayCapacity][];
+        replayLabels = new int[replayCapacity];
+
+        worker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                learn();
+            }
+        }, "OnlineLearner");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /*
+     * Parameters: the inputs of the samples the model was trained on and their one-hot targets
+     * Function: Puts the old training set into the replay buffer (uniformly sampled down if it is bigger). Best
+     *           done before offering new samples.
+     */
+    public void addReplay(double[][] inputs, double[][] targets)
+    {
+        synchronized (lock)
+        {
+            for (int i = 0; i < inputs.length; i++)
+            {
+                remember(checked(inputs[i]).clone(), Recognizer.argmax(targets[i]));
+            }
+        }
+    }
+
+    /*
+     * Parameters: a packed dataset the model was trained on
+     * Function: Same as addReplay(double[][], double[][]) for the samples of the dataset
+     */
+    public void addReplay(PackedDataset data)
+    {
+        if (data.getFeatureDimension() != numInputs)
+        {
+            throw new IllegalArgumentException("The dataset has " + data.getFeatureDimension()
+                    + " features but the model has " + numInputs + " inputs.");
+        }
+        double[] target = new double[data.getNumClasses()];
+        synchronized (lock)
+        {
+            for (int i = 0; i < data.size(); i++)
+            {
+                double[] input = new double[numInputs];
+                data.copyRow(i, input);
+                data.copyTarget(i, target);
+                remember(input, Recognizer.argmax(target));
+            }
+        }
+    }
+
+    /*
+     * Parameters: the inputs of a glyph (copied) and its label (0 for A)
+     * Function: Queues the sample to be learned. Returns false, without queueing it, if the queue is full.
+     */
+    public boolean offer(double[] input, int label)
+    {
+        Sample sample = sample(input, label);
+        if (!reserve()) return false;
+        if (!queue.offer(sample))
+        {
+            unreserve();
+            return false;
+        }
+        return stillRunning(sample);
+    }
+
+    /*
+     * Parameters: the inputs of a glyph (copied) and its label (0 for A)
+     * Function: Queues the sample to be learned, waiting for room if the queue is full. Throws an
+     *           IllegalStateException if the learner is closed or fails before there is room.
+     */
+    public void put(double[] input, int label) throws InterruptedException
+    {
+        Sample sample = sample(input, label);
+        if (!reserve())
+        {
+            throw stoppedError();
+        }
+        boolean queued = false;
+        try
+        {
+            while (!(queued = queue.offer(sample, 100, TimeUnit.MILLISECONDS)))
+            { // nobody may ever take from a full queue again once the worker stops
+                if (isStopping())
+                {
+                    throw stoppedError();
+                }
+            }
+        }
+        finally
+        {
+            if (!queued)
+            {
+                unreserve();
+            }
+        }
+        if (!stillRunning(sample))
+        {
+            throw stoppedError();
+        }
+    }
+
+    /*
+     * Function: Counts a sample about to be queued, unless the learner is closed or its worker has stopped
+     */
+    private synchronized boolean reserve()
+    {
+        if (closed || exited) return false;
+        offered++;
+        return true;
+    }
+
+    private synchronized boolean isStopping()
+    {
+        return closed || exited;
+    }
+
+    /*
+     * Parameters: a sample just queued
+     * Function: Returns true if the sample got in before the worker stopped: the worker will get to it, or already
+     *           took it (and maybe failed on it) or dropped it with the rest of the queue, as for any sample queued
+     *           before a stop. If the worker had already stopped, takes it back out and returns false.
+     */
+    private synchronized boolean stillRunning(Sample sample)
+    {
+        if (!exited) return true;
+        if (!queue.remove(sample)) return true;
+        offered--;
+        notifyAll();
+        return false;
+    }
+
+    private IllegalStateException stoppedError()
+    {
+        Throwable cause = failure;
+        return (cause != null) ? new IllegalStateException("The learner failed: " + cause, cause)
+                : new IllegalStateException("The learner is closed.");
+    }
+
+    /*
+     * Function: Takes back a reserve for a sample that wasn't queued after all
+     */
+    private synchronized void unreserve()
+    {
+        offered--;
+        notifyAll();
+    }
+
+    private Sample sample(double[] input, int label)
+    {
+        if (label < 0 || label >= numOutputs)
+        {
+            throw new IllegalArgumentException("label " + label + " is not one of the model's " + numOutputs
+                    + " outputs");
+        }
+        return new Sample(checked(input).clone(), label);
+    }
+
+    private double[] checked(double[] input)
+    {
+        if (input.length != numInputs)
+        {
+            throw new IllegalArgumentException("The sample has " + input.length + " inputs but the model has "
+                    + numInputs + ".");
+        }
+        return input;
+    }
+
+    /*
+     * Function: Runs on the worker thread. Takes samples off the queue until closed and the queue is empty.
+     */
+    private void learn()
+    {
+        double[] target = new double[numOutputs];
+        try
+        {
+            while (!closed || !queue.isEmpty())
+            {
+                Sample sample = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (sample == null) continue;
+
+                synchronized (lock)
+                {
+                    target[sample.label] = 1.0;
+                    double error = network.updateWeights(sample.input, target);
+                    target[sample.label] = 0.0;
+                    recentError = Double.isNaN(recentError) ? error
+                            : ERROR_SMOOTHING * error + (1 - ERROR_SMOOTHING) * recentError;
+
+                    for (int r = 0; r < replayRatio && replaySize > 0; r++)
+                    {
+                        int k = random.nextInt(replaySize);
+                        target[replayLabels[k]] = 1.0;
+                        network.updateWeights(replayInputs[k], target);
+                        target[replayLabels[k]] = 0.0;
+                        replayed++;
+                    }
+                    remember(sample.input, sample.label);
+                    learned++;
+                }
+
+                synchronized (this)
+                {
+                    done++;
+                    notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // close(0) gave up on what was left
+        }
+        catch (RuntimeException | Error e)
+        {
+            failure = e;
+            System.err.println("OnlineLearner stopped: " + e);
+        }
+        finally
+        {
+            synchronized (this)
+            { // whatever is still queued is dropped; getDropped counts it
+                exited = true;
+                queue.clear();
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Function: Adds a sample to the replay buffer by reservoir sampling. lock must be held.
+     */
+    private void remember(double[] input, int label)
+    {
+        replaySeen++;
+        int slot;
+        if (replaySize < replayInputs.length)
+        {
+            slot = replaySize++;
+        }
+        else
+        {
+            long r = (long)(random.nextDouble() * replaySeen);
+            if (r >= replayInputs.length) return;
+            slot = (int)r;
+        }
+        replayInputs[slot] = input;
+        replayLabels[slot] = label;
+    }
+
+    /*
+     * Function: Waits until every sample offered so far has been learned or the worker has stopped. Returns true if
+     *           they were all learned, false if some were dropped by close. Throws an IllegalStateException if the
+     *           worker failed.
+     */
+    public boolean awaitLearned() throws InterruptedException
+    {
+        synchronized (this)
+        {
+            while (done < offered && !exited)
+            {
+                wait();
+            }
+            if (failure != null)
+            {
+                throw stoppedError();
+            }
+            return done >= offered;
+        }
+    }
+
+    /*
+     * Function: Returns a copy of the model as it is between two steps
+     */
+    public BackPropPerceptron snapshot()
+    {
+        synchronized (lock)
+        {
+            return new BackPropPerceptron(Checkpoint.copyOf(network.getWeights()));
+        }
+    }
+
+    /*
+     * Parameters: the longest to wait, in milliseconds, for the samples still queued to be learned (0 to drop
+     *             them)
+     * Function: Stops taking samples and stops the worker once the queue is learned or the time is up
+     */
+    public void close(long waitMillis) throws InterruptedException
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        if (waitMillis <= 0)
+        {
+            worker.interrupt();
+        }
+        worker.join(Math.max(waitMillis, 0));
+        if (worker.isAlive())
+        {
+            worker.interrupt();
+            worker.join();
+        }
+    }
+
+    /*
+     * Function: Returns the number of new samples learned
+     */
+    public long getLearned()
+    {
+        return learned;
+    }
+
+    /*
+     * Function: Returns the number of replay steps taken
+     */
+    public long getReplayed()
+    {
+        return replayed;
+    }
+
+    /*
+     * Function: Returns the smoothed error of the new samples, each measured just before its own step
+     */
+    public double getRecentError()
+    {
+        return recentError;
+    }
+
+    /*
+     * Function: Returns the number of samples that were queued but never learned because the worker stopped first
+     */
+    public synchronized long getDropped()
+    {
+        return exited ? offered - done : 0;
+    }
+
+    /*
+     * Function: Returns what the worker died of, or null if it hasn't
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /*
+     * Function: Returns the number of samples waiting to be learned
+     */
+    public int getQueued()
+    {
+        return queue.size();
+    }
+
+    /*
+     * Function: Returns the number of samples in the replay buffer
+     */
+    public int getReplaySize()
+    {
+        synchronized (lock)
+        {
+            return replaySize;
+        }
+    }
+} // public class OnlineLearner
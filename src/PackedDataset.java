@@ -0,0 +1,225 @@
+/*
+ * Description: A training or evaluation set that has already been decoded and normalized, stored in one file and
+ *              read back through a memory mapping. DatasetPacker writes these files; this class reads them.
+ *
+ *              File layout (all values little endian):
+ *
+ *                  int     MAGIC ("LDDS")
+ *                  int     VERSION
+ *                  int     number of samples (n)
+ *                  int     feature dimension, i.e. the number of input nodes (d)
+ *                  int     dtype, DTYPE_FLOAT32 or DTYPE_FLOAT64
+ *                  int     number of classes (26 for the letters)
+ *                  int     glyph width  (0 if the features are not an image)
+ *                  int     glyph height (0 if the features are not an image)
+ *                  int[n]  label of each sample
+ *                  padding up to an 8 byte boundary
+ *                  n rows of d floats or doubles, one row per sample in the same order as the labels
+ *
+ *              row(i) and floatRow(i) return views straight onto the mapping, so nothing is decoded or copied when
+ *              the perceptron reads a sample. A single mapping is limited to 2GB; bigger corpora should be split
+ *              into several shards.
+ */
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class PackedDataset
+{
+    public static final int MAGIC = 0x5344444C;            // "LDDS" when read as little endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int DTYPE_FLOAT32 = 4;             // the dtype is the size of one feature in bytes
+    public static final int DTYPE_FLOAT64 = 8;
+
+    private final MappedByteBuffer map;
+    private final int numSamples;
+    private final int featureDim;
+    private final int dtype;
+    private final int numClasses;
+    private final int glyphWidth;
+    private final int glyphHeight;
+    private final int rowsOffset;                          // where the first row starts in the file
+    private final DoubleBuffer doubles;                    // views over the rows, only one is non-null
+    private final FloatBuffer floats;
+
+    /*
+     * Parameters: the file name of a packed dataset
+     * Function: Maps the file read-only and checks its header and labels
+     */
+    public PackedDataset(String fileName) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(fileName + " is larger than 2GB. Split it into several shards.");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            file.close();                                  // the mapping stays valid after the file is closed
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+        {
+            throw new IOException(fileName + " is not a packed dataset (version " + VERSION + ").");
+        }
+        numSamples  = map.getInt(8);
+        featureDim  = map.getInt(12);
+        dtype       = map.getInt(16);
+        numClasses  = map.getInt(20);
+        glyphWidth  = map.getInt(24);
+        glyphHeight = map.getInt(28);
+
+        if (numSamples < 0 || featureDim < 0 || numClasses <= 0)
+        {
+            throw new IOException(fileName + " has a bad header: " + numSamples + " samples of " + featureDim
+                    + " features in " + numClasses + " classes.");
+        }
+        if (dtype != DTYPE_FLOAT32 && dtype != DTYPE_FLOAT64)
+        {
+            throw new IOException(fileName + " has an unknown dtype, " + dtype + ".");
+        }
+
+        // in longs, so a damaged count can't overflow into a size that fits
+        long rowsStart = rowsOffset(numSamples);
+        if (rowsStart + (long)numSamples * featureDim * dtype > map.capacity())
+        {
+            throw new IOException(fileName + " is truncated.");
+        }
+        rowsOffset = (int)rowsStart;
+
+        for (int i = 0; i < numSamples; i++)
+        { // a label out of range would only show up later, as a bad index deep in training or scoring
+            int label = map.getInt(HEADER_SIZE + 4 * i);
+            if (label < 0 || label >= numClasses)
+            {
+                throw new IOException(fileName + ": sample " + i + " has label " + label + ", not one of the "
+                        + numClasses + " classes.");
+            }
+        }
+
+        ByteBuffer rows = ((ByteBuffer)map.duplicate().position(rowsOffset)).slice().order(ByteOrder.LITTLE_ENDIAN);
+        doubles = (dtype == DTYPE_FLOAT64) ? rows.asDoubleBuffer() : null;
+        floats  = (dtype == DTYPE_FLOAT32) ? rows.asFloatBuffer() : null;
+    }
+
+    /*
+     * Parameters: the number of samples
+     * Function: Returns the byte offset of the first row: the header, the labels and the padding
+     */
+    static long rowsOffset(int numSamples)
+    {
+        long labelsEnd = HEADER_SIZE + 4L * numSamples;
+        return (labelsEnd + 7) & ~7L;
+    }
+
+    public int size()
+    {
+        return numSamples;
+    }
+
+    public int getFeatureDimension()
+    {
+        return featureDim;
+    }
+
+    public int getDtype()
+    {
+        return dtype;
+    }
+
+    public int getNumClasses()
+    {
+        return numClasses;
+    }
+
+    public int getGlyphWidth()
+    {
+        return glyphWidth;
+    }
+
+    public int getGlyphHeight()
+    {
+        return glyphHeight;
+    }
+
+    /*
+     * Parameters: a sample index
+     * Function: Returns the label (class index) of the sample
+     */
+    public int getLabel(int i)
+    {
+        return map.getInt(HEADER_SIZE + 4 * i);
+    }
+
+    /*
+     * Parameters: a sample index
+     * Function: Returns a view of the sample's features straight on the mapped file. Only for DTYPE_FLOAT64 files.
+     */
+    public DoubleBuffer row(int i)
+    {
+        if (doubles == null)
+        {
+            throw new IllegalStateException("This dataset stores floats, use floatRow or copyRow.");
+        }
+        int start = i * featureDim;
+        return doubles.duplicate().limit(start + featureDim).position(start).slice();
+    }
+
+    /*
+     * Parameters: a sample index
+     * Function: Returns a view of the sample's features straight on the mapped file. Only for DTYPE_FLOAT32 files.
+     */
+    public FloatBuffer floatRow(int i)
+    {
+        if (floats == null)
+        {
+            throw new IllegalStateException("This dataset stores doubles, use row or copyRow.");
+        }
+        int start = i * featureDim;
+        return floats.duplicate().limit(start + featureDim).position(start).slice();
+    }
+
+    /*
+     * Parameters: a sample index and an array at least getFeatureDimension() long
+     * Function: Copies the sample's features into the array, whatever the dtype of the file. Double rows are bulk
+     *           copied; float rows have to be widened one feature at a time. Neither moves a shared buffer's
+     *           position, so many threads can copy rows at once.
+     */
+    public void copyRow(int i, double[] dst)
+    {
+        int start = i * featureDim;
+        if (doubles != null)
+        {
+            doubles.get(start, dst, 0, featureDim);
+        }
+        else
+        {
+            for (int j = 0; j < featureDim; j++)
+            {
+                dst[j] = floats.get(start + j);
+            }
+        }
+    }
+
+    /*
+     * Parameters: a sample index and an array at least getNumClasses() long
+     * Function: Fills the array with the one-hot target output of the sample
+     */
+    public void copyTarget(int i, double[] dst)
+    {
+        java.util.Arrays.fill(dst, 0, numClasses, 0.0);
+        dst[getLabel(i)] = 1.0;
+    }
+} // public class PackedDataset
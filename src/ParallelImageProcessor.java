@@ -0,0 +1,465 @@
+/*
+ * Description: An ImageProcessor that spreads the work on large pictures over a fork/join pool. centerOfMass,
+ *              cornerArray, scaleImage and shiftImage all split the picture into strips of whole rows, work on the
+ *              strips in parallel and combine what the strips found:
+ *                  centerOfMass    the moment sums and pel count of each strip are added up
+ *                  cornerArray     each strip fills in its own rows' ink counts and counts its columns' ink
+ *                                  separately; the column counts are added up
+ *                  scaleImage      each strip of output rows works out its own grid cells
+ *                  shiftImage      each strip of output rows is filled in on its own
+ *              The results are exactly the same as ImageProcessor's; only the order the work is done in changes.
+ *
+ *              Splitting stops once a strip has no more than the threshold number of pels, so a picture that is
+ *              smaller than the threshold (any single glyph, at the default) is done on the calling thread by the
+ *              sequential code without touching the pool.
+ *
+ *              The int[][] methods of ImageProcessor all go through the FlatImage ones, so they are parallel too once
+ *              the picture has been copied into a FlatImage (that copy is sequential). scaleImage(int[][]) is
+ *              overridden for this: ImageProcessor's builds the picture's IntegralImage first, one more sequential
+ *              pass over all of it, which here would be most of the work.
+ */
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class ParallelImageProcessor extends ImageProcessor
+{
+    public static final int DEFAULT_THRESHOLD = 1 << 16;         // pels per strip
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public ParallelImageProcessor()
+    {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /*
+     * Parameters: the pool to run in and the largest number of pels a strip is worked on without splitting it
+     */
+    public ParallelImageProcessor(ForkJoinPool forkJoinPool, int minPels)
+    {
+        if (minPels <= 0)
+        {
+            throw new IllegalArgumentException("threshold must be > 0");
+        }
+        pool = forkJoinPool;
+        threshold = minPels;
+    }
+
+    /*
+     * Function: Returns the most rows a strip of the given width may have before it is split
+     */
+    private int rowsPerStrip(int width)
+    {
+        return Math.max(1, threshold / Math.max(1, width));
+    }
+
+    /*
+     * Special condition: Picture must contain an image
+     * Parameters: A flat image
+     * Function: Same as ImageProcessor.centerOfMass(FlatImage)
+     */
+    public Location centerOfMass(FlatImage pic)
+    {
+        int rows = rowsPerStrip(pic.getWidth());
+        if (pic.getHeight() <= rows)
+        {
+            return super.centerOfMass(pic);
+        }
+
+        long start = Metrics.start();
+        long[] moments = pool.invoke(new Moments(pic, 0, pic.getHeight(), rows));
+        Location output = new Location((int)(moments[0]/moments[2]), (int)(moments[1]/moments[2]));
+        Metrics.stop(Metrics.CENTER_OF_MASS, start);
+        return output;
+    }
+
+    /*
+     * Special condition: numPix and threshold must be > 0
+     * Parameters: A flat image and two ints
+     * Function: Same as ImageProcessor.cornerArray(FlatImage, int, int)
+     */
+    public Location[][] cornerArray(FlatImage pic, int numPix, int minVal)
+    {
+        int numRows = pic.getHeight();
+        int numCols = pic.getWidth();
+        int rows = rowsPerStrip(numCols);
+        if (numRows <= rows)
+        {
+            return super.cornerArray(pic, numPix, minVal);
+        }
+
+        long start = Metrics.start();
+        int[] rowCount = new int[numRows];
+        int[] colCount = pool.invoke(new Projections(pic, minVal, rowCount, 0, numRows, rows));
+
+        int total = 0;
+        for (int i = 0; i < numRows; i++)
+        {
+            total += rowCount[i];
+        }
+
+        int[] hor = new int[NUM_EDGES/2];
+        int[] ver = new int[NUM_EDGES/2];
+        if (total > 0)
+        {
+            findEdges(rowCount, numRows, numPix, hor);
+            findEdges(colCount, numCols, numPix, ver);
+        }
+
+        Location[][] output = new Location[NUM_EDGES/2][NUM_EDGES/2];
+        for (int i = 0; i < NUM_EDGES/2; i++)
+        {
+            for (int j = 0; j < NUM_EDGES/2; j++)
+            {
+                output[i][j] = new Location(hor[i], ver[j]);
+            }
+        }
+        Metrics.stop(Metrics.CORNER_ARRAY, start);
+        return output;
+    }
+
+    /*
+     * Parameters: A flat image, its corners and two ints
+     * Function: Same as ImageProcessor.scaleImage(FlatImage, Location[][], int, int). A large picture is not turned
+     *           into an IntegralImage first (that is one more sequential pass over all of it); instead each strip of
+     *           output rows adds up the pels of its own grid cells straight from the picture.
+     */
+    public FlatImage scaleImage(FlatImage pic, Location[][] corners, int width, int height)
+    {
+        int west = corners[0][0].getY();
+        int east = corners[0][1].getY();
+        int north = corners[0][0].getX();
+        int south = corners[1][0].getX();
+        long area = (long)(Math.abs(east - west) + 1) * (Math.abs(south - north) + 1);
+        if (area <= threshold)
+        {
+            return super.scaleImage(pic, corners, width, height);
+        }
+
+        long start = Metrics.start();
+        int[] horDividers = new int[width + 1];
+        int[] verDividers = new int[height + 1];
+        computeDividers(west, east, width, horDividers);
+        computeDividers(north, south, height, verDividers);
+
+        // output rows per strip, so a strip reads about threshold pels of the picture
+        long sourceRowsPerOutputRow = Math.max(1, (Math.abs(south - north) + 1) / height);
+        int rows = (int)Math.max(1, threshold / (sourceRowsPerOutputRow * (Math.abs(east - west) + 1)));
+
+        FlatImage output = new FlatImage(width, height);
+        pool.invoke(new DirectScale(pic, horDividers, verDividers, output, 0, height, rows));
+        Metrics.stop(Metrics.SCALE_IMAGE, start);
+        return output;
+    }
+
+    /*
+     * Parameters: A 2D int array, its corners and two ints
+     * Function: Same as ImageProcessor.scaleImage(int[][], Location[][], int, int), going through the parallel
+     *           scaleImage(FlatImage, ...) above instead of building an IntegralImage of the whole picture
+     */
+    public int[][] scaleImage(int[][] pic, Location[][] corners, int width, int height)
+    {
+        return scaleImage(FlatImage.fromArray(pic), corners, width, height).toArray();
+    }
+
+    /*
+     * Parameters: the integral image of a picture, its corners and the output image
+     * Function: Same as ImageProcessor.scaleImage(IntegralImage, Location[][], FlatImage), with the output rows
+     *           split between threads when the output is large (a whole pyramid level, say)
+     */
+    public void scaleImage(IntegralImage pic, Location[][] corners, FlatImage output)
+    {
+        int rows = rowsPerStrip(output.getWidth());
+        if (output.getHeight() <= rows)
+        {
+            super.scaleImage(pic, corners, output);
+            return;
+        }
+        long start = Metrics.start();
+        pool.invoke(new TableScale(pic, corners, output, 0, output.getHeight(), rows));
+        Metrics.stop(Metrics.SCALE_IMAGE, start);
+    }
+
+    /*
+     * Parameters: A flat image, a Location vector and an output image of the same size
+     * Function: Same as ImageProcessor.shiftImage(FlatImage, Location, FlatImage)
+     */
+    public void shiftImage(FlatImage pic, Location shift, FlatImage output)
+    {
+        int rows = rowsPerStrip(pic.getWidth());
+        if (pic.getHeight() <= rows)
+        {
+            super.shiftImage(pic, shift, output);
+            return;
+        }
+        pool.invoke(new Shift(pic, shift, output, 0, pic.getHeight(), rows));
+    }
+
+    /*
+     * Sums of row * pel, column * pel and the number of pels that aren't BLANK, over rows [from, to)
+     */
+    private static final class Moments extends RecursiveTask<long[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FlatImage pic;
+        private final int from;
+        private final int to;
+        private final int rows;
+
+        Moments(FlatImage image, int first, int end, int maxRows)
+        {
+            pic = image;
+            from = first;
+            to = end;
+            rows = maxRows;
+        }
+
+        protected long[] compute()
+        {
+            if (to - from > rows)
+            {
+                int middle = (from + to) >>> 1;
+                Moments top = new Moments(pic, from, middle, rows);
+                top.fork();
+                long[] bottom = new Moments(pic, middle, to, rows).compute();
+                long[] output = top.join();
+                for (int k = 0; k < output.length; k++)
+                {
+                    output[k] += bottom[k];
+                }
+                return output;
+            }
+
+            long xCOM = 0;
+            long yCOM = 0;
+            long numPts = 0;
+            int[] data = pic.getData();
+            int width = pic.getWidth();
+
+            for (int i = from; i < to; i++)
+            {
+                int start = pic.rowStart(i);
+                long rowSum = 0;
+                for (int j = 0; j < width; j++)
+                {
+                    int pel = data[start + j];
+                    rowSum += pel;
+                    yCOM += (long)j * pel;
+                    if (pel != BLANK) numPts++;
+                }
+                xCOM += i * rowSum;
+            }
+            return new long[] { xCOM, yCOM, numPts };
+        }
+    }
+
+    /*
+     * Fills in rowCount for rows [from, to) and returns the column counts of those rows
+     */
+    private static final class Projections extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FlatImage pic;
+        private final int minVal;
+        private final int[] rowCount;
+        private final int from;
+        private final int to;
+        private final int rows;
+
+        Projections(FlatImage image, int threshold, int[] counts, int first, int end, int maxRows)
+        {
+            pic = image;
+            minVal = threshold;
+            rowCount = counts;
+            from = first;
+            to = end;
+            rows = maxRows;
+        }
+
+        protected int[] compute()
+        {
+            if (to - from > rows)
+            {
+                int middle = (from + to) >>> 1;
+                Projections top = new Projections(pic, minVal, rowCount, from, middle, rows);
+                top.fork();
+                int[] bottom = new Projections(pic, minVal, rowCount, middle, to, rows).compute();
+                int[] output = top.join();
+                for (int j = 0; j < output.length; j++)
+                {
+                    output[j] += bottom[j];
+                }
+                return output;
+            }
+
+            int width = pic.getWidth();
+            int[] colCount = new int[width];
+            int[] data = pic.getData();
+
+            for (int i = from; i < to; i++)
+            {
+                int start = pic.rowStart(i);
+                int pixCount = 0;
+                for (int j = 0; j < width; j++)
+                {
+                    if (data[start + j] >= minVal)
+                    {
+                        pixCount++;
+                        colCount[j]++;
+                    }
+                }
+                rowCount[i] = pixCount;
+            }
+            return colCount;
+        }
+    }
+
+    /*
+     * Works out output rows [from, to) of a scaled image by adding up each grid cell's pels from the picture
+     */
+    private static final class DirectScale extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FlatImage pic;
+        private final int[] horDividers;
+        private final int[] verDividers;
+        private final FlatImage output;
+        private final int from;
+        private final int to;
+        private final int rows;
+
+        DirectScale(FlatImage image, int[] hor, int[] ver, FlatImage out, int first, int end, int maxRows)
+        {
+            pic = image;
+            horDividers = hor;
+            verDividers = ver;
+            output = out;
+            from = first;
+            to = end;
+            rows = maxRows;
+        }
+
+        protected void compute()
+        {
+            if (to - from > rows)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DirectScale(pic, horDividers, verDividers, output, from, middle, rows),
+                        new DirectScale(pic, horDividers, verDividers, output, middle, to, rows));
+                return;
+            }
+
+            int width = output.getWidth();
+            int[] src = pic.getData();
+            int[] dst = output.getData();
+            long[] cellSums = new long[width];
+
+            for (int j = from; j < to; j++)
+            {
+                int x0 = verDividers[j];
+                int x1 = verDividers[j + 1];
+                java.util.Arrays.fill(cellSums, 0L);
+
+                for (int x = x0; x <= x1; x++)
+                {
+                    int start = pic.rowStart(x);
+                    for (int i = 0; i < width; i++)
+                    {
+                        long sum = 0;
+                        for (int y = horDividers[i]; y <= horDividers[i + 1]; y++)
+                        {
+                            sum += src[start + y];
+                        }
+                        cellSums[i] += sum;
+                    }
+                }
+
+                int out = output.rowStart(j);
+                for (int i = 0; i < width; i++)
+                {
+                    long numVals = (long)(x1 - x0 + 1) * (horDividers[i + 1] - horDividers[i] + 1);
+                    dst[out + i] = IntegralImage.roundedAverage(cellSums[i], numVals);
+                }
+            }
+        }
+    }
+
+    /*
+     * Scales output rows [from, to) from an integral image with the shared Resampler tables
+     */
+    private static final class TableScale extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final IntegralImage pic;
+        private final Location[][] corners;
+        private final FlatImage output;
+        private final int from;
+        private final int to;
+        private final int rows;
+
+        TableScale(IntegralImage image, Location[][] edges, FlatImage out, int first, int end, int maxRows)
+        {
+            pic = image;
+            corners = edges;
+            output = out;
+            from = first;
+            to = end;
+            rows = maxRows;
+        }
+
+        protected void compute()
+        {
+            if (to - from > rows)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TableScale(pic, corners, output, from, middle, rows),
+                        new TableScale(pic, corners, output, middle, to, rows));
+                return;
+            }
+            RESAMPLER.scale(pic, corners, output, from, to);
+        }
+    }
+
+    /*
+     * Shifts output rows [from, to)
+     */
+    private static final class Shift extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FlatImage pic;
+        private final Location shift;
+        private final FlatImage output;
+        private final int from;
+        private final int to;
+        private final int rows;
+
+        Shift(FlatImage image, Location vector, FlatImage out, int first, int end, int maxRows)
+        {
+            pic = image;
+            shift = vector;
+            output = out;
+            from = first;
+            to = end;
+            rows = maxRows;
+        }
+
+        protected void compute()
+        {
+            if (to - from > rows)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Shift(pic, shift, output, from, middle, rows),
+                        new Shift(pic, shift, output, middle, to, rows));
+                return;
+            }
+            shiftRows(pic, shift, output, from, to);
+        }
+    }
+} // public class ParallelImageProcessor
@@ -0,0 +1,289 @@
+/*
+ * Description: Turns a raw glyph into a network input vector. It gives the same result as running the ImageProcessor
+ *              steps one after another:
+ *
+ *                  shifted = shiftImage(raw)                          (moves the center of mass to the center)
+ *                  corners = cornerArray(shifted, numPix, threshold)
+ *                  scaled  = scaleImage(shifted, corners, width, height)
+ *                  input   = flattenImage(scaled) / MAX_PEL_VAL
+ *
+ *              but without making any of the intermediate images and without allocating once its buffers have grown
+ *              to the largest glyph seen. The raw image is read exactly once. That single pass builds:
+ *                  - the moments for the center of mass,
+ *                  - a summed-area table of the pels, and
+ *                  - a summed-area table of the pels >= threshold.
+ *              Shifting an image only moves it, so everything about the shifted image is a query on the tables of
+ *              the raw one with the rows and columns moved by the shift (and clipped to the raw image, since pels
+ *              shifted in from outside are BLANK): its row and column ink counts for finding the corners, and the
+ *              grid sums for scaling.
+ *
+ *              The grid lines for scaling come from a Resampler's cached tables, so they are not worked out again for
+ *              every glyph of a size that has been seen before.
+ *
+ *              The buffers live in a Scratch. By default each thread gets its own, so one Preprocessor can be shared
+ *              by any number of threads. A thread that only lives for one glyph (a virtual thread per request) would
+ *              make a new Scratch every time that way, so such callers keep a pool of them from newScratch and pass
+ *              one in with each glyph.
+ */
+public class Preprocessor
+{
+    private final int width;
+    private final int height;
+    private final int numPix;
+    private final int threshold;
+    private final Resampler resampler = new Resampler(Resampler.DEFAULT_CAPACITY);
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+    {
+        protected Scratch initialValue()
+        {
+            return new Scratch();
+        }
+    };
+
+    /*
+     * The buffers one glyph at a time needs, grown as larger glyphs come through. A Scratch belongs to the
+     * Preprocessor that made it and must not be used by two threads at once.
+     */
+    public final class Scratch
+    {
+        long[] sums = new long[0];             // summed-area table of the pels, (rows + 1) x (cols + 1)
+        int[] inkSums = new int[0];            // summed-area table of pels >= threshold
+        int[] rowCount = new int[0];           // ink count of each row of the shifted image
+        int[] colCount = new int[0];           // ink count of each column of the shifted image
+        final int[] hor = new int[ImageProcessor.NUM_EDGES/2];
+        final int[] ver = new int[ImageProcessor.NUM_EDGES/2];
+        final int[] horDividers = new int[width + 1];
+        final int[] verDividers = new int[height + 1];
+        Resampler.Table horTable;              // the last tables used; glyphs in a row are usually the same size
+        Resampler.Table verTable;
+
+        private Scratch()
+        {
+        }
+
+        void ensureCapacity(int rows, int cols)
+        {
+            int tableSize = (rows + 1) * (cols + 1);
+            if (sums.length < tableSize)
+            {
+                sums = new long[tableSize];
+                inkSums = new int[tableSize];
+            }
+            if (rowCount.length < rows) rowCount = new int[rows];
+            if (colCount.length < cols) colCount = new int[cols];
+        }
+
+        Preprocessor owner()
+        {
+            return Preprocessor.this;
+        }
+    }
+
+    /*
+     * Parameters: the size of the network input image, and the numPix and threshold used to find the corners
+     */
+    public Preprocessor(int w, int h, int minPix, int minVal)
+    {
+        if (minPix <= 0 || minVal <= 0)
+        {
+            throw new IllegalArgumentException("numPix and threshold must be > 0");
+        }
+        width = w;
+        height = h;
+        numPix = minPix;
+        threshold = minVal;
+    }
+
+    /*
+     * Function: Returns the length of the vectors process writes (width * height)
+     */
+    public int getInputSize()
+    {
+        return width * height;
+    }
+
+    /*
+     * Function: Returns a new set of buffers for process(raw, features, offset, scratch)
+     */
+    public Scratch newScratch()
+    {
+        return new Scratch();
+    }
+
+    /*
+     * Parameters: a raw glyph in the form returned by BitmapProcessor.getFlatImage (white = 0), the output vector
+     *             and the index to start writing at
+     * Function: Writes the network input for the glyph using this thread's Scratch. A blank glyph gives all zeros.
+     *           The time it takes is recorded in Metrics.PREPROCESS.
+     */
+    public void process(FlatImage raw, double[] features, int offset)
+    {
+        process(raw, features, offset, scratch.get());
+    }
+
+    /*
+     * Parameters: as above, plus buffers from this Preprocessor's newScratch that no other thread is using
+     * Function: Writes the network input for the glyph using the given buffers
+     */
+    public void process(FlatImage raw, double[] features, int offset, Scratch s)
+    {
+        if (s.owner() != this)
+        {
+            throw new IllegalArgumentException("The Scratch was made by another Preprocessor.");
+        }
+
+        long start = Metrics.start();
+        try
+        {
+            processGlyph(raw, features, offset, s);
+        }
+        finally
+        {
+            Metrics.stop(Metrics.PREPROCESS, start);
+        }
+    }
+
+    /*
+     * Function: Does the work of process
+     */
+    private void processGlyph(FlatImage raw, double[] features, int offset, Scratch s)
+    {
+        int rows = raw.getHeight();
+        int cols = raw.getWidth();
+        int stride = cols + 1;
+        s.ensureCapacity(rows, cols);
+
+        long[] sums = s.sums;
+        int[] inkSums = s.inkSums;
+        int[] data = raw.getData();
+        long xCOM = 0;
+        long yCOM = 0;
+        int numPts = 0;
+
+        // the tables are reused at whatever stride this glyph has, so their zero top row and left column are
+        // written again rather than trusted to be left over from the last glyph
+        java.util.Arrays.fill(sums, 0, stride, 0L);
+        java.util.Arrays.fill(inkSums, 0, stride, 0);
+
+        for (int i = 0; i < rows; i++)                          // the one pass over the raw image
+        {
+            int start = raw.rowStart(i);
+            int above = i * stride;
+            int here = above + stride;
+            long rowSum = 0;
+            int rowInk = 0;
+            sums[here] = 0;
+            inkSums[here] = 0;
+
+            for (int j = 0; j < cols; j++)
+            {
+                int pel = data[start + j];
+                rowSum += pel;
+                yCOM += (long)j * pel;
+                if (pel != ImageProcessor.BLANK) numPts++;
+                if (pel >= threshold) rowInk++;
+
+                sums[here + j + 1] = sums[above + j + 1] + rowSum;
+                inkSums[here + j + 1] = inkSums[above + j + 1] + rowInk;
+            }
+            xCOM += i * rowSum;
+        }
+
+        java.util.Arrays.fill(features, offset, offset + width * height, 0.0);
+        if (numPts == 0)
+        {
+            return;
+        }
+
+        // the shift that centers the center of mass (ImageProcessor.centerShiftVector)
+        int dx = (rows - 1)/2 - (int)(xCOM/numPts);
+        int dy = (cols - 1)/2 - (int)(yCOM/numPts);
+
+        // raw rows [r0, r1) and columns [c0, c1) are the ones that stay in the picture after the shift
+        int r0 = Math.max(0, -dx);
+        int r1 = Math.min(rows, rows - dx);
+        int c0 = Math.max(0, -dy);
+        int c1 = Math.min(cols, cols - dy);
+        if (r0 >= r1 || c0 >= c1)
+        {
+            return;                                             // everything was shifted out
+        }
+
+        // ink counts of the shifted image's rows and columns
+        int[] rowCount = s.rowCount;
+        int[] colCount = s.colCount;
+        int total = 0;
+        for (int i = 0; i < rows; i++)
+        {
+            int r = i - dx;
+            rowCount[i] = (r >= r0 && r < r1) ? boxSum(inkSums, stride, r, r, c0, c1 - 1) : 0;
+            total += rowCount[i];
+        }
+        for (int j = 0; j < cols; j++)
+        {
+            int c = j - dy;
+            colCount[j] = (c >= c0 && c < c1) ? boxSum(inkSums, stride, r0, r1 - 1, c, c) : 0;
+        }
+
+        int[] hor = s.hor;
+        int[] ver = s.ver;
+        hor[0] = hor[1] = ver[0] = ver[1] = 0;
+        if (total > 0)
+        {
+            ImageProcessor.findEdges(rowCount, rows, numPix, hor);
+            ImageProcessor.findEdges(colCount, cols, numPix, ver);
+        }
+
+        int[] horDividers = s.horDividers;
+        int[] verDividers = s.verDividers;
+        int horSpan = Math.abs(ver[ImageProcessor.EAST] - ver[ImageProcessor.WEST]);
+        int verSpan = Math.abs(hor[ImageProcessor.SOUTH] - hor[ImageProcessor.NORTH]);
+        if (s.horTable == null || s.horTable.span != horSpan)
+        {
+            s.horTable = resampler.table(horSpan, width);
+        }
+        if (s.verTable == null || s.verTable.span != verSpan)
+        {
+            s.verTable = resampler.table(verSpan, height);
+        }
+        s.horTable.dividers(ver[ImageProcessor.WEST], ver[ImageProcessor.EAST], horDividers);
+        s.verTable.dividers(hor[ImageProcessor.NORTH], hor[ImageProcessor.SOUTH], verDividers);
+
+        for (int j = 0; j < height; j++)
+        {
+            int x0 = verDividers[j];
+            int x1 = verDividers[j+1];
+            int rx0 = Math.max(x0 - dx, r0);                    // the grid element's rows in the raw image
+            int rx1 = Math.min(x1 - dx, r1 - 1);
+            int out = offset + j * width;
+
+            for (int i = 0; i < width; i++)
+            {
+                int y0 = horDividers[i];
+                int y1 = horDividers[i+1];
+                int ry0 = Math.max(y0 - dy, c0);
+                int ry1 = Math.min(y1 - dy, c1 - 1);
+
+                long sum = (rx0 <= rx1 && ry0 <= ry1) ? boxSum(sums, stride, rx0, rx1, ry0, ry1) : 0;
+                long numVals = (long)(x1 - x0 + 1) * (y1 - y0 + 1);
+                features[out + i] = (double)IntegralImage.roundedAverage(sum, numVals) /
+                        (double)BackPropPerceptron.MAX_PEL_VAL;
+            }
+        }
+    }
+
+    private static long boxSum(long[] table, int stride, int x0, int x1, int y0, int y1)
+    {
+        int top = x0 * stride;
+        int bottom = (x1 + 1) * stride;
+        return table[bottom + y1 + 1] - table[top + y1 + 1] - table[bottom + y0] + table[top + y0];
+    }
+
+    private static int boxSum(int[] table, int stride, int x0, int x1, int y0, int y1)
+    {
+        int top = x0 * stride;
+        int bottom = (x1 + 1) * stride;
+        return table[bottom + y1 + 1] - table[top + y1 + 1] - table[bottom + y0] + table[top + y0];
+    }
+} // public class Preprocessor
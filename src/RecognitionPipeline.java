@@ -0,0 +1,540 @@
+/*
+ * Description: Recognizes a stream of letter bitmaps with a chain of java.util.concurrent.Flow stages:
+ *
+ *                  source -> decode -> normalize -> infer -> sink
+ *
+ *                  source      the file names, from directories, bitmap files and @lists as for Recognizer
+ *                  decode      reads each bitmap into an image (FeatureDecoder.decodeImage, which gives the same
+ *                              image as BitmapProcessor.getFlatImage for gray bitmaps but keeps no static state, so
+ *                              it can run on several threads at once)
+ *                  normalize   turns the image into the network input: a Preprocessor (center, crop, scale) or, for
+ *                              a model trained on raw pels, the pels divided by MAX_PEL_VAL
+ *                  infer       the forward pass
+ *                  sink        writes file,letter,confidence rows (in the order the files finish, not the order they
+ *                              were given)
+ *
+ *              Every stage is a Stage: a Flow.Processor with its own worker threads and a bounded inbox. A stage only
+ *              asks the stage before it for as many items as its inbox has room for, and asks for one more each time
+ *              a worker takes one out. Its results are published through a SubmissionPublisher whose buffer for the
+ *              next stage is bounded too, so a worker that gets ahead of the next stage blocks until that stage asks
+ *              for more. Nothing in the chain can grow without limit: a source that bursts just blocks in submit.
+ *
+ *              The parallelism of each stage is set separately, so the I/O bound front (decode) and the CPU bound
+ *              back (normalize, infer) can be given as many threads as they need.
+ *
+ *              Usage: java RecognitionPipeline [-model file] [-decoders n] [-normalizers n] [-inferers n]
+ *                                              [-buffer n] [-out file] [-preprocess] inputs...
+ */
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class RecognitionPipeline
+{
+    public static final int DEFAULT_BUFFER = 256;
+
+    private final BackPropPerceptron network;
+    private final Preprocessor preprocessor;         // null to use the pels as they are
+    private final int inputSize;
+    private final int decoders;
+    private final int normalizers;
+    private final int inferers;
+    private final int bufferSize;
+
+    private final ThreadLocal<FeatureDecoder> featureDecoders = new ThreadLocal<FeatureDecoder>()
+    {
+        protected FeatureDecoder initialValue()
+        {
+            return new FeatureDecoder();
+        }
+    };
+
+    /*
+     * One file on its way through the stages. A stage that fails on it records the error and passes it on, so
+     * the sink can report it.
+     */
+    public static final class Item
+    {
+        final String file;
+        FlatImage image;
+        double[] features;
+        double[] outputs;
+        Exception error;
+
+        Item(String fileName)
+        {
+            file = fileName;
+        }
+    }
+
+    /*
+     * Parameters: the model, the Preprocessor for its inputs (null to feed the pels straight in), the number of
+     *             threads for the decode, normalize and infer stages and the size of each stage's buffers
+     */
+    public RecognitionPipeline(BackPropPerceptron net, Preprocessor prep, int numDecoders, int numNormalizers,
+            int numInferers, int buffer)
+    {
+        if (numDecoders <= 0 || numNormalizers <= 0 || numInferers <= 0 || buffer <= 0)
+        {
+            throw new IllegalArgumentException("parallelism and buffer size must be > 0");
+        }
+        network = net;
+        preprocessor = prep;
+        inputSize = net.getWeights()[0].length;
+        decoders = numDecoders;
+        normalizers = numNormalizers;
+        inferers = numInferers;
+        bufferSize = buffer;
+    }
+
+    /*
+     * Parameters: directories, bitmap files and @lists and where to write the rows
+     * Function: Pushes every file through the stages and writes its row, with the header first. Returns the
+     *           sink, which has the counts.
+     */
+    public CsvSink run(List<String> inputs, Writer out) throws IOException, InterruptedException
+    {
+        ExecutorService delivery = Executors.newCachedThreadPool(daemonThreads("RecognitionPipeline-delivery"));
+        final SubmissionPublisher<Item> source = new SubmissionPublisher<Item>(delivery, bufferSize);
+
+        Stage<Item, Item> decode = new Stage<Item, Item>("decode", new Function<Item, Item>()
+        {
+            public Item apply(Item item)
+            {
+                return decode(item);
+            }
+        }, decoders, bufferSize, delivery);
+        Stage<Item, Item> normalize = new Stage<Item, Item>("normalize", new Function<Item, Item>()
+        {
+            public Item apply(Item item)
+            {
+                return normalize(item);
+            }
+        }, normalizers, bufferSize, delivery);
+        Stage<Item, Item> infer = new Stage<Item, Item>("infer", new Function<Item, Item>()
+        {
+            public Item apply(Item item)
+            {
+                if (item.error == null) item.outputs = network.evaluate(item.features);
+                item.features = null;
+                return item;
+            }
+        }, inferers, bufferSize, delivery);
+        CsvSink sink = new CsvSink(out, bufferSize);
+
+        source.subscribe(decode);
+        decode.subscribe(normalize);
+        normalize.subscribe(infer);
+        infer.subscribe(sink);
+
+        try
+        {
+            Recognizer.forEachFile(inputs, new Recognizer.FileVisitor()
+            {
+                public void visit(String file)
+                {
+                    source.submit(new Item(file));              // blocks while the decode stage is full
+                }
+            });
+            source.close();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            source.closeExceptionally(e);
+            sink.await();
+            delivery.shutdownNow();
+            throw e;
+        }
+
+        sink.await();
+        delivery.shutdownNow();
+        if (sink.getFailure() != null)
+        {
+            throw new IOException("Pipeline failed: " + sink.getFailure(), sink.getFailure());
+        }
+        return sink;
+    }
+
+    private Item decode(Item item)
+    {
+        try
+        {
+            item.image = featureDecoders.get().decodeImage(item.file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            item.error = e;
+        }
+        return item;
+    }
+
+    private Item normalize(Item item)
+    {
+        if (item.error != null) return item;
+
+        double[] features = new double[inputSize];
+        FlatImage image = item.image;
+        item.image = null;
+
+        if (preprocessor != null)
+        {
+            preprocessor.process(image, features, 0);
+        }
+        else if (image.getWidth() * image.getHeight() == inputSize)
+        {
+            int[] data = image.getData();
+            for (int i = 0; i < image.getHeight(); i++)
+            {
+                int start = image.rowStart(i);
+                for (int j = 0; j < image.getWidth(); j++)
+                {
+                    features[i * image.getWidth() + j] =
+                            (double)data[start + j] / (double)BackPropPerceptron.MAX_PEL_VAL;
+                }
+            }
+        }
+        else
+        {
+            item.error = new IOException(image.getWidth() + "x" + image.getHeight()
+                    + " pels, but the model takes " + inputSize + " inputs");
+            return item;
+        }
+        item.features = features;
+        return item;
+    }
+
+    /*
+     * Function: Returns a factory for daemon threads named prefix-1, prefix-2, ...
+     */
+    static ThreadFactory daemonThreads(final String prefix)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /*
+     * A Flow.Processor that applies a function to every item on a fixed number of worker threads.
+     *
+     * It asks upstream for bufferSize items to start with and for one more each time a worker takes an item out
+     * of the inbox, so the inbox can never overflow. Results go out through the SubmissionPublisher this class
+     * extends; submit blocks while the subscriber's buffer (also bufferSize) is full, which holds the worker, which
+     * stops the requests upstream. A function that returns null drops the item.
+     */
+    public static class Stage<T, R> extends SubmissionPublisher<R> implements Flow.Processor<T, R>
+    {
+        private static final Object END = new Object();            // one per worker once upstream is done
+
+        private final Function<? super T, ? extends R> function;
+        private final int parallelism;
+        private final int bufferSize;
+        private final BlockingQueue<Object> inbox;
+        private final ExecutorService workers;
+        private final AtomicInteger running;
+        private volatile Flow.Subscription upstream;
+        private volatile Throwable failure;
+
+        /*
+         * Parameters: a name for the worker threads, the function, the number of workers, the size of the
+         *             buffers and the executor that delivers results to the next stage
+         */
+        public Stage(String name, Function<? super T, ? extends R> fn, int numWorkers, int buffer,
+                ExecutorService delivery)
+        {
+            super(delivery, buffer);
+            function = fn;
+            parallelism = numWorkers;
+            bufferSize = buffer;
+            inbox = new ArrayBlockingQueue<Object>(buffer + numWorkers);
+            workers = Executors.newFixedThreadPool(numWorkers, daemonThreads("Stage-" + name));
+            running = new AtomicInteger(numWorkers);
+        }
+
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            upstream = subscription;
+            for (int i = 0; i < parallelism; i++)
+            {
+                workers.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        work();
+                    }
+                });
+            }
+            subscription.request(bufferSize);
+        }
+
+        public void onNext(T item)
+        {
+            inbox.add(item);                        // never full: only bufferSize items are ever asked for
+        }
+
+        public void onError(Throwable throwable)
+        {
+            failure = throwable;
+            onComplete();
+        }
+
+        public void onComplete()
+        {
+            for (int i = 0; i < parallelism; i++)
+            {
+                inbox.offer(END);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void work()
+        {
+            try
+            {
+                while (true)
+                {
+                    Object next = inbox.take();
+                    if (next == END) break;
+
+                    if (failure == null)
+                    {
+                        try
+                        {
+                            R result = function.apply((T)next);
+                            if (result != null) submit(result);     // blocks while the next stage is full
+                        }
+                        catch (RuntimeException e)
+                        {
+                            fail(e);
+                        }
+                    }
+                    upstream.request(1);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                if (failure == null) failure = e;       // only fail interrupts the workers
+            }
+
+            if (running.decrementAndGet() == 0)
+            {
+                if (failure == null) close(); else closeExceptionally(failure);
+                workers.shutdown();
+            }
+        }
+
+        /*
+         * Function: Stops taking items and stops every worker. The last worker to stop passes the error on.
+         */
+        private void fail(RuntimeException e)
+        {
+            failure = e;
+            upstream.cancel();
+            workers.shutdownNow();
+        }
+    }
+
+    /*
+     * The last stage: writes a row per recognized file and reports the files that failed
+     */
+    public static final class CsvSink implements Flow.Subscriber<Item>
+    {
+        private final Writer out;
+        private final int bufferSize;
+        private final StringBuilder row = new StringBuilder(128);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private long recognized;
+        private long errors;
+        private volatile Throwable failure;
+
+        public CsvSink(Writer output, int buffer)
+        {
+            out = output;
+            bufferSize = buffer;
+        }
+
+        public void onSubscribe(Flow.Subscription s)
+        {
+            subscription = s;
+            try
+            {
+                out.write(Recognizer.CSV_HEADER);
+                out.write('\n');
+            }
+            catch (IOException e)
+            {
+                fail(e);
+                return;
+            }
+            s.request(bufferSize);
+        }
+
+        public void onNext(Item item)
+        {
+            if (item.error != null)
+            {
+                errors++;
+                System.err.println("File input error " + item.file + ": " + item.error.getMessage());
+            }
+            else
+            {
+                int best = Recognizer.argmax(item.outputs);
+                row.setLength(0);
+                Recognizer.appendCsvField(row, item.file);
+                row.append(',').append((char)('A' + best)).append(',').append(item.outputs[best]).append('\n');
+                try
+                {
+                    out.append(row);
+                }
+                catch (IOException e)
+                {
+                    fail(e);
+                    return;
+                }
+                recognized++;
+            }
+            subscription.request(1);
+        }
+
+        public void onError(Throwable throwable)
+        {
+            failure = throwable;
+            done.countDown();
+        }
+
+        public void onComplete()
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            done.countDown();
+        }
+
+        private void fail(IOException e)
+        {
+            failure = e;
+            subscription.cancel();
+            done.countDown();
+        }
+
+        /*
+         * Function: Waits for the last item (or a failure)
+         */
+        public void await() throws InterruptedException
+        {
+            done.await();
+        }
+
+        public long getRecognized()
+        {
+            return recognized;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public Throwable getFailure()
+        {
+            return failure;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String model = Recognizer.DEFAULT_MODEL;
+        String outFile = null;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int numDecoders = 2 * cores;
+        int numNormalizers = cores;
+        int numInferers = cores;
+        int buffer = DEFAULT_BUFFER;
+        boolean preprocess = false;
+        List<String> inputs = new ArrayList<String>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-model")) model = args[++i];
+                else if (args[i].equals("-decoders")) numDecoders = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-normalizers")) numNormalizers = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-inferers")) numInferers = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-buffer")) buffer = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-out")) outFile = args[++i];
+                else if (args[i].equals("-preprocess")) preprocess = true;
+                else inputs.add(args[i]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            inputs.clear();
+        }
+        if (inputs.isEmpty())
+        {
+            System.err.println("Usage: java RecognitionPipeline [-model file] [-decoders n] [-normalizers n] "
+                    + "[-inferers n] [-buffer n] [-out file] [-preprocess] inputs...");
+            return;
+        }
+
+        BackPropPerceptron network = new BackPropPerceptron(BackPropPerceptron.readWeights(model));
+        Preprocessor prep = null;
+        if (preprocess)
+        {
+            prep = Recognizer.squarePreprocessor(network);
+            if (prep == null)
+            {
+                System.err.println(model + " takes " + network.getWeights()[0].length
+                        + " inputs, which is not a square image.");
+                return;
+            }
+        }
+
+        RecognitionPipeline pipeline = new RecognitionPipeline(network, prep, numDecoders, numNormalizers,
+                numInferers, buffer);
+        Writer out = new BufferedWriter((outFile != null) ? new FileWriter(outFile)
+                : new OutputStreamWriter(System.out), 1 << 16);
+        long start = System.nanoTime();
+        CsvSink sink;
+        try
+        {
+            sink = pipeline.run(inputs, out);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println("Recognized " + sink.getRecognized() + " images in " + String.format("%.3f", seconds)
+                + " s (" + String.format("%.1f", sink.getRecognized() / Math.max(seconds, 1e-9)) + " images/s), "
+                + sink.getErrors() + " errors");
+    }
+} // public class RecognitionPipeline
@@ -0,0 +1,321 @@
+/*
+ * Description: A small recognition server on the JDK's HttpServer, bound to the loopback address.
+ *
+ *                  POST /recognize     the body is a BMP file; the reply is {"letter":"A","confidence":0.99}
+ *                  GET  /health        replies ok
+ *                  GET  /metrics       the latency table of Metrics.dump, as plain text
+ *
+ *              Each request is decoded on its own handler thread and its features are handed to a MicroBatcher, so
+ *              the forward passes of requests that arrive close together are done as one batch. The handler waits
+ *              for its result and writes the reply. A full batcher queue is answered with 503 straight away, and so
+ *              is a request still waiting for its batch when the batcher is closed.
+ *
+ *              The handlers mostly wait (for the body, then for their batch), so they run one thread per request.
+ *              On a JDK with virtual threads (21 and later) those are virtual threads; on older JDKs they come from
+ *              a cached pool of platform threads. Since a handler thread only lives for one request, a decoder per
+ *              thread would be a new decoder every time, and so would the Preprocessor's per-thread Scratch.
+ *              Instead a handler borrows a Workspace (a FeatureDecoder and a Preprocessor.Scratch) from a small
+ *              pool for the decode and gives it back, so the decoders and all their buffers are reused.
+ *
+ *              Usage: java RecognitionServer [-model file] [-port n] [-batch n] [-delay ms] [-preprocess]
+ *              -preprocess runs glyphs of any size through a Preprocessor first, as for Recognizer.
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class RecognitionServer
+{
+    public static final int DEFAULT_PORT = 8080;
+    public static final int MAX_BODY_SIZE = 1 << 24;             // 16 MB
+    public static final int BACKLOG = 1024;                      // connections the OS may queue before accept
+    public static final int WORKSPACE_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final MicroBatcher batcher;
+    private final Preprocessor preprocessor;                    // null to use the pels as they are
+    private final int inputSize;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    private final BlockingQueue<Workspace> workspaces =        // idle ones; a borrower makes one if it's empty
+            new ArrayBlockingQueue<Workspace>(WORKSPACE_POOL_SIZE);
+
+    /*
+     * What one request needs to turn its body into features
+     */
+    private static final class Workspace
+    {
+        final FeatureDecoder decoder = new FeatureDecoder();
+        final Preprocessor.Scratch scratch;                     // null without a Preprocessor
+
+        Workspace(Preprocessor prep)
+        {
+            scratch = (prep != null) ? prep.newScratch() : null;
+        }
+    }
+
+    /*
+     * Parameters: the model, the Preprocessor for its inputs (null to feed the pels straight in), the port, and the
+     *             most requests per batch and the longest a request waits for its batch (in nanoseconds)
+     */
+    public RecognitionServer(BackPropPerceptron net, Preprocessor prep, int port, int maxBatch, long maxDelayNanos)
+            throws IOException
+    {
+        inputSize = net.getWeights()[0].length;
+        if (prep != null && prep.getInputSize() != inputSize)
+        {
+            throw new IllegalArgumentException("The Preprocessor makes " + prep.getInputSize()
+                    + " inputs but the model takes " + inputSize + ".");
+        }
+        preprocessor = prep;
+        batcher = new MicroBatcher(net, maxBatch, maxDelayNanos, MicroBatcher.DEFAULT_QUEUE_CAPACITY);
+        handlers = newHandlerExecutor();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.setExecutor(handlers);
+        server.createContext("/recognize", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                recognize(exchange);
+            }
+        });
+        server.createContext("/health", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                reply(exchange, 200, "text/plain", "ok\n");
+            }
+        });
+        server.createContext("/metrics", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                reply(exchange, 200, "text/plain", Metrics.dump());
+            }
+        });
+    }
+
+    /*
+     * Function: Returns a virtual thread per task executor if the JDK has one, or else a cached thread pool
+     */
+    static ExecutorService newHandlerExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    /*
+     * Function: Returns the port the server is listening on
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /*
+     * Function: Stops taking requests, waits up to the given number of seconds for the ones being handled and
+     *           shuts everything down
+     */
+    public void stop(int delaySeconds) throws InterruptedException
+    {
+        server.stop(delaySeconds);
+        batcher.close();
+        handlers.shutdownNow();
+    }
+
+    public MicroBatcher getBatcher()
+    {
+        return batcher;
+    }
+
+    /*
+     * Function: Handles POST /recognize
+     */
+    private void recognize(HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("POST"))
+        {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            reply(exchange, 405, "text/plain", "POST a BMP file\n");
+            return;
+        }
+
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null)
+        {
+            reply(exchange, 413, "text/plain", "BMP file is too big\n");
+            return;
+        }
+
+        double[] features = new double[inputSize];
+        Workspace work = workspaces.poll();
+        if (work == null)
+        {
+            work = new Workspace(preprocessor);
+        }
+        FeatureDecoder decoder = work.decoder;
+        try
+        {
+            if (preprocessor != null)
+            {
+                preprocessor.process(decoder.decodeImage(body, body.length), features, 0, work.scratch);
+            }
+            else if (decoder.decode(body, body.length, features, 0) != inputSize)
+            {
+                throw new IOException(decoder.getWidth() + "x" + decoder.getHeight() + " pels, but the model takes "
+                        + inputSize + " inputs");
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            reply(exchange, 400, "text/plain", "Bad BMP file: " + e.getMessage() + "\n");
+            return;
+        }
+        finally
+        {
+            workspaces.offer(work);                              // dropped if the pool is already full
+        }
+
+        double[] outputs;
+        try
+        {
+            outputs = batcher.submit(features).get();
+        }
+        catch (RejectedExecutionException e)
+        {
+            reply(exchange, 503, "text/plain", "Busy, try again\n");
+            return;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reply(exchange, 503, "text/plain", "Shutting down\n");
+            return;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RejectedExecutionException)
+            {
+                reply(exchange, 503, "text/plain", "Shutting down\n");    // the batcher closed while it waited
+            }
+            else
+            {
+                reply(exchange, 500, "text/plain", "Recognition failed: " + e.getCause() + "\n");
+            }
+            return;
+        }
+
+        int best = Recognizer.argmax(outputs);
+        reply(exchange, 200, "application/json",
+                "{\"letter\":\"" + (char)('A' + best) + "\",\"confidence\":" + outputs[best] + "}\n");
+    }
+
+    /*
+     * Function: Reads the whole request body, or returns null if it is bigger than MAX_BODY_SIZE
+     */
+    private static byte[] readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        byte[] buf = new byte[8192];
+        int n;
+        try
+        {
+            while ((n = in.read(buf)) > 0)
+            {
+                if (body.size() + n > MAX_BODY_SIZE) return null;
+                body.write(buf, 0, n);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return body.toByteArray();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String type, String text) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String model = Recognizer.DEFAULT_MODEL;
+        int port = DEFAULT_PORT;
+        int maxBatch = MicroBatcher.DEFAULT_MAX_BATCH;
+        long delayNanos = MicroBatcher.DEFAULT_MAX_DELAY_NANOS;
+        boolean preprocess = false;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-model")) model = args[++i];
+                else if (args[i].equals("-port")) port = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-batch")) maxBatch = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-delay")) delayNanos = (long)(Double.parseDouble(args[++i]) * 1e6);
+                else if (args[i].equals("-preprocess")) preprocess = true;
+                else throw new IllegalArgumentException(args[i]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("Usage: java RecognitionServer [-model file] [-port n] [-batch n] [-delay ms] "
+                    + "[-preprocess]");
+            return;
+        }
+
+        BackPropPerceptron network = new BackPropPerceptron(BackPropPerceptron.readWeights(model));
+        Preprocessor prep = null;
+        if (preprocess)
+        {
+            prep = Recognizer.squarePreprocessor(network);
+            if (prep == null)
+            {
+                System.err.println(model + " takes " + network.getWeights()[0].length
+                        + " inputs, which is not a square image.");
+                return;
+            }
+        }
+
+        RecognitionServer server = new RecognitionServer(network, prep, port, maxBatch, delayNanos);
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getPort() + "/recognize");
+    }
+} // public class RecognitionServer
@@ -0,0 +1,406 @@
+/*
+ * Description: Recognizes a large number of letter bitmaps with a saved model and writes one CSV row per file:
+ *
+ *                  file,letter,confidence
+ *
+ *              The model is only read (BackPropPerceptron.readWeights), never trained. Files are handed to a pool of
+ *              worker threads in batches; each worker decodes its batch with its own FeatureDecoder and runs the
+ *              whole batch through BackPropPerceptron.evaluate(double[][]). Rows are written in the order the files
+ *              were given while later batches are still being worked on, and only a few batches per worker are ever
+ *              waiting, so the file list can be as long as it likes.
+ *
+ *              By default a file's features are its pels (FeatureDecoder), so the bitmaps must have as many pels as
+ *              the model has inputs, like the letterX.bmp files the model in BackPropPerceptron.main is trained on.
+ *              With -preprocess the glyph is centered, cropped and scaled to the model's input size by a
+ *              Preprocessor first (the model's input size must then be a square number), so any size will do.
+ *
+ *              Usage: java Recognizer [-model file] [-threads n] [-batch n] [-out file] [-preprocess] [-stats]
+ *                         inputs...
+ *              An input is a directory (every .bmp file in it), a bitmap file, or @file for a list of file names,
+ *              one per line. The rows go to standard output unless -out is given. The throughput is reported on
+ *              standard error at the end, followed by the time each step took (Metrics.dump) with -stats.
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Recognizer
+{
+    public static final String DEFAULT_MODEL = "weights";
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int PENDING_BATCHES_PER_THREAD = 4;
+    public static final String CSV_HEADER = "file,letter,confidence";
+
+    private final BackPropPerceptron network;
+    private final Preprocessor preprocessor;         // null to use the pels as they are
+    private final int inputSize;
+    private final int numThreads;
+    private final int batchSize;
+
+    private final AtomicLong recognized = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private final ThreadLocal<FeatureDecoder> decoders = new ThreadLocal<FeatureDecoder>()
+    {
+        protected FeatureDecoder initialValue()
+        {
+            return new FeatureDecoder();
+        }
+    };
+
+    /*
+     * Parameters: the model, the Preprocessor for its inputs (null to feed the pels straight in), the number of
+     *             worker threads and the number of files per batch
+     */
+    public Recognizer(BackPropPerceptron net, Preprocessor prep, int threads, int batch)
+    {
+        if (threads <= 0 || batch <= 0)
+        {
+            throw new IllegalArgumentException("threads and batch size must be > 0");
+        }
+        network = net;
+        preprocessor = prep;
+        inputSize = net.getWeights()[0].length;
+        numThreads = threads;
+        batchSize = batch;
+
+        if (prep != null && prep.getInputSize() != inputSize)
+        {
+            throw new IllegalArgumentException("The Preprocessor makes " + prep.getInputSize()
+                    + " inputs but the model takes " + inputSize + ".");
+        }
+    }
+
+    /*
+     * Parameters: directories, bitmap files and @lists (see above) and where to write the rows
+     * Function: Recognizes every file and writes its row, with the header first. Returns the number of files
+     *           recognized.
+     */
+    public long run(List<String> inputs, final Writer out) throws IOException
+    {
+        final ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        final ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+        final List<String> batch = new ArrayList<String>(batchSize);
+        long before = recognized.get();
+
+        out.write(CSV_HEADER);
+        out.write('\n');
+        try
+        {
+            forEachFile(inputs, new FileVisitor()
+            {
+                public void visit(String file) throws IOException
+                {
+                    add(file, batch, pending, pool, out);
+                }
+            });
+
+            if (!batch.isEmpty())
+            {
+                pending.add(pool.submit(new Batch(batch)));
+            }
+            while (!pending.isEmpty())
+            {
+                writeNext(pending, out);
+            }
+            out.flush();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return recognized.get() - before;
+    }
+
+    /*
+     * Called with each file name an input list expands to
+     */
+    interface FileVisitor
+    {
+        void visit(String file) throws IOException;
+    }
+
+    /*
+     * Parameters: directories, bitmap files and @lists (see above) and what to do with each file
+     * Function: Visits every file the inputs name, in order, without building the whole list first
+     */
+    static void forEachFile(List<String> inputs, FileVisitor visitor) throws IOException
+    {
+        for (String input : inputs)
+        {
+            if (input.startsWith("@"))
+            {
+                BufferedReader list = new BufferedReader(new FileReader(input.substring(1)));
+                try
+                {
+                    String line;
+                    while ((line = list.readLine()) != null)
+                    {
+                        line = line.trim();
+                        if (line.length() > 0) visitor.visit(line);
+                    }
+                }
+                finally
+                {
+                    list.close();
+                }
+            }
+            else if (new File(input).isDirectory())
+            {
+                DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(input), "*.{bmp,BMP}");
+                try
+                {
+                    for (Path file : dir)
+                    {
+                        visitor.visit(file.toString());
+                    }
+                }
+                finally
+                {
+                    dir.close();
+                }
+            }
+            else
+            {
+                visitor.visit(input);
+            }
+        }
+    }
+
+    /*
+     * Function: Adds a file to the batch being filled. A full batch is handed to the pool, and if too many
+     *           batches are waiting the oldest one is waited for and written first.
+     */
+    private void add(String file, List<String> batch, ArrayDeque<Future<String>> pending, ExecutorService pool,
+            Writer out) throws IOException
+    {
+        batch.add(file);
+        if (batch.size() < batchSize) return;
+
+        pending.add(pool.submit(new Batch(new ArrayList<String>(batch))));
+        batch.clear();
+        while (pending.size() > numThreads * PENDING_BATCHES_PER_THREAD)
+        {
+            writeNext(pending, out);
+        }
+    }
+
+    /*
+     * Function: Waits for the oldest batch and writes its rows
+     */
+    private void writeNext(ArrayDeque<Future<String>> pending, Writer out) throws IOException
+    {
+        try
+        {
+            out.write(pending.poll().get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recognizing.");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Recognition failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /*
+     * Decodes and recognizes one batch of files and returns their rows
+     */
+    private final class Batch implements Callable<String>
+    {
+        private final List<String> files;
+
+        Batch(List<String> names)
+        {
+            files = names;
+        }
+
+        public String call()
+        {
+            FeatureDecoder decoder = decoders.get();
+            double[][] inputs = new double[files.size()][];
+            String[] names = new String[files.size()];
+            int count = 0;
+
+            for (String file : files)
+            {
+                double[] features = new double[inputSize];
+                try
+                {
+                    if (preprocessor != null)
+                    {
+                        preprocessor.process(decoder.decodeImage(file), features, 0);
+                    }
+                    else if (decoder.decode(file, features, 0) != inputSize)
+                    {
+                        throw new IOException(decoder.getWidth() + "x" + decoder.getHeight()
+                                + " pels, but the model takes " + inputSize + " inputs");
+                    }
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    errors.incrementAndGet();
+                    System.err.println("File input error " + file + ": " + e.getMessage());
+                    continue;
+                }
+                names[count] = file;
+                inputs[count++] = features;
+            }
+
+            if (count < inputs.length)
+            {
+                double[][] decoded = new double[count][];
+                System.arraycopy(inputs, 0, decoded, 0, count);
+                inputs = decoded;
+            }
+            double[][] outputs = network.evaluate(inputs);
+
+            StringBuilder rows = new StringBuilder(count * 32);
+            for (int k = 0; k < count; k++)
+            {
+                int best = argmax(outputs[k]);
+                appendCsvField(rows, names[k]);
+                rows.append(',').append((char)('A' + best)).append(',').append(outputs[k][best]).append('\n');
+            }
+            recognized.addAndGet(count);
+            return rows.toString();
+        }
+    }
+
+    /*
+     * Function: Returns the index of the largest output (the first one if there is a tie)
+     */
+    public static int argmax(double[] outputs)
+    {
+        int best = 0;
+        for (int i = 1; i < outputs.length; i++)
+        {
+            if (outputs[i] > outputs[best]) best = i;
+        }
+        return best;
+    }
+
+    /*
+     * Parameters: a model
+     * Function: Returns a Preprocessor that makes square images with as many pels as the model has inputs, or null
+     *           if the number of inputs is not a square
+     */
+    public static Preprocessor squarePreprocessor(BackPropPerceptron net)
+    {
+        int size = net.getWeights()[0].length;
+        int side = (int)Math.round(Math.sqrt(size));
+        return (side * side == size) ? new Preprocessor(side, side, 1, 1) : null;
+    }
+
+    /*
+     * Function: Appends a CSV field, quoting it if it has a comma, quote or line break in it
+     */
+    static void appendCsvField(StringBuilder row, String field)
+    {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0)
+        {
+            row.append(field);
+            return;
+        }
+        row.append('"').append(field.replace("\"", "\"\"")).append('"');
+    }
+
+    /*
+     * Function: Returns the number of files that could not be read
+     */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String model = DEFAULT_MODEL;
+        String outFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batch = DEFAULT_BATCH_SIZE;
+        boolean preprocess = false;
+        boolean stats = false;
+        List<String> inputs = new ArrayList<String>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-model")) model = args[++i];
+                else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-batch")) batch = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-out")) outFile = args[++i];
+                else if (args[i].equals("-preprocess")) preprocess = true;
+                else if (args[i].equals("-stats")) stats = true;
+                else inputs.add(args[i]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            inputs.clear();
+        }
+        if (inputs.isEmpty())
+        {
+            System.err.println("Usage: java Recognizer [-model file] [-threads n] [-batch n] [-out file] "
+                    + "[-preprocess] [-stats] inputs...");
+            return;
+        }
+
+        BackPropPerceptron network = new BackPropPerceptron(BackPropPerceptron.readWeights(model));
+        Preprocessor prep = null;
+        if (preprocess)
+        {
+            prep = squarePreprocessor(network);
+            if (prep == null)
+            {
+                System.err.println(model + " takes " + network.getWeights()[0].length
+                        + " inputs, which is not a square image.");
+                return;
+            }
+        }
+
+        Recognizer recognizer = new Recognizer(network, prep, threads, batch);
+        Writer out = new BufferedWriter((outFile != null) ? new FileWriter(outFile)
+                : new OutputStreamWriter(System.out), 1 << 16);
+        long start = System.nanoTime();
+        long count;
+        try
+        {
+            count = recognizer.run(inputs, out);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println("Recognized " + count + " images in " + String.format("%.3f", seconds) + " s ("
+                + String.format("%.1f", count / Math.max(seconds, 1e-9)) + " images/s) with " + threads
+                + " threads, " + recognizer.getErrors() + " errors");
+        if (stats)
+        {
+            System.err.print(Metrics.dump());
+        }
+    }
+} // public class Recognizer
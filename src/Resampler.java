@@ -0,0 +1,259 @@
+/*
+ * Description: Scales the object inside a picture's corners to a fixed size, like ImageProcessor.scaleImage, but
+ *              keeps the tables that say which source rows and columns go into each output pel. Those tables only
+ *              depend on how many rows (or columns) the object spans and how many the output has, and glyph crops
+ *              come in a handful of sizes, so almost every image finds its tables already made.
+ *
+ *              Two modes use the tables:
+ *                  AREA        each output pel is the rounded average of its grid element (exactly what scaleImage
+ *                              does), read from an IntegralImage
+ *                  BILINEAR    each output pel is interpolated between the four source pels around the center of
+ *                              its grid element
+ *
+ *              The cache holds at most a fixed number of tables. Finding a table that is already there takes no
+ *              lock: it is one ConcurrentHashMap lookup on the (span, count) pair packed into a long. Only a miss
+ *              locks, to make the table and, when the cache is full, to forget one. The one forgotten is picked with
+ *              the CLOCK (second chance) sweep: a hit marks its table used, and the sweep passes over marked tables,
+ *              clearing the mark, until it finds one that has not been used since it was last passed. That is close
+ *              to least recently used without a hit having to reorder anything. The grids in a table never change
+ *              once it is made, so one Resampler can be shared between threads.
+ */
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Resampler
+{
+    public static final int AREA = 0;
+    public static final int BILINEAR = 1;
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final ConcurrentHashMap<Long, Table> cache = new ConcurrentHashMap<Long, Table>();
+    private final ArrayDeque<Long> clock = new ArrayDeque<Long>();    // the keys in sweep order; a miss holds its lock
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /*
+     * The resampling tables for one (source span, target size) pair. All positions are relative to the first
+     * row (or column) of the object.
+     */
+    static final class Table
+    {
+        final int span;              // last - first of the object (its size minus one)
+        final int count;             // number of output rows (or columns)
+        final int[] dividers;        // count + 1 grid lines, as ImageProcessor.computeDividers makes them
+        final int[] lower;           // BILINEAR: the source pel before each output pel's center
+        final double[] fraction;     // BILINEAR: how far past lower the center is, in [0, 1)
+        volatile boolean used;       // looked up since the CLOCK sweep last passed it
+
+        Table(int sourceSpan, int targetCount)
+        {
+            span = sourceSpan;
+            count = targetCount;
+            dividers = new int[count + 1];
+            lower = new int[count];
+            fraction = new double[count];
+
+            ImageProcessor.computeDividers(0, span, count, dividers);
+
+            double step = (span + 1.0) / count;             // source pels per output pel
+            for (int i = 0; i < count; i++)
+            {
+                double center = Math.min(span, Math.max(0.0, (i + 0.5) * step - 0.5));
+                lower[i] = (int)center;
+                fraction[i] = center - lower[i];
+            }
+        }
+
+        /*
+         * Parameters: the first and last row (or column) of the object and the array to write to
+         * Function: Fills in the grid lines for this object, the same values computeDividers(first, last, ...) gives
+         */
+        void dividers(int first, int last, int[] output)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                output[i] = first + dividers[i];
+            }
+            output[count] = last;
+        }
+    }
+
+    /*
+     * Parameters: the most tables to keep
+     */
+    public Resampler(int maxTables)
+    {
+        if (maxTables <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        capacity = maxTables;
+    }
+
+    /*
+     * Parameters: the span of the object (last - first) and the number of output rows or columns
+     * Function: Returns the cached table, making it if it isn't there
+     */
+    Table table(int span, int count)
+    {
+        span = Math.abs(span);
+        Long key = Long.valueOf(((long)span << 32) | count);
+
+        Table table = cache.get(key);
+        if (table != null)
+        {
+            return hit(table);
+        }
+
+        synchronized (clock)
+        {
+            table = cache.get(key);                     // another thread may have made it while this one waited
+            if (table != null)
+            {
+                return hit(table);
+            }
+            misses.increment();
+            while (cache.size() >= capacity)
+            {
+                forgetOne();
+            }
+            table = new Table(span, count);
+            cache.put(key, table);
+            clock.addLast(key);
+            return table;
+        }
+    }
+
+    /*
+     * Function: Counts a hit and marks the table used. The mark is only written when it changes, so threads
+     *           hitting the same table don't keep taking its cache line from each other.
+     */
+    private Table hit(Table table)
+    {
+        if (!table.used) table.used = true;
+        hits.increment();
+        return table;
+    }
+
+    /*
+     * Special condition: the caller holds the clock lock and the cache is not empty
+     * Function: Sweeps the clock, giving used tables a second chance, and forgets the first one that isn't used
+     */
+    private void forgetOne()
+    {
+        while (true)
+        {
+            Long key = clock.pollFirst();
+            Table table = cache.get(key);
+            if (!table.used)
+            {
+                cache.remove(key);
+                return;
+            }
+            table.used = false;
+            clock.addLast(key);
+        }
+    }
+
+    /*
+     * Parameters: the integral image of a picture, its corners (as cornerArray returns them) and the output image
+     * Function: AREA scaling of the object into output. Same result as ImageProcessor.scaleImage.
+     */
+    public void scale(IntegralImage pic, ImageProcessor.Location[][] corners, FlatImage output)
+    {
+        scale(pic, corners, output, 0, output.getHeight());
+    }
+
+    /*
+     * Parameters: as above, plus a range of output rows
+     * Function: AREA scaling of output rows [from, to) only, so the rows can be split between threads
+     */
+    void scale(IntegralImage pic, ImageProcessor.Location[][] corners, FlatImage output, int from, int to)
+    {
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int west = corners[0][0].getY();
+        int east = corners[0][1].getY();
+        int north = corners[0][0].getX();
+        int south = corners[1][0].getX();
+        Table horTable = table(east - west, width);
+        Table verTable = table(south - north, height);
+        int[] outData = output.getData();
+
+        for (int j = from; j < to; j++)
+        {
+            int x0 = north + verTable.dividers[j];
+            int x1 = (j + 1 == height) ? south : north + verTable.dividers[j + 1];
+            int start = output.rowStart(j);
+
+            for (int i = 0; i < width; i++)
+            {
+                int y0 = west + horTable.dividers[i];
+                int y1 = (i + 1 == width) ? east : west + horTable.dividers[i + 1];
+
+                outData[start + i] = pic.getAverage(x0, x1, y0, y1);
+            }
+        }
+    }
+
+    /*
+     * Parameters: a picture, its corners, the output image and the mode (AREA or BILINEAR)
+     * Function: Scales the object inside the corners to the size of output
+     */
+    public void scale(FlatImage pic, ImageProcessor.Location[][] corners, FlatImage output, int mode)
+    {
+        if (mode == AREA)
+        {
+            scale(new IntegralImage(pic), corners, output);
+            return;
+        }
+
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int west = corners[0][0].getY();
+        int north = corners[0][0].getX();
+        Table horTable = table(corners[0][1].getY() - west, width);
+        Table verTable = table(corners[1][0].getX() - north, height);
+        int[] src = pic.getData();
+        int[] outData = output.getData();
+
+        for (int j = 0; j < height; j++)
+        {
+            int x = north + verTable.lower[j];
+            int xNext = Math.min(x + 1, north + verTable.span);
+            double fx = verTable.fraction[j];
+            int top = pic.rowStart(x);
+            int bottom = pic.rowStart(xNext);
+            int start = output.rowStart(j);
+
+            for (int i = 0; i < width; i++)
+            {
+                int y = west + horTable.lower[i];
+                int yNext = Math.min(y + 1, west + horTable.span);
+                double fy = horTable.fraction[i];
+
+                double upper = src[top + y] + (src[top + yNext] - (double)src[top + y]) * fy;
+                double lower = src[bottom + y] + (src[bottom + yNext] - (double)src[bottom + y]) * fy;
+                outData[start + i] = (int)Math.floor(upper + (lower - upper) * fx + 0.5);
+            }
+        }
+    }
+
+    /*
+     * Function: Returns how many table lookups found a cached table
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /*
+     * Function: Returns how many table lookups had to make a new table
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+} // public class Resampler
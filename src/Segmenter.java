@@ -0,0 +1,389 @@
+/*
+ * Description: Finds the letters on a whole page so they can be recognized one by one. The page is binarized
+ *              (see BinaryImage) and its ink is split into connected components (8-connected: pels touching at a
+ *              corner belong together). Each component big enough not to be noise becomes a Box, and the boxes are
+ *              returned in reading order: lines from top to bottom, letters in a line from left to right.
+ *
+ *              The labelling works on runs (stretches of ink in one row) instead of pels. Each run is joined with
+ *              union-find to every run in the row above that it touches. The page is cut into horizontal strips
+ *              that are labelled in parallel, each strip only ever touching its own runs; a merge pass then joins
+ *              the runs on either side of each cut.
+ *
+ *              crop() gives zero-copy views of the boxes and toInputs() turns them into a batch of network inputs
+ *              with a Preprocessor, ready for BackPropPerceptron.evaluate(double[][]).
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class Segmenter
+{
+    public static final int DEFAULT_MIN_PIXELS = 4;
+    public static final int MIN_STRIP_HEIGHT = 64;
+
+    private final int minPixels;
+    private final int numStrips;
+
+    /*
+     * A bounding box of one component. The bounds are inclusive, rows are x and columns are y as in ImageProcessor.
+     */
+    public static final class Box
+    {
+        private final int top;
+        private final int left;
+        private final int bottom;
+        private final int right;
+        private final int pixels;
+
+        public Box(int north, int west, int south, int east, int numPixels)
+        {
+            top = north;
+            left = west;
+            bottom = south;
+            right = east;
+            pixels = numPixels;
+        }
+
+        public int getTop()
+        {
+            return top;
+        }
+
+        public int getLeft()
+        {
+            return left;
+        }
+
+        public int getBottom()
+        {
+            return bottom;
+        }
+
+        public int getRight()
+        {
+            return right;
+        }
+
+        public int getHeight()
+        {
+            return bottom - top + 1;
+        }
+
+        public int getWidth()
+        {
+            return right - left + 1;
+        }
+
+        /*
+         * Function: Returns the number of ink pels in the component
+         */
+        public int getPixels()
+        {
+            return pixels;
+        }
+
+        public String toString()
+        {
+            return "(" + top + ", " + left + ")-(" + bottom + ", " + right + ")";
+        }
+    }
+
+    /*
+     * The runs of one strip. Run k of the strip is run (first + k) of the page.
+     */
+    private static final class Strip
+    {
+        final int firstRow;
+        final int endRow;                    // one past the last row
+        int first;                           // index of the strip's first run on the page
+        int count;
+        int[] row = new int[64];
+        int[] start = new int[64];
+        int[] end = new int[64];             // inclusive
+        int[] rowFirstRun;                   // index (in the strip) of the first run of each row, plus one extra
+
+        Strip(int from, int to)
+        {
+            firstRow = from;
+            endRow = to;
+            rowFirstRun = new int[to - from + 1];
+        }
+
+        void add(int r, int s, int e)
+        {
+            if (count == row.length)
+            {
+                row = Arrays.copyOf(row, count * 2);
+                start = Arrays.copyOf(start, count * 2);
+                end = Arrays.copyOf(end, count * 2);
+            }
+            row[count] = r;
+            start[count] = s;
+            end[count] = e;
+            count++;
+        }
+    }
+
+    /*
+     * Parameters: the smallest component (in ink pels) to keep and the number of strips to label in parallel
+     */
+    public Segmenter(int minPix, int strips)
+    {
+        minPixels = minPix;
+        numStrips = Math.max(1, strips);
+    }
+
+    public Segmenter()
+    {
+        this(DEFAULT_MIN_PIXELS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     * Parameters: a page in the getImage form (white = 0) and the threshold for ink
+     * Function: Returns the boxes of the letters on the page in reading order
+     */
+    public List<Box> segment(FlatImage page, int threshold)
+    {
+        return segment(BinaryImage.threshold(page, threshold));
+    }
+
+    /*
+     * Parameters: a binarized page
+     * Function: Returns the boxes of the letters on the page in reading order
+     */
+    public List<Box> segment(final BinaryImage page)
+    {
+        int height = page.getHeight();
+        int strips = Math.max(1, Math.min(numStrips, height / MIN_STRIP_HEIGHT));
+        final Strip[] strip = new Strip[strips];
+
+        for (int k = 0; k < strips; k++)
+        {
+            strip[k] = new Strip((int)((long)height * k / strips), (int)((long)height * (k + 1) / strips));
+        }
+
+        // find the runs of every strip in parallel
+        IntStream.range(0, strips).parallel().forEach(k -> findRuns(page, strip[k]));
+
+        int total = 0;
+        for (int k = 0; k < strips; k++)
+        {
+            strip[k].first = total;
+            total += strip[k].count;
+        }
+
+        // label each strip in parallel; strip k only touches parent[first .. first + count)
+        final int[] parent = new int[total];
+        IntStream.range(0, strips).parallel().forEach(k -> label(strip[k], parent));
+
+        // merge pass: join the runs on both sides of each cut
+        for (int k = 1; k < strips; k++)
+        {
+            Strip above = strip[k - 1];
+            Strip below = strip[k];
+            if (above.endRow == above.firstRow || below.endRow == below.firstRow) continue;
+
+            int aFrom = above.rowFirstRun[above.endRow - 1 - above.firstRow];
+            int aTo = above.rowFirstRun[above.endRow - above.firstRow];
+            int bFrom = below.rowFirstRun[0];
+            int bTo = below.rowFirstRun[1];
+            joinRows(above, aFrom, aTo, below, bFrom, bTo, parent);
+        }
+
+        return collectBoxes(strip, parent, total);
+    }
+
+    /*
+     * Function: Records every run of ink in the strip's rows
+     */
+    private static void findRuns(BinaryImage page, Strip s)
+    {
+        for (int r = s.firstRow; r < s.endRow; r++)
+        {
+            s.rowFirstRun[r - s.firstRow] = s.count;
+            int col = page.nextInk(r, 0);
+            while (col < page.getWidth())
+            {
+                int stop = page.nextWhite(r, col);
+                s.add(r, col, stop - 1);
+                col = page.nextInk(r, stop);
+            }
+        }
+        s.rowFirstRun[s.endRow - s.firstRow] = s.count;
+    }
+
+    /*
+     * Function: Joins every run of the strip with the runs it touches in the row above (within the strip)
+     */
+    private static void label(Strip s, int[] parent)
+    {
+        for (int k = 0; k < s.count; k++)
+        {
+            parent[s.first + k] = s.first + k;
+        }
+        for (int r = s.firstRow + 1; r < s.endRow; r++)
+        {
+            int i = r - s.firstRow;
+            joinRows(s, s.rowFirstRun[i - 1], s.rowFirstRun[i], s, s.rowFirstRun[i], s.rowFirstRun[i + 1], parent);
+        }
+    }
+
+    /*
+     * Parameters: the runs [aFrom, aTo) of one row and [bFrom, bTo) of the row below it, and the union-find array
+     * Function: Joins every pair of runs that touch, including at a corner. Both lists are sorted by column, so
+     *           this is a single merge-like walk.
+     */
+    private static void joinRows(Strip a, int aFrom, int aTo, Strip b, int bFrom, int bTo, int[] parent)
+    {
+        int i = aFrom;
+        int j = bFrom;
+
+        while (i < aTo && j < bTo)
+        {
+            if (a.end[i] + 1 < b.start[j])
+            {
+                i++;
+            }
+            else if (b.end[j] + 1 < a.start[i])
+            {
+                j++;
+            }
+            else
+            {
+                union(parent, a.first + i, b.first + j);
+                if (a.end[i] < b.end[j]) i++; else j++;
+            }
+        }
+    }
+
+    private static int find(int[] parent, int x)
+    {
+        while (parent[x] != x)
+        {
+            parent[x] = parent[parent[x]];              // path halving
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void union(int[] parent, int x, int y)
+    {
+        int rx = find(parent, x);
+        int ry = find(parent, y);
+        if (rx < ry) parent[ry] = rx; else if (ry < rx) parent[rx] = ry;
+    }
+
+    /*
+     * Function: Grows a box per component from its runs, drops the small ones and puts the rest in reading order
+     */
+    private List<Box> collectBoxes(Strip[] strip, int[] parent, int total)
+    {
+        int[] top = new int[total];
+        int[] left = new int[total];
+        int[] bottom = new int[total];
+        int[] right = new int[total];
+        int[] pixels = new int[total];
+        Arrays.fill(top, Integer.MAX_VALUE);
+        Arrays.fill(left, Integer.MAX_VALUE);
+        Arrays.fill(bottom, -1);
+        Arrays.fill(right, -1);
+
+        for (Strip s : strip)
+        {
+            for (int k = 0; k < s.count; k++)
+            {
+                int root = find(parent, s.first + k);
+                top[root] = Math.min(top[root], s.row[k]);
+                bottom[root] = Math.max(bottom[root], s.row[k]);
+                left[root] = Math.min(left[root], s.start[k]);
+                right[root] = Math.max(right[root], s.end[k]);
+                pixels[root] += s.end[k] - s.start[k] + 1;
+            }
+        }
+
+        List<Box> boxes = new ArrayList<Box>();
+        for (int i = 0; i < total; i++)
+        {
+            if (parent[i] == i && pixels[i] >= minPixels)
+            {
+                boxes.add(new Box(top[i], left[i], bottom[i], right[i], pixels[i]));
+            }
+        }
+        return readingOrder(boxes);
+    }
+
+    /*
+     * Parameters: boxes in any order
+     * Function: Returns them in reading order. A box belongs to the current line if its vertical middle is inside
+     *           the rows the line covers so far; otherwise it starts a new line.
+     */
+    public static List<Box> readingOrder(List<Box> boxes)
+    {
+        List<Box> sorted = new ArrayList<Box>(boxes);
+        Collections.sort(sorted, new Comparator<Box>()
+        {
+            public int compare(Box a, Box b)
+            {
+                return (a.top != b.top) ? Integer.compare(a.top, b.top) : Integer.compare(a.left, b.left);
+            }
+        });
+
+        List<Box> output = new ArrayList<Box>(sorted.size());
+        List<Box> line = new ArrayList<Box>();
+        int lineTop = 0;
+        int lineBottom = -1;
+        Comparator<Box> leftToRight = new Comparator<Box>()
+        {
+            public int compare(Box a, Box b)
+            {
+                return Integer.compare(a.left, b.left);
+            }
+        };
+
+        for (Box box : sorted)
+        {
+            int middle = (box.top + box.bottom) / 2;
+            if (line.isEmpty() || middle < lineTop || middle > lineBottom)
+            {
+                Collections.sort(line, leftToRight);
+                output.addAll(line);
+                line.clear();
+                lineTop = box.top;
+                lineBottom = box.bottom;
+            }
+            line.add(box);
+            lineBottom = Math.max(lineBottom, box.bottom);
+        }
+        Collections.sort(line, leftToRight);
+        output.addAll(line);
+
+        return output;
+    }
+
+    /*
+     * Parameters: the page and a box found on it
+     * Function: Returns a view of the box's part of the page (nothing is copied)
+     */
+    public static FlatImage crop(FlatImage page, Box box)
+    {
+        return page.subImage(box.top, box.left, box.getHeight(), box.getWidth());
+    }
+
+    /*
+     * Parameters: the page, the boxes found on it and the Preprocessor for the network
+     * Function: Returns one network input per box, in the same order, for BackPropPerceptron.evaluate(double[][])
+     */
+    public static double[][] toInputs(FlatImage page, List<Box> boxes, Preprocessor preprocessor)
+    {
+        double[][] inputs = new double[boxes.size()][preprocessor.getInputSize()];
+
+        for (int i = 0; i < inputs.length; i++)
+        {
+            preprocessor.process(crop(page, boxes.get(i)), inputs[i], 0);
+        }
+        return inputs;
+    }
+} // public class Segmenter
@@ -0,0 +1,337 @@
+/*
+ * Description: Trains a BackPropPerceptron on samples streamed from disk instead of from in-memory arrays, so the
+ *              training set can be much bigger than the heap. The samples are read from one or more PackedDataset
+ *              shards (see DatasetPacker).
+ *
+ *              A background thread reads the shards a block of windowSize samples at a time and hands the blocks to
+ *              the training thread through a queue. There are only two blocks, so while the trainer works through
+ *              one block the reader fills the other (double buffering) and the memory used is fixed at
+ *              2 * windowSize * (feature dimension + 1) values no matter how many samples there are.
+ *
+ *              Every epoch the shards are visited in a new random order and the samples inside each block are
+ *              shuffled before the trainer gets them. Samples are therefore shuffled within a window of windowSize;
+ *              a bigger window is a better shuffle at the cost of memory.
+ *
+ *              getStallNanos() tells how long the trainer has spent waiting for the reader. If it is more than a
+ *              small part of the training time, the disk can't keep up and a bigger window won't help.
+ *
+ *              The shuffles of an epoch only depend on the seed and the epoch number, so a run resumed from a
+ *              Checkpoint (resume) sees the same sample order as the run that saved it would have. Checkpoints are
+ *              saved to the perceptron's Checkpointer, if it has one.
+ */
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class StreamingTrainer
+{
+    public static final int NUM_BLOCKS = 2;
+
+    private final BackPropPerceptron perceptron;
+    private final String[] shards;
+    private final int windowSize;
+    private long seed;
+    private final int featureDim;
+    private final int numClasses;
+
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+
+    private int epoch;
+    private long epochSamples;               // samples trained on in the last epoch
+    private long stallNanos;
+
+    /*
+     * A block of samples on its way from the reader to the trainer
+     */
+    private static final class Block
+    {
+        final double[][] inputs;
+        final int[] labels;
+        final int[] order;                   // shuffled indices of the samples
+        int count;                           // number of samples in the block
+        boolean endOfEpoch;
+        IOException error;                   // set if the reader failed
+
+        Block(int windowSize, int featureDim)
+        {
+            inputs = new double[windowSize][featureDim];
+            labels = new int[windowSize];
+            order = new int[windowSize];
+        }
+    }
+
+    /*
+     * Parameters: the perceptron to train, the shard files, the number of samples per block (the shuffle window)
+     *             and a seed for the shuffling
+     * Function: Checks that all shards have the same feature dimension and that it matches the perceptron
+     */
+    public StreamingTrainer(BackPropPerceptron p, String[] shardFiles, int window, long randomSeed) throws IOException
+    {
+        if (window <= 0 || shardFiles.length == 0)
+        {
+            throw new IllegalArgumentException("A StreamingTrainer needs a window size > 0 and at least one shard.");
+        }
+        perceptron = p;
+        shards = shardFiles.clone();
+        windowSize = window;
+        seed = randomSeed;
+
+        PackedDataset first = new PackedDataset(shards[0]);
+        featureDim = first.getFeatureDimension();
+        numClasses = first.getNumClasses();
+
+        if (featureDim != p.getWeights()[0].length)
+        {
+            throw new IllegalArgumentException("The shards have " + featureDim + " features but the perceptron has "
+                    + p.getWeights()[0].length + " input nodes.");
+        }
+
+        for (int i = 0; i < NUM_BLOCKS; i++)
+        {
+            free.add(new Block(windowSize, featureDim));
+        }
+    }
+
+    /*
+     * Parameters: a checkpoint saved by a StreamingTrainer on these shards
+     * Function: Restores the perceptron's weights and carries on from the checkpoint's epoch with its seed
+     */
+    public void resume(Checkpoint checkpoint)
+    {
+        perceptron.restore(checkpoint);
+        epoch = checkpoint.getEpoch();
+        seed = checkpoint.getSeed();
+    }
+
+    /*
+     * Parameters: the maximum number of epochs
+     * Function: Trains until the error of an epoch falls below MAX_ALLOWED_ERROR, maxEpochs have run or the
+     *           perceptron's TrainingMonitor is stopped. Each epoch is reported to the monitor and checkpointed when
+     *           a checkpoint is due, and the end of training is always checkpointed. Returns the error of the last
+     *           epoch.
+     */
+    public double train(int maxEpochs) throws IOException, InterruptedException
+    {
+        TrainingMonitor monitor = perceptron.getMonitor();
+        Checkpointer checkpointer = perceptron.getCheckpointer();
+        double err = Double.MAX_VALUE;
+        int trained = 0;
+
+        monitor.trainingStarted(Double.NaN, epoch);
+        try
+        {
+            for (int i = 0; i < maxEpochs && err > BackPropPerceptron.MAX_ALLOWED_ERROR; i++)
+            {
+                monitor.epochStarted();
+                err = trainEpoch();
+                trained++;
+                boolean go = monitor.epochFinished(err, epochSamples);
+                if (checkpointer != null && checkpointer.isDue(epoch))
+                {
+                    checkpointer.save(epoch, err, seed, perceptron.getTrainingRate(), perceptron.getWeights());
+                }
+                if (!go) break;
+            }
+            if (checkpointer != null && trained > 0)
+            { // not after a failed epoch, whose weights are half trained
+                checkpointer.save(epoch, err, seed, perceptron.getTrainingRate(), perceptron.getWeights());
+                checkpointer.flush();
+            }
+        }
+        finally
+        {
+            monitor.trainingFinished();
+        }
+        return err;
+    }
+
+    /*
+     * Function: Streams every sample of every shard through the perceptron once. Returns the summed error of the
+     *           samples, each measured just before its own weight update.
+     */
+    public double trainEpoch() throws IOException, InterruptedException
+    {
+        final Random random = new Random(seed + epoch);
+        epoch++;
+
+        Thread reader = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                readEpoch(random);
+            }
+        }, "StreamingTrainer-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        double[] target = new double[numClasses];
+        double err = 0.0;
+        epochSamples = 0;
+
+        try
+        {
+            while (true)
+            {
+                long start = System.nanoTime();
+                Block block = full.take();
+                stallNanos += System.nanoTime() - start;
+
+                boolean last;
+                try
+                {
+                    if (block.error != null)
+                    {
+                        throw block.error;
+                    }
+
+                    for (int k = 0; k < block.count; k++)
+                    {
+                        int i = block.order[k];
+                        target[block.labels[i]] = 1.0;
+                        err += perceptron.updateWeights(block.inputs[i], target);
+                        target[block.labels[i]] = 0.0;
+                    }
+                    epochSamples += block.count;
+                    last = block.endOfEpoch;
+                }
+                finally
+                { // always give the block back, or every later epoch would run on one buffer
+                    block.error = null;
+                    block.endOfEpoch = false;
+                    free.offer(block);       // never full: there are only NUM_BLOCKS blocks
+                }
+                if (last) break;
+            }
+        }
+        finally
+        {
+            reader.interrupt();              // no-op after a normal epoch; unblocks the reader if we failed early
+            reader.join();
+            full.drainTo(free);
+        }
+
+        return err;
+    }
+
+    /*
+     * Parameters: the random number generator of this epoch
+     * Function: Runs on the reader thread. Fills free blocks from the shards in a random order, shuffles each block
+     *           and queues it for the trainer. The last block of the epoch is flagged (it may be empty).
+     */
+    private void readEpoch(Random random)
+    {
+        Block block = null;
+
+        try
+        {
+            int[] shardOrder = shuffledIndices(shards.length, random);
+            block = free.take();
+            block.count = 0;
+
+            for (int s = 0; s < shards.length; s++)
+            {
+                PackedDataset data = new PackedDataset(shards[shardOrder[s]]);
+                if (data.getFeatureDimension() != featureDim)
+                {
+                    throw new IOException(shards[shardOrder[s]] + " has " + data.getFeatureDimension()
+                            + " features, expected " + featureDim + ".");
+                }
+
+                for (int i = 0; i < data.size(); i++)
+                {
+                    data.copyRow(i, block.inputs[block.count]);
+                    block.labels[block.count] = data.getLabel(i);
+                    block.count++;
+
+                    if (block.count == windowSize)
+                    {
+                        shuffle(block, random);
+                        full.put(block);
+                        block = free.take();
+                        block.count = 0;
+                    }
+                }
+            }
+
+            shuffle(block, random);
+            block.endOfEpoch = true;
+            full.put(block);
+        }
+        catch (IOException e)
+        {
+            fail(block, e);
+        }
+        catch (RuntimeException e)
+        {
+            fail(block, new IOException(e));
+        }
+        catch (InterruptedException e)
+        {
+            if (block != null && !free.contains(block) && !full.contains(block))
+            {
+                free.offer(block);           // give back the block we were filling
+            }
+        }
+    }
+
+    /*
+     * Parameters: the block the reader holds (if any) and the error
+     * Function: Passes the error to the trainer so it doesn't wait forever
+     */
+    private void fail(Block block, IOException e)
+    {
+        if (block != null)
+        {
+            block.count = 0;
+            block.error = e;
+            full.offer(block);
+        }
+    }
+
+    /*
+     * Function: Fills the block's order with a random permutation of its samples
+     */
+    private static void shuffle(Block block, Random random)
+    {
+        permutation(block.order, block.count, random);
+    }
+
+    private static int[] shuffledIndices(int n, Random random)
+    {
+        int[] output = new int[n];
+        permutation(output, n, random);
+        return output;
+    }
+
+    /*
+     * Parameters: an array, how many elements to fill and a random number generator
+     * Function: Fills the first n elements with a random permutation of 0..n-1 (inside-out Fisher-Yates)
+     */
+    private static void permutation(int[] output, int n, Random random)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            int j = random.nextInt(i + 1);
+            output[i] = output[j];
+            output[j] = i;
+        }
+    }
+
+    /*
+     * Function: Returns the number of epochs trained so far
+     */
+    public int getEpoch()
+    {
+        return epoch;
+    }
+
+    /*
+     * Function: Returns the total time the trainer has waited on the reader, in nanoseconds
+     */
+    public long getStallNanos()
+    {
+        return stallNanos;
+    }
+} // public class StreamingTrainer
@@ -0,0 +1,433 @@
+/*
+ * Description: Watches a training run (BackPropPerceptron.train, StreamingTrainer.train) and publishes it as a JMX
+ *              MBean, so a long run can be followed from JConsole or VisualVM and stopped if it is going nowhere.
+ *              The trainer calls
+ *
+ *                  trainingStarted(error)      once, with the error before the first epoch (NaN if unknown)
+ *                  epochStarted()              before each epoch
+ *                  epochFinished(error, n)     after each epoch, with its error and number of samples
+ *                  trainingFinished()          once at the end
+ *
+ *              and stops when epochFinished returns false.
+ *
+ *              After each epoch the monitor works out:
+ *                  the epoch wall time and samples per second
+ *                  the allocation rate of the training thread, in bytes per second (-1 if the JVM can't measure it)
+ *                  the best error so far and the epoch it was reached in
+ *                  the ETA: the seconds left until the error reaches the target. The error is assumed to keep
+ *                      falling at its recent rate per epoch, which is a smoothed average of log(previous / current).
+ *                      It is -1 while the error isn't falling.
+ *
+ *              A line is printed every logInterval epochs instead of every epoch. All of this is a few field writes
+ *              per epoch. The fields are volatile, so JMX threads can read them while the trainer runs.
+ *
+ *              pause() makes epochFinished wait until resume() or stop(). stop() makes epochFinished return false,
+ *              so the trainer ends after the epoch it is on and keeps the weights it has. With an epoch limit set,
+ *              epochFinished also returns false once that many epochs have been trained.
+ */
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class TrainingMonitor implements TrainingMonitorMBean
+{
+    public static final int DEFAULT_LOG_INTERVAL = 100;
+    public static final String DOMAIN = "LetterDetector";
+    public static final double SMOOTHING = .1;          // weight of the newest epoch in the averages
+
+    private final double targetError;
+    private final PrintStream log;                      // null to print nothing
+    private final com.sun.management.ThreadMXBean threads;
+
+    private volatile int logInterval = DEFAULT_LOG_INTERVAL;
+    private volatile int epochLimit;                    // 0 for none
+    private volatile int epoch;
+    private volatile double lastError = Double.NaN;
+    private volatile double bestError = Double.NaN;
+    private volatile int bestEpoch;
+    private volatile double lastEpochMillis;
+    private volatile double samplesPerSecond;
+    private volatile double allocationRate = -1;
+    private volatile double etaSeconds = -1;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean paused;
+    private volatile boolean stopped;
+
+    // only used by the training thread
+    private long epochStartNanos;
+    private long epochStartBytes;
+    private double errorDecay;                          // smoothed log(previous / current error) per epoch
+    private boolean hasDecay;                           // errorDecay has been set
+    private double epochSeconds;                        // smoothed epoch wall time
+    private boolean hasEpochSeconds;                    // epochSeconds has been set in this run
+
+    private ObjectName name;
+
+    /*
+     * Function: A monitor for a run that converges at BackPropPerceptron.MAX_ALLOWED_ERROR and logs to
+     *           standard output
+     */
+    public TrainingMonitor()
+    {
+        this(BackPropPerceptron.MAX_ALLOWED_ERROR, System.out);
+    }
+
+    /*
+     * Parameters: the error the run converges at (for the ETA) and where to log (null for nowhere)
+     */
+    public TrainingMonitor(double target, PrintStream out)
+    {
+        targetError = target;
+        log = out;
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = null;
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            allocations = (com.sun.management.ThreadMXBean)bean;
+            if (!allocations.isThreadAllocatedMemorySupported())
+            {
+                allocations = null;
+            }
+            else if (!allocations.isThreadAllocatedMemoryEnabled())
+            {
+                allocations.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        threads = allocations;
+    }
+
+    /*
+     * Parameters: a name that tells this run apart from others in the same JVM
+     * Function: Registers the monitor with the platform MBean server as LetterDetector:type=TrainingMonitor,name=...
+     *           and returns the name it was registered under. A monitor that is already registered is moved to the
+     *           new name.
+     */
+    public synchronized ObjectName register(String runName)
+    {
+        unregister();
+        try
+        {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=TrainingMonitor,name=" + ObjectName.quote(runName));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+            return objectName;
+        }
+        catch (JMException e)
+        {
+            throw new RuntimeException("Could not register the training monitor " + runName + ": " + e, e);
+        }
+    }
+
+    /*
+     * Function: Removes the monitor from the MBean server, if it was registered
+     */
+    public synchronized void unregister()
+    {
+        if (name == null) return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            // already gone
+        }
+        name = null;
+    }
+
+    /*
+     * Parameters: the error before any training, or NaN if it isn't known
+     * Function: Starts the clocks for a new run. A stop from an earlier run is forgotten.
+     */
+    public void trainingStarted(double error)
+    {
+        trainingStarted(error, 0);
+    }
+
+    /*
+     * Parameters: the error before the first epoch (or NaN) and the number of epochs trained before, for a run
+     *             resumed from a Checkpoint
+     * Function: Same as trainingStarted(double), with the epochs counted on from epochsDone
+     */
+    public void trainingStarted(double error, int epochsDone)
+    {
+        epoch = epochsDone;
+        lastError = error;
+        bestError = error;
+        bestEpoch = epochsDone;
+        etaSeconds = -1;
+        errorDecay = 0;
+        hasDecay = false;
+        epochSeconds = 0;
+        hasEpochSeconds = false;
+        stopped = false;
+        endNanos = 0;
+        startNanos = System.nanoTime();
+        String started = (epochsDone > 0) ? "training resumed after epoch " + epochsDone : "training started";
+        print(Double.isNaN(error) ? started : started + ", error = " + error);
+    }
+
+    /*
+     * Function: Notes the time and the training thread's allocations at the start of an epoch
+     */
+    public void epochStarted()
+    {
+        epochStartBytes = allocatedBytes();
+        epochStartNanos = System.nanoTime();
+    }
+
+    /*
+     * Parameters: the error after the epoch and the number of samples trained on in it
+     * Function: Updates the statistics and logs them every logInterval epochs. Waits while the run is paused.
+     *           Returns false if the run has been stopped.
+     */
+    public boolean epochFinished(double error, long samples)
+    {
+        long nanos = System.nanoTime() - epochStartNanos;
+        long bytes = allocatedBytes();
+        double seconds = Math.max(nanos, 1) / 1e9;
+
+        double previous = lastError;
+        int n = epoch + 1;
+
+        lastEpochMillis = nanos / 1e6;
+        samplesPerSecond = samples / seconds;
+        allocationRate = (bytes < 0 || epochStartBytes < 0) ? -1 : (bytes - epochStartBytes) / seconds;
+        if (!(error >= bestError))
+        { // also true while bestError is NaN
+            bestError = error;
+            bestEpoch = n;
+        }
+
+        if (previous > 0 && error > 0)
+        {
+            double decay = Math.log(previous / error);
+            errorDecay = hasDecay ? SMOOTHING * decay + (1 - SMOOTHING) * errorDecay : decay;
+            hasDecay = true;
+        }
+        epochSeconds = hasEpochSeconds ? SMOOTHING * seconds + (1 - SMOOTHING) * epochSeconds : seconds;
+        hasEpochSeconds = true;
+        if (error <= targetError)
+        {
+            etaSeconds = 0;
+        }
+        else
+        {
+            etaSeconds = (errorDecay > 0) ? Math.log(error / targetError) / errorDecay * epochSeconds : -1;
+        }
+
+        lastError = error;
+        epoch = n;
+
+        if (n % logInterval == 0)
+        {
+            print(status());
+        }
+        return awaitRunning() && !limitReached();
+    }
+
+    private boolean limitReached()
+    {
+        int limit = epochLimit;
+        return limit > 0 && epoch >= limit;
+    }
+
+    /*
+     * Function: Logs the last epoch (unless it was just logged) and how the run ended
+     */
+    public void trainingFinished()
+    {
+        endNanos = System.nanoTime();
+        if (epoch % logInterval != 0)
+        {
+            print(status());
+        }
+        String ending = stopped ? "training stopped" : limitReached() ? "epoch limit reached" : "training finished";
+        print(ending + " after " + epoch + " epochs in " + String.format("%.1f", getElapsedSeconds())
+                + " s, best error = " + bestError + " at epoch " + bestEpoch);
+    }
+
+    /*
+     * Function: Returns a one line summary of the last epoch
+     */
+    public String status()
+    {
+        return "epoch " + epoch + " error = " + lastError + String.format(" (%.2f ms, %.0f samples/s, %s, ETA %s)",
+                lastEpochMillis, samplesPerSecond,
+                (allocationRate < 0) ? "allocation unknown" : String.format("%.1f MB/s", allocationRate / 1e6),
+                (etaSeconds < 0) ? "unknown" : String.format("%.1f s", etaSeconds));
+    }
+
+    /*
+     * Function: Waits while paused. Returns false if stopped.
+     */
+    private synchronized boolean awaitRunning()
+    {
+        boolean interrupted = false;
+        while (paused && !stopped)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return !stopped;
+    }
+
+    /*
+     * Function: Returns the bytes the current thread has allocated so far, or -1 if the JVM doesn't say
+     */
+    private long allocatedBytes()
+    {
+        return (threads == null) ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void print(String line)
+    {
+        if (log != null)
+        {
+            log.println(line);
+        }
+    }
+
+    public int getEpoch()
+    {
+        return epoch;
+    }
+
+    public double getLastError()
+    {
+        return lastError;
+    }
+
+    public double getBestError()
+    {
+        return bestError;
+    }
+
+    public int getBestEpoch()
+    {
+        return bestEpoch;
+    }
+
+    public double getTargetError()
+    {
+        return targetError;
+    }
+
+    public double getLastEpochMillis()
+    {
+        return lastEpochMillis;
+    }
+
+    public double getSamplesPerSecond()
+    {
+        return samplesPerSecond;
+    }
+
+    /*
+     * Function: Returns the bytes per second the training thread allocated in the last epoch, or -1 if unknown
+     */
+    public double getAllocationRate()
+    {
+        return allocationRate;
+    }
+
+    /*
+     * Function: Returns the estimated seconds until the error reaches the target, or -1 if it isn't falling
+     */
+    public double getEtaSeconds()
+    {
+        return etaSeconds;
+    }
+
+    /*
+     * Function: Returns the seconds since training started (until it finished, once it has)
+     */
+    public double getElapsedSeconds()
+    {
+        long start = startNanos;
+        if (start == 0) return 0;
+        long end = endNanos;
+        return (((end != 0) ? end : System.nanoTime()) - start) / 1e9;
+    }
+
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    public int getLogInterval()
+    {
+        return logInterval;
+    }
+
+    /*
+     * Parameters: the number of epochs between log lines
+     */
+    public void setLogInterval(int epochs)
+    {
+        if (epochs <= 0)
+        {
+            throw new IllegalArgumentException("log interval must be > 0");
+        }
+        logInterval = epochs;
+    }
+
+    public int getEpochLimit()
+    {
+        return epochLimit;
+    }
+
+    /*
+     * Parameters: the most epochs to train, counting those before a resumed checkpoint, or 0 for no limit
+     */
+    public void setEpochLimit(int epochs)
+    {
+        if (epochs < 0)
+        {
+            throw new IllegalArgumentException("epoch limit must be >= 0");
+        }
+        epochLimit = epochs;
+    }
+
+    public synchronized void pause()
+    {
+        paused = true;
+    }
+
+    public synchronized void resume()
+    {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized void stop()
+    {
+        stopped = true;
+        notifyAll();
+    }
+} // public class TrainingMonitor
@@ -0,0 +1,45 @@
+/*
+ * Description: The management interface of TrainingMonitor: what JConsole, VisualVM or any other JMX client sees
+ *              of a training run. The attributes are read only, apart from LogInterval and EpochLimit. The
+ *              operations pause, resume and stop the run at the end of the epoch it is on.
+ */
+public interface TrainingMonitorMBean
+{
+    int getEpoch();
+
+    double getLastError();
+
+    double getBestError();
+
+    int getBestEpoch();
+
+    double getTargetError();
+
+    double getLastEpochMillis();
+
+    double getSamplesPerSecond();
+
+    double getAllocationRate();
+
+    double getEtaSeconds();
+
+    double getElapsedSeconds();
+
+    boolean isPaused();
+
+    boolean isStopped();
+
+    int getLogInterval();
+
+    void setLogInterval(int epochs);
+
+    int getEpochLimit();
+
+    void setEpochLimit(int epochs);
+
+    void pause();
+
+    void resume();
+
+    void stop();
+} // public interface TrainingMonitorMBean
@@ -0,0 +1,219 @@
+/*
+ * Description: Tests that BinaryImage's word-at-a-time counts, center of mass, corners and shifts give what a pel by
+ *              pel loop or ImageProcessor gives for the same 0/1 picture.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryImageTest
+{
+    private static final int WIDTH = 150;               // three words a row, the last one only partly used
+    private static final int HEIGHT = 11;
+
+    private final Random random = new Random(35);
+
+    @Test
+    void countsMatchAPelByPelCount()
+    {
+        boolean[][] ink = randomGlyph();
+        BinaryImage image = toBinary(ink);
+
+        int[] rows = new int[HEIGHT];
+        int[] cols = new int[WIDTH];
+        int total = 0;
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                assertEquals(ink[i][j], image.get(i, j));
+                if (ink[i][j])
+                {
+                    rows[i]++;
+                    cols[j]++;
+                    total++;
+                }
+            }
+        }
+
+        int[] rowCounts = new int[HEIGHT];
+        int[] colCounts = new int[WIDTH];
+        image.rowCounts(rowCounts);
+        image.colCounts(colCounts);
+        assertArrayEquals(rows, rowCounts);
+        assertArrayEquals(cols, colCounts);
+        assertEquals(total, image.inkCount());
+    }
+
+    @Test
+    void centerOfMassAndCornersMatchImageProcessor()
+    {
+        ImageProcessor processor = new ImageProcessor();
+        for (int n = 0; n < 20; n++)
+        {
+            BinaryImage image = toBinary(randomGlyph());
+            FlatImage flat = image.toFlatImage(1);
+
+            ImageProcessor.Location expected = processor.centerOfMass(flat);
+            ImageProcessor.Location actual = image.centerOfMass();
+            assertEquals(expected.getX(), actual.getX());
+            assertEquals(expected.getY(), actual.getY());
+
+            for (int numPix = 1; numPix <= 3; numPix++)
+            {
+                assertSameCorners(processor.cornerArray(flat, numPix, 1), image.cornerArray(numPix));
+            }
+        }
+        assertSameCorners(processor.cornerArray(new FlatImage(WIDTH, HEIGHT), 1, 1),
+                new BinaryImage(WIDTH, HEIGHT).cornerArray(1));
+    }
+
+    @Test
+    void shiftsMatchImageProcessor()
+    {
+        ImageProcessor processor = new ImageProcessor();
+        BinaryImage image = toBinary(randomGlyph());
+        FlatImage flat = image.toFlatImage(1);
+        int[] rowShifts = {-HEIGHT, -3, 0, 2, HEIGHT - 1};
+        int[] colShifts = {-WIDTH, -70, -64, -5, 0, 1, 63, 64, 65, 149};
+
+        for (int dx : rowShifts)
+        {
+            for (int dy : colShifts)
+            {
+                ImageProcessor.Location shift = new ImageProcessor.Location(dx, dy);
+                BinaryImage shifted = image.shift(shift);
+                FlatImage expected = processor.shiftImage(flat, shift);
+                assertArrayEquals(expected.toArray(), shifted.toFlatImage(1).toArray(),
+                        "shifted by " + dx + ", " + dy);
+
+                int inked = 0;                          // a bit left set past the width would be counted too
+                for (int pel : expected.getData())
+                {
+                    inked += pel;
+                }
+                assertEquals(inked, shifted.inkCount());
+            }
+        }
+    }
+
+    @Test
+    void thresholdsPickTheSamePelsAsALoop()
+    {
+        FlatImage pic = new FlatImage(WIDTH, HEIGHT);
+        byte[] gray = new byte[WIDTH * HEIGHT];
+        random.nextBytes(gray);
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                pic.set(i, j, random.nextInt(0x1000000));
+            }
+        }
+
+        BinaryImage fromPels = BinaryImage.threshold(pic, 0x800000);
+        BinaryImage fromGray = BinaryImage.threshold(gray, WIDTH, HEIGHT, 100);
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                assertEquals(pic.get(i, j) >= 0x800000, fromPels.get(i, j));
+                assertEquals((gray[i * WIDTH + j] & 0xFF) < 100, fromGray.get(i, j));
+            }
+        }
+    }
+
+    @Test
+    void otsuSplitsDarkFromLight()
+    {
+        byte[] gray = new byte[WIDTH * HEIGHT];
+        for (int k = 0; k < gray.length; k++)
+        {
+            gray[k] = (byte)(random.nextBoolean() ? 30 + random.nextInt(20) : 190 + random.nextInt(40));
+        }
+
+        int level = BinaryImage.otsuLevel(gray, gray.length);
+        assertTrue(level > 49 && level <= 190, "level " + level);
+
+        BinaryImage image = BinaryImage.otsu(gray, WIDTH, HEIGHT);
+        for (int k = 0; k < gray.length; k++)
+        {
+            assertEquals((gray[k] & 0xFF) < 100, image.get(k / WIDTH, k % WIDTH));
+        }
+    }
+
+    @Test
+    void fromPackedReadsTheBitsOfA1BitBitmap()
+    {
+        int bytesPerRow = ((WIDTH + 31) / 32) * 4;
+        byte[] packed = new byte[bytesPerRow * HEIGHT];
+        random.nextBytes(packed);                       // the padding past the width is garbage too
+
+        BinaryImage setIsInk = BinaryImage.fromPacked(packed, bytesPerRow, WIDTH, HEIGHT, true);
+        BinaryImage clearIsInk = BinaryImage.fromPacked(packed, bytesPerRow, WIDTH, HEIGHT, false);
+        int total = 0;
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                boolean set = (packed[i * bytesPerRow + (j >>> 3)] & (0x80 >>> (j & 7))) != 0;
+                assertEquals(set, setIsInk.get(i, j));
+                assertEquals(!set, clearIsInk.get(i, j));
+                total += set ? 1 : 0;
+            }
+        }
+        assertEquals(total, setIsInk.inkCount());
+        assertEquals(WIDTH * HEIGHT - total, clearIsInk.inkCount());
+    }
+
+    /*
+     * Function: Returns a random block of ink in the middle of the picture with a little noise around it
+     */
+    private boolean[][] randomGlyph()
+    {
+        int top = 1 + random.nextInt(3);
+        int bottom = HEIGHT - 1 - random.nextInt(3);
+        int left = random.nextInt(60);
+        int right = WIDTH - random.nextInt(60);
+        boolean[][] output = new boolean[HEIGHT][WIDTH];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                boolean inside = i >= top && i < bottom && j >= left && j < right;
+                output[i][j] = random.nextDouble() < (inside ? 0.6 : 0.02);
+            }
+        }
+        output[HEIGHT / 2][WIDTH / 2] = true;           // never blank
+        return output;
+    }
+
+    private static BinaryImage toBinary(boolean[][] ink)
+    {
+        BinaryImage output = new BinaryImage(ink[0].length, ink.length);
+        for (int i = 0; i < ink.length; i++)
+        {
+            for (int j = 0; j < ink[i].length; j++)
+            {
+                output.set(i, j, ink[i][j]);
+            }
+        }
+        return output;
+    }
+
+    private static void assertSameCorners(ImageProcessor.Location[][] expected, ImageProcessor.Location[][] actual)
+    {
+        for (int i = 0; i < expected.length; i++)
+        {
+            for (int j = 0; j < expected[i].length; j++)
+            {
+                assertEquals(expected[i][j].getX(), actual[i][j].getX());
+                assertEquals(expected[i][j].getY(), actual[i][j].getY());
+            }
+        }
+    }
+}
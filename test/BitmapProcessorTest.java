@@ -0,0 +1,207 @@
+/*
+ * Description: Tests that BitmapProcessor reads every kind of bitmap it supports (1, 4 and 8-bit palettized, RLE8
+ *              and RLE4, 24-bit, bottom up and top down) into the same pels.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BitmapProcessorTest
+{
+    private static final int WIDTH = 13;                // not a multiple of 8, so every row ends in padding
+    private static final int HEIGHT = 7;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(26);
+
+    @Test
+    void readsOneBitImages() throws IOException
+    {
+        checkPalettized(1, new int[] {0x000000, 0xFFFFFF});
+    }
+
+    @Test
+    void readsFourBitImages() throws IOException
+    {
+        checkPalettized(4, randomPalette(16));
+    }
+
+    @Test
+    void readsEightBitImages() throws IOException
+    {
+        checkPalettized(8, randomPalette(256));
+    }
+
+    @Test
+    void readsRleImages() throws IOException
+    {
+        int[] colors = randomPalette(256);
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        assertArrayEquals(expand(indices, colors), read(TestBitmaps.rle(indices, 8, colors)).getImageRaw());
+
+        colors = randomPalette(16);
+        indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+        assertArrayEquals(expand(indices, colors), read(TestBitmaps.rle(indices, 4, colors)).getImageRaw());
+    }
+
+    @Test
+    void readsTwentyFourBitImages() throws IOException
+    {
+        int[][] image = new int[HEIGHT][WIDTH];
+        for (int[] row : image)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                row[j] = random.nextInt(0x1000000);
+            }
+        }
+
+        assertArrayEquals(image, read(TestBitmaps.trueColor(image, false)).getImageRaw());
+        assertArrayEquals(image, read(TestBitmaps.trueColor(image, true)).getImageRaw());
+    }
+
+    @Test
+    void grayImageIsTheLuminanceOfEachPel() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        BitmapProcessor bitmap = read(TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false));
+        int[] grays = TestBitmaps.grayPalette(256);
+
+        byte[] gray = bitmap.getGrayImage();
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                assertEquals(grays[indices[i][j]] & 0xFF, gray[i * WIDTH + j] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    void imageIsInvertedSoWhiteIsZero() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+        int[] colors = randomPalette(16);
+        int[][] image = read(TestBitmaps.palettized(indices, 4, colors, 0, true)).getImage();
+
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                assertEquals(0xFFFFFF - colors[indices[i][j]], image[i][j]);
+            }
+        }
+    }
+
+    @Test
+    void ignoresColorTablesLongerThanTheBitCountAllows() throws IOException
+    {
+        int[] colors = Arrays.copyOf(randomPalette(16), 300);          // a 4-bit image claiming 300 colors
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+
+        BitmapProcessor bitmap = read(TestBitmaps.palettized(indices, 4, colors, colors.length, false));
+        assertArrayEquals(expand(indices, colors), bitmap.getImageRaw());
+    }
+
+    @Test
+    void skipsTheColorTableOfTrueColorImages() throws IOException
+    {
+        for (int hints : new int[] {12, 256, 300})                      // a palette hint, longer than any palette
+        {
+            int[][] image = new int[HEIGHT][WIDTH];                     // a new one each time, so nothing is stale
+            for (int[] row : image)
+            {
+                for (int j = 0; j < WIDTH; j++)
+                {
+                    row[j] = random.nextInt(0x1000000);
+                }
+            }
+            byte[] plain = TestBitmaps.trueColor(image, false);
+            byte[] bits = Arrays.copyOfRange(plain, 54, plain.length);
+
+            byte[] bmp = TestBitmaps.bitmap(WIDTH, HEIGHT, 24, BitmapProcessor.BI_RGB, randomPalette(hints), hints,
+                    bits);
+            assertArrayEquals(image, read(bmp).getImageRaw(), hints + " colors");
+        }
+    }
+
+    @Test
+    void everyGrayPathUsesTheSameLuminance() throws IOException
+    {
+        int[][] image = new int[HEIGHT][WIDTH];
+        int[] colors = new int[HEIGHT * WIDTH];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                image[i][j] = colors[i * WIDTH + j] = random.nextInt(0x1000000);
+            }
+        }
+        byte[] bmp = TestBitmaps.trueColor(image, false);
+        byte[] gray = read(bmp).getGrayImage();
+        byte[] table = BitmapProcessor.grayTable(colors, colors.length);
+        double[] features = new double[HEIGHT * WIDTH];
+        new FeatureDecoder().decode(bmp, bmp.length, features, 0);
+
+        for (int k = 0; k < colors.length; k++)
+        {
+            int c = colors[k];
+            int lum = BitmapProcessor.luminance((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+            assertEquals(lum, gray[k] & 0xFF);
+            assertEquals(lum, table[k] & 0xFF);
+            assertEquals((255 - lum) / 255.0, features[k], 1e-12);
+        }
+    }
+
+    /*
+     * Function: Reads random images of the bit count stored bottom up and top down and checks every pel
+     */
+    private void checkPalettized(int bitCount, int[] colors) throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, colors.length);
+        int[][] expected = expand(indices, colors);
+
+        BitmapProcessor bitmap = read(TestBitmaps.palettized(indices, bitCount, colors, 0, false));
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        assertArrayEquals(expected, bitmap.getImageRaw());
+        assertArrayEquals(expected, read(TestBitmaps.palettized(indices, bitCount, colors, 0, true)).getImageRaw());
+    }
+
+    private BitmapProcessor read(byte[] bmp) throws IOException
+    {
+        return new BitmapProcessor(TestBitmaps.save(dir, "image.bmp", bmp));
+    }
+
+    private int[] randomPalette(int colors)
+    {
+        int[] output = new int[colors];
+        for (int i = 0; i < colors; i++)
+        {
+            output[i] = random.nextInt(0x1000000);
+        }
+        return output;
+    }
+
+    private static int[][] expand(int[][] indices, int[] colors)
+    {
+        int[][] output = new int[indices.length][indices[0].length];
+        for (int i = 0; i < indices.length; i++)
+        {
+            for (int j = 0; j < indices[i].length; j++)
+            {
+                output[i][j] = colors[indices[i][j]];
+            }
+        }
+        return output;
+    }
+}
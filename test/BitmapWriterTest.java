@@ -0,0 +1,123 @@
+/*
+ * Description: Tests that what BitmapWriter writes reads back, through BitmapProcessor and FeatureDecoder, as the
+ *              image, gray pels or features it was given.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BitmapWriterTest
+{
+    private static final int WIDTH = 13;                // not a multiple of 4, so every row ends in padding
+    private static final int HEIGHT = 7;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(28);
+
+    @Test
+    void grayPelsReadBackUnchanged() throws IOException
+    {
+        checkGray(WIDTH, HEIGHT);
+    }
+
+    @Test
+    void imagesLargerThanTheBufferReadBackUnchanged() throws IOException
+    {
+        checkGray(301, 257);                            // more than MIN_BUFFER_SIZE bytes, so rows are flushed
+    }
+
+    @Test
+    void grayImagesReadBackUnchanged() throws IOException
+    {
+        int[][] image = new int[HEIGHT][WIDTH];
+        for (int[] row : image)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                row[j] = 0xFFFFFF - TestBitmaps.gray(random.nextInt(256));     // inverted, as getImage() gives it
+            }
+        }
+        String file = dir.resolve("image.bmp").toString();
+
+        new BitmapWriter().write(image, file);
+
+        BitmapProcessor bitmap = new BitmapProcessor(file);
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        assertArrayEquals(image, bitmap.getImage());
+    }
+
+    @Test
+    void colorsAreWrittenAsTheirLuminance() throws IOException
+    {
+        int[][] image = new int[HEIGHT][WIDTH];
+        byte[] expected = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                int rgb = random.nextInt(0x1000000);
+                image[i][j] = 0xFFFFFF - rgb;
+                expected[i * WIDTH + j] = (byte)(int)Math.round(0.3 * (rgb >> 16) + 0.589 * ((rgb >> 8) & 0xFF)
+                        + 0.11 * (rgb & 0xFF));
+            }
+        }
+        String file = dir.resolve("color.bmp").toString();
+
+        new BitmapWriter().write(image, file);
+
+        assertArrayEquals(expected, new BitmapProcessor(file).getGrayImage());
+    }
+
+    @Test
+    void featuresReadBackUnchangedAndAreClamped() throws IOException
+    {
+        int offset = 3;
+        double[] features = new double[offset + WIDTH * HEIGHT];
+        double[] expected = new double[WIDTH * HEIGHT];
+        for (int k = 0; k < expected.length; k++)
+        {
+            features[offset + k] = random.nextInt(256) / 255.0;
+            expected[k] = features[offset + k];
+        }
+        features[offset] = -0.5;
+        expected[0] = 0.0;
+        features[offset + 1] = 1.5;
+        expected[1] = 1.0;
+        String file = dir.resolve("features.bmp").toString();
+
+        new BitmapWriter().writeFeatures(features, offset, WIDTH, HEIGHT, file);
+
+        double[] read = new double[WIDTH * HEIGHT];
+        assertEquals(read.length, new FeatureDecoder().decode(file, read, 0));
+        for (int k = 0; k < read.length; k++)
+        {
+            assertEquals(expected[k], read[k], 1e-12);
+        }
+    }
+
+    /*
+     * Function: Writes random gray pels with writeGray and checks BitmapProcessor reads the same pels back
+     */
+    private void checkGray(int width, int height) throws IOException
+    {
+        byte[] gray = new byte[width * height];
+        random.nextBytes(gray);
+        String file = dir.resolve("gray.bmp").toString();
+
+        new BitmapWriter().writeGray(gray, width, height, file);
+
+        BitmapProcessor bitmap = new BitmapProcessor(file);
+        assertEquals(width, bitmap.getWidth());
+        assertEquals(height, bitmap.getHeight());
+        assertArrayEquals(gray, bitmap.getGrayImage());
+    }
+}
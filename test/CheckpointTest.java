@@ -0,0 +1,216 @@
+/*
+ * Description: Tests that a Checkpoint reads back exactly what was written, that damaged files are refused, and that
+ *              a run resumed from a checkpoint (in memory or streamed with StreamingTrainer) ends with the same
+ *              weights, bit for bit, as a run that was never interrupted.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest
+{
+    private static final int NUM_INPUTS = 16;
+    private static final int NUM_HIDDEN = 6;
+    private static final int NUM_CLASSES = 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException
+    {
+        double[][][] weights = randomWeights(new Random(47));
+        String file = dir.resolve("run.checkpoint").toString();
+
+        new Checkpoint(12, 0.25, 1234L, 0.5, weights).write(file);
+        Checkpoint read = Checkpoint.read(file);
+
+        assertEquals(12, read.getEpoch());
+        assertEquals(0.25, read.getError());
+        assertEquals(1234L, read.getSeed());
+        assertEquals(0.5, read.getTrainingRate());
+        assertWeightsEqual(weights, read.getWeights());
+        assertFalse(new File(file + Checkpoint.TEMP_SUFFIX).exists());
+    }
+
+    @Test
+    void overwritesTheOldCheckpoint() throws IOException
+    {
+        String file = dir.resolve("run.checkpoint").toString();
+
+        new Checkpoint(1, 1.0, 0L, randomWeights(new Random(1))).write(file);
+        double[][][] newer = randomWeights(new Random(2));
+        new Checkpoint(2, 0.5, 0L, newer).write(file);
+
+        assertEquals(2, Checkpoint.read(file).getEpoch());
+        assertWeightsEqual(newer, Checkpoint.read(file).getWeights());
+    }
+
+    @Test
+    void failedWriteLeavesNoTemporaryFile() throws IOException
+    {
+        Path target = dir.resolve("run.checkpoint");
+        Files.createDirectory(target);                            // can't be renamed over
+        Files.createFile(target.resolve("in the way"));
+
+        Checkpoint checkpoint = new Checkpoint(1, 1.0, 0L, randomWeights(new Random(4)));
+        assertThrows(IOException.class, () -> checkpoint.write(target.toString()));
+        assertFalse(new File(target + Checkpoint.TEMP_SUFFIX).exists());
+    }
+
+    @Test
+    void refusesDamagedFiles() throws IOException
+    {
+        String file = dir.resolve("run.checkpoint").toString();
+        new Checkpoint(3, 0.5, 0L, randomWeights(new Random(3))).write(file);
+        byte[] bytes = Files.readAllBytes(Path.of(file));
+
+        byte[] flipped = bytes.clone();
+        flipped[bytes.length / 2] ^= 0x10;                        // a bit of one of the weights
+        Files.write(Path.of(file), flipped);
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+
+        Files.write(Path.of(file), Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+
+        byte[] notOne = bytes.clone();
+        notOne[0] ^= 0x01;
+        Files.write(Path.of(file), notOne);
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+    }
+
+    @Test
+    void resumedTrainingMatchesAnUninterruptedRun() throws IOException
+    {
+        Random random = new Random(48);
+        double[][] in = new double[20][NUM_INPUTS];
+        double[][] out = new double[20][NUM_CLASSES];
+        for (int i = 0; i < in.length; i += 2)
+        {
+            for (int j = 0; j < NUM_INPUTS; j++)
+            {
+                in[i][j] = random.nextDouble();
+            }
+            in[i + 1] = in[i].clone();                            // the same input with two labels never converges
+            out[i][random.nextInt(NUM_CLASSES)] = 1.0;
+            out[i + 1][random.nextInt(NUM_CLASSES)] = 1.0;
+        }
+        double[][][] start = randomWeights(new Random(49));
+
+        BackPropPerceptron straight = new BackPropPerceptron(in, out, Checkpoint.copyOf(start), false);
+        straight.setMonitor(quietMonitor(20));
+        straight.train();
+        assertEquals(20, straight.getEpochsDone());
+
+        String file = dir.resolve("run.checkpoint").toString();
+        BackPropPerceptron first = new BackPropPerceptron(in, out, Checkpoint.copyOf(start), false);
+        Checkpointer checkpointer = new Checkpointer(file, 3, 0);
+        first.setMonitor(quietMonitor(10));
+        first.setCheckpointer(checkpointer);
+        first.train();
+        checkpointer.close();
+
+        Checkpoint saved = Checkpoint.read(file);
+        assertEquals(10, saved.getEpoch());
+        BackPropPerceptron resumed = new BackPropPerceptron(in, out, randomWeights(new Random(50)), false);
+        resumed.restore(saved);
+        resumed.setMonitor(quietMonitor(20));
+        resumed.train();
+
+        assertEquals(20, resumed.getEpochsDone());
+        assertWeightsEqual(straight.getWeights(), resumed.getWeights());
+    }
+
+    @Test
+    void resumedStreamingMatchesAnUninterruptedRun() throws IOException, InterruptedException
+    {
+        Random random = new Random(30);
+        int side = 4;                                              // 4x4 bitmaps, NUM_INPUTS features
+        String[] files = new String[30];
+        int[] labels = new int[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, side, side, 256);
+            files[i] = TestBitmaps.save(dir, "sample" + i + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false));
+            labels[i] = i % NUM_CLASSES;
+        }
+        String[] shards = {dir.resolve("a.lds").toString(), dir.resolve("b.lds").toString()};
+        DatasetPacker.pack(Arrays.copyOfRange(files, 0, 17), Arrays.copyOfRange(labels, 0, 17), shards[0],
+                PackedDataset.DTYPE_FLOAT64);
+        DatasetPacker.pack(Arrays.copyOfRange(files, 17, 30), Arrays.copyOfRange(labels, 17, 30), shards[1],
+                PackedDataset.DTYPE_FLOAT32);
+        double[][][] start = randomWeights(new Random(31));
+
+        BackPropPerceptron straight = new BackPropPerceptron(Checkpoint.copyOf(start));
+        straight.setMonitor(quietMonitor(0));
+        new StreamingTrainer(straight, shards, 7, 99L).train(6);
+
+        String file = dir.resolve("stream.checkpoint").toString();
+        BackPropPerceptron first = new BackPropPerceptron(Checkpoint.copyOf(start));
+        Checkpointer checkpointer = new Checkpointer(file, 100, 0);
+        first.setMonitor(quietMonitor(0));
+        first.setCheckpointer(checkpointer);
+        new StreamingTrainer(first, shards, 7, 99L).train(3);
+        checkpointer.close();
+
+        BackPropPerceptron resumed = new BackPropPerceptron(randomWeights(new Random(32)));
+        resumed.setMonitor(quietMonitor(0));
+        StreamingTrainer trainer = new StreamingTrainer(resumed, shards, 7, 12345L);    // the seed comes from the file
+        trainer.resume(Checkpoint.read(file));
+        trainer.train(3);
+
+        assertEquals(6, trainer.getEpoch());
+        assertWeightsEqual(straight.getWeights(), resumed.getWeights());
+    }
+
+    /*
+     * Function: Returns a monitor that logs nowhere and stops the run after the given epoch (0 for no limit)
+     */
+    private static TrainingMonitor quietMonitor(int epochLimit)
+    {
+        TrainingMonitor monitor = new TrainingMonitor(BackPropPerceptron.MAX_ALLOWED_ERROR, null);
+        monitor.setEpochLimit(epochLimit);
+        return monitor;
+    }
+
+    private static double[][][] randomWeights(Random random)
+    {
+        double[][][] output = {new double[NUM_INPUTS][NUM_HIDDEN], new double[NUM_HIDDEN][NUM_CLASSES]};
+        for (double[][] layer : output)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return output;
+    }
+
+    private static void assertWeightsEqual(double[][][] expected, double[][][] actual)
+    {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i].length, actual[i].length);
+            for (int j = 0; j < expected[i].length; j++)
+            {
+                assertArrayEquals(expected[i][j], actual[i][j]);        // exact, not within a tolerance
+            }
+        }
+    }
+}
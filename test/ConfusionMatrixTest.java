@@ -0,0 +1,180 @@
+/*
+ * Description: Tests ConfusionMatrix's statistics and merging, that CrossValidator's fork/join scoring counts
+ *              exactly what a plain loop over the samples counts, and that CrossValidator.main answers bad arguments
+ *              with its usage instead of exiting the JVM.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+class ConfusionMatrixTest
+{
+    @Test
+    void countsAccuracyPrecisionAndRecall()
+    {
+        ConfusionMatrix matrix = new ConfusionMatrix(3);
+        matrix.add(0, 0);
+        matrix.add(0, 0);
+        matrix.add(0, 1);
+        matrix.add(1, 1);
+        matrix.add(2, 1);
+
+        assertEquals(5, matrix.total());
+        assertEquals(3, matrix.correct());
+        assertEquals(0.6, matrix.accuracy());
+        assertEquals(1.0, matrix.precision(0));
+        assertEquals(2.0 / 3.0, matrix.recall(0));
+        assertEquals(1.0 / 3.0, matrix.precision(1));
+        assertEquals(1.0, matrix.recall(1));
+        assertEquals(0.0, matrix.recall(2));
+        assertTrue(Double.isNaN(matrix.precision(2)));            // nothing was called class 2
+        assertTrue(Double.isNaN(new ConfusionMatrix(3).accuracy()));
+    }
+
+    @Test
+    void mergingAddsUpTheCounts()
+    {
+        Random random = new Random(50);
+        ConfusionMatrix whole = new ConfusionMatrix(26);
+        ConfusionMatrix[] parts = {new ConfusionMatrix(26), new ConfusionMatrix(26), new ConfusionMatrix(26)};
+
+        for (int n = 0; n < 10000; n++)
+        {
+            int actual = random.nextInt(26);
+            int predicted = random.nextInt(26);
+            whole.add(actual, predicted);
+            parts[n % parts.length].add(actual, predicted);
+        }
+
+        ConfusionMatrix merged = new ConfusionMatrix(26);
+        for (ConfusionMatrix part : parts)
+        {
+            merged.merge(part);
+        }
+        assertSameCounts(whole, merged);
+        assertEquals(10000, merged.total());
+    }
+
+    @Test
+    void refusesToMergeOtherSizes()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new ConfusionMatrix(26).merge(new ConfusionMatrix(3)));
+    }
+
+    @Test
+    void parallelScoringMatchesASequentialLoop()
+    {
+        Random random = new Random(51);
+        int numInputs = 16;
+        int numClasses = 5;
+        BackPropPerceptron network = new BackPropPerceptron(new double[][][] {new double[numInputs][8],
+                new double[8][numClasses]});
+        network.randomizeWeights(random, -1.0, 1.0);
+
+        // more than RANGE_SIZE samples and not a multiple of BATCH_SIZE, so the work is split and batches are ragged
+        int numSamples = 2 * CrossValidator.RANGE_SIZE + 37;
+        double[][] in = new double[numSamples][numInputs];
+        double[][] out = new double[numSamples][numClasses];
+        ConfusionMatrix expected = new ConfusionMatrix(numClasses);
+        for (int i = 0; i < numSamples; i++)
+        {
+            for (int j = 0; j < numInputs; j++)
+            {
+                in[i][j] = random.nextDouble();
+            }
+            int label = random.nextInt(numClasses);
+            out[i][label] = 1.0;
+            expected.add(label, Recognizer.argmax(network.evaluate(in[i])));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            assertSameCounts(expected, CrossValidator.score(network, in, out, pool));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void foldsAreStratified()
+    {
+        Random random = new Random(52);
+        int[] labels = new int[1000];
+        for (int i = 0; i < labels.length; i++)
+        {
+            labels[i] = random.nextInt(26);
+        }
+
+        int numFolds = 4;
+        int[] folds = CrossValidator.assignFolds(labels, numFolds, 7L);
+        int[][] perLabel = new int[26][numFolds];
+        int[] sizes = new int[numFolds];
+        for (int i = 0; i < labels.length; i++)
+        {
+            perLabel[labels[i]][folds[i]]++;
+            sizes[folds[i]]++;
+        }
+
+        assertTrue(spread(sizes) <= 1);
+        for (int[] counts : perLabel)
+        {
+            assertTrue(spread(counts) <= 1);
+        }
+        assertArrayEquals(folds, CrossValidator.assignFolds(labels, numFolds, 7L));
+    }
+
+    @Test
+    void mainPrintsTheUsageForBadArguments() throws Exception
+    {
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(printed, true));
+        try
+        {
+            CrossValidator.main(new String[] {"-k"});                               // no value
+            CrossValidator.main(new String[] {"-test", "data.lds"});                // -test without -weights
+        }
+        finally
+        {
+            System.setErr(err);
+        }
+        String usage = printed.toString();
+        assertTrue(usage.startsWith("Usage: java CrossValidator"), usage);
+        assertEquals(3, usage.split("Usage:", -1).length, usage);                    // once for each call
+    }
+
+    private static int spread(int[] counts)
+    {
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+        for (int count : counts)
+        {
+            low = Math.min(low, count);
+            high = Math.max(high, count);
+        }
+        return high - low;
+    }
+
+    private static void assertSameCounts(ConfusionMatrix expected, ConfusionMatrix actual)
+    {
+        assertEquals(expected.getNumClasses(), actual.getNumClasses());
+        for (int i = 0; i < expected.getNumClasses(); i++)
+        {
+            for (int j = 0; j < expected.getNumClasses(); j++)
+            {
+                assertEquals(expected.getCount(i, j), actual.getCount(i, j), "count of " + i + " called " + j);
+            }
+        }
+    }
+}
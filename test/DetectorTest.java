@@ -0,0 +1,142 @@
+/*
+ * Description: Tests Detector's overlap and non-maximum suppression, and that detect looks at every window of every
+ *              pyramid level, sends only the inked ones to the network and maps the hits back onto the picture.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DetectorTest
+{
+    private static final int SIDE = 60;
+    private static final int WINDOW = 10;
+    private static final int STEP = 5;
+
+    @Test
+    void overlapIsIntersectionOverUnion()
+    {
+        Segmenter.Box a = new Segmenter.Box(0, 0, 9, 9, 0);
+
+        assertEquals(1.0, Detector.overlap(a, a));
+        assertEquals(0.0, Detector.overlap(a, new Segmenter.Box(10, 0, 19, 9, 0)));
+        assertEquals(50.0 / 150.0, Detector.overlap(a, new Segmenter.Box(5, 0, 14, 9, 0)));
+        assertEquals(25.0 / 175.0, Detector.overlap(a, new Segmenter.Box(5, 5, 14, 14, 0)));
+    }
+
+    @Test
+    void suppressionKeepsTheMostConfidentOfOverlappingHits()
+    {
+        Detector.Detection weak = hit(0, 0, 0.6);
+        Detector.Detection strong = hit(1, 1, 0.9);                 // overlaps weak by 81/119
+        Detector.Detection apart = hit(30, 30, 0.7);
+        Detector.Detection touching = hit(7, 0, 0.8);                // overlaps strong by 36/164
+
+        List<Detector.Detection> kept = Detector.suppress(Arrays.asList(weak, strong, apart, touching), 0.3);
+
+        assertEquals(Arrays.asList(strong, touching, apart), kept);
+        assertEquals(Arrays.asList(strong, apart), Detector.suppress(Arrays.asList(weak, strong, apart, touching),
+                0.2));
+    }
+
+    @Test
+    void evaluatesOnlyTheInkedWindowsOfEveryLevel()
+    {
+        FlatImage pic = new FlatImage(SIDE, SIDE);
+        for (int i = 20; i < 30; i++)
+        {
+            for (int j = 22; j < 32; j++)
+            {
+                pic.set(i, j, 0xFFFFFF);
+            }
+        }
+        FixedNetwork network = new FixedNetwork(0.9);
+        double[] scales = {1.0, 0.5, 0.1};                          // the last level is smaller than a window
+        Detector detector = new Detector(network, new Preprocessor(4, 4, 1, 1), WINDOW, STEP, scales, 0.05, 0.5,
+                0.3, 3);
+
+        List<Detector.Detection> found = detector.detect(pic, 1);
+
+        int perSide = (SIDE - WINDOW) / STEP + 1;
+        int perHalfSide = (SIDE / 2 - WINDOW) / STEP + 1;
+        assertEquals(perSide * perSide + perHalfSide * perHalfSide, detector.getWindows());
+        assertTrue(detector.getRejected() > 0);
+        assertEquals(detector.getWindows() - detector.getRejected(), network.evaluated);
+
+        assertTrue(!found.isEmpty());
+        for (int k = 0; k < found.size(); k++)
+        {
+            Segmenter.Box box = found.get(k).getBox();
+            assertEquals('B', found.get(k).getLetter());
+            assertTrue(box.getTop() >= 0 && box.getBottom() < SIDE && box.getLeft() >= 0 && box.getRight() < SIDE);
+            assertTrue(box.getBottom() >= 20 && box.getTop() < 30 && box.getRight() >= 22 && box.getLeft() < 32,
+                    box + " has no ink");
+            for (int n = 0; n < k; n++)
+            {
+                assertTrue(Detector.overlap(box, found.get(n).getBox()) <= 0.3);
+            }
+        }
+    }
+
+    @Test
+    void unsureWindowsAreNotHits()
+    {
+        FlatImage pic = new FlatImage(SIDE, SIDE);
+        pic.set(SIDE / 2, SIDE / 2, 0xFFFFFF);
+        FixedNetwork network = new FixedNetwork(0.4);
+        Detector detector = new Detector(network, new Preprocessor(4, 4, 1, 1), WINDOW, STEP, new double[] {1.0},
+                0.0, 0.5, 0.3, 256);
+
+        assertTrue(detector.detect(pic, 1).isEmpty());
+        assertTrue(network.evaluated > 0);
+    }
+
+    @Test
+    void refusesBadSizes()
+    {
+        FixedNetwork network = new FixedNetwork(0.9);
+        Preprocessor prep = new Preprocessor(4, 4, 1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> new Detector(network, prep, 0, 1, new double[] {1.0}));
+        assertThrows(IllegalArgumentException.class, () -> new Detector(network, prep, 4, 0, new double[] {1.0}));
+        assertThrows(IllegalArgumentException.class, () -> new Detector(network, prep, 4, 1, new double[] {0.0}));
+    }
+
+    private static Detector.Detection hit(int top, int left, double confidence)
+    {
+        return new Detector.Detection(new Segmenter.Box(top, left, top + 9, left + 9, 0), 0, confidence);
+    }
+
+    /*
+     * A network whose second output node always answers with the same confidence. It counts the inputs it is given.
+     */
+    private static class FixedNetwork extends BackPropPerceptron
+    {
+        private final double confidence;
+        int evaluated;
+
+        FixedNetwork(double conf)
+        {
+            super(new double[][][] {new double[16][2], new double[2][3]});
+            confidence = conf;
+        }
+
+        @Override
+        public double[][] evaluate(double[][] inputs)
+        {
+            List<double[]> outputs = new ArrayList<double[]>();
+            for (double[] in : inputs)
+            {
+                assertEquals(16, in.length);
+                outputs.add(new double[] {0.0, confidence, 0.0});
+            }
+            evaluated += inputs.length;
+            return outputs.toArray(new double[0][]);
+        }
+    }
+}
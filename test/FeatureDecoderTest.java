@@ -0,0 +1,324 @@
+/*
+ * Description: Tests FeatureDecoder on hand-built bitmaps of every kind it reads, checks it against BitmapProcessor
+ *              and the old getImage path, and checks that damaged files are refused instead of being decoded from
+ *              stale bytes.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FeatureDecoderTest
+{
+    private static final int WIDTH = 13;                // not a multiple of 8, so every row ends in padding
+    private static final int HEIGHT = 7;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(26);
+    private final FeatureDecoder decoder = new FeatureDecoder();
+
+    @Test
+    void decodesOneBitImages() throws IOException
+    {
+        checkPalettized(1, new int[] {0x000000, 0xFFFFFF});
+    }
+
+    @Test
+    void decodesFourBitImages() throws IOException
+    {
+        checkPalettized(4, randomPalette(16));
+    }
+
+    @Test
+    void decodesEightBitImages() throws IOException
+    {
+        checkPalettized(8, randomPalette(256));
+    }
+
+    @Test
+    void decodesTwentyFourBitImages() throws IOException
+    {
+        int[][] image = new int[HEIGHT][WIDTH];
+        for (int[] row : image)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                row[j] = random.nextInt(0x1000000);
+            }
+        }
+
+        double[] expected = new double[WIDTH * HEIGHT];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                expected[i * WIDTH + j] = TestBitmaps.feature(image[i][j]);
+            }
+        }
+
+        assertArrayEquals(expected, decode(TestBitmaps.trueColor(image, false)));
+        assertArrayEquals(expected, decode(TestBitmaps.trueColor(image, true)));
+    }
+
+    @Test
+    void decodesRle8Images() throws IOException
+    {
+        int[] colors = randomPalette(256);
+        int[][] indices = runnyIndices(256);
+
+        assertArrayEquals(expected(indices, colors), decode(TestBitmaps.rle(indices, 8, colors)));
+    }
+
+    @Test
+    void decodesRle4Images() throws IOException
+    {
+        int[] colors = randomPalette(16);
+        int[][] indices = runnyIndices(16);
+
+        assertArrayEquals(expected(indices, colors), decode(TestBitmaps.rle(indices, 4, colors)));
+    }
+
+    @Test
+    void writesAtTheOffsetIntoFloatVectors() throws IOException
+    {
+        int[] colors = randomPalette(16);
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+        byte[] bmp = TestBitmaps.palettized(indices, 4, colors, 0, false);
+        double[] expected = expected(indices, colors);
+
+        float[] features = new float[3 + WIDTH * HEIGHT];
+        assertEquals(WIDTH * HEIGHT, decoder.decode(bmp, bmp.length, features, 3));
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals((float)expected[i], features[3 + i]);
+        }
+    }
+
+    @Test
+    void matchesBitmapProcessor() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 2);
+        compareWithBitmapProcessor(TestBitmaps.palettized(indices, 1, TestBitmaps.grayPalette(2), 0, false));
+        compareWithBitmapProcessor(TestBitmaps.palettized(indices, 1, TestBitmaps.grayPalette(2), 0, true));
+
+        indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+        compareWithBitmapProcessor(TestBitmaps.palettized(indices, 4, TestBitmaps.grayPalette(16), 0, false));
+        compareWithBitmapProcessor(TestBitmaps.rle(indices, 4, TestBitmaps.grayPalette(16)));
+
+        indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        compareWithBitmapProcessor(TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, true));
+        compareWithBitmapProcessor(TestBitmaps.rle(indices, 8, TestBitmaps.grayPalette(256)));
+
+        int[][] grays = new int[HEIGHT][WIDTH];
+        for (int[] row : grays)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                row[j] = TestBitmaps.gray(random.nextInt(256));
+            }
+        }
+        compareWithBitmapProcessor(TestBitmaps.trueColor(grays, false));
+        compareWithBitmapProcessor(TestBitmaps.trueColor(grays, true));
+    }
+
+    @Test
+    void matchesTheOldPath() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 2);
+        compareWithOldPath(TestBitmaps.palettized(indices, 1, TestBitmaps.grayPalette(2), 0, false));
+        compareWithOldPath(TestBitmaps.palettized(indices, 1, TestBitmaps.grayPalette(2), 0, true));
+
+        indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 16);
+        compareWithOldPath(TestBitmaps.palettized(indices, 4, TestBitmaps.grayPalette(16), 0, false));
+        compareWithOldPath(TestBitmaps.rle(indices, 4, TestBitmaps.grayPalette(16)));
+
+        indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        compareWithOldPath(TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, true));
+        compareWithOldPath(TestBitmaps.rle(indices, 8, TestBitmaps.grayPalette(256)));
+
+        int[][] grays = new int[HEIGHT][WIDTH];
+        for (int[] row : grays)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                row[j] = TestBitmaps.gray(random.nextInt(256));
+            }
+        }
+        compareWithOldPath(TestBitmaps.trueColor(grays, false));
+        compareWithOldPath(TestBitmaps.trueColor(grays, true));
+    }
+
+    @Test
+    void usesOnlyTheColorsInTheTable() throws IOException
+    {
+        int[] colors = TestBitmaps.grayPalette(256);
+        int[][] black = new int[HEIGHT][WIDTH];
+        for (int[] row : black)
+        {
+            Arrays.fill(row, 0);                        // index 0 is black in the full table
+        }
+        decode(TestBitmaps.palettized(black, 8, colors, 0, false));
+
+        // a table of 4 colors whose image uses index 0 only: nothing of the last file's table may be used
+        int[] small = {TestBitmaps.gray(255), TestBitmaps.gray(0), TestBitmaps.gray(0), TestBitmaps.gray(0)};
+        double[] features = decode(TestBitmaps.palettized(black, 8, small, 4, false));
+        for (double feature : features)
+        {
+            assertEquals(0.0, feature);
+        }
+    }
+
+    @Test
+    void refusesTruncatedBits() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        byte[] bmp = TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false);
+
+        decode(bmp);                                    // the decoder's buffers now hold a whole image
+        assertThrows(IOException.class, () -> decoder.decode(bmp, bmp.length - 5, new double[WIDTH * HEIGHT], 0));
+
+        String file = TestBitmaps.save(dir, "truncated.bmp", Arrays.copyOf(bmp, bmp.length - 5));
+        assertThrows(IOException.class, () -> decoder.decode(file));
+        assertThrows(IOException.class, () -> decoder.decodeImage(file));
+    }
+
+    @Test
+    void refusesTruncatedPalettes() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 256);
+        byte[] bmp = TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false);
+        bmp[10] = 100;                                  // the bits "start" inside the file, the table runs past it
+        bmp[11] = 0;
+
+        assertThrows(IOException.class, () -> decoder.decode(bmp, 54 + 100, new double[WIDTH * HEIGHT], 0));
+    }
+
+    @Test
+    void refusesBadHeaders() throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, 2);
+        byte[] bmp = TestBitmaps.palettized(indices, 1, TestBitmaps.grayPalette(2), 0, false);
+
+        byte[] badOffset = bmp.clone();
+        badOffset[10] = (byte)0xFF;                     // bits start past the end of the file
+        badOffset[11] = (byte)0xFF;
+        assertThrows(IOException.class, () -> decoder.decode(badOffset, badOffset.length, new double[WIDTH * HEIGHT], 0));
+
+        byte[] badWidth = bmp.clone();
+        badWidth[21] = (byte)0x80;                      // negative width
+        assertThrows(IOException.class, () -> decoder.decode(badWidth, badWidth.length, new double[WIDTH * HEIGHT], 0));
+    }
+
+    /*
+     * Function: Decodes random images of the bit count bottom up and top down and checks every feature
+     */
+    private void checkPalettized(int bitCount, int[] colors) throws IOException
+    {
+        int[][] indices = TestBitmaps.randomIndices(random, WIDTH, HEIGHT, colors.length);
+        double[] expected = expected(indices, colors);
+
+        assertArrayEquals(expected, decode(TestBitmaps.palettized(indices, bitCount, colors, 0, false)));
+        assertArrayEquals(expected, decode(TestBitmaps.palettized(indices, bitCount, colors, 0, true)));
+        assertEquals(WIDTH, decoder.getWidth());
+        assertEquals(HEIGHT, decoder.getHeight());
+    }
+
+    /*
+     * Function: Decodes the bitmap both from memory and from a file and checks that the two agree
+     */
+    private double[] decode(byte[] bmp) throws IOException
+    {
+        double[] features = new double[WIDTH * HEIGHT];
+        assertEquals(features.length, decoder.decode(bmp, bmp.length, features, 0));
+
+        String file = TestBitmaps.save(dir, "image.bmp", bmp);
+        assertArrayEquals(features, decoder.decode(file));
+        return features;
+    }
+
+    /*
+     * Function: Checks that decodeImage gives exactly the pels of BitmapProcessor.getFlatImage
+     */
+    private void compareWithBitmapProcessor(byte[] bmp) throws IOException
+    {
+        String file = TestBitmaps.save(dir, "gray.bmp", bmp);
+        FlatImage expected = new BitmapProcessor(file).getFlatImage();
+        FlatImage actual = decoder.decodeImage(file);
+
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertArrayEquals(expected.getData(), actual.getData());
+    }
+
+    /*
+     * Function: Checks that the features are exactly what getImage, flattening and dividing by MAX_PEL_VAL give
+     */
+    private void compareWithOldPath(byte[] bmp) throws IOException
+    {
+        String file = TestBitmaps.save(dir, "gray.bmp", bmp);
+        int[][] image = new BitmapProcessor(file).getImage();
+        double[] expected = new double[WIDTH * HEIGHT];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                expected[i * WIDTH + j] = image[i][j] / (double)BackPropPerceptron.MAX_PEL_VAL;
+            }
+        }
+
+        double[] features = new double[WIDTH * HEIGHT];
+        decoder.decode(file, features, 0);
+        assertArrayEquals(expected, features);
+    }
+
+    private int[] randomPalette(int colors)
+    {
+        int[] output = new int[colors];
+        for (int i = 0; i < colors; i++)
+        {
+            output[i] = random.nextInt(0x1000000);
+        }
+        return output;
+    }
+
+    /*
+     * Function: Returns an image with long runs of one color, so the RLE runs are longer than one pel
+     */
+    private int[][] runnyIndices(int colors)
+    {
+        int[][] output = new int[HEIGHT][WIDTH];
+        for (int[] row : output)
+        {
+            int j = 0;
+            while (j < WIDTH)
+            {
+                int length = 1 + random.nextInt(5);
+                Arrays.fill(row, j, Math.min(WIDTH, j + length), random.nextInt(colors));
+                j += length;
+            }
+        }
+        return output;
+    }
+
+    private static double[] expected(int[][] indices, int[] colors)
+    {
+        double[] output = new double[WIDTH * HEIGHT];
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                output[i * WIDTH + j] = TestBitmaps.feature(colors[indices[i][j]]);
+            }
+        }
+        return output;
+    }
+}
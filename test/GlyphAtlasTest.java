@@ -0,0 +1,147 @@
+/*
+ * Description: Tests that a GlyphAtlas built from separate glyph files gives back every glyph, its features and
+ *              its letter the way the separate files would.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GlyphAtlasTest
+{
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 7;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(40);
+
+    @Test
+    void givesBackEveryGlyph() throws IOException
+    {
+        String[] files = writeGlyphs(11, WIDTH, HEIGHT);
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+        GlyphAtlas.build(files, 4, atlasFile);
+        GlyphAtlas atlas = GlyphAtlas.load(atlasFile);
+
+        assertEquals(11, atlas.size());
+        assertEquals(4, atlas.getColumns());
+        assertEquals(WIDTH, atlas.getTileWidth());
+        assertEquals(HEIGHT, atlas.getTileHeight());
+
+        FeatureDecoder decoder = new FeatureDecoder();
+        double[][] inputs = atlas.toInputs();
+        double[][] targets = atlas.toTargets(26);
+        for (int i = 0; i < files.length; i++)
+        {
+            assertArrayEquals(new BitmapProcessor(files[i]).getFlatImage().toArray(), atlas.tile(i).toArray());
+
+            double[] expected = new double[WIDTH * HEIGHT];
+            decoder.decode(files[i], expected, 0);
+            double[] features = new double[WIDTH * HEIGHT + 2];
+            assertEquals(WIDTH * HEIGHT, atlas.features(i, features, 2));
+            for (int k = 0; k < expected.length; k++)
+            {
+                assertEquals(expected[k], features[k + 2], 1e-12);
+                assertEquals(expected[k], inputs[i][k], 1e-12);
+            }
+
+            char letter = (char)('A' + i * 2);
+            assertEquals(letter, atlas.getLabel(i));
+            assertEquals(letter - 'A', atlas.getLabelIndex(i));
+            double[] target = new double[26];
+            target[letter - 'A'] = 1.0;
+            assertArrayEquals(target, targets[i]);
+        }
+    }
+
+    @Test
+    void preprocessesEveryTile() throws IOException
+    {
+        String[] files = writeGlyphs(6, WIDTH, HEIGHT);
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+        GlyphAtlas.build(files, 3, atlasFile);
+        GlyphAtlas atlas = GlyphAtlas.load(atlasFile);
+
+        Preprocessor prep = new Preprocessor(4, 4, 1, 1);
+        double[][] inputs = atlas.toInputs(prep);
+        for (int i = 0; i < files.length; i++)
+        {
+            double[] expected = new double[16];
+            prep.process(atlas.tile(i).copy(), expected, 0);
+            assertArrayEquals(expected, inputs[i]);
+        }
+    }
+
+    @Test
+    void refusesGlyphsOfAnotherSize() throws IOException
+    {
+        String[] files = writeGlyphs(3, WIDTH, HEIGHT);
+        files[2] = writeGlyphs(1, WIDTH + 1, HEIGHT)[0];
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+
+        assertThrows(IOException.class, () -> GlyphAtlas.build(files, 4, atlasFile));
+    }
+
+    @Test
+    void refusesASheetTooSmallForItsLabels() throws IOException
+    {
+        String[] files = writeGlyphs(4, WIDTH, HEIGHT);
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+        GlyphAtlas.build(files, 2, atlasFile);
+
+        assertThrows(IOException.class, () -> new GlyphAtlas(atlasFile, WIDTH, HEIGHT, "ABCDE"));
+        assertThrows(IllegalArgumentException.class, () -> new GlyphAtlas(atlasFile, 0, HEIGHT, "ABCD"));
+    }
+
+    @Test
+    void refusesNoColumnsAndNoGlyphs() throws IOException
+    {
+        String[] files = writeGlyphs(2, WIDTH, HEIGHT);
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+
+        assertThrows(IllegalArgumentException.class, () -> GlyphAtlas.build(files, 0, atlasFile));
+        assertThrows(IllegalArgumentException.class, () -> GlyphAtlas.build(files, -3, atlasFile));
+        assertThrows(IllegalArgumentException.class, () -> GlyphAtlas.build(new String[0], 4, atlasFile));
+        assertFalse(new File(atlasFile).exists());
+    }
+
+    @Test
+    void mainWritesNothingForABadColumnCount() throws IOException
+    {
+        String[] files = writeGlyphs(2, WIDTH, HEIGHT);
+        String atlasFile = dir.resolve("atlas.bmp").toString();
+
+        GlyphAtlas.main(new String[] {atlasFile, "0", files[0], files[1]});
+        GlyphAtlas.main(new String[] {atlasFile, "-2", files[0], files[1]});
+        GlyphAtlas.main(new String[] {atlasFile, "12345678901", files[0], files[1]});
+        assertFalse(new File(atlasFile).exists());
+
+        GlyphAtlas.main(new String[] {atlasFile, "1", files[0], files[1]});
+        assertEquals(1, GlyphAtlas.load(atlasFile).getColumns());
+    }
+
+    /*
+     * Function: Writes random gray glyphs named so their labels are A, C, E, ...
+     */
+    private String[] writeGlyphs(int count, int width, int height) throws IOException
+    {
+        String[] output = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, width, height, 256);
+            output[i] = TestBitmaps.save(dir, "glyph" + width + "_" + i + (char)('A' + i * 2) + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Description: Tests IntegralImage and the scaleImage built on it against the pel by pel averaging ImageProcessor
+ *              used before (avgVal and the old scaleImage, kept here as the reference).
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IntegralImageTest
+{
+    private static final int WIDTH = 31;
+    private static final int HEIGHT = 23;
+
+    private final Random random = new Random(31);
+
+    @Test
+    void sumsAndAveragesMatchAvgVal()
+    {
+        int[][] pic = randomPicture(WIDTH, HEIGHT);
+        IntegralImage table = new IntegralImage(pic);
+
+        for (int n = 0; n < 2000; n++)
+        {
+            int x0 = random.nextInt(HEIGHT);
+            int x1 = x0 + random.nextInt(HEIGHT - x0);
+            int y0 = random.nextInt(WIDTH);
+            int y1 = y0 + random.nextInt(WIDTH - y0);
+
+            assertEquals(sum(pic, x0, x1, y0, y1), table.getSum(x0, x1, y0, y1));
+            assertEquals(avgVal(pic, x0, x1, y0, y1), table.getAverage(x0, x1, y0, y1));
+        }
+    }
+
+    @Test
+    void roundsHalvesUp()
+    {
+        int[][] pic = {{1, 2}};
+        assertEquals(2, new IntegralImage(pic).getAverage(0, 0, 0, 1));
+        assertEquals(avgVal(pic, 0, 0, 0, 1), new IntegralImage(pic).getAverage(0, 0, 0, 1));
+    }
+
+    @Test
+    void viewsGiveTheTableOfTheirPels()
+    {
+        int[][] pic = randomPicture(WIDTH, HEIGHT);
+        FlatImage view = FlatImage.fromArray(pic).subImage(3, 5, 11, 17);
+        IntegralImage ofView = new IntegralImage(view);
+        IntegralImage ofCopy = new IntegralImage(view.copy());
+
+        for (int x0 = 0; x0 < 11; x0++)
+        {
+            for (int y0 = 0; y0 < 17; y0++)
+            {
+                assertEquals(ofCopy.getSum(x0, 10, y0, 16), ofView.getSum(x0, 10, y0, 16));
+                assertEquals(sum(pic, 3 + x0, 13, 5 + y0, 21), ofView.getSum(x0, 10, y0, 16));
+            }
+        }
+    }
+
+    @Test
+    void scaleImageMatchesTheOldScaleImage()
+    {
+        ImageProcessor processor = new ImageProcessor();
+
+        for (int n = 0; n < 200; n++)
+        {
+            int[][] pic = randomPicture(WIDTH, HEIGHT);
+            int top = random.nextInt(HEIGHT - 1);
+            int bottom = top + 1 + random.nextInt(HEIGHT - top - 1);
+            int left = random.nextInt(WIDTH - 1);
+            int right = left + 1 + random.nextInt(WIDTH - left - 1);
+            int width = 1 + random.nextInt(right - left);
+            int height = 1 + random.nextInt(bottom - top);
+            ImageProcessor.Location[][] corners = corners(top, left, bottom, right);
+
+            int[][] expected = oldScaleImage(pic, corners, width, height);
+            assertArrayEquals(expected, processor.scaleImage(pic, corners, width, height));
+            assertArrayEquals(expected,
+                    processor.scaleImage(FlatImage.fromArray(pic), corners, width, height).toArray());
+        }
+    }
+
+    private int[][] randomPicture(int width, int height)
+    {
+        int[][] output = new int[height][width];
+        for (int[] row : output)
+        {
+            for (int j = 0; j < width; j++)
+            {
+                row[j] = random.nextInt(BackPropPerceptron.MAX_PEL_VAL + 1);
+            }
+        }
+        return output;
+    }
+
+    private static ImageProcessor.Location[][] corners(int top, int left, int bottom, int right)
+    {
+        ImageProcessor.Location[][] output = new ImageProcessor.Location[2][2];
+        output[0][0] = new ImageProcessor.Location(top, left);
+        output[0][1] = new ImageProcessor.Location(top, right);
+        output[1][0] = new ImageProcessor.Location(bottom, left);
+        output[1][1] = new ImageProcessor.Location(bottom, right);
+        return output;
+    }
+
+    private static long sum(int[][] pic, int x0, int x1, int y0, int y1)
+    {
+        long output = 0;
+        for (int i = x0; i <= x1; i++)
+        {
+            for (int j = y0; j <= y1; j++)
+            {
+                output += pic[i][j];
+            }
+        }
+        return output;
+    }
+
+    /*
+     * ImageProcessor.avgVal as it was before the summed-area table
+     */
+    private static int avgVal(int[][] pic, int x0, int x1, int y0, int y1)
+    {
+        double output = 0;
+        int truncatedOutput = 0;
+        int numVals = 0;
+
+        for (int i = x0; i <= x1; i++)
+        {
+            for (int j = y0; j <= y1; j++)
+            {
+                output += pic[i][j];
+                numVals++;
+            }
+        }
+        output /= (numVals + 0.0);
+
+        truncatedOutput = (int)output;
+
+        if (output - truncatedOutput >= .5)
+        {
+            truncatedOutput++;
+        }
+
+        return truncatedOutput;
+    }
+
+    /*
+     * ImageProcessor.scaleImage as it was before the summed-area table
+     */
+    private static int[][] oldScaleImage(int[][] pic, ImageProcessor.Location[][] corners, int width, int height)
+    {
+        int[][] output = new int[height][width];
+        int[] horDividers = new int[width + 1];
+        int[] verDividers = new int[height + 1];
+        int horOffset = corners[0][0].getY();
+        int verOffset = corners[0][0].getX();
+        int originalWidth = Math.abs(corners[0][1].getY() - corners[0][0].getY());
+        int originalHeight = Math.abs(corners[1][0].getX() - corners[0][0].getX());
+        double horScalingFactor = ((originalWidth + 0.0) / (double)(width));
+        double verScalingFactor = ((originalHeight + 0.0) / (double)(height));
+
+        for (int i = 0; i < width; i++)
+        {
+            double div = Math.round((double)i * horScalingFactor);
+            horDividers[i] = horOffset + (int)div;
+        }
+        horDividers[width] = corners[0][1].getY();
+
+        for (int i = 0; i < height; i++)
+        {
+            double div = Math.round((double)i * verScalingFactor);
+            verDividers[i] = verOffset + (int)div;
+        }
+        verDividers[height] = corners[1][0].getX();
+
+        for (int i = 0; i < width; i++)
+        {
+            for (int j = 0; j < height; j++)
+            {
+                output[j][i] = avgVal(pic, verDividers[j], verDividers[j + 1], horDividers[i], horDividers[i + 1]);
+            }
+        }
+
+        return output;
+    }
+}
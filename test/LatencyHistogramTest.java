@@ -0,0 +1,114 @@
+/*
+ * Description: Tests that LatencyHistogram keeps the count, total, largest value and percentiles of what it
+ *              records, that every value lands in a bucket no wider than it promises, and that nothing is lost when
+ *              threads record at once.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest
+{
+    @Test
+    void keepsTheCountTotalAndLargestValue()
+    {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(300);
+        histogram.record(100);
+        histogram.record(200);
+        histogram.record(-5);                                   // counts as 0
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(600, histogram.getTotal());
+        assertEquals(150.0, histogram.getMean(), 0.0);
+        assertEquals(300, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    void bucketsHoldTheirValuesWithinTheirPrecision()
+    {
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1)
+        {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long top = LatencyHistogram.highestValueIn(bucket);
+            assertTrue(bucket < LatencyHistogram.NUM_BUCKETS);
+            assertTrue(top >= value);
+            assertTrue(top - value <= value / LatencyHistogram.SUB_BUCKETS, "value " + value);
+            assertEquals(bucket, LatencyHistogram.bucketOf(top));
+        }
+    }
+
+    @Test
+    void percentilesComeFromTheBuckets()
+    {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long value = 1; value <= 1000; value++)
+        {
+            histogram.record(value * 1000);
+        }
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500000 && median <= 500000 + 500000 / LatencyHistogram.SUB_BUCKETS, "median " + median);
+        assertEquals(1000000, histogram.getPercentile(100));   // never more than the largest value recorded
+    }
+
+    @Test
+    void losesNothingWhenThreadsRecordAtOnce() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final int threads = 4;
+        final int recordsPerThread = 50000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++)
+            {
+                final int offset = t;
+                results.add(pool.submit(() ->
+                {
+                    for (int n = 1; n <= recordsPerThread; n++)
+                    {
+                        histogram.record(n * threads + offset);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results)
+            {
+                result.get();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        long expectedTotal = 0;
+        for (int t = 0; t < threads; t++)
+        {
+            for (int n = 1; n <= recordsPerThread; n++)
+            {
+                expectedTotal += n * threads + t;
+            }
+        }
+        assertEquals((long)threads * recordsPerThread, histogram.getCount());
+        assertEquals(expectedTotal, histogram.getTotal());
+        assertEquals((long)recordsPerThread * threads + threads - 1, histogram.getMax());
+        assertEquals((long)recordsPerThread * threads + threads - 1, histogram.getPercentile(100));
+    }
+}
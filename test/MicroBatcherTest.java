@@ -0,0 +1,183 @@
+/*
+ * Description: Tests that MicroBatcher gives every caller exactly what evaluate gives for its vector, that callers
+ *              arriving together share forward passes, and that a full or closed batcher turns vectors away.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class MicroBatcherTest
+{
+    private static final int NUM_INPUTS = 16;
+    private static final int NUM_OUTPUTS = 26;
+    private static final long MILLI = 1000000L;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void givesEachCallerWhatEvaluateGives() throws Exception
+    {
+        BackPropPerceptron network = randomNetwork(random);
+        MicroBatcher batcher = new MicroBatcher(network, 8, MILLI, 100);
+        try
+        {
+            List<double[]> inputs = new ArrayList<double[]>();
+            List<CompletableFuture<double[]>> results = new ArrayList<CompletableFuture<double[]>>();
+            for (int n = 0; n < 50; n++)
+            {
+                inputs.add(randomInput(random));
+                results.add(batcher.submit(inputs.get(n)));
+            }
+            for (int n = 0; n < inputs.size(); n++)
+            {
+                assertArrayEquals(network.evaluate(inputs.get(n)), results.get(n).get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            batcher.close();
+        }
+    }
+
+    @Test
+    void callersArrivingTogetherShareABatch() throws Exception
+    {
+        final BackPropPerceptron network = randomNetwork(random);
+        final MicroBatcher batcher = new MicroBatcher(network, 64, 20 * MILLI, 1000);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<?>> done = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++)
+            {
+                final long seed = t;
+                done.add(callers.submit(() ->
+                {
+                    Random r = new Random(seed);
+                    for (int n = 0; n < 20; n++)
+                    {
+                        double[] input = randomInput(r);
+                        assertArrayEquals(network.evaluate(input), batcher.submit(input).get(5, TimeUnit.SECONDS));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> caller : done)
+            {
+                caller.get();
+            }
+            assertTrue(batcher.getAverageBatchSize() > 1.0, "average batch " + batcher.getAverageBatchSize());
+        }
+        finally
+        {
+            callers.shutdown();
+            batcher.close();
+        }
+    }
+
+    @Test
+    void turnsVectorsAwayWhenTheQueueIsFull() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        BackPropPerceptron slow = new BackPropPerceptron(randomNetwork(random).getWeights())
+        {
+            @Override
+            public double[][] evaluate(double[][] inputs)
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.evaluate(inputs);
+            }
+        };
+
+        MicroBatcher batcher = new MicroBatcher(slow, 1, 0L, 2);
+        try
+        {
+            CompletableFuture<double[]> first = batcher.submit(randomInput(random));
+            assertTrue(started.await(5, TimeUnit.SECONDS));     // the flusher holds the first vector
+            CompletableFuture<double[]> second = batcher.submit(randomInput(random));
+            CompletableFuture<double[]> third = batcher.submit(randomInput(random));
+            assertThrows(RejectedExecutionException.class, () -> batcher.submit(randomInput(random)));
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            third.get(5, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            release.countDown();
+            batcher.close();
+        }
+    }
+
+    @Test
+    void closingFailsTheWaitingVectors() throws Exception
+    {
+        MicroBatcher batcher = new MicroBatcher(randomNetwork(random), 64, TimeUnit.SECONDS.toNanos(60), 100);
+        CompletableFuture<double[]> waiting = batcher.submit(randomInput(random));   // its batch won't fill
+
+        batcher.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertThrows(RejectedExecutionException.class, () -> batcher.submit(randomInput(random)));
+    }
+
+    @Test
+    void refusesBadSizes()
+    {
+        BackPropPerceptron network = randomNetwork(random);
+        assertThrows(IllegalArgumentException.class, () -> new MicroBatcher(network, 0, MILLI, 10));
+        assertThrows(IllegalArgumentException.class, () -> new MicroBatcher(network, 8, -1L, 10));
+        assertThrows(IllegalArgumentException.class, () -> new MicroBatcher(network, 8, MILLI, 0));
+    }
+
+    static BackPropPerceptron randomNetwork(Random random)
+    {
+        double[][][] weights = {new double[NUM_INPUTS][10], new double[10][NUM_OUTPUTS]};
+        for (double[][] layer : weights)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return new BackPropPerceptron(weights);
+    }
+
+    private static double[] randomInput(Random random)
+    {
+        double[] output = new double[NUM_INPUTS];
+        for (int i = 0; i < NUM_INPUTS; i++)
+        {
+            output[i] = random.nextDouble();
+        }
+        return output;
+    }
+}
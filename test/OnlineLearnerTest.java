@@ -0,0 +1,332 @@
+/*
+ * Description: Tests that OnlineLearner steps on every sample it is offered exactly as a plain loop of
+ *              updateWeights would, that it replays old samples at the given ratio from a bounded buffer, and that
+ *              a full queue, a closed learner or a failed worker turns samples away instead of losing them or
+ *              leaving a producer waiting.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class OnlineLearnerTest
+{
+    private static final int NUM_INPUTS = 16;
+    private static final int NUM_HIDDEN = 6;
+    private static final int NUM_CLASSES = 26;
+
+    private final Random random = new Random(48);
+
+    @Test
+    void learnsLikeALoopOfUpdateWeights() throws InterruptedException
+    {
+        double[][][] start = randomWeights();
+        BackPropPerceptron expected = new BackPropPerceptron(Checkpoint.copyOf(start));
+        OnlineLearner learner = new OnlineLearner(new BackPropPerceptron(Checkpoint.copyOf(start)), 100, 10, 0, 1L);
+        try
+        {
+            for (int n = 0; n < 60; n++)
+            {
+                double[] input = randomInput();
+                int label = random.nextInt(NUM_CLASSES);
+                assertTrue(learner.offer(input, label));
+                expected.updateWeights(input, target(label));
+            }
+            assertTrue(learner.awaitLearned());
+
+            assertEquals(60, learner.getLearned());
+            assertEquals(0, learner.getReplayed());
+            assertEquals(0, learner.getQueued());
+            assertWeightsEqual(expected.getWeights(), learner.snapshot().getWeights());
+        }
+        finally
+        {
+            learner.close(1000);
+        }
+    }
+
+    @Test
+    void snapshotsAreCopies() throws InterruptedException
+    {
+        BackPropPerceptron network = new BackPropPerceptron(randomWeights());
+        OnlineLearner learner = new OnlineLearner(network, 100, 10, 0, 1L);
+        try
+        {
+            BackPropPerceptron before = learner.snapshot();
+            double kept = before.getWeights()[0][0][0];
+            learner.put(randomInput(), 3);
+            learner.awaitLearned();
+
+            assertEquals(kept, before.getWeights()[0][0][0]);
+            assertNotEquals(kept, network.getWeights()[0][0][0]);
+            before.getWeights()[0][0][0] = 99.0;
+            assertNotEquals(99.0, learner.snapshot().getWeights()[0][0][0]);
+        }
+        finally
+        {
+            learner.close(1000);
+        }
+    }
+
+    @Test
+    void replaysOldSamplesAfterEachNewOne() throws InterruptedException
+    {
+        double[][] in = new double[30][];
+        double[][] out = new double[30][];
+        for (int i = 0; i < in.length; i++)
+        {
+            in[i] = randomInput();
+            out[i] = target(i % NUM_CLASSES);
+        }
+
+        OnlineLearner learner = new OnlineLearner(new BackPropPerceptron(randomWeights()), 100, 20, 3, 2L);
+        try
+        {
+            learner.addReplay(in, out);
+            assertEquals(20, learner.getReplaySize());          // sampled down to the buffer
+
+            for (int n = 0; n < 10; n++)
+            {
+                learner.put(randomInput(), random.nextInt(NUM_CLASSES));
+            }
+            learner.awaitLearned();
+
+            assertEquals(10, learner.getLearned());
+            assertEquals(30, learner.getReplayed());
+            assertEquals(20, learner.getReplaySize());
+            assertFalse(Double.isNaN(learner.getRecentError()));
+        }
+        finally
+        {
+            learner.close(1000);
+        }
+    }
+
+    @Test
+    void turnsSamplesAwayWhenTheQueueIsFull() throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        BackPropPerceptron slow = new BackPropPerceptron(randomWeights())
+        {
+            @Override
+            public double updateWeights(double[] input, double[] target)
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.updateWeights(input, target);
+            }
+        };
+
+        OnlineLearner learner = new OnlineLearner(slow, 2, 10, 0, 1L);
+        try
+        {
+            assertTrue(learner.offer(randomInput(), 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));     // the worker holds the first sample
+            assertTrue(learner.offer(randomInput(), 1));
+            assertTrue(learner.offer(randomInput(), 2));
+            assertFalse(learner.offer(randomInput(), 3));
+
+            release.countDown();
+            learner.awaitLearned();
+            assertEquals(3, learner.getLearned());
+        }
+        finally
+        {
+            release.countDown();
+            learner.close(1000);
+        }
+    }
+
+    @Test
+    void takesNothingOnceClosed() throws InterruptedException
+    {
+        OnlineLearner learner = new OnlineLearner(new BackPropPerceptron(randomWeights()), 100, 10, 1, 1L);
+        for (int n = 0; n < 20; n++)
+        {
+            learner.put(randomInput(), random.nextInt(NUM_CLASSES));
+        }
+        learner.close(5000);                                    // long enough to learn what is queued
+
+        assertEquals(20, learner.getLearned());
+        assertFalse(learner.offer(randomInput(), 0));
+        assertThrows(IllegalStateException.class, () -> learner.put(randomInput(), 0));
+    }
+
+    @Test
+    void closingWithoutWaitingDropsWhatIsQueued() throws InterruptedException
+    {
+        Gate gate = new Gate();
+        OnlineLearner learner = new OnlineLearner(gate.network(randomWeights()), 10, 10, 0, 1L);
+        assertTrue(learner.offer(randomInput(), 0));
+        assertTrue(gate.started.await(5, TimeUnit.SECONDS));
+        assertTrue(learner.offer(randomInput(), 1));
+        assertTrue(learner.offer(randomInput(), 2));
+
+        learner.close(0);
+        assertFalse(learner.awaitLearned());
+        assertEquals(2, learner.getDropped());
+        assertEquals(0, learner.getQueued());
+    }
+
+    @Test
+    void aWaitingPutFailsWhenTheLearnerCloses() throws Exception
+    {
+        Gate gate = new Gate();
+        final OnlineLearner learner = new OnlineLearner(gate.network(randomWeights()), 1, 10, 0, 1L);
+        assertTrue(learner.offer(randomInput(), 0));
+        assertTrue(gate.started.await(5, TimeUnit.SECONDS));
+        assertTrue(learner.offer(randomInput(), 1));            // the queue is full now
+
+        final double[] input = randomInput();
+        final Throwable[] thrown = new Throwable[1];
+        Thread producer = new Thread(() ->
+        {
+            try
+            {
+                learner.put(input, 2);
+            }
+            catch (Throwable e)
+            {
+                thrown[0] = e;
+            }
+        });
+        producer.start();
+        Thread.sleep(200);                                      // let it block on the full queue
+
+        learner.close(0);
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive(), "put still waiting after close");
+        assertInstanceOf(IllegalStateException.class, thrown[0]);
+    }
+
+    @Test
+    void aFailedWorkerIsReported() throws InterruptedException
+    {
+        BackPropPerceptron broken = new BackPropPerceptron(randomWeights())
+        {
+            @Override
+            public double updateWeights(double[] input, double[] target)
+            {
+                throw new ArithmeticException("step failed on purpose");
+            }
+        };
+
+        OnlineLearner learner = new OnlineLearner(broken, 10, 10, 0, 1L);
+        assertTrue(learner.offer(randomInput(), 0));
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> learner.awaitLearned());
+        assertInstanceOf(ArithmeticException.class, e.getCause());
+        assertInstanceOf(ArithmeticException.class, learner.getFailure());
+        assertFalse(learner.offer(randomInput(), 1));
+        assertThrows(IllegalStateException.class, () -> learner.put(randomInput(), 1));
+        learner.close(0);
+    }
+
+    @Test
+    void refusesSamplesThatDoNotFitTheModel() throws InterruptedException
+    {
+        OnlineLearner learner = new OnlineLearner(new BackPropPerceptron(randomWeights()), 10, 10, 1, 1L);
+        try
+        {
+            assertThrows(IllegalArgumentException.class, () -> learner.offer(new double[NUM_INPUTS + 1], 0));
+            assertThrows(IllegalArgumentException.class, () -> learner.offer(randomInput(), NUM_CLASSES));
+            assertThrows(IllegalArgumentException.class, () -> learner.offer(randomInput(), -1));
+            assertThrows(IllegalArgumentException.class,
+                    () -> new OnlineLearner(new BackPropPerceptron(randomWeights()), 0, 10, 1, 1L));
+        }
+        finally
+        {
+            learner.close(0);
+        }
+    }
+
+    /*
+     * Holds the worker in its first step until the learner is closed
+     */
+    private static final class Gate
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        BackPropPerceptron network(double[][][] weights)
+        {
+            return new BackPropPerceptron(weights)
+            {
+                @Override
+                public double updateWeights(double[] input, double[] target)
+                {
+                    started.countDown();
+                    try
+                    {
+                        new CountDownLatch(1).await();          // until close interrupts the worker
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.updateWeights(input, target);
+                }
+            };
+        }
+    }
+
+    private static double[] target(int label)
+    {
+        double[] output = new double[NUM_CLASSES];
+        output[label] = 1.0;
+        return output;
+    }
+
+    private double[] randomInput()
+    {
+        double[] output = new double[NUM_INPUTS];
+        for (int i = 0; i < NUM_INPUTS; i++)
+        {
+            output[i] = random.nextDouble();
+        }
+        return output;
+    }
+
+    private double[][][] randomWeights()
+    {
+        double[][][] output = {new double[NUM_INPUTS][NUM_HIDDEN], new double[NUM_HIDDEN][NUM_CLASSES]};
+        for (double[][] layer : output)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return output;
+    }
+
+    private static void assertWeightsEqual(double[][][] expected, double[][][] actual)
+    {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            for (int j = 0; j < expected[i].length; j++)
+            {
+                assertArrayEquals(expected[i][j], actual[i][j]);
+            }
+        }
+    }
+}
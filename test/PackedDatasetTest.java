@@ -0,0 +1,321 @@
+/*
+ * Description: Tests that DatasetPacker and PackedDataset round trip the features FeatureDecoder gives, as float64
+ *              and float32, that damaged files are refused, and that training from a packed dataset steps exactly
+ *              like training from the same samples in memory.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackedDatasetTest
+{
+    private static final int SIDE = 4;                          // 4x4 bitmaps
+    private static final int NUM_SAMPLES = 11;                  // odd, so the labels need padding before the rows
+    private static final int NUM_CLASSES = 26;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(29);
+    private String[] files;
+    private int[] labels;
+    private double[][] features;
+
+    @Test
+    void readsBackDoubles() throws IOException
+    {
+        PackedDataset data = pack(PackedDataset.DTYPE_FLOAT64);
+
+        assertEquals(NUM_SAMPLES, data.size());
+        assertEquals(SIDE * SIDE, data.getFeatureDimension());
+        assertEquals(PackedDataset.DTYPE_FLOAT64, data.getDtype());
+        assertEquals(NUM_CLASSES, data.getNumClasses());
+        assertEquals(SIDE, data.getGlyphWidth());
+        assertEquals(SIDE, data.getGlyphHeight());
+
+        double[] row = new double[SIDE * SIDE];
+        for (int i = 0; i < NUM_SAMPLES; i++)
+        {
+            assertEquals(labels[i], data.getLabel(i));
+            data.copyRow(i, row);
+            assertArrayEquals(features[i], row);
+            for (int j = 0; j < row.length; j++)
+            {
+                assertEquals(features[i][j], data.row(i).get(j));
+            }
+        }
+    }
+
+    @Test
+    void readsBackFloats() throws IOException
+    {
+        PackedDataset data = pack(PackedDataset.DTYPE_FLOAT32);
+
+        assertEquals(PackedDataset.DTYPE_FLOAT32, data.getDtype());
+        double[] row = new double[SIDE * SIDE];
+        for (int i = 0; i < NUM_SAMPLES; i++)
+        {
+            assertEquals(labels[i], data.getLabel(i));
+            data.copyRow(i, row);
+            for (int j = 0; j < row.length; j++)
+            {
+                assertEquals((float)features[i][j], data.floatRow(i).get(j));
+                assertEquals((double)(float)features[i][j], row[j]);
+            }
+        }
+    }
+
+    @Test
+    void targetsAreOneHot() throws IOException
+    {
+        PackedDataset data = pack(PackedDataset.DTYPE_FLOAT64);
+
+        double[] target = new double[NUM_CLASSES];
+        Arrays.fill(target, 7.0);                               // every entry must be overwritten
+        for (int i = 0; i < NUM_SAMPLES; i++)
+        {
+            data.copyTarget(i, target);
+            double[] expected = new double[NUM_CLASSES];
+            expected[labels[i]] = 1.0;
+            assertArrayEquals(expected, target);
+        }
+    }
+
+    @Test
+    void labelsComeFromTheFileNames()
+    {
+        assertEquals(0, DatasetPacker.labelOf("fonts/arialA.bmp"));
+        assertEquals(25, DatasetPacker.labelOf("Z.BMP"));
+        assertThrows(IllegalArgumentException.class, () -> DatasetPacker.labelOf("arial7.bmp"));
+        assertThrows(IllegalArgumentException.class, () -> DatasetPacker.labelOf("A.png"));
+    }
+
+    @Test
+    void refusesBitmapsOfAnotherSize() throws IOException
+    {
+        makeSamples();
+        files[5] = TestBitmaps.save(dir, "narrow.bmp", TestBitmaps.palettized(
+                TestBitmaps.randomIndices(random, SIDE - 1, SIDE, 256), 8, TestBitmaps.grayPalette(256), 0, false));
+
+        String out = dir.resolve("bad.lds").toString();
+        assertThrows(IOException.class, () -> DatasetPacker.pack(files, labels, out, PackedDataset.DTYPE_FLOAT64));
+    }
+
+    @Test
+    void refusesDamagedFiles() throws IOException
+    {
+        pack(PackedDataset.DTYPE_FLOAT32);
+        Path file = dir.resolve("data.lds");
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> new PackedDataset(file.toString()));
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 0x01;
+        Files.write(file, badMagic);
+        assertThrows(IOException.class, () -> new PackedDataset(file.toString()));
+
+        byte[] badDtype = bytes.clone();
+        badDtype[16] = 2;
+        Files.write(file, badDtype);
+        assertThrows(IOException.class, () -> new PackedDataset(file.toString()));
+
+        Files.write(file, Arrays.copyOf(bytes, 8));                 // the magic and version but no header
+        assertThrows(IOException.class, () -> new PackedDataset(file.toString()));
+    }
+
+    @Test
+    void refusesImpossibleHeaders() throws IOException
+    {
+        pack(PackedDataset.DTYPE_FLOAT64);
+        Path file = dir.resolve("data.lds");
+        byte[] bytes = Files.readAllBytes(file);
+
+        int[][] damage = {
+            {8, -1},                    // samples
+            {8, 0x7FFFFFF0},            // so many samples that the offset of the rows overflows an int
+            {12, -SIDE * SIDE},         // features
+            {12, 0x40000000},           // so many features that a row's size overflows an int
+            {20, 0},                    // classes
+            {20, -NUM_CLASSES},
+        };
+        for (int[] field : damage)
+        {
+            byte[] damaged = bytes.clone();
+            ByteBuffer.wrap(damaged).order(ByteOrder.LITTLE_ENDIAN).putInt(field[0], field[1]);
+            Files.write(file, damaged);
+            assertThrows(IOException.class, () -> new PackedDataset(file.toString()), field[0] + " = " + field[1]);
+        }
+    }
+
+    @Test
+    void refusesLabelsOutsideTheClasses() throws IOException
+    {
+        pack(PackedDataset.DTYPE_FLOAT32);
+        Path file = dir.resolve("data.lds");
+        byte[] bytes = Files.readAllBytes(file);
+        int lastLabel = PackedDataset.HEADER_SIZE + 4 * (NUM_SAMPLES - 1);
+
+        for (int label : new int[] {-1, NUM_CLASSES, Integer.MAX_VALUE})
+        {
+            byte[] damaged = bytes.clone();
+            ByteBuffer.wrap(damaged).order(ByteOrder.LITTLE_ENDIAN).putInt(lastLabel, label);
+            Files.write(file, damaged);
+            assertThrows(IOException.class, () -> new PackedDataset(file.toString()), "label " + label);
+        }
+
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(lastLabel, NUM_CLASSES - 1);
+        Files.write(file, bytes);
+        assertEquals(NUM_CLASSES - 1, new PackedDataset(file.toString()).getLabel(NUM_SAMPLES - 1));
+    }
+
+    @Test
+    void trainsAPerceptronBuiltFromWeightsOnly() throws IOException
+    {
+        for (int dtype : new int[] {PackedDataset.DTYPE_FLOAT64, PackedDataset.DTYPE_FLOAT32})
+        {
+            PackedDataset data = pack(dtype);
+            double[][][] start = randomWeights();
+            BackPropPerceptron packed = new BackPropPerceptron(copy(start));
+            BackPropPerceptron stepped = new BackPropPerceptron(copy(start));
+
+            packed.updateWeights(data);
+            double[] input = new double[SIDE * SIDE];
+            double[] target = new double[NUM_CLASSES];
+            for (int i = 0; i < NUM_SAMPLES; i++)
+            {
+                data.copyRow(i, input);
+                data.copyTarget(i, target);
+                stepped.updateWeights(input, target);
+            }
+
+            for (int layer = 0; layer < start.length; layer++)
+            {
+                for (int j = 0; j < start[layer].length; j++)
+                {
+                    assertArrayEquals(stepped.getWeights()[layer][j], packed.getWeights()[layer][j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void trainingFromThePackMatchesTrainingInMemory() throws IOException
+    {
+        for (int dtype : new int[] {PackedDataset.DTYPE_FLOAT64, PackedDataset.DTYPE_FLOAT32})
+        {
+            PackedDataset data = pack(dtype);
+            double[][] in = new double[NUM_SAMPLES][];
+            double[][] out = new double[NUM_SAMPLES][NUM_CLASSES];
+            for (int i = 0; i < NUM_SAMPLES; i++)
+            {
+                in[i] = new double[SIDE * SIDE];
+                data.copyRow(i, in[i]);
+                out[i][labels[i]] = 1.0;
+            }
+            double[][][] start = randomWeights();
+
+            BackPropPerceptron packed = startingAt(in, out, start);
+            BackPropPerceptron inMemory = startingAt(in, out, start);
+            for (int epoch = 0; epoch < 3; epoch++)
+            {
+                assertEquals(inMemory.error(), packed.error(data));
+                packed.updateWeights(data);
+                inMemory.updateWeights();
+            }
+            for (int layer = 0; layer < start.length; layer++)
+            {
+                for (int j = 0; j < start[layer].length; j++)
+                {
+                    assertArrayEquals(inMemory.getWeights()[layer][j], packed.getWeights()[layer][j]);
+                }
+            }
+        }
+    }
+
+    /*
+     * Function: Writes random bitmaps and packs them into data.lds with the given dtype
+     */
+    private PackedDataset pack(int dtype) throws IOException
+    {
+        makeSamples();
+        String out = dir.resolve("data.lds").toString();
+        DatasetPacker.pack(files, labels, out, dtype);
+        return new PackedDataset(out);
+    }
+
+    private void makeSamples() throws IOException
+    {
+        files = new String[NUM_SAMPLES];
+        labels = new int[NUM_SAMPLES];
+        features = new double[NUM_SAMPLES][SIDE * SIDE];
+        FeatureDecoder decoder = new FeatureDecoder();
+        for (int i = 0; i < NUM_SAMPLES; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, SIDE, SIDE, 256);
+            files[i] = TestBitmaps.save(dir, "sample" + i + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false));
+            labels[i] = random.nextInt(NUM_CLASSES);
+            decoder.decode(files[i], features[i], 0);
+        }
+    }
+
+    private double[][][] randomWeights()
+    {
+        double[][][] output = {new double[SIDE * SIDE][6], new double[6][NUM_CLASSES]};
+        for (double[][] layer : output)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Function: Returns a perceptron over the samples whose weights are a copy of start (the constructor randomizes
+     *           them, so they are overwritten afterwards)
+     */
+    private static BackPropPerceptron startingAt(double[][] in, double[][] out, double[][][] start)
+    {
+        BackPropPerceptron output = new BackPropPerceptron(in, out, copy(start));
+        for (int layer = 0; layer < start.length; layer++)
+        {
+            for (int j = 0; j < start[layer].length; j++)
+            {
+                System.arraycopy(start[layer][j], 0, output.getWeights()[layer][j], 0, start[layer][j].length);
+            }
+        }
+        return output;
+    }
+
+    private static double[][][] copy(double[][][] weights)
+    {
+        double[][][] output = new double[weights.length][][];
+        for (int i = 0; i < weights.length; i++)
+        {
+            output[i] = new double[weights[i].length][];
+            for (int j = 0; j < weights[i].length; j++)
+            {
+                output[i][j] = weights[i][j].clone();
+            }
+        }
+        return output;
+    }
+}
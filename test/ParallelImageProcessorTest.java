@@ -0,0 +1,161 @@
+/*
+ * Description: Tests that ParallelImageProcessor gives exactly what ImageProcessor gives when the pictures are cut
+ *              into many strips, for whole pictures and for views into bigger ones.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ParallelImageProcessorTest
+{
+    private static final int THRESHOLD = 200;                   // pels per strip, so even small pictures split
+
+    private final Random random = new Random(39);
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final ImageProcessor sequential = new ImageProcessor();
+    private final ParallelImageProcessor parallel = new ParallelImageProcessor(pool, THRESHOLD);
+
+    @AfterEach
+    void shutDown()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    void centerOfMassIsTheSame()
+    {
+        for (int n = 0; n < 30; n++)
+        {
+            FlatImage pic = randomPicture();
+            assertEquals(describe(sequential.centerOfMass(pic)), describe(parallel.centerOfMass(pic)));
+        }
+    }
+
+    @Test
+    void cornersAreTheSame()
+    {
+        for (int n = 0; n < 30; n++)
+        {
+            FlatImage pic = randomPicture();
+            int numPix = 1 + random.nextInt(4);
+            assertEquals(describe(sequential.cornerArray(pic, numPix, 2)),
+                    describe(parallel.cornerArray(pic, numPix, 2)));
+        }
+        FlatImage blank = new FlatImage(90, 70);
+        assertEquals(describe(sequential.cornerArray(blank, 1, 1)), describe(parallel.cornerArray(blank, 1, 1)));
+    }
+
+    @Test
+    void scaledImagesAreTheSame()
+    {
+        for (int n = 0; n < 30; n++)
+        {
+            FlatImage pic = randomPicture();
+            ImageProcessor.Location[][] corners = sequential.cornerArray(pic, 1, 2);
+            int width = 1 + random.nextInt(60);
+            int height = 1 + random.nextInt(60);
+
+            int[][] expected = sequential.scaleImage(pic, corners, width, height).toArray();
+            assertArrayEquals(expected, parallel.scaleImage(pic, corners, width, height).toArray());
+            assertArrayEquals(expected, parallel.scaleImage(pic.toArray(), corners, width, height));
+            assertArrayEquals(expected, parallel.scaleImage(new IntegralImage(pic), corners, width, height));
+        }
+    }
+
+    @Test
+    void shiftedImagesAreTheSame()
+    {
+        for (int n = 0; n < 30; n++)
+        {
+            FlatImage pic = randomPicture();
+            ImageProcessor.Location shift = new ImageProcessor.Location(random.nextInt(61) - 30,
+                    random.nextInt(61) - 30);
+            assertArrayEquals(sequential.shiftImage(pic, shift).toArray(), parallel.shiftImage(pic, shift).toArray());
+        }
+    }
+
+    @Test
+    void viewsAreReadThroughTheirStride()
+    {
+        FlatImage page = randomPicture();
+        FlatImage view = page.subImage(5, 7, page.getHeight() - 10, page.getWidth() - 12);
+        ImageProcessor.Location[][] corners = sequential.cornerArray(view, 1, 2);
+
+        assertEquals(describe(sequential.centerOfMass(view)), describe(parallel.centerOfMass(view)));
+        assertEquals(describe(corners), describe(parallel.cornerArray(view, 1, 2)));
+        assertArrayEquals(sequential.scaleImage(view, corners, 20, 30).toArray(),
+                parallel.scaleImage(view, corners, 20, 30).toArray());
+    }
+
+    @Test
+    void scalesArraysInThePool()
+    {
+        FlatImage pic = randomPicture();
+        ImageProcessor.Location[][] corners = sequential.cornerArray(pic, 1, 2);
+        ForkJoinPool unused = new ForkJoinPool(2);
+        try
+        {
+            // a small output, so only splitting the picture (not the output rows) can bring the pool in
+            int[][] scaled = new ParallelImageProcessor(unused, THRESHOLD).scaleImage(pic.toArray(), corners, 4, 4);
+            assertArrayEquals(sequential.scaleImage(pic.toArray(), corners, 4, 4), scaled);
+            assertTrue(unused.getPoolSize() > 0);
+        }
+        finally
+        {
+            unused.shutdown();
+        }
+    }
+
+    @Test
+    void refusesAZeroThreshold()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelImageProcessor(pool, 0));
+    }
+
+    /*
+     * Function: Returns a picture of pels from 0 to 4 with a blob of heavier ink somewhere in it
+     */
+    private FlatImage randomPicture()
+    {
+        int width = 40 + random.nextInt(80);
+        int height = 40 + random.nextInt(80);
+        FlatImage output = new FlatImage(width, height);
+        int top = random.nextInt(height / 2);
+        int left = random.nextInt(width / 2);
+
+        for (int i = 0; i < height; i++)
+        {
+            for (int j = 0; j < width; j++)
+            {
+                boolean inBlob = i >= top && i < top + height / 3 && j >= left && j < left + width / 3;
+                output.set(i, j, random.nextInt(inBlob ? 5 : 2));
+            }
+        }
+        return output;
+    }
+
+    private static String describe(ImageProcessor.Location location)
+    {
+        return location.getX() + "," + location.getY();
+    }
+
+    private static String describe(ImageProcessor.Location[][] corners)
+    {
+        StringBuilder output = new StringBuilder();
+        for (ImageProcessor.Location[] row : corners)
+        {
+            for (ImageProcessor.Location corner : row)
+            {
+                output.append(describe(corner)).append(' ');
+            }
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Description: Tests that Preprocessor gives exactly what the ImageProcessor steps give one after another (shift,
+ *              corners, scale, flatten, divide by MAX_PEL_VAL), for glyphs and views of every size, and that one
+ *              Preprocessor can be shared between threads or fed buffers by its caller.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class PreprocessorTest
+{
+    private static final int WIDTH = 8;                         // not square, so rows and columns can't be mixed up
+    private static final int HEIGHT = 10;
+    private static final int THRESHOLD = 2;                     // the center of mass is meant for pels of 0 to a few
+    private static final int MAX_INK = 4;
+
+    private final Random random = new Random(34);
+
+    @Test
+    void matchesTheImageProcessorSteps()
+    {
+        Preprocessor[] preps = new Preprocessor[4];
+        for (int numPix = 1; numPix < preps.length; numPix++)
+        {
+            preps[numPix] = new Preprocessor(WIDTH, HEIGHT, numPix, THRESHOLD);
+        }
+        for (int n = 0; n < 300; n++)
+        {
+            int numPix = 1 + random.nextInt(3);
+            Preprocessor prep = preps[numPix];                 // reused, so its buffers grow and shrink glyphs follow
+            FlatImage glyph = randomGlyph();
+
+            double[] features = new double[WIDTH * HEIGHT];
+            prep.process(glyph, features, 0);
+            assertArrayEquals(steps(glyph, numPix), features, "glyph " + n);
+        }
+    }
+
+    @Test
+    void readsViewsThroughTheirStride()
+    {
+        Preprocessor prep = new Preprocessor(WIDTH, HEIGHT, 1, THRESHOLD);
+        for (int n = 0; n < 50; n++)
+        {
+            FlatImage page = randomGlyph();
+            int top = random.nextInt(page.getHeight() / 2);
+            int left = random.nextInt(page.getWidth() / 2);
+            FlatImage view = page.subImage(top, left, page.getHeight() - top, page.getWidth() - left);
+
+            double[] fromView = new double[WIDTH * HEIGHT];
+            double[] fromCopy = new double[WIDTH * HEIGHT];
+            prep.process(view, fromView, 0);
+            prep.process(view.copy(), fromCopy, 0);
+            assertArrayEquals(fromCopy, fromView);
+        }
+    }
+
+    @Test
+    void blankGlyphsGiveZeros()
+    {
+        Preprocessor prep = new Preprocessor(WIDTH, HEIGHT, 1, THRESHOLD);
+        double[] features = new double[WIDTH * HEIGHT];
+        Arrays.fill(features, 5.0);
+
+        prep.process(new FlatImage(30, 20), features, 0);
+        assertArrayEquals(new double[WIDTH * HEIGHT], features);
+    }
+
+    @Test
+    void writesOnlyFromTheOffset()
+    {
+        Preprocessor prep = new Preprocessor(WIDTH, HEIGHT, 1, THRESHOLD);
+        FlatImage glyph = randomGlyph();
+        int size = prep.getInputSize();
+        assertEquals(WIDTH * HEIGHT, size);
+
+        double[] features = new double[size + 7];
+        Arrays.fill(features, -1.0);
+        prep.process(glyph, features, 3);
+
+        double[] alone = new double[size];
+        prep.process(glyph, alone, 0);
+        assertArrayEquals(new double[] {-1.0, -1.0, -1.0}, Arrays.copyOfRange(features, 0, 3));
+        assertArrayEquals(alone, Arrays.copyOfRange(features, 3, 3 + size));
+        assertArrayEquals(new double[] {-1.0, -1.0, -1.0, -1.0}, Arrays.copyOfRange(features, 3 + size, size + 7));
+    }
+
+    @Test
+    void refusesAZeroNumPixOrThreshold()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new Preprocessor(WIDTH, HEIGHT, 0, THRESHOLD));
+        assertThrows(IllegalArgumentException.class, () -> new Preprocessor(WIDTH, HEIGHT, 1, 0));
+    }
+
+    @Test
+    void canBeSharedBetweenThreads() throws Exception
+    {
+        final Preprocessor prep = new Preprocessor(WIDTH, HEIGHT, 2, THRESHOLD);
+        final List<FlatImage> glyphs = new ArrayList<FlatImage>();
+        final List<double[]> expected = new ArrayList<double[]>();
+        for (int n = 0; n < 200; n++)
+        {
+            glyphs.add(randomGlyph());                          // of many sizes, so the buffers keep growing
+            expected.add(steps(glyphs.get(n), 2));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++)
+            {
+                final int first = t;
+                results.add(pool.submit(() ->
+                {
+                    double[] features = new double[WIDTH * HEIGHT];
+                    for (int round = 0; round < 20; round++)
+                    {
+                        for (int n = first; n < glyphs.size(); n += 3)
+                        {
+                            prep.process(glyphs.get(n), features, 0);
+                            assertArrayEquals(expected.get(n), features);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results)
+            {
+                result.get();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void givenScratchGivesTheSameResult()
+    {
+        Preprocessor prep = new Preprocessor(WIDTH, HEIGHT, 2, THRESHOLD);
+        Preprocessor.Scratch[] scratches = {prep.newScratch(), prep.newScratch()};
+        for (int n = 0; n < 100; n++)
+        {
+            FlatImage glyph = randomGlyph();
+            double[] features = new double[WIDTH * HEIGHT];
+            prep.process(glyph, features, 0, scratches[n % 2]);
+            assertArrayEquals(steps(glyph, 2), features, "glyph " + n);
+        }
+
+        Preprocessor other = new Preprocessor(WIDTH, HEIGHT, 2, THRESHOLD);
+        assertThrows(IllegalArgumentException.class,
+                () -> prep.process(randomGlyph(), new double[WIDTH * HEIGHT], 0, other.newScratch()));
+    }
+
+    /*
+     * Function: Returns the network input the ImageProcessor steps give for the glyph
+     */
+    private static double[] steps(FlatImage raw, int numPix)
+    {
+        ImageProcessor processor = new ImageProcessor();
+        FlatImage shifted = processor.shiftImage(raw);
+        ImageProcessor.Location[][] corners = processor.cornerArray(shifted, numPix, THRESHOLD);
+        int[] flat = processor.flattenImage(processor.scaleImage(shifted, corners, WIDTH, HEIGHT));
+
+        double[] output = new double[flat.length];
+        for (int i = 0; i < flat.length; i++)
+        {
+            output[i] = (double)flat[i] / (double)BackPropPerceptron.MAX_PEL_VAL;
+        }
+        return output;
+    }
+
+    /*
+     * Function: Returns a glyph of a random size with a random blob of ink off center, some of it too faint to
+     *           count for the corners
+     */
+    private FlatImage randomGlyph()
+    {
+        int width = 12 + random.nextInt(30);
+        int height = 12 + random.nextInt(30);
+        FlatImage output = new FlatImage(width, height);
+
+        int top = random.nextInt(height - 4);
+        int left = random.nextInt(width - 4);
+        int bottom = top + 3 + random.nextInt(height - top - 3);
+        int right = left + 3 + random.nextInt(width - left - 3);
+        for (int i = top; i < bottom; i++)
+        {
+            for (int j = left; j < right; j++)
+            {
+                output.set(i, j, random.nextInt(MAX_INK + 1));
+            }
+        }
+        output.set(top, left, MAX_INK);                         // never blank
+        return output;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Description: Tests that RecognitionPipeline writes one row per good file with the model's own answer, reports the
+ *              bad files without stopping, and that a Stage neither runs ahead of a slow subscriber nor hides a
+ *              failure.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecognitionPipelineTest
+{
+    private static final int SIDE = 4;                          // the model takes 4x4 glyphs
+    private static final Duration TIME_LIMIT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(43);
+
+    @Test
+    void writesTheModelsAnswerForEveryFile() throws Exception
+    {
+        BackPropPerceptron network = randomNetwork();
+        List<String> files = writeBitmaps(150);
+
+        StringWriter out = new StringWriter();
+        RecognitionPipeline.CsvSink sink = assertTimeoutPreemptively(TIME_LIMIT,
+                () -> new RecognitionPipeline(network, null, 2, 3, 2, 4).run(files, out));
+
+        assertEquals(150, sink.getRecognized());
+        assertEquals(0, sink.getErrors());
+        assertEquals(expectedRows(network, null, files), rows(out));
+    }
+
+    @Test
+    void runsTheGlyphsThroughThePreprocessor() throws Exception
+    {
+        BackPropPerceptron network = randomNetwork();
+        Preprocessor prep = new Preprocessor(SIDE, SIDE, 1, 1);
+        List<String> files = writeBitmaps(40);
+
+        StringWriter out = new StringWriter();
+        assertTimeoutPreemptively(TIME_LIMIT, () -> new RecognitionPipeline(network, prep, 1, 2, 1, 8).run(files, out));
+        assertEquals(expectedRows(network, prep, files), rows(out));
+    }
+
+    @Test
+    void reportsBadFilesAndGoesOn() throws Exception
+    {
+        BackPropPerceptron network = randomNetwork();
+        List<String> files = writeBitmaps(20);
+        Path garbage = dir.resolve("garbage.bmp");
+        Files.write(garbage, "not a bitmap".getBytes("US-ASCII"));
+        String wide = TestBitmaps.save(dir, "wide.bmp", TestBitmaps.palettized(
+                TestBitmaps.randomIndices(random, SIDE + 1, SIDE, 256), 8, TestBitmaps.grayPalette(256), 0, false));
+
+        List<String> inputs = new ArrayList<String>(files);
+        inputs.add(5, garbage.toString());
+        inputs.add(wide);
+        inputs.add(dir.resolve("missing.bmp").toString());
+
+        StringWriter out = new StringWriter();
+        RecognitionPipeline.CsvSink sink = assertTimeoutPreemptively(TIME_LIMIT,
+                () -> new RecognitionPipeline(network, null, 2, 2, 2, 4).run(inputs, out));
+
+        assertEquals(20, sink.getRecognized());
+        assertEquals(3, sink.getErrors());
+        assertEquals(expectedRows(network, null, files), rows(out));
+    }
+
+    @Test
+    void stagesDoNotRunAheadOfASlowSubscriber() throws Exception
+    {
+        final int buffer = 8;
+        final int numItems = 1000;
+        final AtomicInteger applied = new AtomicInteger();
+        ExecutorService delivery = Executors.newCachedThreadPool();
+        try
+        {
+            final SubmissionPublisher<Integer> source = new SubmissionPublisher<Integer>(delivery, buffer);
+            RecognitionPipeline.Stage<Integer, Integer> stage = new RecognitionPipeline.Stage<Integer, Integer>(
+                    "test", new Function<Integer, Integer>()
+                    {
+                        public Integer apply(Integer item)
+                        {
+                            applied.incrementAndGet();
+                            return item;
+                        }
+                    }, 2, buffer, delivery);
+            Collector sink = new Collector(1);                  // asks for one item and then waits
+            source.subscribe(stage);
+            stage.subscribe(sink);
+
+            Thread producer = new Thread(() ->
+            {
+                for (int i = 0; i < numItems; i++)
+                {
+                    source.submit(i);                           // blocks while the stage is full
+                }
+                source.close();
+            });
+            producer.setDaemon(true);
+            producer.start();
+
+            Thread.sleep(500);
+            assertTrue(applied.get() <= 4 * buffer, applied.get() + " items applied for a subscriber that took 1");
+
+            sink.subscription.request(Long.MAX_VALUE);
+            assertTrue(sink.done.await(30, TimeUnit.SECONDS));
+            assertEquals(numItems, sink.items.size());
+            assertEquals(numItems, new HashSet<Integer>(sink.items).size());
+        }
+        finally
+        {
+            delivery.shutdownNow();
+        }
+    }
+
+    @Test
+    void stagesPassAFailureOn() throws Exception
+    {
+        ExecutorService delivery = Executors.newCachedThreadPool();
+        try
+        {
+            SubmissionPublisher<Integer> source = new SubmissionPublisher<Integer>(delivery, 4);
+            RecognitionPipeline.Stage<Integer, Integer> stage = new RecognitionPipeline.Stage<Integer, Integer>(
+                    "test", new Function<Integer, Integer>()
+                    {
+                        public Integer apply(Integer item)
+                        {
+                            if (item == 7) throw new IllegalStateException("item 7");
+                            return item;
+                        }
+                    }, 2, 4, delivery);
+            Collector sink = new Collector(Long.MAX_VALUE);
+            source.subscribe(stage);
+            stage.subscribe(sink);
+
+            for (int i = 0; i < 20 && !source.isClosed(); i++)
+            {
+                source.offer(i, 100, TimeUnit.MILLISECONDS, null);     // the stage may have cancelled by now
+            }
+            source.close();
+
+            assertTrue(sink.done.await(30, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, sink.failure);
+        }
+        finally
+        {
+            delivery.shutdownNow();
+        }
+    }
+
+    /*
+     * A subscriber that keeps what it is given
+     */
+    private static final class Collector implements Flow.Subscriber<Integer>
+    {
+        final List<Integer> items = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        volatile Throwable failure;
+
+        Collector(long request)
+        {
+            initialRequest = request;
+        }
+
+        public void onSubscribe(Flow.Subscription s)
+        {
+            subscription = s;
+            s.request(initialRequest);
+        }
+
+        public void onNext(Integer item)
+        {
+            items.add(item);
+        }
+
+        public void onError(Throwable throwable)
+        {
+            failure = throwable;
+            done.countDown();
+        }
+
+        public void onComplete()
+        {
+            done.countDown();
+        }
+    }
+
+    /*
+     * Function: Returns the rows the model's own answers give for the files, sorted, since the pipeline writes
+     *           them in the order they finish
+     */
+    private static List<String> expectedRows(BackPropPerceptron network, Preprocessor prep, List<String> files)
+            throws IOException
+    {
+        FeatureDecoder decoder = new FeatureDecoder();
+        List<String> output = new ArrayList<String>();
+        for (String file : files)
+        {
+            double[] features = new double[SIDE * SIDE];
+            if (prep != null)
+            {
+                prep.process(decoder.decodeImage(file), features, 0);
+            }
+            else
+            {
+                decoder.decode(file, features, 0);
+            }
+            double[] outputs = network.evaluate(features);
+            int best = Recognizer.argmax(outputs);
+            output.add(file + "," + (char)('A' + best) + "," + outputs[best]);
+        }
+        Collections.sort(output);
+        return output;
+    }
+
+    /*
+     * Function: Returns the rows written after the header, sorted
+     */
+    private static List<String> rows(StringWriter out)
+    {
+        List<String> lines = new ArrayList<String>(Arrays.asList(out.toString().split("\n")));
+        assertEquals(Recognizer.CSV_HEADER, lines.remove(0));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private List<String> writeBitmaps(int count) throws IOException
+    {
+        List<String> output = new ArrayList<String>();
+        for (int i = 0; i < count; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, SIDE, SIDE, 256);
+            output.add(TestBitmaps.save(dir, "glyph" + i + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, i % 2 == 0)));
+        }
+        return output;
+    }
+
+    private BackPropPerceptron randomNetwork()
+    {
+        double[][][] weights = {new double[SIDE * SIDE][10], new double[10][26]};
+        for (double[][] layer : weights)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return new BackPropPerceptron(weights);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Description: Tests RecognitionServer over real HTTP on a free loopback port: that it recognizes a posted BMP as
+ *              the model would, also with many clients at once, and that it answers bad requests with the right
+ *              status.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecognitionServerTest
+{
+    private static final int SIDE = 4;                          // the model takes 4x4 glyphs
+
+    private final Random random = new Random(42);
+    private BackPropPerceptron network;
+    private RecognitionServer server;
+
+    @BeforeEach
+    void start() throws IOException
+    {
+        double[][][] weights = {new double[SIDE * SIDE][10], new double[10][26]};
+        for (double[][] layer : weights)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        network = new BackPropPerceptron(weights);
+        server = new RecognitionServer(network, null, 0, 16, 1000000L);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException
+    {
+        server.stop(0);
+    }
+
+    @Test
+    void recognizesAPostedBitmap() throws IOException
+    {
+        for (int n = 0; n < 10; n++)
+        {
+            byte[] bmp = randomBitmap(random, SIDE);
+            Reply reply = request("POST", "/recognize", bmp);
+            assertEquals(200, reply.status);
+            assertEquals(expected(bmp), reply.body);
+        }
+    }
+
+    @Test
+    void servesManyClientsAtOnce() throws Exception
+    {
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try
+        {
+            List<Future<?>> done = new ArrayList<Future<?>>();
+            for (int t = 0; t < 16; t++)
+            {
+                final long seed = t;
+                done.add(clients.submit(() ->
+                {
+                    Random r = new Random(seed);
+                    for (int n = 0; n < 10; n++)
+                    {
+                        byte[] bmp = randomBitmap(r, SIDE);
+                        Reply reply = request("POST", "/recognize", bmp);
+                        assertEquals(200, reply.status);
+                        assertEquals(expected(bmp), reply.body);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : done)
+            {
+                client.get();
+            }
+        }
+        finally
+        {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void preprocessesGlyphsOfAnySize() throws Exception
+    {
+        Preprocessor prep = new Preprocessor(SIDE, SIDE, 1, 1);
+        RecognitionServer preprocessing = new RecognitionServer(network, prep, 0, 16, 1000000L);
+        preprocessing.start();
+        try
+        {
+            for (int n = 0; n < 20; n++)
+            {
+                byte[] bmp = randomBitmap(random, SIDE + n % 5);
+                double[] features = new double[SIDE * SIDE];
+                prep.process(new FeatureDecoder().decodeImage(bmp, bmp.length), features, 0);
+
+                Reply reply = request(preprocessing, "POST", "/recognize", bmp);
+                assertEquals(200, reply.status);
+                assertEquals(answer(network.evaluate(features)), reply.body);
+            }
+        }
+        finally
+        {
+            preprocessing.stop(0);
+        }
+    }
+
+    @Test
+    void answersHealthChecks() throws IOException
+    {
+        Reply reply = request("GET", "/health", null);
+        assertEquals(200, reply.status);
+        assertEquals("ok\n", reply.body);
+    }
+
+    @Test
+    void refusesBadRequests() throws IOException
+    {
+        assertEquals(405, request("GET", "/recognize", null).status);
+        assertEquals(400, request("POST", "/recognize", "not a bitmap".getBytes(StandardCharsets.UTF_8)).status);
+        assertEquals(400, request("POST", "/recognize", randomBitmap(random, SIDE + 1)).status);  // wrong size
+    }
+
+    @Test
+    void answersRequestsCaughtByAShutdownWithServiceUnavailable() throws Exception
+    {
+        RecognitionServer slow = new RecognitionServer(network, null, 0, 16, 60000000000L);   // batches wait 60 s
+        slow.start();
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try
+        {
+            byte[] bmp = randomBitmap(random, SIDE);
+            Future<Reply> reply = client.submit(() -> request(slow, "POST", "/recognize", bmp));
+            Thread.sleep(500);                                  // long enough for it to be waiting for its batch
+            slow.getBatcher().close();
+
+            assertEquals(503, reply.get().status);
+        }
+        finally
+        {
+            client.shutdown();
+            slow.stop(0);
+        }
+    }
+
+    /*
+     * Function: Returns the reply the model's own answer for the bitmap should give
+     */
+    private String expected(byte[] bmp) throws IOException
+    {
+        double[] features = new double[SIDE * SIDE];
+        new FeatureDecoder().decode(bmp, bmp.length, features, 0);
+        return answer(network.evaluate(features));
+    }
+
+    private static String answer(double[] outputs)
+    {
+        int best = Recognizer.argmax(outputs);
+        return "{\"letter\":\"" + (char)('A' + best) + "\",\"confidence\":" + outputs[best] + "}\n";
+    }
+
+    private static byte[] randomBitmap(Random random, int side)
+    {
+        return TestBitmaps.palettized(TestBitmaps.randomIndices(random, side, side, 256), 8,
+                TestBitmaps.grayPalette(256), 0, false);
+    }
+
+    private static final class Reply
+    {
+        final int status;
+        final String body;
+
+        Reply(int code, String text)
+        {
+            status = code;
+            body = text;
+        }
+    }
+
+    private Reply request(String method, String path, byte[] body) throws IOException
+    {
+        return request(server, method, path, body);
+    }
+
+    private static Reply request(RecognitionServer to, String method, String path, byte[] body) throws IOException
+    {
+        HttpURLConnection connection =
+                (HttpURLConnection)new URL("http://127.0.0.1:" + to.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        if (in != null)
+        {
+            in.transferTo(text);
+            in.close();
+        }
+        return new Reply(status, text.toString(StandardCharsets.UTF_8));
+    }
+}
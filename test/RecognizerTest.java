@@ -0,0 +1,171 @@
+/*
+ * Description: Tests that Recognizer writes one CSV row per file, in input order, with the answer the model gives
+ *              for that file, and that the weights files it loads read back exactly.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecognizerTest
+{
+    private static final int SIDE = 4;
+    private static final int NUM_INPUTS = SIDE * SIDE;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(41);
+
+    @Test
+    void writesTheModelsAnswerForEveryFileInOrder() throws IOException
+    {
+        BackPropPerceptron network = randomNetwork();
+        List<String> files = writeGlyphs(dir, 37, SIDE);
+
+        StringWriter out = new StringWriter();
+        Recognizer recognizer = new Recognizer(network, null, 3, 4);     // 37 is not a multiple of the batch
+        assertEquals(files.size(), recognizer.run(files, out));
+        assertEquals(0, recognizer.getErrors());
+
+        String[] rows = out.toString().split("\n");
+        assertEquals(Recognizer.CSV_HEADER, rows[0]);
+        assertEquals(files.size() + 1, rows.length);
+        FeatureDecoder decoder = new FeatureDecoder();
+        for (int i = 0; i < files.size(); i++)
+        {
+            double[] features = new double[NUM_INPUTS];
+            decoder.decode(files.get(i), features, 0);
+            double[] expected = network.evaluate(features);
+            int best = Recognizer.argmax(expected);
+
+            String[] fields = rows[i + 1].split(",");
+            assertEquals(files.get(i), fields[0]);
+            assertEquals(String.valueOf((char)('A' + best)), fields[1]);
+            assertEquals(expected[best], Double.parseDouble(fields[2]), 1e-12);
+        }
+    }
+
+    @Test
+    void readsDirectoriesAndLists() throws IOException
+    {
+        Path sub = Files.createDirectory(dir.resolve("glyphs"));
+        List<String> inDir = writeGlyphs(sub, 5, SIDE);
+        List<String> listed = writeGlyphs(dir, 6, SIDE);
+        Path list = dir.resolve("files.txt");
+        Files.write(list, listed);
+
+        StringWriter out = new StringWriter();
+        Recognizer recognizer = new Recognizer(randomNetwork(), null, 2, 2);
+        assertEquals(11, recognizer.run(Arrays.asList(sub.toString(), "@" + list), out));
+
+        List<String> named = new ArrayList<String>();
+        for (String row : out.toString().split("\n"))
+        {
+            named.add(row.substring(0, row.indexOf(',')));
+        }
+        assertEquals(12, named.size());
+        List<String> fromDir = new ArrayList<String>(named.subList(1, 6));
+        Collections.sort(fromDir);
+        Collections.sort(inDir);
+        assertEquals(inDir, fromDir);
+        assertEquals(listed, named.subList(6, 12));
+    }
+
+    @Test
+    void reportsFilesItCannotReadAndGoesOn() throws IOException
+    {
+        List<String> files = writeGlyphs(dir, 4, SIDE);
+        files.add(1, dir.resolve("missing.bmp").toString());
+        files.add(3, writeGlyphs(dir, 1, SIDE + 1).get(0));              // too many pels for the model
+
+        StringWriter out = new StringWriter();
+        Recognizer recognizer = new Recognizer(randomNetwork(), null, 2, 3);
+        assertEquals(4, recognizer.run(files, out));
+        assertEquals(2, recognizer.getErrors());
+        assertEquals(5, out.toString().split("\n").length);
+    }
+
+    @Test
+    void quotesFileNamesThatNeedIt()
+    {
+        StringBuilder row = new StringBuilder();
+        Recognizer.appendCsvField(row, "plain.bmp");
+        row.append(' ');
+        Recognizer.appendCsvField(row, "a,\"b\".bmp");
+
+        assertEquals("plain.bmp \"a,\"\"b\"\".bmp\"", row.toString());
+    }
+
+    @Test
+    void weightsReadBackExactly() throws IOException
+    {
+        double[][][] weights = randomNetwork().getWeights();
+        String file = dir.resolve("weights").toString();
+
+        BackPropPerceptron.writeWeights(weights, file);
+        double[][][] read = BackPropPerceptron.readWeights(file);
+
+        assertEquals(weights.length, read.length);
+        for (int i = 0; i < weights.length; i++)
+        {
+            for (int j = 0; j < weights[i].length; j++)
+            {
+                assertArrayEquals(weights[i][j], read[i][j]);
+            }
+        }
+
+        Files.write(Path.of(file), new byte[] {0, 0, 0, 0});
+        assertThrows(IOException.class, () -> BackPropPerceptron.readWeights(file));
+    }
+
+    @Test
+    void refusesAPreprocessorOfAnotherSize()
+    {
+        BackPropPerceptron network = randomNetwork();
+
+        assertThrows(IllegalArgumentException.class, () -> new Recognizer(network, new Preprocessor(5, 5, 1, 1), 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Recognizer(network, null, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Recognizer(network, null, 1, 0));
+    }
+
+    private BackPropPerceptron randomNetwork()
+    {
+        double[][][] weights = {new double[NUM_INPUTS][6], new double[6][4]};
+        for (double[][] layer : weights)
+        {
+            for (double[] row : layer)
+            {
+                for (int k = 0; k < row.length; k++)
+                {
+                    row[k] = random.nextDouble() * 2.0 - 1.0;
+                }
+            }
+        }
+        return new BackPropPerceptron(weights);
+    }
+
+    private List<String> writeGlyphs(Path where, int count, int side) throws IOException
+    {
+        List<String> output = new ArrayList<String>();
+        for (int i = 0; i < count; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, side, side, 256);
+            output.add(TestBitmaps.save(where, "glyph" + side + "_" + i + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false)));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Description: Tests that Resampler's tables give the grid lines computeDividers gives, that AREA scaling is the
+ *              grid average scaleImage makes, that BILINEAR behaves on pictures whose answer is known, and that the
+ *              cache counts, reuses and forgets tables as it should, also when threads share it.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class ResamplerTest
+{
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 29;
+
+    private final Random random = new Random(36);
+
+    @Test
+    void tablesGiveTheDividersOfComputeDividers()
+    {
+        Resampler resampler = new Resampler(Resampler.DEFAULT_CAPACITY);
+        for (int span = 0; span < 40; span++)
+        {
+            for (int count = 1; count < 20; count++)
+            {
+                int first = random.nextInt(10);
+                int[] expected = new int[count + 1];
+                int[] actual = new int[count + 1];
+
+                ImageProcessor.computeDividers(first, first + span, count, expected);
+                resampler.table(span, count).dividers(first, first + span, actual);
+                assertArrayEquals(expected, actual, "span " + span + ", count " + count);
+            }
+        }
+    }
+
+    @Test
+    void areaScalingAveragesEachGridElement()
+    {
+        Resampler resampler = new Resampler(4);                 // small, so tables keep being made again
+        for (int n = 0; n < 200; n++)
+        {
+            FlatImage pic = randomPicture();
+            IntegralImage table = new IntegralImage(pic);
+            ImageProcessor.Location[][] corners = randomCorners();
+            FlatImage output = new FlatImage(1 + random.nextInt(12), 1 + random.nextInt(12));
+
+            resampler.scale(table, corners, output);
+            assertArrayEquals(gridAverages(table, corners, output.getWidth(), output.getHeight()), output.toArray());
+
+            FlatImage again = new FlatImage(output.getWidth(), output.getHeight());
+            resampler.scale(pic, corners, again, Resampler.AREA);
+            assertArrayEquals(output.toArray(), again.toArray());
+        }
+    }
+
+    @Test
+    void bilinearAtTheSameSizeIsACopy()
+    {
+        FlatImage pic = randomPicture();
+        ImageProcessor.Location[][] corners = corners(3, 4, 3 + 19, 4 + 24);
+        FlatImage output = new FlatImage(25, 20);
+
+        new Resampler(Resampler.DEFAULT_CAPACITY).scale(pic, corners, output, Resampler.BILINEAR);
+        assertArrayEquals(pic.subImage(3, 4, 20, 25).toArray(), output.toArray());
+    }
+
+    @Test
+    void bilinearKeepsFlatPicturesFlatAndRampsInOrder()
+    {
+        FlatImage flat = new FlatImage(WIDTH, HEIGHT);
+        FlatImage ramp = new FlatImage(WIDTH, HEIGHT);
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                flat.set(i, j, 1234);
+                ramp.set(i, j, 100 * j);
+            }
+        }
+        Resampler resampler = new Resampler(Resampler.DEFAULT_CAPACITY);
+        ImageProcessor.Location[][] corners = corners(0, 0, HEIGHT - 1, WIDTH - 1);
+
+        for (int size = 1; size < 50; size += 7)
+        {
+            FlatImage output = new FlatImage(size, size);
+            resampler.scale(flat, corners, output, Resampler.BILINEAR);
+            for (int[] row : output.toArray())
+            {
+                for (int pel : row)
+                {
+                    assertEquals(1234, pel);
+                }
+            }
+
+            resampler.scale(ramp, corners, output, Resampler.BILINEAR);
+            for (int[] row : output.toArray())
+            {
+                for (int j = 1; j < size; j++)
+                {
+                    assertTrue(row[j - 1] <= row[j], "ramp scaled to " + size);
+                }
+                assertTrue(row[0] >= 0 && row[size - 1] <= 100 * (WIDTH - 1));
+            }
+        }
+    }
+
+    @Test
+    void cachesTablesAndForgetsTheLeastRecentlyUsed()
+    {
+        Resampler resampler = new Resampler(2);
+
+        Resampler.Table ten = resampler.table(10, 4);
+        assertSame(ten, resampler.table(10, 4));
+        assertSame(ten, resampler.table(-10, 4));               // corners may come in either order
+        assertEquals(2, resampler.getHits());
+        assertEquals(1, resampler.getMisses());
+
+        Resampler.Table eleven = resampler.table(11, 4);
+        resampler.table(10, 4);                                 // ten is now used more recently than eleven
+        resampler.table(12, 4);                                 // so eleven is the one to go
+        assertSame(ten, resampler.table(10, 4));
+        assertNotSame(eleven, resampler.table(11, 4));
+        assertEquals(4, resampler.getHits());
+        assertEquals(4, resampler.getMisses());
+    }
+
+    @Test
+    void keepsATableInUseThroughAStreamOfOneOffSizes()
+    {
+        Resampler resampler = new Resampler(3);
+        Resampler.Table ten = resampler.table(10, 4);
+
+        for (int span = 20; span < 60; span++)
+        {
+            resampler.table(span, 4);                           // each one is made and never asked for again
+            assertSame(ten, resampler.table(10, 4));
+        }
+        assertEquals(40, resampler.getHits());
+        assertEquals(41, resampler.getMisses());
+    }
+
+    @Test
+    void refusesAnEmptyCache()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new Resampler(0));
+    }
+
+    @Test
+    void canBeSharedBetweenThreads() throws Exception
+    {
+        final Resampler resampler = new Resampler(8);           // fewer than the sizes used, so tables are evicted
+        final int lookupsPerThread = 20000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++)
+            {
+                final long seed = t;
+                results.add(pool.submit(() ->
+                {
+                    Random r = new Random(seed);
+                    int[] expected = new int[33];
+                    int[] actual = new int[33];
+                    for (int n = 0; n < lookupsPerThread; n++)
+                    {
+                        int span = r.nextInt(16);
+                        int count = 1 + r.nextInt(32);
+                        ImageProcessor.computeDividers(5, 5 + span, count, expected);
+                        resampler.table(span, count).dividers(5, 5 + span, actual);
+                        assertArrayEquals(expected, actual);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results)
+            {
+                result.get();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        assertEquals(4L * lookupsPerThread, resampler.getHits() + resampler.getMisses());
+    }
+
+    /*
+     * Function: Returns the rounded average of every grid element, found with computeDividers the way scaleImage
+     *           finds them
+     */
+    private static int[][] gridAverages(IntegralImage pic, ImageProcessor.Location[][] corners, int width,
+            int height)
+    {
+        int[] hor = new int[width + 1];
+        int[] ver = new int[height + 1];
+        ImageProcessor.computeDividers(corners[0][0].getY(), corners[0][1].getY(), width, hor);
+        ImageProcessor.computeDividers(corners[0][0].getX(), corners[1][0].getX(), height, ver);
+
+        int[][] output = new int[height][width];
+        for (int j = 0; j < height; j++)
+        {
+            for (int i = 0; i < width; i++)
+            {
+                output[j][i] = pic.getAverage(ver[j], ver[j + 1], hor[i], hor[i + 1]);
+            }
+        }
+        return output;
+    }
+
+    private FlatImage randomPicture()
+    {
+        FlatImage output = new FlatImage(WIDTH, HEIGHT);
+        for (int i = 0; i < HEIGHT; i++)
+        {
+            for (int j = 0; j < WIDTH; j++)
+            {
+                output.set(i, j, random.nextInt(BackPropPerceptron.MAX_PEL_VAL + 1));
+            }
+        }
+        return output;
+    }
+
+    private ImageProcessor.Location[][] randomCorners()
+    {
+        int top = random.nextInt(HEIGHT);
+        int left = random.nextInt(WIDTH);
+        return corners(top, left, top + random.nextInt(HEIGHT - top), left + random.nextInt(WIDTH - left));
+    }
+
+    private static ImageProcessor.Location[][] corners(int top, int left, int bottom, int right)
+    {
+        ImageProcessor.Location[][] output = new ImageProcessor.Location[2][2];
+        output[0][0] = new ImageProcessor.Location(top, left);
+        output[0][1] = new ImageProcessor.Location(top, right);
+        output[1][0] = new ImageProcessor.Location(bottom, left);
+        output[1][1] = new ImageProcessor.Location(bottom, right);
+        return output;
+    }
+}
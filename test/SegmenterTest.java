@@ -0,0 +1,111 @@
+/*
+ * Description: Tests that Segmenter finds the same components however the page is cut into strips, in particular
+ *              that a letter lying across a cut comes out as one box.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SegmenterTest
+{
+    private static final int WIDTH = 48;
+    private static final int HEIGHT = 4 * Segmenter.MIN_STRIP_HEIGHT;    // room for 4 strips, cut at 64, 128, 192
+
+    @Test
+    void joinsAStrokeAcrossEveryCut()
+    {
+        BinaryImage page = new BinaryImage(WIDTH, HEIGHT);
+        for (int r = 50; r <= 200; r++)
+        {
+            page.set(r, 10, true);
+        }
+
+        List<Segmenter.Box> boxes = new Segmenter(1, 4).segment(page);
+        assertEquals(1, boxes.size());
+        assertEquals("(50, 10)-(200, 10)", boxes.get(0).toString());
+        assertEquals(151, boxes.get(0).getPixels());
+    }
+
+    @Test
+    void joinsPelsThatOnlyTouchAtACornerOfTheCut()
+    {
+        BinaryImage page = new BinaryImage(WIDTH, HEIGHT);
+        page.set(63, 20, true);                         // last row of the first strip
+        page.set(64, 21, true);                         // first row of the second
+
+        List<Segmenter.Box> boxes = new Segmenter(1, 4).segment(page);
+        assertEquals(1, boxes.size());
+        assertEquals("(63, 20)-(64, 21)", boxes.get(0).toString());
+    }
+
+    @Test
+    void joinsArmsThatOnlyMeetBelowTheCut()
+    {
+        // a U whose arms are apart in the first strip and joined at the bottom in the second
+        BinaryImage page = new BinaryImage(WIDTH, HEIGHT);
+        for (int r = 40; r <= 70; r++)
+        {
+            page.set(r, 30, true);
+            page.set(r, 34, true);
+        }
+        for (int c = 30; c <= 34; c++)
+        {
+            page.set(70, c, true);
+        }
+
+        List<Segmenter.Box> boxes = new Segmenter(1, 4).segment(page);
+        assertEquals(1, boxes.size());
+        assertEquals("(40, 30)-(70, 34)", boxes.get(0).toString());
+        assertEquals(31 + 31 + 3, boxes.get(0).getPixels());
+    }
+
+    @Test
+    void stripsDoNotChangeTheComponents()
+    {
+        Random random = new Random(38);
+        for (int n = 0; n < 20; n++)
+        {
+            BinaryImage page = new BinaryImage(WIDTH + n, HEIGHT + 7 * n);
+            for (int r = 0; r < page.getHeight(); r++)
+            {
+                for (int c = 0; c < page.getWidth(); c++)
+                {
+                    page.set(r, c, random.nextInt(100) < 30);
+                }
+            }
+
+            List<String> expected = describe(new Segmenter(1, 1).segment(page));
+            assertEquals(expected, describe(new Segmenter(1, 3).segment(page)));
+            assertEquals(expected, describe(new Segmenter(1, 4).segment(page)));
+        }
+    }
+
+    @Test
+    void dropsComponentsSmallerThanTheMinimum()
+    {
+        BinaryImage page = new BinaryImage(WIDTH, HEIGHT);
+        page.set(5, 5, true);
+        for (int c = 10; c < 14; c++)
+        {
+            page.set(5, c, true);
+        }
+
+        List<Segmenter.Box> boxes = new Segmenter(Segmenter.DEFAULT_MIN_PIXELS, 1).segment(page);
+        assertEquals(1, boxes.size());
+        assertEquals("(5, 10)-(5, 13)", boxes.get(0).toString());
+    }
+
+    private static List<String> describe(List<Segmenter.Box> boxes)
+    {
+        List<String> output = new ArrayList<String>();
+        for (Segmenter.Box box : boxes)
+        {
+            output.add(box + " " + box.getPixels());
+        }
+        return output;
+    }
+}
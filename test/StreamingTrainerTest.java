@@ -0,0 +1,235 @@
+/*
+ * Description: Tests that StreamingTrainer gives the perceptron every sample of every shard exactly once per epoch,
+ *              whatever the window, in an order that depends only on the seed, and that a bad shard or a failed
+ *              step is reported instead of hanging the trainer.
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StreamingTrainerTest
+{
+    private static final int SIDE = 4;                          // 4x4 bitmaps
+    private static final int NUM_FEATURES = SIDE * SIDE;
+    private static final int NUM_CLASSES = 26;
+    private static final Duration TIME_LIMIT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(30);
+    private final List<String> expected = new ArrayList<String>();    // every packed sample, as its features and label
+
+    @Test
+    void everySampleOnceAnEpochWhateverTheWindow() throws IOException, InterruptedException
+    {
+        String[] shards = {shard("a", 9, SIDE), shard("b", 1, SIDE), shard("c", 14, SIDE)};
+        Collections.sort(expected);
+
+        for (int window : new int[] {1, 3, 7, 24, 100})
+        {
+            RecordingPerceptron p = new RecordingPerceptron();
+            StreamingTrainer trainer = new StreamingTrainer(p, shards, window, 5L);
+            for (int epoch = 1; epoch <= 3; epoch++)
+            {
+                p.seen.clear();
+                double err = trainer.trainEpoch();
+
+                assertEquals(epoch, trainer.getEpoch());
+                assertEquals(p.errorSum, err);
+                List<String> seen = new ArrayList<String>(p.seen);
+                Collections.sort(seen);
+                assertEquals(expected, seen, "window " + window + ", epoch " + epoch);
+                p.errorSum = 0.0;
+            }
+        }
+    }
+
+    @Test
+    void theOrderDependsOnlyOnTheSeed() throws IOException, InterruptedException
+    {
+        String[] shards = {shard("a", 12, SIDE), shard("b", 12, SIDE)};
+
+        List<String> first = epochOrders(shards, 42L);
+        assertEquals(first, epochOrders(shards, 42L));
+        assertNotEquals(first, epochOrders(shards, 43L));
+        assertNotEquals(first.subList(0, 24), first.subList(24, 48));    // each epoch is shuffled anew
+    }
+
+    @Test
+    void trainsTheGivenNumberOfEpochs() throws IOException, InterruptedException
+    {
+        String[] shards = {shard("a", 10, SIDE)};
+        RecordingPerceptron p = new RecordingPerceptron();
+
+        StreamingTrainer trainer = new StreamingTrainer(p, shards, 4, 1L);
+        trainer.train(3);
+
+        assertEquals(3, trainer.getEpoch());
+        assertEquals(30, p.seen.size());
+    }
+
+    @Test
+    void refusesShardsThatDoNotFitThePerceptron() throws IOException
+    {
+        String[] shards = {shard("small", 5, SIDE - 1)};
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingTrainer(new RecordingPerceptron(), shards, 4, 1L));
+    }
+
+    @Test
+    void refusesAnEmptyWindowOrNoShards() throws IOException
+    {
+        String[] shards = {shard("a", 5, SIDE)};
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingTrainer(new RecordingPerceptron(), shards, 0, 1L));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingTrainer(new RecordingPerceptron(), new String[0], 4, 1L));
+    }
+
+    @Test
+    void keepsBothBlocksWhenAStepThrows() throws IOException
+    {
+        String[] shards = {shard("a", 10, SIDE)};
+        RecordingPerceptron p = new RecordingPerceptron();
+        StreamingTrainer trainer = new StreamingTrainer(p, shards, 16, 1L);    // one block an epoch, read ahead
+
+        assertTimeoutPreemptively(TIME_LIMIT, () ->
+        {
+            for (int epoch = 0; epoch < StreamingTrainer.NUM_BLOCKS; epoch++)
+            {
+                p.failures = 1;
+                assertThrows(IllegalStateException.class, () -> trainer.trainEpoch());
+            }
+            p.seen.clear();
+            trainer.trainEpoch();                               // would wait forever for a block nobody gave back
+            assertEquals(10, p.seen.size());
+        });
+    }
+
+    @Test
+    void reportsABadShardEveryEpochWithoutHanging() throws IOException
+    {
+        String[] shards = {shard("a", 10, SIDE), shard("small", 5, SIDE - 1)};
+        StreamingTrainer trainer = new StreamingTrainer(new RecordingPerceptron(), shards, 4, 1L);
+
+        assertTimeoutPreemptively(TIME_LIMIT, () ->
+        {
+            for (int epoch = 0; epoch < 3; epoch++)    // the blocks must all be back after each failure
+            {
+                assertThrows(IOException.class, () -> trainer.trainEpoch());
+            }
+        });
+    }
+
+    @Test
+    void reportsAMissingShard() throws IOException
+    {
+        String[] shards = {shard("a", 10, SIDE), dir.resolve("missing.lds").toString()};
+        StreamingTrainer trainer = new StreamingTrainer(new RecordingPerceptron(), shards, 4, 1L);
+
+        assertTimeoutPreemptively(TIME_LIMIT, () ->
+        {
+            assertThrows(IOException.class, () -> trainer.trainEpoch());
+        });
+    }
+
+    /*
+     * Function: Returns the order in which three epochs visit the samples
+     */
+    private static List<String> epochOrders(String[] shards, long seed) throws IOException, InterruptedException
+    {
+        RecordingPerceptron p = new RecordingPerceptron();
+        StreamingTrainer trainer = new StreamingTrainer(p, shards, 5, seed);
+        for (int epoch = 0; epoch < 3; epoch++)
+        {
+            trainer.trainEpoch();
+        }
+        return p.seen;
+    }
+
+    /*
+     * Parameters: the shard's name, its number of samples and the side of its bitmaps
+     * Function: Packs random bitmaps with random labels into a shard and remembers its samples
+     */
+    private String shard(String name, int numSamples, int side) throws IOException
+    {
+        String[] files = new String[numSamples];
+        int[] labels = new int[numSamples];
+        FeatureDecoder decoder = new FeatureDecoder();
+        for (int i = 0; i < numSamples; i++)
+        {
+            int[][] indices = TestBitmaps.randomIndices(random, side, side, 256);
+            files[i] = TestBitmaps.save(dir, name + i + ".bmp",
+                    TestBitmaps.palettized(indices, 8, TestBitmaps.grayPalette(256), 0, false));
+            labels[i] = random.nextInt(NUM_CLASSES);
+
+            double[] features = new double[side * side];
+            decoder.decode(files[i], features, 0);
+            expected.add(describe(features, labels[i]));
+        }
+        String output = dir.resolve(name + ".lds").toString();
+        DatasetPacker.pack(files, labels, output, PackedDataset.DTYPE_FLOAT64);
+        return output;
+    }
+
+    private static String describe(double[] input, int label)
+    {
+        return Arrays.toString(input) + " " + label;
+    }
+
+    /*
+     * A perceptron that notes every sample it is trained on
+     */
+    private static final class RecordingPerceptron extends BackPropPerceptron
+    {
+        final List<String> seen = new ArrayList<String>();
+        double errorSum;
+        int failures;                                           // the next steps to fail
+
+        RecordingPerceptron()
+        {
+            super(new double[][][] {new double[NUM_FEATURES][3], new double[3][NUM_CLASSES]});
+        }
+
+        @Override
+        public double updateWeights(double[] input, double[] target)
+        {
+            if (failures > 0)
+            {
+                failures--;
+                throw new IllegalStateException("step failed on purpose");
+            }
+            int label = -1;
+            for (int i = 0; i < target.length; i++)
+            {
+                if (target[i] == 1.0)
+                {
+                    assertEquals(-1, label, "one-hot target");
+                    label = i;
+                }
+                else
+                {
+                    assertEquals(0.0, target[i], "one-hot target");
+                }
+            }
+            seen.add(describe(input, label));
+            double err = super.updateWeights(input, target);
+            errorSum += err;
+            return err;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Description: Builds BMP files byte by byte for the tests, so that every kind of bitmap the decoders read (1, 4, 8
+ *              and 24-bit, RLE8 and RLE4, bottom up and top down) can be made without any image files in the tree.
+ *              Images are given as int[row][column] with the top row first, the same way BitmapProcessor returns
+ *              them; palettized images as color table indices and true color images as 0xRRGGBB.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+final class TestBitmaps
+{
+    private TestBitmaps()
+    {
+    }
+
+    /*
+     * Parameters: a random number generator, the image size and the number of colors
+     * Function: Returns an image of random color table indices
+     */
+    static int[][] randomIndices(Random random, int width, int height, int colors)
+    {
+        int[][] output = new int[height][width];
+        for (int i = 0; i < height; i++)
+        {
+            for (int j = 0; j < width; j++)
+            {
+                output[i][j] = random.nextInt(colors);
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: the number of colors
+     * Function: Returns a color table of grays from black to white
+     */
+    static int[] grayPalette(int colors)
+    {
+        int[] output = new int[colors];
+        for (int i = 0; i < colors; i++)
+        {
+            output[i] = gray(i * 255 / Math.max(1, colors - 1));
+        }
+        return output;
+    }
+
+    /*
+     * Parameters: a luminance from 0 to 255
+     * Function: Returns the gray of that luminance as 0xRRGGBB
+     */
+    static int gray(int lum)
+    {
+        return lum * 0x010101;
+    }
+
+    /*
+     * Parameters: a color as 0xRRGGBB
+     * Function: Returns the feature FeatureDecoder should give the color: (255 - luminance) / 255, with the luminance
+     *           weighted and rounded the way colorToGrayscale does it
+     */
+    static double feature(int rgb)
+    {
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = rgb & 0xFF;
+        long lum = Math.round(0.3 * (double)red + 0.589 * (double)green + 0.11 * (double)blue);
+        return (255 - lum) / 255.0;
+    }
+
+    /*
+     * Parameters: an image of color table indices, the bit count (1, 4 or 8), the color table, the biClrUsed to
+     *             store (0 for a full table) and whether to store the rows top row first
+     * Function: Returns an uncompressed palettized bitmap
+     */
+    static byte[] palettized(int[][] indices, int bitCount, int[] colors, int clrUsed, boolean topDown)
+    {
+        int width = indices[0].length;
+        int height = indices.length;
+        int bytesPerRow = ((width * bitCount + 31) / 32) * 4;
+        byte[] bits = new byte[bytesPerRow * height];
+
+        for (int k = 0; k < height; k++)                    // k counts the rows in file order
+        {
+            int[] row = indices[topDown ? k : height - 1 - k];
+            int pos = k * bytesPerRow;
+            for (int j = 0; j < width; j++)
+            {
+                int bit = j * bitCount;
+                int shift = 8 - bitCount - (bit & 7);
+                bits[pos + (bit >> 3)] |= (byte)(row[j] << shift);
+            }
+        }
+
+        return bitmap(width, topDown ? -height : height, bitCount, BitmapProcessor.BI_RGB, colors, clrUsed, bits);
+    }
+
+    /*
+     * Parameters: an image of 0xRRGGBB colors and whether to store the rows top row first
+     * Function: Returns an uncompressed 24-bit bitmap
+     */
+    static byte[] trueColor(int[][] image, boolean topDown)
+    {
+        int width = image[0].length;
+        int height = image.length;
+        int bytesPerRow = ((width * 24 + 31) / 32) * 4;
+        byte[] bits = new byte[bytesPerRow * height];
+
+        for (int k = 0; k < height; k++)
+        {
+            int[] row = image[topDown ? k : height - 1 - k];
+            int pos = k * bytesPerRow;
+            for (int j = 0; j < width; j++)
+            {
+                bits[pos++] = (byte)row[j];                 // blue
+                bits[pos++] = (byte)(row[j] >> 8);          // green
+                bits[pos++] = (byte)(row[j] >> 16);         // red
+            }
+        }
+
+        return bitmap(width, topDown ? -height : height, 24, BitmapProcessor.BI_RGB, null, 0, bits);
+    }
+
+    /*
+     * Parameters: an image of color table indices, the bit count (4 or 8) and the color table
+     * Function: Returns a BI_RLE8 or BI_RLE4 bitmap. Every other row is written as runs and the rest in absolute
+     *           mode, so both kinds of record are used.
+     */
+    static byte[] rle(int[][] indices, int bitCount, int[] colors)
+    {
+        int width = indices[0].length;
+        int height = indices.length;
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+
+        for (int k = 0; k < height; k++)                    // compressed bitmaps are always bottom up
+        {
+            int[] row = indices[height - 1 - k];
+            if ((k & 1) == 0)
+            {
+                writeRuns(bits, row, 0, width, bitCount);
+            }
+            else
+            {
+                writeAbsolute(bits, row, bitCount);
+            }
+
+            bits.write(0);
+            bits.write((k == height - 1) ? 1 : 0);          // end of bitmap after the last row, else end of line
+        }
+
+        int compression = (bitCount == 8) ? BitmapProcessor.BI_RLE8 : BitmapProcessor.BI_RLE4;
+        return bitmap(width, height, bitCount, compression, colors, 0, bits.toByteArray());
+    }
+
+    /*
+     * Function: Writes the pels [from, to) of a row as encoded runs
+     */
+    private static void writeRuns(ByteArrayOutputStream bits, int[] row, int from, int to, int bitCount)
+    {
+        int j = from;
+        while (j < to)
+        {
+            int count = 1;
+            while (j + count < to && count < 255 && row[j + count] == row[j])
+            {
+                count++;
+            }
+            bits.write(count);
+            bits.write((bitCount == 8) ? row[j] : (row[j] << 4) | row[j]);
+            j += count;
+        }
+    }
+
+    /*
+     * Function: Writes a row in absolute mode, in pieces of at most 255 pels. A piece of fewer than 3 pels can't be
+     *           written in absolute mode, so it is written as runs.
+     */
+    private static void writeAbsolute(ByteArrayOutputStream bits, int[] row, int bitCount)
+    {
+        for (int j = 0; j < row.length; j += 255)
+        {
+            int count = Math.min(255, row.length - j);
+            if (count < 3)
+            {
+                writeRuns(bits, row, j, j + count, bitCount);
+                continue;
+            }
+
+            bits.write(0);
+            bits.write(count);
+            int numBytes = 0;
+            for (int k = 0; k < count; k += (bitCount == 8) ? 1 : 2, numBytes++)
+            {
+                if (bitCount == 8)
+                {
+                    bits.write(row[j + k]);
+                }
+                else
+                {
+                    bits.write((row[j + k] << 4) | ((k + 1 < count) ? row[j + k + 1] : 0));
+                }
+            }
+            if ((numBytes & 1) == 1)
+            {
+                bits.write(0);                              // pad to a 2 byte boundary
+            }
+        }
+    }
+
+    /*
+     * Parameters: the biWidth, the biHeight (negative for top down), the bit count, the compression, the color
+     *             table (null for none), the biClrUsed and the bitmap bits
+     * Function: Returns the whole file: file header, info header, color table and bits
+     */
+    static byte[] bitmap(int width, int height, int bitCount, int compression, int[] colors, int clrUsed,
+            byte[] bits)
+    {
+        int numColors = (colors == null) ? 0 : ((clrUsed > 0) ? clrUsed : colors.length);
+        int offBits = 54 + 4 * numColors;
+        byte[] output = new byte[offBits + bits.length];
+
+        output[0] = 'B';
+        output[1] = 'M';
+        putInt(output, 2, output.length);
+        putInt(output, 10, offBits);
+        putInt(output, 14, 40);
+        putInt(output, 18, width);
+        putInt(output, 22, height);
+        putShort(output, 26, 1);
+        putShort(output, 28, bitCount);
+        putInt(output, 30, compression);
+        putInt(output, 34, bits.length);
+        putInt(output, 38, 2835);                           // 72 dpi
+        putInt(output, 42, 2835);
+        putInt(output, 46, clrUsed);
+
+        for (int i = 0; i < numColors; i++)
+        {
+            int pos = 54 + 4 * i;
+            output[pos] = (byte)colors[i];                  // blue
+            output[pos + 1] = (byte)(colors[i] >> 8);       // green
+            output[pos + 2] = (byte)(colors[i] >> 16);      // red
+        }
+        System.arraycopy(bits, 0, output, offBits, bits.length);
+        return output;
+    }
+
+    /*
+     * Parameters: a directory, a file name and the bytes of a bitmap
+     * Function: Writes the bitmap to the directory and returns its path as a string
+     */
+    static String save(Path dir, String name, byte[] bmp) throws IOException
+    {
+        Path file = dir.resolve(name);
+        Files.write(file, bmp);
+        return file.toString();
+    }
+
+    private static void putShort(byte[] b, int pos, int v)
+    {
+        b[pos] = (byte)v;
+        b[pos + 1] = (byte)(v >> 8);
+    }
+
+    private static void putInt(byte[] b, int pos, int v)
+    {
+        b[pos] = (byte)v;
+        b[pos + 1] = (byte)(v >> 8);
+        b[pos + 2] = (byte)(v >> 16);
+        b[pos + 3] = (byte)(v >> 24);
+    }
+}